@@ -0,0 +1,66 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Benchmarks;
+
+import YaraParser.TransitionBasedSystem.Configuration.BeamPreserver;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selecting the next beam out of all the candidates of one step: every item of the beam proposes shift, reduce and
+ * a right and a left arc for each label
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeamSelectionBenchmark {
+    @Param({"1", "8", "64"})
+    public int beamWidth;
+
+    /**
+     * About the number of labels in the Penn2Malt conversion
+     */
+    @Param({"12"})
+    public int labelCount;
+
+    private BeamPreserver beamPreserver;
+    private float[][] candidateScores;
+    private int step;
+
+    @Setup
+    public void setUp() {
+        beamPreserver = new BeamPreserver(beamWidth);
+        Random random = new Random(0);
+        candidateScores = new float[64][beamWidth * (2 + 2 * labelCount)];
+        for (float[] scores : candidateScores)
+            for (int i = 0; i < scores.length; i++)
+                scores[i] = (float) random.nextGaussian();
+    }
+
+    @Benchmark
+    public int selectBeam() {
+        float[] scores = candidateScores[step];
+        step = (step + 1) & 63;
+
+        beamPreserver.clear();
+        int candidate = 0;
+        for (int b = 0; b < beamWidth; b++) {
+            beamPreserver.add(scores[candidate++], b, 0, -1);
+            beamPreserver.add(scores[candidate++], b, 1, -1);
+            for (int dependency = 0; dependency < labelCount; dependency++)
+                beamPreserver.add(scores[candidate++], b, 2, dependency);
+            for (int dependency = 0; dependency < labelCount; dependency++)
+                beamPreserver.add(scores[candidate++], b, 3, dependency);
+        }
+        beamPreserver.sortDescending();
+        return beamPreserver.number(0);
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Benchmarks;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Parser.YaraParser;
+import YaraParser.Structures.InfStruct;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Parser.ArcEager;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Models and sentences shared by the benchmarks. The models are trained once on sample_data/train.conll (one
+ * iteration, beam 8) and kept in the temporary directory, so that every benchmark fork scores with the same weights.
+ * <p/>
+ * The sample data directory is looked up in the working directory and its parent, unless it is given with
+ * -Dyara.sampleData=[dir].
+ */
+public class BenchmarkData {
+    /**
+     * The feature template sets: 26 (basic), 72 (extended) and 153 (extended with brown cluster) templates
+     */
+    public static final String BASIC = "basic";
+    public static final String EXTENDED = "extended";
+    public static final String BROWN = "brown";
+
+    public static File sampleFile(String name) {
+        String dir = System.getProperty("yara.sampleData");
+        if (dir != null)
+            return new File(dir, name);
+        File file = new File("sample_data", name);
+        if (!file.exists())
+            file = new File(new File("..", "sample_data"), name);
+        if (!file.exists())
+            throw new IllegalStateException("cannot find sample_data; set it with -Dyara.sampleData=[dir]");
+        return file;
+    }
+
+    /**
+     * @param features one of {@link #BASIC}, {@link #EXTENDED} or {@link #BROWN}
+     */
+    public static synchronized InfStruct model(String features) throws Exception {
+        String modelPath = new File(System.getProperty("java.io.tmpdir"), "yara-benchmark-" + features).getPath();
+        File modelFile = new File(modelPath + "_iter1");
+        if (modelFile.exists()) {
+            try {
+                return new InfStruct(modelFile.getPath());
+            } catch (Exception e) {
+                // saved by another version of the parser
+                modelFile.delete();
+            }
+        }
+
+        ArrayList<String> args = new ArrayList<String>();
+        args.add("train");
+        args.add("-train-file");
+        args.add(sampleFile("train.conll").getPath());
+        args.add("-model");
+        args.add(modelPath);
+        args.add("iter:1");
+        args.add("beam:8");
+        args.add("nt:1");
+        if (features.equals(BASIC))
+            args.add("basic");
+        Options options = Options.processArgs(args.toArray(new String[args.size()]));
+        if (features.equals(BROWN))
+            options.useExtendedWithBrownClusterFeatures = true;
+        YaraParser.train(options);
+        return new InfStruct(modelFile.getPath());
+    }
+
+    public static ArrayList<GoldConfiguration> testSentences(InfStruct infStruct) throws Exception {
+        CoNLLReader reader = new CoNLLReader(sampleFile("test.conll").getPath());
+        return reader.readData(Integer.MAX_VALUE, true, infStruct.options.labeled, infStruct.options.rootFirst,
+                infStruct.options.lowercase, infStruct.maps);
+    }
+
+    /**
+     * Parses the sentences greedily and keeps every configuration on the way, to have the configurations that the
+     * parser actually sees
+     *
+     * @param nextActions gets the action taken from each configuration (0=shift, 1=reduce, 2=unshift,
+     *                    ra_dep=3+dep, la_dep=3+dependencyRelations.size()+dep)
+     */
+    public static ArrayList<Configuration> configurations(KBeamArcEagerParser parser, InfStruct infStruct,
+                                                          ArrayList<GoldConfiguration> sentences,
+                                                          ArrayList<Integer> nextActions) throws Exception {
+        boolean rootFirst = infStruct.options.rootFirst;
+        int labelCount = infStruct.dependencyLabels.size();
+        ArrayList<Configuration> configurations = new ArrayList<Configuration>();
+        for (GoldConfiguration goldConfiguration : sentences) {
+            Configuration bestParse = parser.parse(goldConfiguration.getSentence(), rootFirst, 1, 1);
+            Configuration configuration = new Configuration(goldConfiguration.getSentence(), rootFirst);
+            for (int action : bestParse.getActionHistory()) {
+                configurations.add(configuration.clone());
+                nextActions.add(action);
+                apply(configuration, action, labelCount);
+            }
+        }
+        return configurations;
+    }
+
+    public static void apply(Configuration configuration, int action, int labelCount) throws Exception {
+        if (action == 0)
+            ArcEager.shift(configuration.state);
+        else if (action == 1)
+            ArcEager.reduce(configuration.state);
+        else if (action == 2)
+            ArcEager.unShift(configuration.state);
+        else if (action < 3 + labelCount)
+            ArcEager.rightArc(configuration.state, action - 3);
+        else
+            ArcEager.leftArc(configuration.state, action - 3 - labelCount);
+        configuration.addAction(action);
+    }
+}
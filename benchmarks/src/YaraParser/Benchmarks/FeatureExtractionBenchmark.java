@@ -0,0 +1,77 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Benchmarks;
+
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.InfStruct;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feature extraction and scoring of one configuration, for the three feature template sets
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FeatureExtractionBenchmark {
+    @Param({BenchmarkData.BASIC, BenchmarkData.EXTENDED, BenchmarkData.BROWN})
+    public String features;
+
+    private AveragedPerceptron classifier;
+    private Configuration[] configurations;
+    private long[][] featureVectors;
+    private int featureLength;
+    private long[] featureBuffer;
+    private float[] scoreBuffer;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        InfStruct infStruct = BenchmarkData.model(features);
+        classifier = new AveragedPerceptron(infStruct);
+        featureLength = classifier.featureSize();
+        KBeamArcEagerParser parser = new KBeamArcEagerParser(classifier, infStruct.dependencyLabels, featureLength, infStruct.maps, 1);
+        ArrayList<Configuration> all = BenchmarkData.configurations(parser, infStruct, BenchmarkData.testSentences(infStruct), new ArrayList<Integer>());
+        parser.close();
+
+        configurations = all.toArray(new Configuration[all.size()]);
+        featureVectors = new long[configurations.length][];
+        for (int i = 0; i < configurations.length; i++)
+            featureVectors[i] = FeatureExtractor.extractAllParseFeatures(configurations[i], featureLength, new long[featureLength]);
+        featureBuffer = new long[featureLength];
+        scoreBuffer = new float[classifier.scoreLength()];
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (next + 1 == configurations.length) ? 0 : next + 1;
+        return index;
+    }
+
+    @Benchmark
+    public long[] extractFeatures() {
+        return FeatureExtractor.extractAllParseFeatures(configurations[nextIndex()], featureLength, featureBuffer);
+    }
+
+    @Benchmark
+    public float[] scoreAll() {
+        return classifier.scoreAll(featureVectors[nextIndex()], true, scoreBuffer);
+    }
+
+    @Benchmark
+    public float[] extractAndScore() {
+        long[] features = FeatureExtractor.extractAllParseFeatures(configurations[nextIndex()], featureLength, featureBuffer);
+        return classifier.scoreAll(features, true, scoreBuffer);
+    }
+}
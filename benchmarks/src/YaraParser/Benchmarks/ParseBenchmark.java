@@ -0,0 +1,93 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Benchmarks;
+
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.Sentence;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end parsing of sample_data/test.conll; the score is the time for the whole file. The file is parsed one
+ * sentence at a time, and in batches of batchSize sentences as the parse server does with batch:[size]. With
+ * -p threads=1,4 the beam of each sentence is also scored on several threads (batches are always on one thread).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+    @Param({"1", "8", "64"})
+    public int beamWidth;
+
+    @Param({BenchmarkData.EXTENDED})
+    public String features;
+
+    @Param({"16"})
+    public int batchSize;
+
+    @Param({"1"})
+    public int threads;
+
+    private KBeamArcEagerParser parser;
+    private Sentence[] sentences;
+    private boolean rootFirst;
+    private Sentence[][] batches;
+    private int[][] batchBeamWidths;
+
+    @Setup
+    public void setUp() throws Exception {
+        InfStruct infStruct = BenchmarkData.model(features);
+        AveragedPerceptron classifier = new AveragedPerceptron(infStruct);
+        parser = new KBeamArcEagerParser(classifier, infStruct.dependencyLabels, classifier.featureSize(), infStruct.maps, threads);
+        rootFirst = infStruct.options.rootFirst;
+
+        ArrayList<GoldConfiguration> data = BenchmarkData.testSentences(infStruct);
+        sentences = new Sentence[data.size()];
+        for (int i = 0; i < sentences.length; i++)
+            sentences[i] = data.get(i).getSentence();
+
+        batches = new Sentence[(sentences.length + batchSize - 1) / batchSize][];
+        batchBeamWidths = new int[batches.length][];
+        for (int b = 0; b < batches.length; b++) {
+            int size = Math.min(batchSize, sentences.length - b * batchSize);
+            batches[b] = new Sentence[size];
+            batchBeamWidths[b] = new int[size];
+            for (int i = 0; i < size; i++) {
+                batches[b][i] = sentences[b * batchSize + i];
+                batchBeamWidths[b][i] = beamWidth;
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        parser.close();
+    }
+
+    @Benchmark
+    public void parseTestFile(Blackhole blackhole) throws Exception {
+        for (Sentence sentence : sentences) {
+            Configuration bestParse = parser.parse(sentence, rootFirst, beamWidth, threads);
+            blackhole.consume(bestParse);
+        }
+    }
+
+    @Benchmark
+    public void parseTestFileInBatches(Blackhole blackhole) throws Exception {
+        for (int b = 0; b < batches.length; b++)
+            blackhole.consume(parser.parseBatch(batches[b], rootFirst, batchBeamWidths[b]));
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Benchmarks;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Trainer.ArcEagerBeamTrainer;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Training throughput over the trainer options: static or dynamic oracle, early or max-violation update, the three
+ * feature sets and the number of threads. Each configuration first trains once over the sentences to warm up the
+ * JIT, then a new model is trained over them once more and measured.
+ * <p/>
+ * Usage: java -cp target/benchmarks.jar YaraParser.Benchmarks.TrainingBenchmark sentences:[#] beam:[width] nt:[#,#,...]
+ * (defaults: sentences:1000 beam:8 nt:1,4)
+ * <p/>
+ * The allocation is estimated from the heap: what every collection freed plus the growth of the used heap. Add
+ * profiler agents to the command line (e.g. -agentpath for async-profiler, or -XX:+FlightRecorder) to see where the
+ * time goes for one configuration.
+ */
+public class TrainingBenchmark {
+    private static final AtomicLong collectedBytes = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int sentenceCount = 1000;
+        int beamWidth = 8;
+        int[] threadCounts = {1, 4};
+        for (String arg : args) {
+            if (arg.startsWith("sentences:"))
+                sentenceCount = Integer.parseInt(arg.substring(arg.indexOf(':') + 1));
+            else if (arg.startsWith("beam:"))
+                beamWidth = Integer.parseInt(arg.substring(arg.indexOf(':') + 1));
+            else if (arg.startsWith("nt:")) {
+                String[] counts = arg.substring(arg.indexOf(':') + 1).split(",");
+                threadCounts = new int[counts.length];
+                for (int i = 0; i < counts.length; i++)
+                    threadCounts[i] = Integer.parseInt(counts[i]);
+            }
+        }
+
+        Options defaults = new Options();
+        String trainFile = BenchmarkData.sampleFile("train.conll").getPath();
+        IndexMaps maps = CoNLLReader.createIndices(trainFile, defaults.labeled, defaults.lowercase, "");
+        ArrayList<GoldConfiguration> allData = new CoNLLReader(trainFile).readData(Integer.MAX_VALUE, false, defaults.labeled,
+                defaults.rootFirst, defaults.lowercase, maps);
+        ArrayList<GoldConfiguration> data = new ArrayList<GoldConfiguration>(sentenceCount);
+        for (int i = 0; i < sentenceCount; i++)
+            data.add(allData.get(i % allData.size()));
+        ArrayList<Integer> dependencyLabels = new ArrayList<Integer>();
+        for (int lab : maps.getLabels().keySet())
+            dependencyLabels.add(lab);
+
+        listenToCollections();
+
+        ArrayList<String> results = new ArrayList<String>();
+        results.add(String.format("%-8s %-14s %-9s %3s %10s %10s %12s %10s", "oracle", "update", "features", "nt",
+                "sen/sec", "seconds", "alloc MB/s", "GC ms"));
+        DecimalFormat format = new DecimalFormat("0.00");
+        for (boolean dynamicOracle : new boolean[]{false, true}) {
+            for (boolean maxViolation : new boolean[]{false, true}) {
+                for (String features : new String[]{BenchmarkData.BASIC, BenchmarkData.EXTENDED, BenchmarkData.BROWN}) {
+                    for (int threads : threadCounts) {
+                        Options options = new Options();
+                        options.beamWidth = beamWidth;
+                        options.numOfThreads = threads;
+                        options.useDynamicOracle = dynamicOracle;
+                        options.useMaxViol = maxViolation;
+                        options.useExtendedFeatures = !features.equals(BenchmarkData.BASIC);
+                        options.useExtendedWithBrownClusterFeatures = features.equals(BenchmarkData.BROWN);
+                        int featureLength = options.useExtendedWithBrownClusterFeatures ? 153 : (options.useExtendedFeatures ? 72 : 26);
+
+                        // warms up the JIT
+                        newTrainer(options, dependencyLabels, featureLength, maps).trainIteration(data, 1, options.partialTrainingStartingIteration);
+
+                        ArcEagerBeamTrainer trainer = newTrainer(options, dependencyLabels, featureLength, maps);
+                        System.gc();
+                        // the notification of the collection comes asynchronously
+                        Thread.sleep(200);
+                        long gcTime = collectionTime();
+                        long collected = collectedBytes.get();
+                        long used = usedHeap();
+                        long start = System.nanoTime();
+
+                        trainer.trainIteration(data, 1, options.partialTrainingStartingIteration);
+
+                        long end = System.nanoTime();
+                        long allocated = (collectedBytes.get() - collected) + (usedHeap() - used);
+                        gcTime = collectionTime() - gcTime;
+
+                        double seconds = (end - start) / 1e9;
+                        results.add(String.format("%-8s %-14s %-9s %3d %10s %10s %12s %10d",
+                                dynamicOracle ? "dynamic" : "static", maxViolation ? "max_violation" : "early", features, threads,
+                                format.format(data.size() / seconds), format.format(seconds),
+                                format.format(allocated / seconds / (1 << 20)), gcTime));
+                        System.out.println("\n" + results.get(results.size() - 1));
+                    }
+                }
+            }
+        }
+
+        System.out.println("\nsentences: " + data.size() + ", beam: " + beamWidth);
+        for (String result : results)
+            System.out.println(result);
+        System.exit(0);
+    }
+
+    private static ArcEagerBeamTrainer newTrainer(Options options, ArrayList<Integer> dependencyLabels, int featureLength, IndexMaps maps) {
+        return new ArcEagerBeamTrainer(options.useMaxViol ? "max_violation" : "early",
+                new AveragedPerceptron(featureLength, dependencyLabels.size()), options, dependencyLabels, featureLength, maps);
+    }
+
+    private static long collectionTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            time += Math.max(0, collector.getCollectionTime());
+        return time;
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Keeps the sum of what every collection freed
+     */
+    private static void listenToCollections() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(collector instanceof NotificationEmitter))
+                continue;
+            ((NotificationEmitter) collector).addNotificationListener(new NotificationListener() {
+                @Override
+                public void handleNotification(Notification notification, Object handback) {
+                    if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+                        return;
+                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    long freed = 0;
+                    Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+                    for (Map.Entry<String, MemoryUsage> before : info.getGcInfo().getMemoryUsageBeforeGc().entrySet())
+                        freed += before.getValue().getUsed() - after.get(before.getKey()).getUsed();
+                    if (freed > 0)
+                        collectedBytes.addAndGet(freed);
+                }
+            }, null, null);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Benchmarks;
+
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.InfStruct;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cloning the configurations and applying the arc-eager transitions, as done for every beam item that survives a step
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransitionBenchmark {
+    private Configuration[] configurations;
+    private int[] nextActions;
+    private int labelCount;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        InfStruct infStruct = BenchmarkData.model(BenchmarkData.EXTENDED);
+        AveragedPerceptron classifier = new AveragedPerceptron(infStruct);
+        KBeamArcEagerParser parser = new KBeamArcEagerParser(classifier, infStruct.dependencyLabels, classifier.featureSize(), infStruct.maps, 1);
+        ArrayList<Integer> actions = new ArrayList<Integer>();
+        ArrayList<Configuration> all = BenchmarkData.configurations(parser, infStruct, BenchmarkData.testSentences(infStruct), actions);
+        parser.close();
+
+        configurations = all.toArray(new Configuration[all.size()]);
+        nextActions = new int[actions.size()];
+        for (int i = 0; i < nextActions.length; i++)
+            nextActions[i] = actions.get(i);
+        labelCount = infStruct.dependencyLabels.size();
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (next + 1 == configurations.length) ? 0 : next + 1;
+        return index;
+    }
+
+    @Benchmark
+    public YaraParser.TransitionBasedSystem.Configuration.State cloneState() {
+        return configurations[nextIndex()].state.clone();
+    }
+
+    @Benchmark
+    public Configuration cloneConfiguration() {
+        return configurations[nextIndex()].clone();
+    }
+
+    /**
+     * Clones a configuration and applies the transition that the parser took from it
+     */
+    @Benchmark
+    public Configuration transition() throws Exception {
+        int index = nextIndex();
+        Configuration configuration = configurations[index].clone();
+        BenchmarkData.apply(configuration, nextActions[index], labelCount);
+        return configuration;
+    }
+}
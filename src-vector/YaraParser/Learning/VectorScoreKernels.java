@@ -0,0 +1,56 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Learning;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ScoreKernels} on the lanes of the widest float vectors of the CPU, with the plain loops for the labels
+ * that do not fill a vector. Built only by the vector profile; needs --add-modules jdk.incubator.vector at run time.
+ */
+public class VectorScoreKernels extends ScoreKernels {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    public void addRow(float[] row, int from, float[] scores, int base, int length) {
+        int d = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; d < bound; d += SPECIES.length()) {
+            FloatVector sum = FloatVector.fromArray(SPECIES, scores, base + d)
+                    .add(FloatVector.fromArray(SPECIES, row, from + d));
+            sum.intoArray(scores, base + d);
+        }
+        for (; d < length; d++)
+            scores[base + d] += row[from + d];
+    }
+
+    @Override
+    public int labelsAbove(float[] scores, int from, int length, float prevScore, float threshold, int[] labels) {
+        int count = 0;
+        int d = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; d < bound; d += SPECIES.length()) {
+            long above = FloatVector.fromArray(SPECIES, scores, from + d).add(prevScore)
+                    .compare(VectorOperators.GE, threshold).toLong();
+            // one bit per lane, lowest lane first, so the labels come out in increasing order
+            while (above != 0) {
+                labels[count++] = d + Long.numberOfTrailingZeros(above);
+                above &= above - 1;
+            }
+        }
+        for (; d < length; d++)
+            if (scores[from + d] + prevScore >= threshold)
+                labels[count++] = d;
+        return count;
+    }
+}
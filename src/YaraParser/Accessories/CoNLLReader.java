@@ -137,9 +137,40 @@ public class CoNLLReader {
      * @return
      */
     public ArrayList<GoldConfiguration> readData(int limit, boolean keepNonProjective, boolean labeled, boolean rootFirst, boolean lowerCased, IndexMaps maps) throws Exception {
-        HashMap<String, Integer> wordMap = maps.getWordMap();
         ArrayList<GoldConfiguration> configurationSet = new ArrayList<GoldConfiguration>();
 
+        int sentenceCounter = 0;
+        GoldConfiguration goldConfiguration;
+        while ((goldConfiguration = readNext(labeled, rootFirst, lowerCased, maps)) != null) {
+            sentenceCounter++;
+            if (keepNonProjective || !goldConfiguration.isNonprojective())
+                configurationSet.add(goldConfiguration);
+            if (sentenceCounter >= limit) {
+                System.out.println("buffer full..." + configurationSet.size());
+                break;
+            }
+        }
+
+        return configurationSet;
+    }
+
+    /**
+     * Reads the next sentence, for going through the file one sentence at a time
+     *
+     * @return the next sentence or null at the end of the file
+     */
+    public GoldConfiguration readNext(boolean labeled, boolean rootFirst, boolean lowerCased, IndexMaps maps) throws Exception {
+        return readNext(labeled, rootFirst, lowerCased, maps, null);
+    }
+
+    /**
+     * @param columns if not null, the columns of every token line of the sentence are added to it, so that the
+     *                output can be written without reading the file again
+     * @return the next sentence or null at the end of the file
+     */
+    public GoldConfiguration readNext(boolean labeled, boolean rootFirst, boolean lowerCased, IndexMaps maps, ArrayList<String[]> columns) throws Exception {
+        HashMap<String, Integer> wordMap = maps.getWordMap();
+
         String line;
         ArrayList<Integer> tokens = new ArrayList<Integer>();
         ArrayList<Integer> tags = new ArrayList<Integer>();
@@ -148,49 +179,17 @@ public class CoNLLReader {
         ArrayList<Integer> clusterIds = new ArrayList<Integer>();
 
         HashMap<Integer, Pair<Integer, Integer>> goldDependencies = new HashMap<Integer, Pair<Integer, Integer>>();
-        int sentenceCounter = 0;
         while ((line = fileReader.readLine()) != null) {
             line = line.trim();
             if (line.length() == 0) {
-                if (tokens.size() >= 1) {
-                    sentenceCounter++;
-                    if (!rootFirst) {
-                        for (int gold : goldDependencies.keySet()) {
-                            if (goldDependencies.get(gold).first.equals(0))
-                                goldDependencies.get(gold).setFirst(tokens.size() + 1);
-                        }
-                        tokens.add(0);
-                        tags.add(0);
-                        cluster4Ids.add(0);
-                        cluster6Ids.add(0);
-                        clusterIds.add(0);
-                    }
-                    Sentence currentSentence = new Sentence(tokens, tags, cluster4Ids, cluster6Ids, clusterIds);
-                    GoldConfiguration goldConfiguration = new GoldConfiguration(currentSentence, goldDependencies);
-                    if (keepNonProjective || !goldConfiguration.isNonprojective())
-                        configurationSet.add(goldConfiguration);
-                    goldDependencies = new HashMap<Integer, Pair<Integer, Integer>>();
-                    tokens = new ArrayList<Integer>();
-                    tags = new ArrayList<Integer>();
-                    cluster4Ids = new ArrayList<Integer>();
-                    cluster6Ids = new ArrayList<Integer>();
-                    clusterIds = new ArrayList<Integer>();
-                } else {
-                    goldDependencies = new HashMap<Integer, Pair<Integer, Integer>>();
-                    tokens = new ArrayList<Integer>();
-                    tags = new ArrayList<Integer>();
-                    cluster4Ids = new ArrayList<Integer>();
-                    cluster6Ids = new ArrayList<Integer>();
-                    clusterIds = new ArrayList<Integer>();
-                }
-                if (sentenceCounter >= limit) {
-                    System.out.println("buffer full..." + configurationSet.size());
+                if (tokens.size() >= 1)
                     break;
-                }
             } else {
                 String[] splitLine = line.split("\t");
                 if (splitLine.length < 8)
                     throw new Exception("wrong file format");
+                if (columns != null)
+                    columns.add(splitLine);
                 int wordIndex = Integer.parseInt(splitLine[0]);
                 String word = splitLine[1].trim();
                 if (lowerCased)
@@ -233,24 +232,22 @@ public class CoNLLReader {
                     goldDependencies.put(wordIndex, new Pair<Integer, Integer>(headIndex, ri));
             }
         }
-        if (tokens.size() > 0) {
-            if (!rootFirst) {
-                for (int gold : goldDependencies.keySet()) {
-                    if (goldDependencies.get(gold).first.equals(0))
-                        goldDependencies.get(gold).setFirst(goldDependencies.size() + 1);
-                }
-                tokens.add(0);
-                tags.add(0);
-                cluster4Ids.add(0);
-                cluster6Ids.add(0);
-                clusterIds.add(0);
+        if (tokens.size() == 0)
+            return null;
+
+        if (!rootFirst) {
+            for (int gold : goldDependencies.keySet()) {
+                if (goldDependencies.get(gold).first.equals(0))
+                    goldDependencies.get(gold).setFirst(tokens.size() + 1);
             }
-            sentenceCounter++;
-            Sentence currentSentence = new Sentence(tokens, tags, cluster4Ids, cluster6Ids, clusterIds);
-            configurationSet.add(new GoldConfiguration(currentSentence, goldDependencies));
+            tokens.add(0);
+            tags.add(0);
+            cluster4Ids.add(0);
+            cluster6Ids.add(0);
+            clusterIds.add(0);
         }
-
-        return configurationSet;
+        Sentence currentSentence = new Sentence(tokens, tags, cluster4Ids, cluster6Ids, clusterIds);
+        return new GoldConfiguration(currentSentence, goldDependencies);
     }
 
     public ArrayList<CompactTree> readStringData() throws Exception {
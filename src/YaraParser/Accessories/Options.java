@@ -12,6 +12,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 
 public class Options implements Serializable {
+    private static final long serialVersionUID = 279907630347159402L;
+
     public boolean train;
     public boolean parseTaggedFile;
     public boolean parseConllFile;
@@ -25,6 +27,33 @@ public class Options implements Serializable {
     public int trainingIter;
     public boolean evaluate;
     public boolean parsePartialConll;
+    public boolean convertModel;
+    public boolean pruneModel;
+    /**
+     * Weights with an absolute value up to this are dropped by prune_model
+     */
+    public float pruneThreshold;
+    /**
+     * The number of bits of the weights saved by prune_model (8 or 16), or 0 for floats
+     */
+    public int quantizationBits;
+    public boolean serve;
+    public String host;
+    public int port;
+    public int binaryPort;
+    public int queueSize;
+    public int drainSeconds;
+    public int batchSize;
+    public int batchWaitMicros;
+    public boolean virtualThreads;
+    public boolean memoryMapModel;
+    /**
+     * Score with the Vector API kernels of {@link YaraParser.Learning.ScoreKernels} if they are available
+     */
+    public boolean vectorScoring;
+    public boolean metrics;
+    public String metricsOutput;
+    public int metricsInterval;
     public String scorePath;
     public String clusterFile;
 
@@ -35,6 +64,21 @@ public class Options implements Serializable {
     public boolean useMaxViol;
     public boolean useDynamicOracle;
     public boolean useRandomOracleSelection;
+    public boolean hogwild;
+    /**
+     * The number of bits of the buckets of hashed features; 0 for no hashing
+     */
+    public int hashBits;
+    /**
+     * The number of local worker processes for iterative parameter mixing; 1 for training in this process
+     */
+    public int shards;
+    /**
+     * Set in the worker processes of iterative parameter mixing
+     */
+    public boolean trainShard;
+    public int shardIndex;
+    public int epoch;
     public String separator;
     public int numOfThreads;
 
@@ -65,11 +109,35 @@ public class Options implements Serializable {
         useMaxViol = true;
         useDynamicOracle = true;
         useRandomOracleSelection = false;
+        hogwild = false;
+        hashBits = 0;
+        shards = 1;
+        trainShard = false;
+        shardIndex = 0;
+        epoch = 1;
         trainingIter = 20;
         evaluate = false;
         numOfThreads = 8;
         useExtendedWithBrownClusterFeatures = false;
         parsePartialConll = false;
+        convertModel = false;
+        pruneModel = false;
+        pruneThreshold = 0f;
+        quantizationBits = 0;
+        serve = false;
+        host = "localhost";
+        port = 8080;
+        binaryPort = 8081;
+        queueSize = 256;
+        drainSeconds = 30;
+        batchSize = 1;
+        batchWaitMicros = 2000;
+        virtualThreads = false;
+        memoryMapModel = false;
+        vectorScoring = false;
+        metrics = false;
+        metricsOutput = "";
+        metricsInterval = 10;
 
         partialTrainingStartingIteration = 3;
 
@@ -132,13 +200,21 @@ public class Options implements Serializable {
         output.append("\t \t static (default: use dynamic oracles, unless explicitly put `static' for static oracles)\n");
         output.append("\t \t random (default: choose maximum scoring oracle, unless explicitly put `random' for randomly choosing an oracle)\n");
         output.append("\t \t nt:[#_of_threads] (default:8)\n");
+        output.append("\t \t hash:[#_of_bits] (default: off; hashes the features into 2^bits buckets with fixed-size weight arrays, bounding the model size)\n");
+        output.append("\t \t shards:[#_of_processes] (default:1; with more, each iteration trains on that many shards of the data in local worker processes of nt threads each and averages their weights)\n");
+        output.append("\t \t hogwild (default: one sentence at a time; with hogwild the nt threads train on different sentences at the same time, sharing the weights)\n");
         output.append("\t \t pt:[#partail_training_starting_iteration] (default:3; shows the starting iteration for considering partial trees)\n");
         output.append("\t \t root_first (default: put ROOT in the last position, unless explicitly put 'root_first')\n\n");
 
         output.append("* Parse a CoNLL'2006 file:\n");
         output.append("\tjava -jar YaraParser.jar parse_conll -input [test-file] -out [output-file] -model [model-file] nt:[#_of_threads (optional -- default:8)] \n");
         output.append("\t** The test file should have the conll 2006 format\n");
-        output.append("\t** Optional: -score [score file] averaged score of each output parse tree in a file\n\n");
+        output.append("\t** Optional: -score [score file] averaged score of each output parse tree in a file\n");
+        output.append("\t** Optional: mmap (memory-map the model weights read-only instead of loading them on heap)\n");
+        output.append("\t** Optional: vector (add the label weights with the Vector API; needs the vector build profile and java --add-modules jdk.incubator.vector)\n");
+        output.append("\t** Optional: metrics (latency, beam and thread pool metrics through JMX and logged to stderr every 10 seconds)\n");
+        output.append("\t** Optional: -metrics-out [csv-file] (write the metrics as CSV rows instead of logging them; implies metrics)\n");
+        output.append("\t** Optional: metrics-interval:[seconds] (default:10)\n\n");
 
         output.append("* Parse a tagged file:\n");
         output.append("\tjava -jar YaraParser.jar parse_tagged -input [test-file] -out [output-file]  -model [model-file] nt:[#_of_threads (optional -- default:8)] \n");
@@ -151,6 +227,26 @@ public class Options implements Serializable {
         output.append("\t** The test file should have the conll 2006 format; each word that does not have a parent, should have a -1 parent-index");
         output.append("\t** Optional: -score [score file] averaged score of each output parse tree in a file\n\n");
 
+        output.append("* Serve parse requests over HTTP/JSON and a binary protocol:\n");
+        output.append("\tjava -jar YaraParser.jar serve -model [model-file] nt:[#_of_threads (optional -- default:8)] \n");
+        output.append("\t** POST /parse {\"words\":[...],\"tags\":[...],\"beam\":[beam-width (optional)]} gives {\"heads\":[...],\"labels\":[...],\"score\":[score]}\n");
+        output.append("\t** Optional: -host [address] (default:localhost) -port [http-port] (default:8080) -binary-port [port] (default:8081); a port of 0 turns it off\n");
+        output.append("\t** Optional: queue:[#_of_waiting_sentences] (default:256; the requests are refused with 503 beyond that)\n");
+        output.append("\t** Optional: drain:[seconds] (default:30; how long to keep answering the taken requests after a shutdown signal)\n");
+        output.append("\t** Optional: batch:[#_of_sentences] (default:1) parses the sentences of concurrent requests together, in batches of at most this size\n");
+        output.append("\t** Optional: batch-wait:[microseconds] (default:2000) the longest a sentence waits for others to fill its batch\n");
+        output.append("\t** Optional: virtual_threads runs the connections on virtual threads (Java 21 and later; platform threads otherwise)\n");
+        output.append("\t** Optional: mmap, vector, metrics, -metrics-out [csv-file] and metrics-interval:[seconds] as in parse_conll\n\n");
+
+        output.append("* Convert a model saved by an older version to the binary model format:\n");
+        output.append("\tjava -jar YaraParser.jar convert_model -model [old-model-file] -out [new-model-file]\n\n");
+
+        output.append("* Prune and quantize a model:\n");
+        output.append("\tjava -jar YaraParser.jar prune_model -model [model-file] -out [new-model-file]\n");
+        output.append("\t** Optional: prune:[threshold] (default:0) drops the weights whose absolute value is at most the threshold, and the features left without weights\n");
+        output.append("\t** Optional: quantize:[8 or 16] (default: off) saves the weights as 8-bit or 16-bit integers with a scale per feature slot\n");
+        output.append("\t** Optional: -dev [dev-file] -punc [punc-file] nt:[#_of_threads] parses the dev file with both models and prints their accuracy\n\n");
+
         output.append("* Evaluate a Conll file:\n");
         output.append("\tjava -jar YaraParser.jar eval -gold [gold-file] -parse [parsed-file]  -punc [punc-file]\n");
         output.append("\t** [punc-file]: File contains list of pos tags for punctuations in the treebank, each in one line\n");
@@ -170,10 +266,34 @@ public class Options implements Serializable {
                 options.parseConllFile = true;
             else if (args[i].equals("parse_partial"))
                 options.parsePartialConll = true;
+            else if (args[i].equals("convert_model"))
+                options.convertModel = true;
+            else if (args[i].equals("prune_model"))
+                options.pruneModel = true;
+            else if (args[i].startsWith("prune:"))
+                options.pruneThreshold = Float.parseFloat(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].startsWith("quantize:"))
+                options.quantizationBits = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
             else if (args[i].equals("eval"))
                 options.evaluate = true;
             else if (args[i].equals("parse_tagged"))
                 options.parseTaggedFile = true;
+            else if (args[i].equals("serve"))
+                options.serve = true;
+            else if (args[i].equals("-host"))
+                options.host = args[i + 1];
+            else if (args[i].equals("-port"))
+                options.port = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("-binary-port"))
+                options.binaryPort = Integer.parseInt(args[i + 1]);
+            else if (args[i].startsWith("queue:"))
+                options.queueSize = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].startsWith("drain:"))
+                options.drainSeconds = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].startsWith("batch:"))
+                options.batchSize = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].startsWith("batch-wait:"))
+                options.batchWaitMicros = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
             else if (args[i].equals("-train-file") || args[i].equals("-input"))
                 options.inputFile = args[i + 1];
             else if (args[i].equals("-punc"))
@@ -213,13 +333,38 @@ public class Options implements Serializable {
                 options.useDynamicOracle = false;
             else if (args[i].equals("random"))
                 options.useRandomOracleSelection = true;
+            else if (args[i].equals("hogwild"))
+                options.hogwild = true;
+            else if (args[i].startsWith("hash:"))
+                options.hashBits = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].startsWith("shards:"))
+                options.shards = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].equals("train_shard"))
+                options.trainShard = true;
+            else if (args[i].startsWith("shard:"))
+                options.shardIndex = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].startsWith("epoch:"))
+                options.epoch = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
+            else if (args[i].equals("virtual_threads"))
+                options.virtualThreads = true;
+            else if (args[i].equals("mmap"))
+                options.memoryMapModel = true;
+            else if (args[i].equals("vector"))
+                options.vectorScoring = true;
+            else if (args[i].equals("metrics"))
+                options.metrics = true;
+            else if (args[i].equals("-metrics-out")) {
+                options.metricsOutput = args[i + 1];
+                options.metrics = true;
+            } else if (args[i].startsWith("metrics-interval:"))
+                options.metricsInterval = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
             else if (args[i].equals("root_first"))
                 options.rootFirst = true;
             else if (args[i].startsWith("iter:"))
                 options.trainingIter = Integer.parseInt(args[i].substring(args[i].lastIndexOf(":") + 1));
         }
 
-        if (options.train || options.parseTaggedFile || options.parseConllFile)
+        if (options.train || options.trainShard || options.parseTaggedFile || options.parseConllFile || options.convertModel || options.pruneModel || options.serve)
             options.showHelp = false;
 
         return options;
@@ -355,9 +500,20 @@ public class Options implements Serializable {
                 builder.append("oracle selection: " + (!useRandomOracleSelection ? "latent max" : "random") + "\n");
 
             builder.append("training-iterations: " + trainingIter + "\n");
-            builder.append("number of threads: " + numOfThreads + "\n");
+            builder.append("number of threads: " + numOfThreads + (hogwild ? " (hogwild)" : "") + "\n");
+            if (hashBits > 0)
+                builder.append("hashed features: " + hashBits + " bits\n");
+            if (shards > 1)
+                builder.append("parameter mixing over " + shards + " local processes\n");
             builder.append("partial training starting iteration: " + partialTrainingStartingIteration + "\n");
             return builder.toString();
+        } else if (trainShard) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("train shard " + shardIndex + " of " + shards + " for iteration " + epoch + "\n");
+            builder.append("train file: " + inputFile + "\n");
+            builder.append("weights: " + modelFile + "\n");
+            builder.append("number of threads: " + numOfThreads + (hogwild ? " (hogwild)" : "") + "\n");
+            return builder.toString();
         } else if (parseConllFile) {
             StringBuilder builder = new StringBuilder();
             builder.append("parse conll" + "\n");
@@ -366,6 +522,8 @@ public class Options implements Serializable {
             builder.append("model file: " + modelFile + "\n");
             builder.append("score file: " + scorePath + "\n");
             builder.append("number of threads: " + numOfThreads + "\n");
+            if (metrics)
+                builder.append("metrics: " + (metricsOutput.length() > 0 ? metricsOutput : "stderr") + " every " + metricsInterval + " seconds\n");
             return builder.toString();
         } else if (parseTaggedFile) {
             StringBuilder builder = new StringBuilder();
@@ -375,6 +533,8 @@ public class Options implements Serializable {
             builder.append("model file: " + modelFile + "\n");
             builder.append("score file: " + scorePath + "\n");
             builder.append("number of threads: " + numOfThreads + "\n");
+            if (metrics)
+                builder.append("metrics: " + (metricsOutput.length() > 0 ? metricsOutput : "stderr") + " every " + metricsInterval + " seconds\n");
             return builder.toString();
         } else if (parsePartialConll) {
             StringBuilder builder = new StringBuilder();
@@ -385,6 +545,39 @@ public class Options implements Serializable {
             builder.append("model file: " + modelFile + "\n");
             builder.append("labeled: " + labeled + "\n");
             builder.append("number of threads: " + numOfThreads + "\n");
+            if (metrics)
+                builder.append("metrics: " + (metricsOutput.length() > 0 ? metricsOutput : "stderr") + " every " + metricsInterval + " seconds\n");
+            return builder.toString();
+        } else if (serve) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("serve" + "\n");
+            builder.append("model file: " + modelFile + "\n");
+            builder.append("http: " + (port > 0 ? host + ":" + port : "off") + "\n");
+            builder.append("binary: " + (binaryPort > 0 ? host + ":" + binaryPort : "off") + "\n");
+            builder.append("number of threads: " + numOfThreads + "\n");
+            builder.append("queue size: " + queueSize + "\n");
+            if (batchSize > 1)
+                builder.append("batches: at most " + batchSize + " sentences, waiting at most " + batchWaitMicros + " us\n");
+            if (virtualThreads)
+                builder.append("connections on virtual threads\n");
+            if (metrics)
+                builder.append("metrics: " + (metricsOutput.length() > 0 ? metricsOutput : "stderr") + " every " + metricsInterval + " seconds\n");
+            return builder.toString();
+        } else if (convertModel) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("convert model" + "\n");
+            builder.append("model file: " + modelFile + "\n");
+            builder.append("output file: " + outputFile + "\n");
+            return builder.toString();
+        } else if (pruneModel) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("prune model" + "\n");
+            builder.append("model file: " + modelFile + "\n");
+            builder.append("output file: " + outputFile + "\n");
+            builder.append("threshold: " + pruneThreshold + "\n");
+            builder.append("quantization: " + (quantizationBits > 0 ? quantizationBits + " bits" : "off") + "\n");
+            if (!devPath.equals(""))
+                builder.append("dev file: " + devPath + "\n");
             return builder.toString();
         } else if (evaluate) {
             StringBuilder builder = new StringBuilder();
@@ -409,6 +602,12 @@ public class Options implements Serializable {
         options.inputFile = inputFile;
         options.lowercase = lowercase;
         options.numOfThreads = numOfThreads;
+        options.hogwild = hogwild;
+        options.hashBits = hashBits;
+        options.shards = shards;
+        options.trainShard = trainShard;
+        options.shardIndex = shardIndex;
+        options.epoch = epoch;
         options.outputFile = outputFile;
         options.useDynamicOracle = useDynamicOracle;
         options.modelFile = modelFile;
@@ -420,6 +619,24 @@ public class Options implements Serializable {
         options.separator = separator;
         options.useExtendedFeatures = useExtendedFeatures;
         options.parsePartialConll = parsePartialConll;
+        options.convertModel = convertModel;
+        options.pruneModel = pruneModel;
+        options.pruneThreshold = pruneThreshold;
+        options.quantizationBits = quantizationBits;
+        options.memoryMapModel = memoryMapModel;
+        options.vectorScoring = vectorScoring;
+        options.serve = serve;
+        options.host = host;
+        options.port = port;
+        options.binaryPort = binaryPort;
+        options.queueSize = queueSize;
+        options.drainSeconds = drainSeconds;
+        options.batchSize = batchSize;
+        options.batchWaitMicros = batchWaitMicros;
+        options.virtualThreads = virtualThreads;
+        options.metrics = metrics;
+        options.metricsOutput = metricsOutput;
+        options.metricsInterval = metricsInterval;
         options.partialTrainingStartingIteration = partialTrainingStartingIteration;
         return options;
     }
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Accessories;
+
+import YaraParser.Metrics.ParserMetrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The thread pools of the parsers. Parsing is CPU-bound, so all the parsers of a JVM can share one pool with a thread
+ * per core ({@link #sharedPool()}) instead of each having its own: hosting several models then does not multiply the
+ * threads. Waiting on sockets is not CPU-bound, and a server can use a virtual thread per connection instead
+ * ({@link #newVirtualThreadExecutor()}), on Java versions that have them.
+ */
+public class ParseExecutors {
+    private static ExecutorService sharedPool;
+
+    /**
+     * @return a pool of daemon threads, one per available processor, for all the parsers of the JVM; it is never
+     * shut down, and the parsers using it must not shut it down either
+     */
+    public static synchronized ExecutorService sharedPool() {
+        if (sharedPool == null) {
+            sharedPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    daemonThreads("yara-shared"));
+            ParserMetrics.get().monitor(sharedPool);
+        }
+        return sharedPool;
+    }
+
+    /**
+     * @return an executor that starts a virtual thread for each task, or null if this Java version has no virtual
+     * threads (they came in Java 21)
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a factory of daemon threads named prefix-1, prefix-2, ...
+     */
+    public static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
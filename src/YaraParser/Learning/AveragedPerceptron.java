@@ -5,12 +5,20 @@
 
 package YaraParser.Learning;
 
+import YaraParser.Metrics.ParserMetrics;
+import YaraParser.Structures.ActionWeightMap;
 import YaraParser.Structures.CompactArray;
+import YaraParser.Structures.FrozenModel;
+import YaraParser.Structures.FrozenWeightTable;
+import YaraParser.Structures.HashedWeightTable;
+import YaraParser.Structures.HashedWeights;
 import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.KeyedWeightTable;
+import YaraParser.Structures.TrainableWeightTable;
+import YaraParser.Structures.WeightTable;
+import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
 import YaraParser.TransitionBasedSystem.Parser.Actions;
 
-import java.util.HashMap;
-
 public class AveragedPerceptron {
     /**
      * This class tries to implement averaged Perceptron algorithm
@@ -24,115 +32,117 @@ public class AveragedPerceptron {
      * http://www.umiacs.umd.edu/~hal/docs/daume06thesis.pdf
      */
     /**
-     * For the weights for all features
+     * For the weights for all features; one table per feature slot holding the weights of all the actions
      */
-    public HashMap<Object, Float>[] shiftFeatureWeights;
-    public HashMap<Object, Float>[] reduceFeatureWeights;
-    public HashMap<Object, CompactArray>[] leftArcFeatureWeights;
-    public HashMap<Object, CompactArray>[] rightArcFeatureWeights;
+    public TrainableWeightTable[] featureWeights;
 
     public int iteration;
     public int dependencySize;
     /**
      * This is the main part of the extension to the original perceptron algorithm which the averaging over all the history
      */
-    public HashMap<Object, Float>[] shiftFeatureAveragedWeights;
-    public HashMap<Object, Float>[] reduceFeatureAveragedWeights;
-    public HashMap<Object, CompactArray>[] leftArcFeatureAveragedWeights;
-    public HashMap<Object, CompactArray>[] rightArcFeatureAveragedWeights;
+    public TrainableWeightTable[] averagedFeatureWeights;
 
+    /**
+     * The weights used for decoding: the averaged weights while training, or the weights of a loaded model which
+     * may be frozen or memory-mapped
+     */
+    private WeightTable[] decodeWeights;
+    /**
+     * The model behind decodeWeights if it is a loaded model that was frozen; scored without going through the tables
+     */
+    private FrozenModel frozenModel;
 
     public AveragedPerceptron(int featSize, int dependencySize) {
-        shiftFeatureWeights = new HashMap[featSize];
-        reduceFeatureWeights = new HashMap[featSize];
-        leftArcFeatureWeights = new HashMap[featSize];
-        rightArcFeatureWeights = new HashMap[featSize];
-
-        shiftFeatureAveragedWeights = new HashMap[featSize];
-        reduceFeatureAveragedWeights = new HashMap[featSize];
-        leftArcFeatureAveragedWeights = new HashMap[featSize];
-        rightArcFeatureAveragedWeights = new HashMap[featSize];
+        featureWeights = new ActionWeightMap[featSize];
+        averagedFeatureWeights = new ActionWeightMap[featSize];
         for (int i = 0; i < featSize; i++) {
-            shiftFeatureWeights[i] = new HashMap<Object, Float>();
-            reduceFeatureWeights[i] = new HashMap<Object, Float>();
-            leftArcFeatureWeights[i] = new HashMap<Object, CompactArray>();
-            rightArcFeatureWeights[i] = new HashMap<Object, CompactArray>();
-
-
-            shiftFeatureAveragedWeights[i] = new HashMap<Object, Float>();
-            reduceFeatureAveragedWeights[i] = new HashMap<Object, Float>();
-            leftArcFeatureAveragedWeights[i] = new HashMap<Object, CompactArray>();
-            rightArcFeatureAveragedWeights[i] = new HashMap<Object, CompactArray>();
+            featureWeights[i] = new ActionWeightMap(16, dependencySize);
+            averagedFeatureWeights[i] = new ActionWeightMap(16, dependencySize);
         }
 
+        decodeWeights = averagedFeatureWeights;
         iteration = 1;
         this.dependencySize = dependencySize;
     }
 
-    private AveragedPerceptron(HashMap<Object, Float>[] shiftFeatureAveragedWeights, HashMap<Object, Float>[] reduceFeatureAveragedWeights,
-                               HashMap<Object, CompactArray>[] leftArcFeatureAveragedWeights, HashMap<Object, CompactArray>[] rightArcFeatureAveragedWeights,
-                               int dependencySize) {
-        this.shiftFeatureAveragedWeights = shiftFeatureAveragedWeights;
-        this.reduceFeatureAveragedWeights = reduceFeatureAveragedWeights;
-        this.leftArcFeatureAveragedWeights = leftArcFeatureAveragedWeights;
-        this.rightArcFeatureAveragedWeights = rightArcFeatureAveragedWeights;
+    /**
+     * @param hashBits 0 for a table entry per feature, or the number of bits of the buckets of hashed features
+     *                 (see {@link HashedWeights})
+     */
+    public AveragedPerceptron(int featSize, int dependencySize, int hashBits) {
+        this(featSize, dependencySize);
+        if (hashBits > 0) {
+            featureWeights = new HashedWeights(hashBits, dependencySize).tables(featSize);
+            averagedFeatureWeights = new HashedWeights(hashBits, dependencySize).tables(featSize);
+            decodeWeights = averagedFeatureWeights;
+        }
+    }
+
+    private AveragedPerceptron(WeightTable[] decodeWeights, int dependencySize) {
+        this.decodeWeights = decodeWeights;
         this.dependencySize = dependencySize;
+        if (decodeWeights.length > 0 && decodeWeights[0] instanceof FrozenWeightTable)
+            frozenModel = ((FrozenWeightTable) decodeWeights[0]).frozenModel();
     }
 
     public AveragedPerceptron(InfStruct infStruct) {
-        this(infStruct.shiftFeatureAveragedWeights, infStruct.reduceFeatureAveragedWeights, infStruct.leftArcFeatureAveragedWeights, infStruct.rightArcFeatureAveragedWeights, infStruct.dependencySize);
+        this(infStruct.averagedFeatureWeights, infStruct.dependencySize);
     }
 
-    public float changeWeight(Actions actionType, int slotNum, Object featureName, int labelIndex, float change) {
-        if (featureName == null)
-            return 0;
+    public float changeWeight(Actions actionType, int slotNum, long featureName, int labelIndex, float change) {
+        return changeWeight(actionType, slotNum, featureName, labelIndex, change, iteration);
+    }
+
+    /**
+     * @param timestamp the number of the training sample (counting from 1 over all the iterations) that made the
+     *                  change; the averaged weights are kept as the sum of timestamp * change
+     */
+    public float changeWeight(Actions actionType, int slotNum, long featureName, int labelIndex, float change, int timestamp) {
         if (actionType == Actions.Shift) {
-            if (!shiftFeatureWeights[slotNum].containsKey(featureName))
-                shiftFeatureWeights[slotNum].put(featureName, change);
-            else
-                shiftFeatureWeights[slotNum].put(featureName, shiftFeatureWeights[slotNum].get(featureName) + change);
-
-            if (!shiftFeatureAveragedWeights[slotNum].containsKey(featureName))
-                shiftFeatureAveragedWeights[slotNum].put(featureName, iteration * change);
-            else
-                shiftFeatureAveragedWeights[slotNum].put(featureName, shiftFeatureAveragedWeights[slotNum].get(featureName) + iteration * change);
+            featureWeights[slotNum].addShiftWeight(featureName, change);
+            averagedFeatureWeights[slotNum].addShiftWeight(featureName, timestamp * change);
         } else if (actionType == Actions.Reduce) {
-            if (!reduceFeatureWeights[slotNum].containsKey(featureName))
-                reduceFeatureWeights[slotNum].put(featureName, change);
-            else
-                reduceFeatureWeights[slotNum].put(featureName, reduceFeatureWeights[slotNum].get(featureName) + change);
-
-            if (!reduceFeatureAveragedWeights[slotNum].containsKey(featureName))
-                reduceFeatureAveragedWeights[slotNum].put(featureName, iteration * change);
-            else
-                reduceFeatureAveragedWeights[slotNum].put(featureName, reduceFeatureAveragedWeights[slotNum].get(featureName) + iteration * change);
+            featureWeights[slotNum].addReduceWeight(featureName, change);
+            averagedFeatureWeights[slotNum].addReduceWeight(featureName, timestamp * change);
         } else if (actionType == Actions.RightArc) {
-            changeFeatureWeight(rightArcFeatureWeights[slotNum], rightArcFeatureAveragedWeights[slotNum], featureName, labelIndex, change, dependencySize);
+            featureWeights[slotNum].addArcWeight(true, featureName, labelIndex, change);
+            averagedFeatureWeights[slotNum].addArcWeight(true, featureName, labelIndex, timestamp * change);
         } else if (actionType == Actions.LeftArc) {
-            changeFeatureWeight(leftArcFeatureWeights[slotNum], leftArcFeatureAveragedWeights[slotNum], featureName, labelIndex, change, dependencySize);
+            featureWeights[slotNum].addArcWeight(false, featureName, labelIndex, change);
+            averagedFeatureWeights[slotNum].addArcWeight(false, featureName, labelIndex, timestamp * change);
         }
 
         return change;
     }
 
-    public void changeFeatureWeight(HashMap<Object, CompactArray> map, HashMap<Object, CompactArray> aMap, Object featureName, int labelIndex, float change, int size) {
-        CompactArray values = map.get(featureName);
-        CompactArray aValues;
-        if (values != null) {
-            values.expandArray(labelIndex, change);
-            aValues = aMap.get(featureName);
-            aValues.expandArray(labelIndex, iteration * change);
-        } else {
-            float[] val = new float[]{change};
-            values = new CompactArray(labelIndex, val);
-            map.put(featureName, values);
-
-            float[] aVal = new float[]{iteration * change};
-            aValues = new CompactArray(labelIndex, aVal);
-            aMap.put(featureName, aValues);
+    /**
+     * {@link #changeWeight(Actions, int, long, int, float, int)} for training threads that share the weights: the
+     * changes to one feature slot are made one at a time, while other threads go on scoring with the weights without
+     * waiting (they may see a change late, which the perceptron tolerates)
+     */
+    public float changeWeightConcurrently(Actions actionType, int slotNum, long featureName, int labelIndex, float change, int timestamp) {
+        synchronized (featureWeights[slotNum]) {
+            return changeWeight(actionType, slotNum, featureName, labelIndex, change, timestamp);
         }
     }
 
+    /**
+     * Starts training from the given weights instead of from zero, e.g. from the mixed weights of parameter mixing.
+     * The averaged weights then average the weights from here on.
+     */
+    public void initializeWeights(WeightTable[] weights) {
+        KeyedWeightTable[] keyedWeights = InfStruct.keyedWeights(weights);
+        if (keyedWeights == null) {
+            ((HashedWeightTable) featureWeights[0]).hashedWeights().addScaled(((HashedWeightTable) weights[0]).hashedWeights(), 1f);
+            return;
+        }
+        for (int i = 0; i < featureWeights.length; i++) {
+            ((ActionWeightMap) featureWeights[i]).addScaled(keyedWeights[i], 1f);
+            // zero sums with the same rows as the weights, as the averaging expects
+            ((ActionWeightMap) averagedFeatureWeights[i]).addScaled(keyedWeights[i], 0f);
+        }
+    }
 
     /**
      * Adds to the iterations
@@ -141,128 +151,280 @@ public class AveragedPerceptron {
         iteration++;
     }
 
-    public float shiftScore(final Object[] features, boolean decode) {
-        float score = 0.0f;
+    /**
+     * @return the length of the score vector filled by {@link #scoreAll}
+     */
+    public int scoreLength() {
+        return 3 + 2 * dependencySize;
+    }
+
+    /**
+     * Scores every action in one pass over the features, doing a single table lookup per feature.
+     * The scores are laid out as the action numbers of the trainer: 0=shift, 1=reduce, 2=unshift (always zero),
+     * 3+dep=right-arc with dep, 3+dependencySize+dep=left-arc with dep.
+     *
+     * @param scores buffer of at least {@link #scoreLength()} slots that is overwritten; reused by the caller
+     * @return the scores buffer
+     */
+    public float[] scoreAll(final long[] features, boolean decode, float[] scores) {
+        int length = scoreLength();
+        for (int s = 0; s < length; s++)
+            scores[s] = 0f;
+        if (decode && frozenModel != null)
+            return scoreFrozen(features, scores);
+        int rightArcOffset = 3;
+        int leftArcOffset = 3 + dependencySize;
+
+        WeightTable[] map = decode ? decodeWeights : featureWeights;
+        int lookups = 0;
+        int misses = 0;
+
+        for (int i = 0; i < features.length; i++) {
+            if (features[i] == FeatureExtractor.ABSENT)
+                continue;
+            WeightTable weights = map[i];
+            int slot = weights.indexOf(features[i]);
+            lookups++;
+            if (slot < 0) {
+                misses++;
+                continue;
+            }
+
+            if (i < 26 || i >= 32) {
+                scores[0] += weights.shiftWeight(slot);
+                scores[1] += weights.reduceWeight(slot);
+            }
+            weights.addArcWeights(true, slot, scores, rightArcOffset);
+            weights.addArcWeights(false, slot, scores, leftArcOffset);
+        }
+        if (ParserMetrics.isEnabled())
+            ParserMetrics.get().recordFeatureLookups(lookups, misses);
+        return scores;
+    }
+
+    /**
+     * {@link #scoreAll} for many feature vectors: the outer loop goes over the feature slots, so each weight table is
+     * looked up for all the vectors while it is in the cache. Each vector sums its weights in the same order as
+     * scoreAll, so the scores are the same.
+     *
+     * @param features the feature vectors; the first count of them are scored
+     * @param scores   one buffer of at least {@link #scoreLength()} slots per vector, overwritten
+     */
+    public void scoreBatch(final long[][] features, int count, boolean decode, float[][] scores) {
+        int length = scoreLength();
+        for (int c = 0; c < count; c++)
+            for (int s = 0; s < length; s++)
+                scores[c][s] = 0f;
+        if (count == 0)
+            return;
+        if (decode && frozenModel != null) {
+            scoreBatchFrozen(features, count, scores);
+            return;
+        }
+        int rightArcOffset = 3;
+        int leftArcOffset = 3 + dependencySize;
+
+        WeightTable[] map = decode ? decodeWeights : featureWeights;
+        int lookups = 0;
+        int misses = 0;
+
+        int featureLength = features[0].length;
+        for (int i = 0; i < featureLength; i++) {
+            WeightTable weights = map[i];
+            boolean scoresShiftAndReduce = i < 26 || i >= 32;
+            for (int c = 0; c < count; c++) {
+                long feature = features[c][i];
+                if (feature == FeatureExtractor.ABSENT)
+                    continue;
+                int slot = weights.indexOf(feature);
+                lookups++;
+                if (slot < 0) {
+                    misses++;
+                    continue;
+                }
+
+                float[] vector = scores[c];
+                if (scoresShiftAndReduce) {
+                    vector[0] += weights.shiftWeight(slot);
+                    vector[1] += weights.reduceWeight(slot);
+                }
+                weights.addArcWeights(true, slot, vector, rightArcOffset);
+                weights.addArcWeights(false, slot, vector, leftArcOffset);
+            }
+        }
+        if (ParserMetrics.isEnabled())
+            ParserMetrics.get().recordFeatureLookups(lookups, misses);
+    }
 
-        HashMap<Object, Float>[] map = decode ? shiftFeatureAveragedWeights : shiftFeatureWeights;
+    /**
+     * {@link #scoreAll} against the frozen model, adding the weights in the same order; scores is already zeroed
+     */
+    private float[] scoreFrozen(final long[] features, float[] scores) {
+        FrozenModel model = frozenModel;
+        int leftArcOffset = 3 + dependencySize;
+        int lookups = 0;
+        int misses = 0;
 
         for (int i = 0; i < features.length; i++) {
-            if (features[i] == null || (i >= 26 && i < 32))
+            if (features[i] == FeatureExtractor.ABSENT)
+                continue;
+            int entry = model.indexOf(i, features[i]);
+            lookups++;
+            if (entry < 0) {
+                misses++;
                 continue;
-            Float values = map[i].get(features[i]);
-            if (values != null) {
-                score += values;
             }
+
+            if (i < 26 || i >= 32) {
+                scores[0] += model.shiftWeight(entry);
+                scores[1] += model.reduceWeight(entry);
+            }
+            model.addArcWeights(true, entry, scores, 3);
+            model.addArcWeights(false, entry, scores, leftArcOffset);
+        }
+        if (ParserMetrics.isEnabled())
+            ParserMetrics.get().recordFeatureLookups(lookups, misses);
+        return scores;
+    }
+
+    /**
+     * {@link #scoreBatch} against the frozen model; the scores are already zeroed
+     */
+    private void scoreBatchFrozen(final long[][] features, int count, float[][] scores) {
+        FrozenModel model = frozenModel;
+        int leftArcOffset = 3 + dependencySize;
+        int lookups = 0;
+        int misses = 0;
+
+        int featureLength = features[0].length;
+        for (int i = 0; i < featureLength; i++) {
+            boolean scoresShiftAndReduce = i < 26 || i >= 32;
+            for (int c = 0; c < count; c++) {
+                long feature = features[c][i];
+                if (feature == FeatureExtractor.ABSENT)
+                    continue;
+                int entry = model.indexOf(i, feature);
+                lookups++;
+                if (entry < 0) {
+                    misses++;
+                    continue;
+                }
+
+                float[] vector = scores[c];
+                if (scoresShiftAndReduce) {
+                    vector[0] += model.shiftWeight(entry);
+                    vector[1] += model.reduceWeight(entry);
+                }
+                model.addArcWeights(true, entry, vector, 3);
+                model.addArcWeights(false, entry, vector, leftArcOffset);
+            }
+        }
+        if (ParserMetrics.isEnabled())
+            ParserMetrics.get().recordFeatureLookups(lookups, misses);
+    }
+
+    public float shiftScore(final long[] features, boolean decode) {
+        float score = 0.0f;
+
+        WeightTable[] map = decode ? decodeWeights : featureWeights;
+
+        for (int i = 0; i < features.length; i++) {
+            if (features[i] == FeatureExtractor.ABSENT || (i >= 26 && i < 32))
+                continue;
+            int slot = map[i].indexOf(features[i]);
+            if (slot >= 0)
+                score += map[i].shiftWeight(slot);
         }
 
         return score;
     }
 
-    public float reduceScore(final Object[] features, boolean decode) {
+    public float reduceScore(final long[] features, boolean decode) {
         float score = 0.0f;
 
-        HashMap<Object, Float>[] map = decode ? reduceFeatureAveragedWeights : reduceFeatureWeights;
+        WeightTable[] map = decode ? decodeWeights : featureWeights;
 
         for (int i = 0; i < features.length; i++) {
-            if (features[i] == null || (i >= 26 && i < 32))
+            if (features[i] == FeatureExtractor.ABSENT || (i >= 26 && i < 32))
                 continue;
-            Float values = map[i].get(features[i]);
-            if (values != null) {
-                score += values;
-            }
+            int slot = map[i].indexOf(features[i]);
+            if (slot >= 0)
+                score += map[i].reduceWeight(slot);
         }
 
         return score;
     }
 
-    public float[] leftArcScores(final Object[] features, boolean decode) {
+    public float[] leftArcScores(final long[] features, boolean decode) {
         float scores[] = new float[dependencySize];
 
-        HashMap<Object, CompactArray>[] map = decode ? leftArcFeatureAveragedWeights : leftArcFeatureWeights;
+        WeightTable[] map = decode ? decodeWeights : featureWeights;
 
         for (int i = 0; i < features.length; i++) {
-            if (features[i] == null)
+            if (features[i] == FeatureExtractor.ABSENT)
                 continue;
-            CompactArray values = map[i].get(features[i]);
-            if (values != null) {
-                int offset = values.getOffset();
-                float[] weightVector = values.getArray();
-
-                for (int d = offset; d < offset + weightVector.length; d++) {
-                    scores[d] += weightVector[d - offset];
-                }
-            }
+            int slot = map[i].indexOf(features[i]);
+            if (slot >= 0)
+                map[i].addArcWeights(false, slot, scores, 0);
         }
 
         return scores;
     }
 
-    public float[] rightArcScores(final Object[] features, boolean decode) {
+    public float[] rightArcScores(final long[] features, boolean decode) {
         float scores[] = new float[dependencySize];
 
-        HashMap<Object, CompactArray>[] map = decode ? rightArcFeatureAveragedWeights : rightArcFeatureWeights;
+        WeightTable[] map = decode ? decodeWeights : featureWeights;
 
         for (int i = 0; i < features.length; i++) {
-            if (features[i] == null)
+            if (features[i] == FeatureExtractor.ABSENT)
                 continue;
-            CompactArray values = map[i].get(features[i]);
-            if (values != null) {
-                int offset = values.getOffset();
-                float[] weightVector = values.getArray();
-
-                for (int d = offset; d < offset + weightVector.length; d++) {
-                    scores[d] += weightVector[d - offset];
-                }
-            }
+            int slot = map[i].indexOf(features[i]);
+            if (slot >= 0)
+                map[i].addArcWeights(true, slot, scores, 0);
         }
 
         return scores;
     }
 
     public int featureSize() {
-        return shiftFeatureAveragedWeights.length;
+        return decodeWeights.length;
     }
 
     public int raSize() {
-        int size = 0;
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            for (Object feat : rightArcFeatureAveragedWeights[i].keySet()) {
-                size += rightArcFeatureAveragedWeights[i].get(feat).length();
-            }
-        }
-        return size;
+        return arcSize(true, false);
     }
 
     public int effectiveRaSize() {
-        int size = 0;
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            for (Object feat : rightArcFeatureAveragedWeights[i].keySet()) {
-                for (float f : rightArcFeatureAveragedWeights[i].get(feat).getArray())
-                    if (f != 0f)
-                        size++;
-            }
-        }
-        return size;
+        return arcSize(true, true);
     }
 
-
     public int laSize() {
-        int size = 0;
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            for (Object feat : leftArcFeatureAveragedWeights[i].keySet()) {
-                size += leftArcFeatureAveragedWeights[i].get(feat).length();
-            }
-        }
-        return size;
+        return arcSize(false, false);
     }
 
     public int effectiveLaSize() {
+        return arcSize(false, true);
+    }
+
+    private int arcSize(boolean rightArc, boolean onlyNonZero) {
+        KeyedWeightTable[] keyedWeights = InfStruct.keyedWeights(decodeWeights);
+        if (keyedWeights == null)
+            return ((HashedWeightTable) decodeWeights[0]).hashedWeights().arcSize(rightArc, onlyNonZero);
         int size = 0;
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            for (Object feat : leftArcFeatureAveragedWeights[i].keySet()) {
-                for (float f : leftArcFeatureAveragedWeights[i].get(feat).getArray())
-                    if (f != 0f)
-                        size++;
+        for (KeyedWeightTable weights : keyedWeights) {
+            for (long feat : weights.keys()) {
+                int slot = weights.indexOf(feat);
+                CompactArray values = weights.arcWeights(rightArc, slot);
+                if (values == null)
+                    continue;
+                if (!onlyNonZero) {
+                    size += values.length();
+                } else {
+                    for (float f : values.getArray())
+                        if (f != 0f)
+                            size++;
+                }
             }
         }
         return size;
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Learning;
+
+/**
+ * The innermost loops of scoring with a labeled model, which go over all the labels: adding the arc weights of a
+ * feature to the scores, and finding the labels whose candidates can still get into a full beam.
+ * <p/>
+ * These are plain loops. Built with the vector profile (mvn -P vector) and run with
+ * --add-modules jdk.incubator.vector, {@link #useVectorKernels()} switches to a subclass that does them with the
+ * Vector API of Java 17 and later. The results are the same: every score is the same sum of the same floats.
+ * <p/>
+ * The kernels are chosen once, before any parsing or training starts.
+ */
+public class ScoreKernels {
+    private static final String VECTOR_KERNELS = "YaraParser.Learning.VectorScoreKernels";
+
+    private static ScoreKernels kernels = new ScoreKernels();
+
+    public static ScoreKernels get() {
+        return kernels;
+    }
+
+    /**
+     * Switches to the Vector API kernels if they are on the class path and the JVM has the incubator module
+     *
+     * @return false if they are not available, in which case the plain loops are kept
+     */
+    public static synchronized boolean useVectorKernels() {
+        try {
+            kernels = (ScoreKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+            return true;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        } catch (LinkageError e) {
+            // the class is there but the JVM was started without the jdk.incubator.vector module
+            return false;
+        }
+    }
+
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * scores[base + d] += row[from + d] for d in [0, length)
+     */
+    public void addRow(float[] row, int from, float[] scores, int base, int length) {
+        for (int d = 0; d < length; d++)
+            scores[base + d] += row[from + d];
+    }
+
+    /**
+     * Finds the labels d in [0, length) with scores[from + d] + prevScore >= threshold, in increasing order
+     *
+     * @param labels buffer of at least length slots for the labels found
+     * @return the number of labels found
+     */
+    public int labelsAbove(float[] scores, int from, int length, float prevScore, float threshold, int[] labels) {
+        int count = 0;
+        for (int d = 0; d < length; d++)
+            if (scores[from + d] + prevScore >= threshold)
+                labels[count++] = d;
+        return count;
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many parsing threads can add to without fighting over one cache line: every thread adds to one
+ * of a few padded cells, chosen by its id, and reading sums the cells.
+ */
+public class Counter {
+    private static final int STRIPES = 16;
+    /**
+     * Longs between two cells, so that each cell is on its own cache line
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void add(long value) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.getAndAdd(stripe * PADDING, value);
+    }
+
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++)
+            sum += cells.get(i * PADDING);
+        return sum;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values (e.g. latencies in microseconds) for reading percentiles. Values below
+ * 8 have their own buckets; every power of two above is split into 8 buckets, so a percentile is off by at most
+ * 12.5%.
+ */
+public class Histogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the smallest value that goes to the bucket
+     */
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param fraction e.g. 0.99 for the 99th percentile
+     * @return the highest value of the bucket that has the percentile, or 0 if nothing is recorded
+     */
+    public long percentile(double fraction) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(fraction * n);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int b = 0; b < counts.length(); b++) {
+            seen += counts.get(b);
+            if (seen >= rank)
+                return Math.min(lowestValue(b + 1) - 1, max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int b = 0; b < counts.length(); b++)
+            counts.set(b, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
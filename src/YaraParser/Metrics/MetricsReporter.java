@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Metrics;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics periodically from a daemon thread: as CSV rows to a file, or as a log line to the standard
+ * error if no file is given. The counters are totals since the start; the latencies are over the last period.
+ */
+public class MetricsReporter {
+    private final ParserMetrics metrics;
+    private final PrintWriter writer;
+    private final boolean csv;
+    private final int intervalSeconds;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param csvPath the file for the CSV rows; empty for logging to the standard error
+     */
+    public MetricsReporter(ParserMetrics metrics, String csvPath, int intervalSeconds) throws Exception {
+        this.metrics = metrics;
+        this.intervalSeconds = intervalSeconds;
+        csv = csvPath.length() > 0;
+        writer = csv ? new PrintWriter(new FileWriter(csvPath)) : new PrintWriter(System.err, true);
+        if (csv) {
+            StringBuilder header = new StringBuilder("time_ms,sentences,tokens,sentences_per_sec,beam_steps,candidates_scored,candidates_rejected,"
+                    + "feature_lookups,feature_misses,clones,queue_depth,active_threads,latency_p50_us,latency_p99_us,latency_max_us");
+            for (String bucket : metrics.getLengthBuckets())
+                header.append(",p50_us_len_").append(bucket).append(",p99_us_len_").append(bucket);
+            writer.println(header);
+            writer.flush();
+        }
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic reports and writes a last one
+     */
+    public void stop() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+        report();
+        if (csv)
+            writer.close();
+    }
+
+    synchronized void report() {
+        long[] p50ByLength = metrics.getLatencyP50MicrosByLength();
+        long[] p99ByLength = metrics.getLatencyP99MicrosByLength();
+        String[] buckets = metrics.getLengthBuckets();
+        StringBuilder line = new StringBuilder();
+        if (csv) {
+            line.append(System.currentTimeMillis()).append(',').append(metrics.getSentences()).append(',').append(metrics.getTokens())
+                    .append(',').append(String.format("%.2f", metrics.getSentencesPerSecond())).append(',').append(metrics.getBeamSteps())
+                    .append(',').append(metrics.getCandidatesScored()).append(',').append(metrics.getCandidatesRejected())
+                    .append(',').append(metrics.getFeatureLookups()).append(',').append(metrics.getFeatureMisses())
+                    .append(',').append(metrics.getClones()).append(',').append(metrics.getQueueDepth())
+                    .append(',').append(metrics.getActiveThreads()).append(',').append(metrics.getLatencyP50Micros())
+                    .append(',').append(metrics.getLatencyP99Micros()).append(',').append(metrics.getLatencyMaxMicros());
+            for (int i = 0; i < buckets.length; i++)
+                line.append(',').append(p50ByLength[i]).append(',').append(p99ByLength[i]);
+        } else {
+            line.append("metrics: sentences=").append(metrics.getSentences())
+                    .append(" sen/sec=").append(String.format("%.2f", metrics.getSentencesPerSecond()))
+                    .append(" p50=").append(metrics.getLatencyP50Micros()).append("us")
+                    .append(" p99=").append(metrics.getLatencyP99Micros()).append("us")
+                    .append(" steps=").append(metrics.getBeamSteps())
+                    .append(" candidates=").append(metrics.getCandidatesScored())
+                    .append(" rejected=").append(metrics.getCandidatesRejected())
+                    .append(" lookups=").append(metrics.getFeatureLookups())
+                    .append(" misses=").append(metrics.getFeatureMisses())
+                    .append(" clones=").append(metrics.getClones())
+                    .append(" queue=").append(metrics.getQueueDepth());
+            for (int i = 0; i < buckets.length; i++)
+                line.append(" p99[").append(buckets[i]).append("]=").append(p99ByLength[i]).append("us");
+        }
+        metrics.resetLatencies();
+        writer.println(line);
+        writer.flush();
+    }
+}
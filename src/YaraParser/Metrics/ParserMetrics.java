@@ -0,0 +1,236 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Metrics;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Runtime metrics of parsing: per-sentence latency (also by sentence length), beam steps, beam candidates scored and
+ * rejected, feature lookups that are not in the model, configuration clones and the work waiting in the parser
+ * thread pools. Nothing is recorded until {@link #enable()} is called, and then the parsers record once per sentence,
+ * except the feature lookups that are added once per scored configuration.
+ */
+public class ParserMetrics implements ParserMetricsMXBean {
+    public static final String OBJECT_NAME = "YaraParser:type=ParserMetrics";
+
+    /**
+     * Upper bounds (inclusive) of the sentence length buckets
+     */
+    private static final int[] LENGTH_BOUNDS = {10, 20, 40, Integer.MAX_VALUE};
+    private static final String[] LENGTH_BUCKETS = {"1-10", "11-20", "21-40", "41+"};
+
+    private static final ParserMetrics instance = new ParserMetrics();
+    private static volatile boolean enabled = false;
+
+    private final long startTime = System.nanoTime();
+    private final Counter sentences = new Counter();
+    private final Counter tokens = new Counter();
+    private final Counter beamSteps = new Counter();
+    private final Counter candidatesScored = new Counter();
+    private final Counter candidatesRejected = new Counter();
+    private final Counter featureLookups = new Counter();
+    private final Counter featureMisses = new Counter();
+    private final Counter clones = new Counter();
+    private final Histogram latency = new Histogram();
+    private final Histogram[] latencyByLength;
+    private final CopyOnWriteArrayList<ExecutorService> executors = new CopyOnWriteArrayList<ExecutorService>();
+
+    private ParserMetrics() {
+        latencyByLength = new Histogram[LENGTH_BOUNDS.length];
+        for (int i = 0; i < latencyByLength.length; i++)
+            latencyByLength[i] = new Histogram();
+    }
+
+    public static ParserMetrics get() {
+        return instance;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static ParserMetrics enable() {
+        enabled = true;
+        return instance;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * Shows the metrics through the platform MBean server; does nothing if they are already there
+     */
+    public void registerMBean() throws Exception {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    }
+
+    /**
+     * Adds the queue of the pool to the queue depth, until the pool is shut down
+     */
+    public void monitor(ExecutorService executor) {
+        if (!(executor instanceof ThreadPoolExecutor) && !(executor instanceof ForkJoinPool))
+            return;
+        for (ExecutorService monitored : executors)
+            if (monitored.isShutdown())
+                executors.remove(monitored);
+        executors.add(executor);
+    }
+
+    /**
+     * Records one parsed sentence; the counts are totals over all the beam steps of the sentence
+     *
+     * @param length     the number of words of the sentence
+     * @param nanos      the time of parsing it
+     * @param steps      the number of beam steps
+     * @param candidates the number of candidates given to the beam in all the steps
+     * @param rejected   the number of those candidates that the beam did not keep
+     * @param clones     the number of configurations cloned
+     */
+    public void recordSentence(int length, long nanos, int steps, int candidates, int rejected, int clones) {
+        sentences.add(1);
+        tokens.add(length);
+        beamSteps.add(steps);
+        candidatesScored.add(candidates);
+        candidatesRejected.add(rejected);
+        this.clones.add(clones);
+        long micros = nanos / 1000;
+        latency.record(micros);
+        int bucket = 0;
+        while (length > LENGTH_BOUNDS[bucket])
+            bucket++;
+        latencyByLength[bucket].record(micros);
+    }
+
+    public void recordFeatureLookups(int lookups, int misses) {
+        featureLookups.add(lookups);
+        featureMisses.add(misses);
+    }
+
+    @Override
+    public long getSentences() {
+        return sentences.get();
+    }
+
+    @Override
+    public long getTokens() {
+        return tokens.get();
+    }
+
+    @Override
+    public double getSentencesPerSecond() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? sentences.get() / seconds : 0;
+    }
+
+    @Override
+    public long getBeamSteps() {
+        return beamSteps.get();
+    }
+
+    @Override
+    public long getCandidatesScored() {
+        return candidatesScored.get();
+    }
+
+    @Override
+    public long getCandidatesRejected() {
+        return candidatesRejected.get();
+    }
+
+    @Override
+    public long getFeatureLookups() {
+        return featureLookups.get();
+    }
+
+    @Override
+    public long getFeatureMisses() {
+        return featureMisses.get();
+    }
+
+    @Override
+    public long getClones() {
+        return clones.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ExecutorService executor : executors) {
+            if (executor.isShutdown())
+                continue;
+            if (executor instanceof ForkJoinPool)
+                depth += ((ForkJoinPool) executor).getQueuedSubmissionCount() + ((ForkJoinPool) executor).getQueuedTaskCount();
+            else
+                depth += ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return depth;
+    }
+
+    @Override
+    public int getActiveThreads() {
+        int active = 0;
+        for (ExecutorService executor : executors) {
+            if (executor.isShutdown())
+                continue;
+            if (executor instanceof ForkJoinPool)
+                active += ((ForkJoinPool) executor).getActiveThreadCount();
+            else
+                active += ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return active;
+    }
+
+    @Override
+    public long getLatencyP50Micros() {
+        return latency.percentile(0.5);
+    }
+
+    @Override
+    public long getLatencyP99Micros() {
+        return latency.percentile(0.99);
+    }
+
+    @Override
+    public long getLatencyMaxMicros() {
+        return latency.max();
+    }
+
+    @Override
+    public String[] getLengthBuckets() {
+        return LENGTH_BUCKETS.clone();
+    }
+
+    @Override
+    public long[] getLatencyP50MicrosByLength() {
+        long[] values = new long[latencyByLength.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = latencyByLength[i].percentile(0.5);
+        return values;
+    }
+
+    @Override
+    public long[] getLatencyP99MicrosByLength() {
+        long[] values = new long[latencyByLength.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = latencyByLength[i].percentile(0.99);
+        return values;
+    }
+
+    @Override
+    public void resetLatencies() {
+        latency.reset();
+        for (Histogram histogram : latencyByLength)
+            histogram.reset();
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Metrics;
+
+/**
+ * What {@link ParserMetrics} shows through JMX (as YaraParser:type=ParserMetrics)
+ */
+public interface ParserMetricsMXBean {
+    long getSentences();
+
+    long getTokens();
+
+    double getSentencesPerSecond();
+
+    long getBeamSteps();
+
+    /**
+     * The candidate counts are totals over all the steps of all the sentences; divided by {@link #getBeamSteps()}
+     * they give the candidates per step
+     */
+    long getCandidatesScored();
+
+    long getCandidatesRejected();
+
+    long getFeatureLookups();
+
+    long getFeatureMisses();
+
+    long getClones();
+
+    int getQueueDepth();
+
+    int getActiveThreads();
+
+    /**
+     * The latencies are since the start or the last {@link #resetLatencies()}
+     */
+    long getLatencyP50Micros();
+
+    long getLatencyP99Micros();
+
+    long getLatencyMaxMicros();
+
+    String[] getLengthBuckets();
+
+    long[] getLatencyP50MicrosByLength();
+
+    long[] getLatencyP99MicrosByLength();
+
+    /**
+     * Starts the latency histograms over
+     */
+    void resetLatencies();
+}
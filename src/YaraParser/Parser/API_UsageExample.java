@@ -43,7 +43,7 @@ public class API_UsageExample {
                 System.out.println(words[i] + "\t" + tags[i] + "\t" + head + "\t" + maps.revWords[bestParse.state.getDependency(i + 1)]);
             }
         }
-        parser.shutDownLiveThreads();
+        parser.close();
         System.exit(0);
     }
 }
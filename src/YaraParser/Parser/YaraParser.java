@@ -9,12 +9,20 @@ import YaraParser.Accessories.CoNLLReader;
 import YaraParser.Accessories.Evaluator;
 import YaraParser.Accessories.Options;
 import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Learning.ScoreKernels;
+import YaraParser.Metrics.MetricsReporter;
+import YaraParser.Metrics.ParserMetrics;
+import YaraParser.Server.ParseServer;
 import YaraParser.Structures.IndexMaps;
 import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.ModelPruner;
+import YaraParser.Structures.ModelWriter;
 import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
 import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
 import YaraParser.TransitionBasedSystem.Trainer.ArcEagerBeamTrainer;
+import YaraParser.TransitionBasedSystem.Trainer.ParameterMixingTrainer;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -26,12 +34,22 @@ public class YaraParser {
             Options.showHelp();
         } else {
             System.out.println(options);
+            if (options.vectorScoring && !ScoreKernels.useVectorKernels())
+                System.out.println("the Vector API kernels are not available; scoring with the plain loops\n");
             if (options.train) {
                 train(options);
+            } else if (options.trainShard) {
+                ParameterMixingTrainer.trainShard(options);
             } else if (options.parseTaggedFile || options.parseConllFile || options.parsePartialConll) {
                 parse(options);
             } else if (options.evaluate) {
                 evaluate(options);
+            } else if (options.convertModel) {
+                convertModel(options);
+            } else if (options.pruneModel) {
+                pruneModel(options);
+            } else if (options.serve) {
+                serve(options);
             } else {
                 Options.showHelp();
             }
@@ -47,13 +65,53 @@ public class YaraParser {
         }
     }
 
+    private static void convertModel(Options options) throws Exception {
+        if (options.modelFile.equals("") || options.outputFile.equals(""))
+            Options.showHelp();
+        else {
+            InfStruct infStruct = InfStruct.readLegacyModel(options.modelFile);
+            infStruct.saveModel(options.outputFile);
+            System.out.println("model converted to " + options.outputFile);
+        }
+    }
+
+    private static void pruneModel(Options options) throws Exception {
+        if (options.modelFile.equals("") || options.outputFile.equals(""))
+            Options.showHelp();
+        else {
+            InfStruct model = new InfStruct(options.modelFile);
+            ModelPruner pruner = new ModelPruner(options.pruneThreshold);
+            try {
+                ModelWriter.write(pruner.prune(model), options.outputFile, options.quantizationBits);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            System.out.println("features kept: " + pruner.keptFeatures() + "/" + pruner.features());
+            System.out.println("weights kept: " + pruner.keptWeights() + "/" + pruner.weights());
+            System.out.println("model size: " + new File(options.outputFile).length() + "/" + new File(options.modelFile).length() + " bytes\n");
+
+            if (!options.devPath.equals("")) {
+                Options parseOptions = model.options;
+                parseOptions.numOfThreads = options.numOfThreads;
+                System.out.println("dev accuracy of " + options.modelFile + ":");
+                ArcEagerBeamTrainer.evaluateOnDev(model, parseOptions, options.devPath, options.outputFile,
+                        parseOptions.lowercase, options.punctuations);
+                System.out.println("dev accuracy of " + options.outputFile + ":");
+                ArcEagerBeamTrainer.evaluateOnDev(new InfStruct(options.outputFile), parseOptions, options.devPath,
+                        options.outputFile, parseOptions.lowercase, options.punctuations);
+                new File(options.outputFile + ".__tmp__").delete();
+            }
+        }
+    }
+
     private static void parse(Options options) throws Exception {
         if (options.outputFile.equals("") || options.inputFile.equals("")
                 || options.modelFile.equals("")) {
             Options.showHelp();
 
         } else {
-            InfStruct infStruct = new InfStruct(options.modelFile);
+            InfStruct infStruct = new InfStruct(options.modelFile, options.memoryMapModel);
             ArrayList<Integer> dependencyLabels = infStruct.dependencyLabels;
             IndexMaps maps = infStruct.maps;
 
@@ -62,6 +120,7 @@ public class YaraParser {
             AveragedPerceptron averagedPerceptron = new AveragedPerceptron(infStruct);
 
             int featureSize = averagedPerceptron.featureSize();
+            MetricsReporter metricsReporter = startMetrics(options);
             KBeamArcEagerParser parser = new KBeamArcEagerParser(averagedPerceptron, dependencyLabels, featureSize, maps, options.numOfThreads);
 
             if (options.parseTaggedFile)
@@ -73,18 +132,56 @@ public class YaraParser {
             else if (options.parsePartialConll)
                 parser.parseConllFile(options.inputFile,
                         options.outputFile, inf_options.rootFirst, inf_options.beamWidth, options.labeled, inf_options.lowercase, options.numOfThreads, true, options.scorePath);
-            parser.shutDownLiveThreads();
+            parser.close();
+            if (metricsReporter != null)
+                metricsReporter.stop();
         }
     }
 
+    private static void serve(final Options options) throws Exception {
+        if (options.modelFile.equals("")) {
+            Options.showHelp();
+        } else {
+            InfStruct infStruct = new InfStruct(options.modelFile, options.memoryMapModel);
+            final MetricsReporter metricsReporter = startMetrics(options);
+            final ParseServer server = new ParseServer(infStruct, options.numOfThreads, options.queueSize,
+                    options.batchSize, options.batchWaitMicros, options.virtualThreads);
+            server.start(options.host, options.port, options.binaryPort);
+            System.out.println("serving " + options.modelFile);
+
+            // drains on SIGTERM/SIGINT
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        System.err.println("draining...");
+                        server.stop(options.drainSeconds);
+                        if (metricsReporter != null)
+                            metricsReporter.stop();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }));
+            server.awaitStop();
+        }
+    }
+
+    private static MetricsReporter startMetrics(Options options) throws Exception {
+        if (!options.metrics)
+            return null;
+        ParserMetrics metrics = ParserMetrics.enable();
+        metrics.registerMBean();
+        MetricsReporter metricsReporter = new MetricsReporter(metrics, options.metricsOutput, options.metricsInterval);
+        metricsReporter.start();
+        return metricsReporter;
+    }
+
     public static void train(Options options) throws Exception {
         if (options.inputFile.equals("") || options.modelFile.equals("")) {
             Options.showHelp();
         } else {
             IndexMaps maps = CoNLLReader.createIndices(options.inputFile, options.labeled, options.lowercase, options.clusterFile);
-            CoNLLReader reader = new CoNLLReader(options.inputFile);
-            ArrayList<GoldConfiguration> dataSet = reader.readData(Integer.MAX_VALUE, false, options.labeled, options.rootFirst, options.lowercase, maps);
-            System.out.println("CoNLL data reading done!");
 
             ArrayList<Integer> dependencyLabels = new ArrayList<Integer>();
             for (int lab : maps.getLabels().keySet())
@@ -94,6 +191,17 @@ public class YaraParser {
             if (options.useExtendedWithBrownClusterFeatures || maps.hasClusters())
                 featureLength = 153;
 
+            if (options.shards > 1) {
+                // the workers read their shards of the data
+                ParameterMixingTrainer trainer = new ParameterMixingTrainer(options, maps, dependencyLabels, featureLength);
+                trainer.train(options.inputFile, options.devPath, options.trainingIter, options.modelFile, options.lowercase, options.punctuations);
+                return;
+            }
+
+            CoNLLReader reader = new CoNLLReader(options.inputFile);
+            ArrayList<GoldConfiguration> dataSet = reader.readData(Integer.MAX_VALUE, false, options.labeled, options.rootFirst, options.lowercase, maps);
+            System.out.println("CoNLL data reading done!");
+
             System.out.println("size of training data (#sens): " + dataSet.size());
 
             HashMap<String, Integer> labels = new HashMap<String, Integer>();
@@ -111,7 +219,7 @@ public class YaraParser {
                 }
             }
 
-            ArcEagerBeamTrainer trainer = new ArcEagerBeamTrainer(options.useMaxViol ? "max_violation" : "early", new AveragedPerceptron(featureLength, dependencyLabels.size()),
+            ArcEagerBeamTrainer trainer = new ArcEagerBeamTrainer(options.useMaxViol ? "max_violation" : "early", new AveragedPerceptron(featureLength, dependencyLabels.size(), options.hashBits),
                     options, dependencyLabels, featureLength, maps);
             trainer.train(dataSet, options.devPath, options.trainingIter, options.modelFile, options.lowercase, options.punctuations, options.partialTrainingStartingIteration);
         }
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Server;
+
+import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.Sentence;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses the sentences of concurrent requests in batches with {@link KBeamArcEagerParser#parseBatch}. Each worker
+ * takes the oldest waiting sentence together with the ones queued behind it, up to maxBatch. If all the other
+ * workers are busy, it keeps collecting sentences until it has maxBatch of them or the oldest has waited
+ * maxWaitMicros, so batching adds at most maxWaitMicros to the latency of a request. Under low load a worker is
+ * free and the sentences are parsed as soon as they arrive.
+ */
+public class BatchScheduler {
+    private final KBeamArcEagerParser parser;
+    private final IndexMaps maps;
+    private final boolean rootFirst;
+    private final boolean lowerCased;
+    private final int maxBatch;
+    private final long maxWaitNanos;
+
+    private final ArrayBlockingQueue<PendingParse> queue;
+    private final Thread[] workers;
+    private final CountDownLatch finished;
+    private final AtomicInteger busyWorkers;
+    private volatile boolean shutDown;
+
+    public BatchScheduler(KBeamArcEagerParser parser, IndexMaps maps, boolean rootFirst, boolean lowerCased,
+                          int numOfThreads, int queueSize, int maxBatch, int maxWaitMicros, ThreadFactory threadFactory) {
+        this.parser = parser;
+        this.maps = maps;
+        this.rootFirst = rootFirst;
+        this.lowerCased = lowerCased;
+        this.maxBatch = maxBatch;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        queue = new ArrayBlockingQueue<PendingParse>(queueSize);
+        finished = new CountDownLatch(numOfThreads);
+        busyWorkers = new AtomicInteger();
+        workers = new Thread[numOfThreads];
+        for (int i = 0; i < numOfThreads; i++) {
+            workers[i] = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        work();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+            workers[i].start();
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException if the queue is full or the scheduler is shut down
+     */
+    public Future<ParseResult> submit(String[] words, String[] tags, int beamWidth) {
+        if (shutDown)
+            throw new RejectedExecutionException("shut down");
+        PendingParse pending = new PendingParse(words, tags, beamWidth);
+        if (!queue.offer(pending))
+            throw new RejectedExecutionException("the queue is full");
+        return pending;
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * Takes no new sentences; the workers still parse the ones in the queue
+     */
+    public void shutdown() {
+        shutDown = true;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    public void shutdownNow() {
+        shutDown = true;
+        for (Thread worker : workers)
+            worker.interrupt();
+        PendingParse pending;
+        while ((pending = queue.poll()) != null)
+            pending.fail(new RejectedExecutionException("the server is shutting down"));
+    }
+
+    private void work() {
+        ArrayList<PendingParse> batch = new ArrayList<PendingParse>(maxBatch);
+        try {
+            while (!(shutDown && queue.isEmpty())) {
+                PendingParse first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                // waiting is only worth it when no other worker could take the next sentences right away
+                if (busyWorkers.incrementAndGet() == workers.length) {
+                    long deadline = first.queued + maxWaitNanos;
+                    while (batch.size() < maxBatch) {
+                        long wait = deadline - System.nanoTime();
+                        PendingParse next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                        if (next == null)
+                            break;
+                        batch.add(next);
+                    }
+                }
+                parse(batch);
+                batch.clear();
+                busyWorkers.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            for (PendingParse pending : batch)
+                pending.fail(new RejectedExecutionException("the server is shutting down"));
+        }
+    }
+
+    private void parse(ArrayList<PendingParse> batch) {
+        Sentence[] sentences = new Sentence[batch.size()];
+        int[] beamWidths = new int[batch.size()];
+        for (int s = 0; s < batch.size(); s++) {
+            PendingParse pending = batch.get(s);
+            sentences[s] = maps.makeSentence(pending.words, pending.tags, rootFirst, lowerCased);
+            beamWidths[s] = pending.beamWidth;
+        }
+        try {
+            Configuration[] bestParses = parser.parseBatch(sentences, rootFirst, beamWidths);
+            for (int s = 0; s < batch.size(); s++)
+                batch.get(s).succeed(ParseServer.result(bestParses[s], batch.get(s).words.length, maps));
+        } catch (Exception e) {
+            for (PendingParse pending : batch)
+                pending.fail(e);
+        }
+    }
+
+    /**
+     * A sentence waiting in the queue, and the future of its parse
+     */
+    private static class PendingParse implements Future<ParseResult> {
+        final String[] words;
+        final String[] tags;
+        final int beamWidth;
+        final long queued;
+        private final CountDownLatch done;
+        private volatile ParseResult result;
+        private volatile Throwable failure;
+
+        PendingParse(String[] words, String[] tags, int beamWidth) {
+            this.words = words;
+            this.tags = tags;
+            this.beamWidth = beamWidth;
+            queued = System.nanoTime();
+            done = new CountDownLatch(1);
+        }
+
+        void succeed(ParseResult result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        void fail(Throwable failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public ParseResult get() throws InterruptedException, ExecutionException {
+            done.await();
+            return report();
+        }
+
+        @Override
+        public ParseResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit))
+                throw new TimeoutException();
+            return report();
+        }
+
+        private ParseResult report() throws ExecutionException {
+            if (failure instanceof RejectedExecutionException)
+                throw (RejectedExecutionException) failure;
+            if (failure != null)
+                throw new ExecutionException(failure);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One client of the binary protocol. The client sends any number of requests on the connection and gets the answers
+ * in the same order. Every message is a frame: a 4-byte big-endian length followed by that many bytes, written with
+ * {@link DataOutputStream} (strings are modified UTF-8, as in writeUTF).
+ * <p/>
+ * request: int beamWidth (0 for the beam width of the model), int #words, then (utf word, utf tag) for each word
+ * <p/>
+ * response: byte status; if status is {@link #OK}: float score, int #words, then (int head, utf label) for each word;
+ * otherwise: utf error message
+ */
+public class BinaryConnection implements Runnable {
+    public static final byte OK = 0;
+    public static final byte BAD_REQUEST = 1;
+    /**
+     * The queue is full or the server is draining; the request can be sent again later
+     */
+    public static final byte BUSY = 2;
+    public static final byte ERROR = 3;
+
+    private final ParseServer server;
+    private final Socket socket;
+    private boolean busy;
+    private boolean closed;
+
+    BinaryConnection(ParseServer server, Socket socket) {
+        this.server = server;
+        this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (!startRequest())
+                    break;
+                if (length < 0 || length > ParseServer.MAX_REQUEST_BYTES) {
+                    writeFrame(output, error(BAD_REQUEST, "the frame length should be between 0 and " + ParseServer.MAX_REQUEST_BYTES));
+                    break;
+                }
+                byte[] frame = new byte[length];
+                input.readFully(frame);
+                writeFrame(output, answer(frame));
+                if (!finishRequest())
+                    break;
+            }
+        } catch (IOException e) {
+            // the client went away, or the server closed the connection while draining
+        } finally {
+            close();
+            server.closed(this);
+        }
+    }
+
+    private byte[] answer(byte[] frame) throws IOException {
+        String[] words;
+        String[] tags;
+        int beamWidth;
+        try {
+            DataInputStream request = new DataInputStream(new ByteArrayInputStream(frame));
+            beamWidth = request.readInt();
+            int count = request.readInt();
+            if (count < 0 || count > frame.length)
+                return error(BAD_REQUEST, "bad number of words: " + count);
+            words = new String[count];
+            tags = new String[count];
+            for (int i = 0; i < count; i++) {
+                words[i] = request.readUTF();
+                tags[i] = request.readUTF();
+            }
+        } catch (IOException e) {
+            return error(BAD_REQUEST, "malformed request: " + e);
+        }
+
+        ParseResult result;
+        try {
+            result = server.submit(words, tags, beamWidth).get();
+        } catch (IllegalArgumentException e) {
+            return error(BAD_REQUEST, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            return error(BUSY, server.isDraining() ? "the server is shutting down" : "too many requests");
+        } catch (ExecutionException e) {
+            return error(ERROR, e.getCause().toString());
+        } catch (InterruptedException e) {
+            return error(BUSY, "the server is shutting down");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 8 * result.heads.length);
+        DataOutputStream response = new DataOutputStream(bytes);
+        response.writeByte(OK);
+        response.writeFloat(result.score);
+        response.writeInt(result.heads.length);
+        for (int i = 0; i < result.heads.length; i++) {
+            response.writeInt(result.heads[i]);
+            response.writeUTF(result.labels[i]);
+        }
+        response.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] error(byte status, String message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream response = new DataOutputStream(bytes);
+        response.writeByte(status);
+        response.writeUTF(message == null ? "" : message);
+        response.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeFrame(DataOutputStream output, byte[] frame) throws IOException {
+        output.writeInt(frame.length);
+        output.write(frame);
+        output.flush();
+    }
+
+    private synchronized boolean startRequest() {
+        busy = !closed;
+        return busy;
+    }
+
+    /**
+     * @return false if the connection should be closed, because the server is draining
+     */
+    private synchronized boolean finishRequest() {
+        busy = false;
+        return !server.isDraining();
+    }
+
+    /**
+     * Closes the connection unless it is answering a request; that one closes it after the answer
+     */
+    synchronized void closeIfIdle() {
+        if (!busy)
+            close();
+    }
+
+    private synchronized void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The small part of JSON that the parse server needs: reads a document into HashMap, ArrayList, String, Double,
+ * Boolean and null values, and quotes strings for the responses.
+ */
+public class Json {
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    public static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.readValue();
+        json.skipWhitespace();
+        if (json.position < text.length())
+            throw json.error("unexpected text after the value");
+        return value;
+    }
+
+    public static String quote(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                builder.append('\\').append(c);
+            else if (c == '\n')
+                builder.append("\\n");
+            else if (c == '\r')
+                builder.append("\\r");
+            else if (c == '\t')
+                builder.append("\\t");
+            else if (c < 0x20)
+                builder.append(String.format("\\u%04x", (int) c));
+            else
+                builder.append(c);
+        }
+        return builder.append('"').toString();
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (position >= text.length())
+            throw error("unexpected end of the document");
+        char c = text.charAt(position);
+        if (c == '{')
+            return readObject();
+        if (c == '[')
+            return readArray();
+        if (c == '"')
+            return readString();
+        if (text.startsWith("true", position)) {
+            position += 4;
+            return Boolean.TRUE;
+        }
+        if (text.startsWith("false", position)) {
+            position += 5;
+            return Boolean.FALSE;
+        }
+        if (text.startsWith("null", position)) {
+            position += 4;
+            return null;
+        }
+        return readNumber();
+    }
+
+    private HashMap<String, Object> readObject() {
+        HashMap<String, Object> object = new HashMap<String, Object>();
+        position++;
+        skipWhitespace();
+        if (consume('}'))
+            return object;
+        do {
+            skipWhitespace();
+            if (position >= text.length() || text.charAt(position) != '"')
+                throw error("expected a key");
+            String key = readString();
+            skipWhitespace();
+            if (!consume(':'))
+                throw error("expected ':'");
+            object.put(key, readValue());
+            skipWhitespace();
+        } while (consume(','));
+        if (!consume('}'))
+            throw error("expected ',' or '}'");
+        return object;
+    }
+
+    private ArrayList<Object> readArray() {
+        ArrayList<Object> array = new ArrayList<Object>();
+        position++;
+        skipWhitespace();
+        if (consume(']'))
+            return array;
+        do {
+            array.add(readValue());
+            skipWhitespace();
+        } while (consume(','));
+        if (!consume(']'))
+            throw error("expected ',' or ']'");
+        return array;
+    }
+
+    private String readString() {
+        StringBuilder builder = new StringBuilder();
+        position++;
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '"')
+                return builder.toString();
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (position >= text.length())
+                break;
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > text.length())
+                        throw error("bad unicode escape");
+                    try {
+                        builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("bad unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private Double readNumber() {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0)
+            position++;
+        try {
+            return Double.valueOf(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            position = start;
+            throw error("unexpected character");
+        }
+    }
+
+    private boolean consume(char c) {
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+            position++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
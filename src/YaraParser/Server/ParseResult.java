@@ -0,0 +1,41 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Server;
+
+/**
+ * The tree of one parsed sentence: for the i'th word, heads[i] is the 1-based index of its head (0 for the root) and
+ * labels[i] is its dependency label. The score is the score of the best beam item divided by the sentence length,
+ * as in the score file of parse_conll.
+ */
+public class ParseResult {
+    public final int[] heads;
+    public final String[] labels;
+    public final float score;
+
+    public ParseResult(int[] heads, String[] labels, float score) {
+        this.heads = heads;
+        this.labels = labels;
+        this.score = score;
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"heads\":[");
+        for (int i = 0; i < heads.length; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(heads[i]);
+        }
+        builder.append("],\"labels\":[");
+        for (int i = 0; i < labels.length; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(Json.quote(labels[i]));
+        }
+        builder.append("],\"score\":").append(score).append('}');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,363 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Server;
+
+import YaraParser.Accessories.ParseExecutors;
+import YaraParser.Metrics.ParserMetrics;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.Sentence;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one model in memory and parses the sentences sent to it, over HTTP with JSON and over a length-prefixed
+ * binary protocol (see {@link BinaryConnection}).
+ * <p/>
+ * HTTP: POST /parse with {"words":["I","am","here","."],"tags":["PRP","VBP","RB","."],"beam":8} gives
+ * {"heads":[2,0,2,2],"labels":["nsubj","root","advmod","punct"],"score":1.5}; "beam" is optional and defaults to the
+ * beam width of the model. GET /health gives 200 while serving and 503 while draining.
+ * <p/>
+ * Each sentence is parsed on one of the worker threads. The requests wait in a bounded queue and are refused (503 in
+ * HTTP, {@link BinaryConnection#BUSY} in the binary protocol) when it is full, so that the latency stays bounded
+ * under overload. With a batch size above one, the sentences of concurrent requests are parsed together by a
+ * {@link BatchScheduler} instead. {@link #stop(int)} drains: it refuses new requests and answers the queued ones
+ * before shutting down. The HTTP listener stays up until they are answered, so that load balancers see the 503 of
+ * /health, and the binary listener is closed at once.
+ */
+public class ParseServer {
+    public static final int MAX_BEAM_WIDTH = 1024;
+    static final int MAX_REQUEST_BYTES = 1 << 20;
+
+    private final KBeamArcEagerParser parser;
+    private final IndexMaps maps;
+    private final boolean rootFirst;
+    private final boolean lowerCased;
+    private final int beamWidth;
+
+    final ThreadPoolExecutor workers;
+    /**
+     * Takes the place of the workers when the sentences are parsed in batches
+     */
+    private final BatchScheduler batchScheduler;
+    /**
+     * Runs the HTTP exchanges and the binary connections; they only wait for the workers
+     */
+    private final ExecutorService connections;
+    private final Set<BinaryConnection> openConnections;
+
+    private HttpServer httpServer;
+    private ServerSocket binarySocket;
+    private volatile boolean draining;
+    private final CountDownLatch stopped;
+
+    public ParseServer(InfStruct infStruct, int numOfThreads, int queueSize) throws Exception {
+        this(infStruct, numOfThreads, queueSize, 1, 0);
+    }
+
+    public ParseServer(InfStruct infStruct, int numOfThreads, int queueSize, int maxBatch, int maxWaitMicros) throws Exception {
+        this(infStruct, numOfThreads, queueSize, maxBatch, maxWaitMicros, false);
+    }
+
+    /**
+     * @param numOfThreads  the number of sentences (or batches) parsed at the same time
+     * @param queueSize     the number of sentences that can wait for a worker before the requests are refused
+     * @param maxBatch      the largest number of sentences parsed together; 1 for no batching
+     * @param maxWaitMicros how long a sentence may wait for others to fill its batch
+     * @param virtualThreads run the HTTP exchanges and the binary connections on virtual threads (Java 21 and later)
+     */
+    public ParseServer(InfStruct infStruct, int numOfThreads, int queueSize, int maxBatch, int maxWaitMicros,
+                       boolean virtualThreads) throws Exception {
+        // every sentence is parsed on one worker thread, so the parser needs no threads of its own
+        parser = KBeamArcEagerParser.createParser(infStruct, 1);
+        maps = infStruct.maps;
+        rootFirst = infStruct.options.rootFirst;
+        lowerCased = infStruct.options.lowercase;
+        beamWidth = infStruct.options.beamWidth;
+
+        if (maxBatch > 1) {
+            workers = null;
+            batchScheduler = new BatchScheduler(parser, maps, rootFirst, lowerCased, numOfThreads, queueSize, maxBatch,
+                    maxWaitMicros, ParseExecutors.daemonThreads("parse-worker"));
+        } else {
+            workers = new ThreadPoolExecutor(numOfThreads, numOfThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), ParseExecutors.daemonThreads("parse-worker"));
+            ParserMetrics.get().monitor(workers);
+            batchScheduler = null;
+        }
+        ExecutorService virtualConnections = virtualThreads ? ParseExecutors.newVirtualThreadExecutor() : null;
+        if (virtualThreads && virtualConnections == null)
+            System.err.println("this Java version has no virtual threads; using platform threads for the connections");
+        connections = virtualConnections != null ? virtualConnections
+                : Executors.newCachedThreadPool(ParseExecutors.daemonThreads("parse-connection"));
+        openConnections = Collections.newSetFromMap(new ConcurrentHashMap<BinaryConnection, Boolean>());
+        stopped = new CountDownLatch(1);
+    }
+
+    /**
+     * @param httpPort   the HTTP port; 0 for no HTTP
+     * @param binaryPort the port of the binary protocol; 0 for no binary protocol
+     */
+    public void start(String host, int httpPort, int binaryPort) throws IOException {
+        if (httpPort > 0) {
+            httpServer = HttpServer.create(new InetSocketAddress(host, httpPort), 0);
+            httpServer.createContext("/parse", new ParseHandler());
+            httpServer.createContext("/health", new HealthHandler());
+            httpServer.setExecutor(connections);
+            httpServer.start();
+        }
+        if (binaryPort > 0) {
+            binarySocket = new ServerSocket();
+            binarySocket.bind(new InetSocketAddress(host, binaryPort));
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    acceptConnections();
+                }
+            }, "parse-binary-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+    }
+
+    private void acceptConnections() {
+        while (!draining) {
+            try {
+                Socket socket = binarySocket.accept();
+                BinaryConnection connection = new BinaryConnection(this, socket);
+                openConnections.add(connection);
+                connections.execute(connection);
+            } catch (IOException e) {
+                if (!draining)
+                    System.err.println("binary connection failed: " + e.getMessage());
+            } catch (RejectedExecutionException e) {
+                // draining
+            }
+        }
+    }
+
+    void closed(BinaryConnection connection) {
+        openConnections.remove(connection);
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Queues the sentence for parsing
+     *
+     * @param beamWidth the beam width for this sentence; 0 for the beam width of the model
+     * @throws IllegalArgumentException   if the request is not well-formed
+     * @throws RejectedExecutionException if the queue is full or the server is draining
+     */
+    public Future<ParseResult> submit(final String[] words, final String[] tags, int beamWidth) {
+        if (words.length == 0)
+            throw new IllegalArgumentException("no words");
+        if (words.length != tags.length)
+            throw new IllegalArgumentException(words.length + " words but " + tags.length + " tags");
+        for (String word : words)
+            if (word.length() == 0)
+                throw new IllegalArgumentException("empty word");
+        if (beamWidth < 0 || beamWidth > MAX_BEAM_WIDTH)
+            throw new IllegalArgumentException("the beam width should be between 1 and " + MAX_BEAM_WIDTH + " (or 0 for the beam width of the model)");
+        if (draining)
+            throw new RejectedExecutionException("the server is shutting down");
+
+        final int width = beamWidth > 0 ? beamWidth : this.beamWidth;
+        if (batchScheduler != null)
+            return batchScheduler.submit(words, tags, width);
+        return workers.submit(new Callable<ParseResult>() {
+            @Override
+            public ParseResult call() throws Exception {
+                return parse(words, tags, width);
+            }
+        });
+    }
+
+    private ParseResult parse(String[] words, String[] tags, int beamWidth) throws Exception {
+        Sentence sentence = maps.makeSentence(words, tags, rootFirst, lowerCased);
+        return result(parser.parse(sentence, rootFirst, beamWidth, 1), words.length, maps);
+    }
+
+    static ParseResult result(Configuration bestParse, int length, IndexMaps maps) {
+        int[] heads = new int[length];
+        String[] labels = new String[length];
+        for (int i = 0; i < length; i++) {
+            int head = bestParse.state.getHead(i + 1);
+            if (head == bestParse.state.rootIndex)
+                head = 0;
+            heads[i] = head;
+            labels[i] = head == 0 ? maps.rootString : maps.revWords[bestParse.state.getDependency(i + 1)];
+        }
+        return new ParseResult(heads, labels, bestParse.score / bestParse.sentence.size());
+    }
+
+    /**
+     * Refuses new requests, answers the requests already taken, and then stops listening and shuts the threads down
+     *
+     * @param graceSeconds how long to wait for the taken requests
+     */
+    public void stop(int graceSeconds) throws InterruptedException {
+        synchronized (this) {
+            if (draining) {
+                stopped.await();
+                return;
+            }
+            draining = true;
+        }
+        if (binarySocket != null) {
+            try {
+                binarySocket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        if (batchScheduler != null) {
+            batchScheduler.shutdown();
+            batchScheduler.awaitTermination(graceSeconds, TimeUnit.SECONDS);
+        } else {
+            workers.shutdown();
+            workers.awaitTermination(graceSeconds, TimeUnit.SECONDS);
+        }
+        // until now the new exchanges were answered 503; the ones in progress only have their answers left to write.
+        // Before Java 21 the HTTP server waits for the whole delay even when no exchange is left, so it is short.
+        if (httpServer != null)
+            httpServer.stop(1);
+        for (BinaryConnection connection : openConnections)
+            connection.closeIfIdle();
+        connections.shutdown();
+        connections.awaitTermination(graceSeconds, TimeUnit.SECONDS);
+        if (batchScheduler != null)
+            batchScheduler.shutdownNow();
+        else
+            workers.shutdownNow();
+        connections.shutdownNow();
+        parser.close();
+        stopped.countDown();
+    }
+
+    public int queued() {
+        return batchScheduler != null ? batchScheduler.queued() : workers.getQueue().size();
+    }
+
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    private static String[] strings(Object value, String name) {
+        if (!(value instanceof ArrayList))
+            throw new IllegalArgumentException("\"" + name + "\" should be an array of strings");
+        ArrayList<?> array = (ArrayList<?>) value;
+        String[] strings = new String[array.size()];
+        for (int i = 0; i < strings.length; i++) {
+            if (!(array.get(i) instanceof String))
+                throw new IllegalArgumentException("\"" + name + "\" should be an array of strings");
+            strings[i] = (String) array.get(i);
+        }
+        return strings;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] body = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream stream = exchange.getResponseBody();
+        stream.write(body);
+        stream.close();
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.quote(message == null ? "" : message) + "}";
+    }
+
+    private class ParseHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!exchange.getRequestMethod().equals("POST")) {
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    respond(exchange, 405, error("use POST"));
+                    return;
+                }
+                Object document = Json.parse(readBody(exchange.getRequestBody()));
+                if (!(document instanceof HashMap))
+                    throw new IllegalArgumentException("the request should be a JSON object");
+                HashMap<?, ?> request = (HashMap<?, ?>) document;
+                int beam = 0;
+                if (request.get("beam") != null) {
+                    if (!(request.get("beam") instanceof Double))
+                        throw new IllegalArgumentException("\"beam\" should be a number");
+                    beam = ((Double) request.get("beam")).intValue();
+                }
+                ParseResult result = submit(strings(request.get("words"), "words"), strings(request.get("tags"), "tags"), beam).get();
+                respond(exchange, 200, result.toJson());
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, error(e.getMessage()));
+            } catch (RejectedExecutionException e) {
+                respond(exchange, 503, error(draining ? "the server is shutting down" : "too many requests"));
+            } catch (ExecutionException e) {
+                respond(exchange, 500, error(e.getCause().toString()));
+            } catch (InterruptedException e) {
+                respond(exchange, 503, error("the server is shutting down"));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private String readBody(InputStream stream) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+                if (body.size() > MAX_REQUEST_BYTES)
+                    throw new IllegalArgumentException("the request is longer than " + MAX_REQUEST_BYTES + " bytes");
+            }
+            return body.toString("UTF-8");
+        }
+    }
+
+    private class HealthHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (draining)
+                    respond(exchange, 503, "{\"status\":\"draining\"}");
+                else
+                    respond(exchange, 200, "{\"status\":\"ok\",\"queued\":" + queued() + "}");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
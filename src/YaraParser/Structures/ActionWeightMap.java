@@ -0,0 +1,261 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import YaraParser.Learning.ScoreKernels;
+
+import java.util.Arrays;
+
+/**
+ * Maps a primitive long feature to all of its weights at once: the shift and reduce weights and
+ * the per-label right-arc and left-arc rows live in arrays parallel to the keys, so a single probe
+ * gives everything needed to score one feature for every action.
+ * <p/>
+ * A feature that was never updated for an arc action has a null row for it.
+ * <p/>
+ * An arc row is either sparse, a {@link CompactArray} window over the labels seen so far, or dense, dependencySize
+ * weights in a slab shared by all the features of the map. In training, a feature gets a sparse row for its first
+ * label and moves to a dense row once it is updated for a label outside of it; rare features stay small, and a
+ * frequent one is copied once instead of every time its window widens. Maps built without a dependencySize (the
+ * models loaded for parsing) only have sparse rows.
+ * <p/>
+ * One thread at a time may update the map while others score with it: a sparse row that has to widen is replaced by
+ * a wider copy instead of being changed in place, so a reader never pairs the offset of one row with the weights of
+ * another, and a slab that has to grow is replaced before any row start points past the end of the old one.
+ */
+public class ActionWeightMap extends LongHashTable implements TrainableWeightTable, KeyedWeightTable {
+    private static final int INITIAL_SLAB_ROWS = 16;
+
+    /**
+     * The length of a dense row, or 0 if the map only keeps sparse rows
+     */
+    private final int dependencySize;
+    private float[] shiftWeights;
+    private float[] reduceWeights;
+    private CompactArray[] rightArcWeights;
+    private CompactArray[] leftArcWeights;
+    /**
+     * Start of the dense right-arc (left-arc) row of every slot in its slab, or -1 if the slot has none
+     */
+    private int[] rightArcRows;
+    private int[] leftArcRows;
+    private volatile float[] rightArcSlab;
+    private volatile float[] leftArcSlab;
+    private int rightArcSlabEnd;
+    private int leftArcSlabEnd;
+
+    public ActionWeightMap() {
+        this(16);
+    }
+
+    public ActionWeightMap(int expectedSize) {
+        this(expectedSize, 0);
+    }
+
+    /**
+     * @param dependencySize the number of labels, for a map that moves the rows of frequent features to dense rows;
+     *                       0 to keep only sparse rows
+     */
+    public ActionWeightMap(int expectedSize, int dependencySize) {
+        super(expectedSize);
+        this.dependencySize = dependencySize;
+        shiftWeights = new float[keys.length];
+        reduceWeights = new float[keys.length];
+        rightArcWeights = new CompactArray[keys.length];
+        leftArcWeights = new CompactArray[keys.length];
+        rightArcRows = noRows(keys.length);
+        leftArcRows = noRows(keys.length);
+    }
+
+    private static int[] noRows(int length) {
+        int[] rows = new int[length];
+        Arrays.fill(rows, -1);
+        return rows;
+    }
+
+    public float shiftWeight(int slot) {
+        return shiftWeights[slot];
+    }
+
+    public float reduceWeight(int slot) {
+        return reduceWeights[slot];
+    }
+
+    public CompactArray rightArcWeights(int slot) {
+        return arcWeights(true, slot);
+    }
+
+    public CompactArray leftArcWeights(int slot) {
+        return arcWeights(false, slot);
+    }
+
+    /**
+     * @return the row itself if it is sparse, or a copy of it if it is dense
+     */
+    public CompactArray arcWeights(boolean rightArc, int slot) {
+        int start = rightArc ? rightArcRows[slot] : leftArcRows[slot];
+        if (start >= 0) {
+            float[] slab = rightArc ? rightArcSlab : leftArcSlab;
+            return new CompactArray(0, Arrays.copyOfRange(slab, start, start + dependencySize));
+        }
+        return rightArc ? rightArcWeights[slot] : leftArcWeights[slot];
+    }
+
+    public void addArcWeights(boolean rightArc, int slot, float[] scores, int base) {
+        int start = rightArc ? rightArcRows[slot] : leftArcRows[slot];
+        if (start >= 0) {
+            float[] slab = rightArc ? rightArcSlab : leftArcSlab;
+            if (slab == null || start + dependencySize > slab.length) // a row published by another thread that is not fully visible yet
+                return;
+            ScoreKernels.get().addRow(slab, start, scores, base, dependencySize);
+            return;
+        }
+        CompactArray values = rightArc ? rightArcWeights[slot] : leftArcWeights[slot];
+        if (values == null)
+            return;
+        int offset = base + values.getOffset();
+        float[] weightVector = values.getArray();
+        if (weightVector == null) // a row published by another thread that is not fully visible yet
+            return;
+        ScoreKernels.get().addRow(weightVector, 0, scores, offset, weightVector.length);
+    }
+
+    public void addShiftWeight(long key, float change) {
+        int slot = insert(key);
+        shiftWeights[slot] += change;
+    }
+
+    public void addReduceWeight(long key, float change) {
+        int slot = insert(key);
+        reduceWeights[slot] += change;
+    }
+
+    /**
+     * Adds the change to the weight of the label in the right-arc (or left-arc) row of the key, creating the row, or
+     * moving it to a dense row (or widening it if the map has no dense rows), if needed
+     */
+    public void addArcWeight(boolean rightArc, long key, int labelIndex, float change) {
+        int slot = insert(key);
+        int[] starts = rightArc ? rightArcRows : leftArcRows;
+        if (starts[slot] >= 0) {
+            (rightArc ? rightArcSlab : leftArcSlab)[starts[slot] + labelIndex] += change;
+            return;
+        }
+        CompactArray[] rows = rightArc ? rightArcWeights : leftArcWeights;
+        if (rows[slot] == null) {
+            rows[slot] = new CompactArray(labelIndex, new float[]{change});
+        } else if (rows[slot].covers(labelIndex)) {
+            rows[slot].expandArray(labelIndex, change);
+        } else if (dependencySize > 0) {
+            int start = newDenseRow(rightArc, rows[slot]);
+            (rightArc ? rightArcSlab : leftArcSlab)[start + labelIndex] += change;
+            // the dense row is checked first, so a reader sees one of the two rows until the sparse one is gone
+            starts[slot] = start;
+            rows[slot] = null;
+        } else {
+            rows[slot] = rows[slot].expandedCopy(labelIndex, change);
+        }
+    }
+
+    /**
+     * Takes the next dense row of the slab, growing the slab if it is full, and copies the sparse row into it
+     *
+     * @return the start of the row in the slab
+     */
+    private int newDenseRow(boolean rightArc, CompactArray row) {
+        float[] slab = rightArc ? rightArcSlab : leftArcSlab;
+        int start = rightArc ? rightArcSlabEnd : leftArcSlabEnd;
+        if (slab == null || start + dependencySize > slab.length) {
+            float[] newSlab = new float[slab == null ? INITIAL_SLAB_ROWS * dependencySize : 2 * slab.length];
+            if (slab != null)
+                System.arraycopy(slab, 0, newSlab, 0, start);
+            if (rightArc)
+                rightArcSlab = newSlab;
+            else
+                leftArcSlab = newSlab;
+            slab = newSlab;
+        }
+        System.arraycopy(row.getArray(), 0, slab, start + row.getOffset(), row.length());
+        if (rightArc)
+            rightArcSlabEnd = start + dependencySize;
+        else
+            leftArcSlabEnd = start + dependencySize;
+        return start;
+    }
+
+    /**
+     * Replaces the right-arc (or left-arc) row of the key
+     */
+    public void setArcWeights(boolean rightArc, long key, CompactArray row) {
+        setRow(rightArc, insert(key), row);
+    }
+
+    public void put(long key, float shiftWeight, float reduceWeight, CompactArray rightArcRow, CompactArray leftArcRow) {
+        int slot = insert(key);
+        shiftWeights[slot] = shiftWeight;
+        reduceWeights[slot] = reduceWeight;
+        setRow(true, slot, rightArcRow);
+        setRow(false, slot, leftArcRow);
+    }
+
+    private void setRow(boolean rightArc, int slot, CompactArray row) {
+        if (rightArc) {
+            rightArcWeights[slot] = row;
+            rightArcRows[slot] = -1;
+        } else {
+            leftArcWeights[slot] = row;
+            leftArcRows[slot] = -1;
+        }
+    }
+
+    /**
+     * Adds scale times every weight of the other table to this one
+     */
+    public void addScaled(KeyedWeightTable other, float scale) {
+        for (long key : other.keys()) {
+            int slot = other.indexOf(key);
+            addShiftWeight(key, scale * other.shiftWeight(slot));
+            addReduceWeight(key, scale * other.reduceWeight(slot));
+            addScaledRow(true, key, other.arcWeights(true, slot), scale);
+            addScaledRow(false, key, other.arcWeights(false, slot), scale);
+        }
+    }
+
+    private void addScaledRow(boolean rightArc, long key, CompactArray row, float scale) {
+        if (row == null)
+            return;
+        float[] values = row.getArray();
+        for (int d = 0; d < values.length; d++)
+            addArcWeight(rightArc, key, row.getOffset() + d, scale * values[d]);
+    }
+
+    @Override
+    protected void remapValues(int[] oldToNew, int newLength) {
+        float[] newShift = new float[newLength];
+        float[] newReduce = new float[newLength];
+        CompactArray[] newRightArc = new CompactArray[newLength];
+        CompactArray[] newLeftArc = new CompactArray[newLength];
+        int[] newRightArcRows = noRows(newLength);
+        int[] newLeftArcRows = noRows(newLength);
+        for (int i = 0; i < oldToNew.length; i++) {
+            int slot = oldToNew[i];
+            if (slot >= 0) {
+                newShift[slot] = shiftWeights[i];
+                newReduce[slot] = reduceWeights[i];
+                newRightArc[slot] = rightArcWeights[i];
+                newLeftArc[slot] = leftArcWeights[i];
+                newRightArcRows[slot] = rightArcRows[i];
+                newLeftArcRows[slot] = leftArcRows[i];
+            }
+        }
+        shiftWeights = newShift;
+        reduceWeights = newReduce;
+        rightArcWeights = newRightArc;
+        leftArcWeights = newLeftArc;
+        rightArcRows = newRightArcRows;
+        leftArcRows = newLeftArcRows;
+    }
+}
@@ -1,6 +1,7 @@
 package YaraParser.Structures;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * Created by Mohammad Sadegh Rasooli.
@@ -11,6 +12,8 @@ import java.io.Serializable;
  */
 
 public class CompactArray implements Serializable {
+    private static final long serialVersionUID = -5539380530312052309L;
+
     float[] array;
     int offset;
 
@@ -44,6 +47,46 @@ public class CompactArray implements Serializable {
         }
     }
 
+    public boolean covers(int index) {
+        return index >= offset && index < offset + array.length;
+    }
+
+    /**
+     * Same as {@link #expandArray} on a copy, leaving this array as it is
+     */
+    public CompactArray expandedCopy(int index, float value) {
+        int newOffset = Math.min(offset, index);
+        int newEnd = Math.max(offset + array.length, index + 1);
+        float[] newArray = new float[newEnd - newOffset];
+        System.arraycopy(array, 0, newArray, offset - newOffset, array.length);
+        newArray[index - newOffset] += value;
+        return new CompactArray(newOffset, newArray);
+    }
+
+    /**
+     * @return the weight of the index, 0 outside of the array
+     */
+    public float get(int index) {
+        return covers(index) ? array[index - offset] : 0f;
+    }
+
+    /**
+     * @return this array without the zeros at its two ends (a copy if there are any), or null if it is all zeros
+     */
+    public CompactArray trimmed() {
+        int first = 0;
+        int last = array.length - 1;
+        while (first <= last && array[first] == 0f)
+            first++;
+        while (last >= first && array[last] == 0f)
+            last--;
+        if (first > last)
+            return null;
+        if (first == 0 && last == array.length - 1)
+            return this;
+        return new CompactArray(offset + first, Arrays.copyOfRange(array, first, last + 1));
+    }
+
     public float[] getArray() {
         return array;
     }
@@ -0,0 +1,301 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import YaraParser.Learning.ScoreKernels;
+
+/**
+ * The weights of a loaded model in a read-only form for parsing. Instead of a hash table per feature slot with a
+ * row object per feature, all the feature slots share a few primitive arrays: every feature is an entry with its
+ * shift and reduce weights and the place of its arc rows in one pool of weights.
+ * <p/>
+ * The features are found with cuckoo hashing: each slot has a key table in which a feature can only be in one of two
+ * positions, so a lookup reads at most two keys, whether the feature is in the model or not. A table is built with
+ * other hash seeds (and grown) until every feature finds a place.
+ * <p/>
+ * Nothing changes after {@link #freeze}, so any number of threads can score with the model without synchronization.
+ * The feature slots see the weights through {@link FrozenWeightTable}s.
+ */
+public final class FrozenModel {
+    private static final float MAX_LOAD = 0.45f;
+    private static final int MAX_KICKS = 256;
+    private static final int ATTEMPTS_PER_CAPACITY = 4;
+    /**
+     * Per entry: start in the pool, first label and length of the right-arc row, then the same for the left-arc row;
+     * a missing row has length 0
+     */
+    private static final int ROW_INTS = 6;
+
+    public final int dependencySize;
+
+    /**
+     * Per feature slot: the start of its key table in keys and entries, the table size - 1 and the hash seed
+     */
+    private final int[] tableStarts;
+    private final int[] tableMasks;
+    private final long[] tableSeeds;
+    private final long[] keys;
+    /**
+     * The entry of the key at the same position, or -1 for an empty position
+     */
+    private final int[] entries;
+    /**
+     * The entries of feature slot i are entryStarts[i] to entryStarts[i + 1] - 1
+     */
+    private final int[] entryStarts;
+
+    private final float[] shiftWeights;
+    private final float[] reduceWeights;
+    private final int[] rows;
+    private final float[] arcWeights;
+
+    private FrozenModel(int dependencySize, int[] tableStarts, int[] tableMasks, long[] tableSeeds, long[] keys,
+                        int[] entries, int[] entryStarts, float[] shiftWeights, float[] reduceWeights, int[] rows,
+                        float[] arcWeights) {
+        this.dependencySize = dependencySize;
+        this.tableStarts = tableStarts;
+        this.tableMasks = tableMasks;
+        this.tableSeeds = tableSeeds;
+        this.keys = keys;
+        this.entries = entries;
+        this.entryStarts = entryStarts;
+        this.shiftWeights = shiftWeights;
+        this.reduceWeights = reduceWeights;
+        this.rows = rows;
+        this.arcWeights = arcWeights;
+    }
+
+    /**
+     * Copies the weights of all the feature slots of a model
+     *
+     * @throws IllegalArgumentException if the model has more weights than an array can hold
+     */
+    public static FrozenModel freeze(KeyedWeightTable[] tables, int dependencySize) {
+        int featureSize = tables.length;
+        long[][] slotKeys = new long[featureSize][];
+        long entryCount = 0;
+        long poolLength = 0;
+        for (int i = 0; i < featureSize; i++) {
+            slotKeys[i] = tables[i].keys();
+            entryCount += slotKeys[i].length;
+            for (long key : slotKeys[i]) {
+                int slot = tables[i].indexOf(key);
+                poolLength += length(tables[i].arcWeights(true, slot)) + length(tables[i].arcWeights(false, slot));
+            }
+        }
+        if (entryCount * ROW_INTS > Integer.MAX_VALUE || poolLength > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("the model is too large to be frozen");
+
+        int[] entryStarts = new int[featureSize + 1];
+        float[] shiftWeights = new float[(int) entryCount];
+        float[] reduceWeights = new float[(int) entryCount];
+        int[] rows = new int[(int) entryCount * ROW_INTS];
+        float[] arcWeights = new float[(int) poolLength];
+        KeyTable[] keyTables = new KeyTable[featureSize];
+        long keyTableLength = 0;
+        int entry = 0;
+        int poolEnd = 0;
+        for (int i = 0; i < featureSize; i++) {
+            entryStarts[i] = entry;
+            for (long key : slotKeys[i]) {
+                int slot = tables[i].indexOf(key);
+                shiftWeights[entry] = tables[i].shiftWeight(slot);
+                reduceWeights[entry] = tables[i].reduceWeight(slot);
+                poolEnd = copyRow(tables[i].arcWeights(true, slot), rows, entry * ROW_INTS, arcWeights, poolEnd);
+                poolEnd = copyRow(tables[i].arcWeights(false, slot), rows, entry * ROW_INTS + 3, arcWeights, poolEnd);
+                entry++;
+            }
+            keyTables[i] = KeyTable.build(slotKeys[i], entryStarts[i]);
+            keyTableLength += keyTables[i].keys.length;
+            slotKeys[i] = null;
+        }
+        entryStarts[featureSize] = entry;
+        if (keyTableLength > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("the model is too large to be frozen");
+
+        int[] tableStarts = new int[featureSize];
+        int[] tableMasks = new int[featureSize];
+        long[] tableSeeds = new long[featureSize];
+        long[] keys = new long[(int) keyTableLength];
+        int[] entries = new int[(int) keyTableLength];
+        int start = 0;
+        for (int i = 0; i < featureSize; i++) {
+            KeyTable table = keyTables[i];
+            tableStarts[i] = start;
+            tableMasks[i] = table.keys.length - 1;
+            tableSeeds[i] = table.seed;
+            System.arraycopy(table.keys, 0, keys, start, table.keys.length);
+            System.arraycopy(table.entries, 0, entries, start, table.entries.length);
+            start += table.keys.length;
+        }
+        return new FrozenModel(dependencySize, tableStarts, tableMasks, tableSeeds, keys, entries, entryStarts,
+                shiftWeights, reduceWeights, rows, arcWeights);
+    }
+
+    private static int length(CompactArray row) {
+        return row == null ? 0 : row.length();
+    }
+
+    private static int copyRow(CompactArray row, int[] rows, int index, float[] pool, int poolEnd) {
+        if (row == null)
+            return poolEnd;
+        System.arraycopy(row.getArray(), 0, pool, poolEnd, row.length());
+        rows[index] = poolEnd;
+        rows[index + 1] = row.getOffset();
+        rows[index + 2] = row.length();
+        return poolEnd + row.length();
+    }
+
+    /**
+     * @return a view of each feature slot
+     */
+    public FrozenWeightTable[] tables() {
+        FrozenWeightTable[] tables = new FrozenWeightTable[tableStarts.length];
+        for (int i = 0; i < tables.length; i++)
+            tables[i] = new FrozenWeightTable(this, i);
+        return tables;
+    }
+
+    public int featureSize() {
+        return tableStarts.length;
+    }
+
+    /**
+     * @return the entry of the feature in the feature slot, or -1 if the feature has no weights
+     */
+    public int indexOf(int slotIndex, long key) {
+        int start = tableStarts[slotIndex];
+        int mask = tableMasks[slotIndex];
+        long seed = tableSeeds[slotIndex];
+        int position = start + firstPosition(key, seed, mask);
+        if (keys[position] == key && entries[position] >= 0)
+            return entries[position];
+        position = start + secondPosition(key, seed, mask);
+        if (keys[position] == key && entries[position] >= 0)
+            return entries[position];
+        return -1;
+    }
+
+    public float shiftWeight(int entry) {
+        return shiftWeights[entry];
+    }
+
+    public float reduceWeight(int entry) {
+        return reduceWeights[entry];
+    }
+
+    public void addArcWeights(boolean rightArc, int entry, float[] scores, int base) {
+        int row = entry * ROW_INTS + (rightArc ? 0 : 3);
+        int length = rows[row + 2];
+        if (length > 0)
+            ScoreKernels.get().addRow(arcWeights, rows[row], scores, base + rows[row + 1], length);
+    }
+
+    /**
+     * @return a copy of the right-arc (or left-arc) row of the entry, or null if it has none
+     */
+    public CompactArray arcWeights(boolean rightArc, int entry) {
+        int row = entry * ROW_INTS + (rightArc ? 0 : 3);
+        int length = rows[row + 2];
+        if (length == 0)
+            return null;
+        float[] values = new float[length];
+        System.arraycopy(arcWeights, rows[row], values, 0, length);
+        return new CompactArray(rows[row + 1], values);
+    }
+
+    public int size(int slotIndex) {
+        return entryStarts[slotIndex + 1] - entryStarts[slotIndex];
+    }
+
+    public long[] keys(int slotIndex) {
+        long[] result = new long[size(slotIndex)];
+        int index = 0;
+        int start = tableStarts[slotIndex];
+        for (int position = start; position <= start + tableMasks[slotIndex]; position++)
+            if (entries[position] >= 0)
+                result[index++] = keys[position];
+        return result;
+    }
+
+    private static int firstPosition(long key, long seed, int mask) {
+        long h = (key ^ seed) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static int secondPosition(long key, long seed, int mask) {
+        long h = (key ^ seed) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h >>> 32) & mask;
+    }
+
+    /**
+     * The cuckoo table of one feature slot while the model is frozen
+     */
+    private static class KeyTable {
+        final long seed;
+        final long[] keys;
+        final int[] entries;
+
+        private KeyTable(int capacity, long seed) {
+            this.seed = seed;
+            keys = new long[capacity];
+            entries = new int[capacity];
+            for (int i = 0; i < capacity; i++)
+                entries[i] = -1;
+        }
+
+        /**
+         * @param firstEntry the entry of keys[0]; the others follow it
+         */
+        static KeyTable build(long[] keys, int firstEntry) {
+            int capacity = 2;
+            while (capacity * MAX_LOAD < keys.length)
+                capacity <<= 1;
+            for (int attempt = 0; ; attempt++) {
+                if (attempt > 0 && attempt % ATTEMPTS_PER_CAPACITY == 0)
+                    capacity <<= 1;
+                KeyTable table = new KeyTable(capacity, attempt * 0x632BE59BD9B4E019L);
+                if (table.placeAll(keys, firstEntry))
+                    return table;
+            }
+        }
+
+        private boolean placeAll(long[] keys, int firstEntry) {
+            for (int i = 0; i < keys.length; i++)
+                if (!place(keys[i], firstEntry + i))
+                    return false;
+            return true;
+        }
+
+        /**
+         * Puts the key in one of its two positions, moving the key found there to its other position, and so on
+         *
+         * @return false if that did not end within MAX_KICKS moves
+         */
+        private boolean place(long key, int entry) {
+            int mask = keys.length - 1;
+            int position = firstPosition(key, seed, mask);
+            if (entries[position] >= 0 && entries[secondPosition(key, seed, mask)] < 0)
+                position = secondPosition(key, seed, mask);
+            for (int kick = 0; kick < MAX_KICKS; kick++) {
+                if (entries[position] < 0) {
+                    keys[position] = key;
+                    entries[position] = entry;
+                    return true;
+                }
+                long evictedKey = keys[position];
+                int evictedEntry = entries[position];
+                keys[position] = key;
+                entries[position] = entry;
+                key = evictedKey;
+                entry = evictedEntry;
+                int first = firstPosition(key, seed, mask);
+                position = position == first ? secondPosition(key, seed, mask) : first;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+/**
+ * The weights of one feature slot in a {@link FrozenModel}. The slot of a feature is its entry in the model.
+ */
+public class FrozenWeightTable implements KeyedWeightTable {
+    private final FrozenModel model;
+    private final int slotIndex;
+
+    FrozenWeightTable(FrozenModel model, int slotIndex) {
+        this.model = model;
+        this.slotIndex = slotIndex;
+    }
+
+    public FrozenModel frozenModel() {
+        return model;
+    }
+
+    @Override
+    public int indexOf(long key) {
+        return model.indexOf(slotIndex, key);
+    }
+
+    @Override
+    public int size() {
+        return model.size(slotIndex);
+    }
+
+    @Override
+    public long[] keys() {
+        return model.keys(slotIndex);
+    }
+
+    @Override
+    public float shiftWeight(int slot) {
+        return model.shiftWeight(slot);
+    }
+
+    @Override
+    public float reduceWeight(int slot) {
+        return model.reduceWeight(slot);
+    }
+
+    @Override
+    public void addArcWeights(boolean rightArc, int slot, float[] scores, int base) {
+        model.addArcWeights(rightArc, slot, scores, base);
+    }
+
+    @Override
+    public CompactArray arcWeights(boolean rightArc, int slot) {
+        return model.arcWeights(rightArc, slot);
+    }
+}
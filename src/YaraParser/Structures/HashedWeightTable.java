@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import YaraParser.Learning.ScoreKernels;
+
+/**
+ * The weights of one feature slot in {@link HashedWeights}. The slot of a feature is its bucket, which always exists,
+ * so {@link #indexOf} never gives -1. The features themselves are not kept, so the table is not a
+ * {@link KeyedWeightTable}.
+ */
+public class HashedWeightTable implements TrainableWeightTable {
+    private final HashedWeights weights;
+    private final int slotIndex;
+    private final int dependencySize;
+
+    HashedWeightTable(HashedWeights weights, int slotIndex) {
+        this.weights = weights;
+        this.slotIndex = slotIndex;
+        dependencySize = weights.dependencySize;
+    }
+
+    public HashedWeights hashedWeights() {
+        return weights;
+    }
+
+    @Override
+    public int indexOf(long key) {
+        return weights.bucket(slotIndex, key);
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    @Override
+    public int size() {
+        return weights.mask + 1;
+    }
+
+    @Override
+    public float shiftWeight(int slot) {
+        return weights.shiftWeights[slot];
+    }
+
+    @Override
+    public float reduceWeight(int slot) {
+        return weights.reduceWeights[slot];
+    }
+
+    @Override
+    public void addArcWeights(boolean rightArc, int slot, float[] scores, int base) {
+        float[] arcWeights = rightArc ? weights.rightArcWeights : weights.leftArcWeights;
+        ScoreKernels.get().addRow(arcWeights, slot * dependencySize, scores, base, dependencySize);
+    }
+
+    @Override
+    public CompactArray arcWeights(boolean rightArc, int slot) {
+        float[] arcWeights = rightArc ? weights.rightArcWeights : weights.leftArcWeights;
+        float[] row = new float[dependencySize];
+        System.arraycopy(arcWeights, slot * dependencySize, row, 0, dependencySize);
+        return new CompactArray(0, row);
+    }
+
+    @Override
+    public void addShiftWeight(long key, float change) {
+        weights.shiftWeights[indexOf(key)] += change;
+    }
+
+    @Override
+    public void addReduceWeight(long key, float change) {
+        weights.reduceWeights[indexOf(key)] += change;
+    }
+
+    @Override
+    public void addArcWeight(boolean rightArc, long key, int labelIndex, float change) {
+        float[] arcWeights = rightArc ? weights.rightArcWeights : weights.leftArcWeights;
+        arcWeights[indexOf(key) * dependencySize + labelIndex] += change;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+/**
+ * The weights of a model with hashed features. Every (feature slot, feature) pair is hashed to one of 2^bits
+ * buckets, and each action group (shift, reduce, right-arc, left-arc) has one array of weights indexed by the bucket,
+ * shared by all the feature slots. The memory does not depend on the number of distinct features and a lookup is a
+ * hash and an array index, but features that fall in the same bucket share their weights.
+ * <p/>
+ * The arc arrays hold a row of dependencySize weights per bucket. The feature slots see the weights through
+ * {@link HashedWeightTable}s.
+ */
+public class HashedWeights {
+    public final int bits;
+    public final int dependencySize;
+    final int mask;
+    final float[] shiftWeights;
+    final float[] reduceWeights;
+    final float[] rightArcWeights;
+    final float[] leftArcWeights;
+
+    public HashedWeights(int bits, int dependencySize) {
+        this(bits, dependencySize, checkSize(bits, dependencySize));
+    }
+
+    private HashedWeights(int bits, int dependencySize, int arcLength) {
+        this(bits, dependencySize, new float[1 << bits], new float[1 << bits], new float[arcLength], new float[arcLength]);
+    }
+
+    HashedWeights(int bits, int dependencySize, float[] shiftWeights, float[] reduceWeights, float[] rightArcWeights, float[] leftArcWeights) {
+        this.bits = bits;
+        this.dependencySize = dependencySize;
+        mask = (1 << bits) - 1;
+        this.shiftWeights = shiftWeights;
+        this.reduceWeights = reduceWeights;
+        this.rightArcWeights = rightArcWeights;
+        this.leftArcWeights = leftArcWeights;
+    }
+
+    /**
+     * @return the length of an arc array
+     * @throws IllegalArgumentException if an arc array would not fit in a model section
+     */
+    public static int checkSize(int bits, int dependencySize) {
+        if (bits < 1 || bits > 30)
+            throw new IllegalArgumentException("the number of hash bits should be between 1 and 30: " + bits);
+        long length = (1L << bits) * dependencySize;
+        if (4 * length + 16 > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(bits + " hash bits are too many for " + dependencySize + " labels");
+        return (int) length;
+    }
+
+    public int bucket(int slotIndex, long key) {
+        long h = (key + slotIndex * 0xC2B2AE3D27D4EB4FL) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return the views of the weights for each of the feature slots
+     */
+    public HashedWeightTable[] tables(int featureLength) {
+        HashedWeightTable[] tables = new HashedWeightTable[featureLength];
+        for (int i = 0; i < featureLength; i++)
+            tables[i] = new HashedWeightTable(this, i);
+        return tables;
+    }
+
+    /**
+     * Adds scale times every weight of the other weights, which have the same number of bits and labels
+     */
+    public void addScaled(HashedWeights other, float scale) {
+        if (other.bits != bits || other.dependencySize != dependencySize)
+            throw new IllegalArgumentException("the hashed weights have different sizes");
+        addScaled(shiftWeights, other.shiftWeights, scale);
+        addScaled(reduceWeights, other.reduceWeights, scale);
+        addScaled(rightArcWeights, other.rightArcWeights, scale);
+        addScaled(leftArcWeights, other.leftArcWeights, scale);
+    }
+
+    /**
+     * @return the averaged weights, with the averaging sums of the perceptron after the given number of updates
+     */
+    public HashedWeights averaged(HashedWeights sums, int iteration) {
+        HashedWeights averaged = new HashedWeights(bits, dependencySize);
+        averaged.addScaled(this, 1f);
+        averaged.addScaled(sums, -1f / iteration);
+        return averaged;
+    }
+
+    public int arcSize(boolean rightArc, boolean onlyNonZero) {
+        float[] weights = rightArc ? rightArcWeights : leftArcWeights;
+        if (!onlyNonZero)
+            return weights.length;
+        int size = 0;
+        for (float weight : weights)
+            if (weight != 0f)
+                size++;
+        return size;
+    }
+
+    private static void addScaled(float[] weights, float[] other, float scale) {
+        for (int i = 0; i < weights.length; i++)
+            weights[i] += scale * other[i];
+    }
+}
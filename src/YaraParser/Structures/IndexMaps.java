@@ -10,6 +10,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 public class IndexMaps implements Serializable {
+    private static final long serialVersionUID = -326017904551091355L;
+
     public final String rootString;
     public String[] revWords;
     private HashMap<String, Integer> wordMap;
@@ -92,6 +94,18 @@ public class IndexMaps implements Serializable {
         return labels;
     }
 
+    public HashMap<Integer, Integer> getBrown4Clusters() {
+        return brown4Clusters;
+    }
+
+    public HashMap<Integer, Integer> getBrown6Clusters() {
+        return brown6Clusters;
+    }
+
+    public HashMap<String, Integer> getBrownFullClusters() {
+        return brownFullClusters;
+    }
+
     public int[] clusterId(String word) {
         int[] ids = new int[3];
         ids[0] = -100;
@@ -2,12 +2,14 @@ package YaraParser.Structures;
 
 import YaraParser.Accessories.Options;
 import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
 
-import java.io.*;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by Mohammad Sadegh Rasooli.
@@ -18,22 +20,15 @@ import java.util.zip.GZIPOutputStream;
  */
 
 public class InfStruct {
-    public HashMap<Object, Float>[] shiftFeatureAveragedWeights;
-    public HashMap<Object, Float>[] reduceFeatureAveragedWeights;
-    public HashMap<Object, CompactArray>[] leftArcFeatureAveragedWeights;
-    public HashMap<Object, CompactArray>[] rightArcFeatureAveragedWeights;
+    public WeightTable[] averagedFeatureWeights;
     public int dependencySize;
 
     public IndexMaps maps;
     public ArrayList<Integer> dependencyLabels;
     public Options options;
 
-    public InfStruct(HashMap<Object, Float>[] shiftFeatureAveragedWeights, HashMap<Object, Float>[] reduceFeatureAveragedWeights, HashMap<Object, CompactArray>[] leftArcFeatureAveragedWeights, HashMap<Object, CompactArray>[] rightArcFeatureAveragedWeights,
-                     IndexMaps maps, ArrayList<Integer> dependencyLabels, Options options, int dependencySize) {
-        this.shiftFeatureAveragedWeights = shiftFeatureAveragedWeights;
-        this.reduceFeatureAveragedWeights = reduceFeatureAveragedWeights;
-        this.leftArcFeatureAveragedWeights = leftArcFeatureAveragedWeights;
-        this.rightArcFeatureAveragedWeights = rightArcFeatureAveragedWeights;
+    public InfStruct(WeightTable[] averagedFeatureWeights, IndexMaps maps, ArrayList<Integer> dependencyLabels, Options options, int dependencySize) {
+        this.averagedFeatureWeights = averagedFeatureWeights;
         this.maps = maps;
         this.dependencyLabels = dependencyLabels;
         this.options = options;
@@ -41,107 +36,146 @@ public class InfStruct {
     }
 
     public InfStruct(AveragedPerceptron perceptron, IndexMaps maps, ArrayList<Integer> dependencyLabels, Options options) {
-        shiftFeatureAveragedWeights = new HashMap[perceptron.shiftFeatureAveragedWeights.length];
-        reduceFeatureAveragedWeights = new HashMap[perceptron.reduceFeatureAveragedWeights.length];
-
-        HashMap<Object, Float>[] map = perceptron.shiftFeatureWeights;
-        HashMap<Object, Float>[] avgMap = perceptron.shiftFeatureAveragedWeights;
+        this.maps = maps;
+        this.dependencyLabels = dependencyLabels;
+        this.options = options;
+        TrainableWeightTable[] map = perceptron.featureWeights;
+        TrainableWeightTable[] avgMap = perceptron.averagedFeatureWeights;
         this.dependencySize = perceptron.dependencySize;
-
-        for (int i = 0; i < shiftFeatureAveragedWeights.length; i++) {
-            shiftFeatureAveragedWeights[i] = new HashMap<Object, Float>();
-            for (Object feat : map[i].keySet()) {
-                float vals = map[i].get(feat);
-                float avgVals = avgMap[i].get(feat);
-                float newVals = vals - (avgVals / perceptron.iteration);
-                shiftFeatureAveragedWeights[i].put(feat, newVals);
-            }
+        int iteration = perceptron.iteration;
+
+        KeyedWeightTable[] keyedMap = keyedWeights(map);
+        if (keyedMap == null) {
+            HashedWeights weights = ((HashedWeightTable) map[0]).hashedWeights();
+            HashedWeights sums = ((HashedWeightTable) avgMap[0]).hashedWeights();
+            this.averagedFeatureWeights = weights.averaged(sums, iteration).tables(map.length);
+            return;
         }
 
-        HashMap<Object, Float>[] map4 = perceptron.reduceFeatureWeights;
-        HashMap<Object, Float>[] avgMap4 = perceptron.reduceFeatureAveragedWeights;
-        this.dependencySize = perceptron.dependencySize;
-
-        for (int i = 0; i < reduceFeatureAveragedWeights.length; i++) {
-            reduceFeatureAveragedWeights[i] = new HashMap<Object, Float>();
-            for (Object feat : map4[i].keySet()) {
-                float vals = map4[i].get(feat);
-                float avgVals = avgMap4[i].get(feat);
-                float newVals = vals - (avgVals / perceptron.iteration);
-                reduceFeatureAveragedWeights[i].put(feat, newVals);
+        ActionWeightMap[] averagedFeatureWeights = new ActionWeightMap[map.length];
+        for (int i = 0; i < averagedFeatureWeights.length; i++) {
+            averagedFeatureWeights[i] = new ActionWeightMap(map[i].size());
+            for (long feat : keyedMap[i].keys()) {
+                int slot = map[i].indexOf(feat);
+                int avgSlot = avgMap[i].indexOf(feat);
+                float shift = map[i].shiftWeight(slot) - (avgMap[i].shiftWeight(avgSlot) / iteration);
+                float reduce = map[i].reduceWeight(slot) - (avgMap[i].reduceWeight(avgSlot) / iteration);
+                CompactArray rightArc = getAveragedCompactArray(map[i].arcWeights(true, slot), avgMap[i].arcWeights(true, avgSlot), iteration);
+                CompactArray leftArc = getAveragedCompactArray(map[i].arcWeights(false, slot), avgMap[i].arcWeights(false, avgSlot), iteration);
+                averagedFeatureWeights[i].put(feat, shift, reduce, rightArc, leftArc);
             }
         }
 
-        leftArcFeatureAveragedWeights = new HashMap[perceptron.leftArcFeatureAveragedWeights.length];
-        HashMap<Object, CompactArray>[] map2 = perceptron.leftArcFeatureWeights;
-        HashMap<Object, CompactArray>[] avgMap2 = perceptron.leftArcFeatureAveragedWeights;
+        this.averagedFeatureWeights = averagedFeatureWeights;
+    }
 
-        for (int i = 0; i < leftArcFeatureAveragedWeights.length; i++) {
-            leftArcFeatureAveragedWeights[i] = new HashMap<Object, CompactArray>();
-            for (Object feat : map2[i].keySet()) {
-                CompactArray vals = map2[i].get(feat);
-                CompactArray avgVals = avgMap2[i].get(feat);
-                leftArcFeatureAveragedWeights[i].put(feat, getAveragedCompactArray(vals, avgVals, perceptron.iteration));
-            }
-        }
+    /**
+     * Loads a model in the binary format of {@link ModelWriter}, or in the older gzipped Java serialization format
+     */
+    public InfStruct(String modelPath) throws Exception {
+        this(modelPath, false);
+    }
 
-        rightArcFeatureAveragedWeights = new HashMap[perceptron.rightArcFeatureAveragedWeights.length];
-        HashMap<Object, CompactArray>[] map3 = perceptron.rightArcFeatureWeights;
-        HashMap<Object, CompactArray>[] avgMap3 = perceptron.rightArcFeatureAveragedWeights;
+    /**
+     * The weights copied on heap are frozen into a {@link FrozenModel}, except for hashed features, whose weight
+     * arrays are already compact.
+     *
+     * @param memoryMap if true, the weight tables of a binary model are memory-mapped read-only instead of being
+     *                  copied on heap; models in the older format are always loaded on heap
+     */
+    public InfStruct(String modelPath, boolean memoryMap) throws Exception {
+        InfStruct model = ModelReader.isBinaryModel(modelPath) ? ModelReader.read(modelPath, memoryMap) : readLegacyModel(modelPath);
+        WeightTable[] weights = model.averagedFeatureWeights;
+        KeyedWeightTable[] keyedWeights = keyedWeights(weights);
+        boolean mapped = memoryMap && weights.length > 0 && weights[0] instanceof MappedWeightTable;
+        if (!mapped && weights.length > 0 && keyedWeights != null)
+            model.averagedFeatureWeights = FrozenModel.freeze(keyedWeights, model.dependencySize).tables();
+        this.averagedFeatureWeights = model.averagedFeatureWeights;
+        this.maps = model.maps;
+        this.dependencyLabels = model.dependencyLabels;
+        this.options = model.options;
+        this.dependencySize = model.dependencySize;
+    }
 
-        for (int i = 0; i < rightArcFeatureAveragedWeights.length; i++) {
-            rightArcFeatureAveragedWeights[i] = new HashMap<Object, CompactArray>();
-            for (Object feat : map3[i].keySet()) {
-                CompactArray vals = map3[i].get(feat);
-                CompactArray avgVals = avgMap3[i].get(feat);
-                rightArcFeatureAveragedWeights[i].put(feat, getAveragedCompactArray(vals, avgVals, perceptron.iteration));
-            }
+    /**
+     * @return the tables as {@link KeyedWeightTable}s, or null if they do not keep their features (hashed features)
+     */
+    public static KeyedWeightTable[] keyedWeights(WeightTable[] tables) {
+        KeyedWeightTable[] keyedTables = new KeyedWeightTable[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            if (!(tables[i] instanceof KeyedWeightTable))
+                return null;
+            keyedTables[i] = (KeyedWeightTable) tables[i];
         }
-
-        this.maps = maps;
-        this.dependencyLabels = dependencyLabels;
-        this.options = options;
+        return keyedTables;
     }
 
-    public InfStruct(String modelPath) throws Exception {
+    /**
+     * Reads a model saved by the older versions of the parser (gzipped Java serialization of per-action hash maps)
+     * and moves its weights into the current tables. Label-set features that were stored as "item|labelSet" strings
+     * are turned into their numeric keys.
+     */
+    public static InfStruct readLegacyModel(String modelPath) throws Exception {
         FileInputStream fos = new FileInputStream(modelPath);
-        GZIPInputStream gz = new GZIPInputStream(fos);
+        GZIPInputStream gz = new GZIPInputStream(new BufferedInputStream(fos, 1 << 16));
 
         ObjectInputStream reader = new ObjectInputStream(gz);
-        dependencyLabels = (ArrayList<Integer>) reader.readObject();
-        maps = (IndexMaps) reader.readObject();
-        options = (Options) reader.readObject();
-        shiftFeatureAveragedWeights = (HashMap<Object, Float>[]) reader.readObject();
-        reduceFeatureAveragedWeights = (HashMap<Object, Float>[]) reader.readObject();
-        leftArcFeatureAveragedWeights = (HashMap<Object, CompactArray>[]) reader.readObject();
-        rightArcFeatureAveragedWeights = (HashMap<Object, CompactArray>[]) reader.readObject();
-        dependencySize = reader.readInt();
+        ArrayList<Integer> dependencyLabels = (ArrayList<Integer>) reader.readObject();
+        IndexMaps maps = (IndexMaps) reader.readObject();
+        Options options = (Options) reader.readObject();
+        HashMap<Object, Float>[] shiftFeatureAveragedWeights = (HashMap<Object, Float>[]) reader.readObject();
+        HashMap<Object, Float>[] reduceFeatureAveragedWeights = (HashMap<Object, Float>[]) reader.readObject();
+        HashMap<Object, CompactArray>[] leftArcFeatureAveragedWeights = (HashMap<Object, CompactArray>[]) reader.readObject();
+        HashMap<Object, CompactArray>[] rightArcFeatureAveragedWeights = (HashMap<Object, CompactArray>[]) reader.readObject();
+        int dependencySize = reader.readInt();
+        reader.close();
+
+        ActionWeightMap[] averagedFeatureWeights = new ActionWeightMap[shiftFeatureAveragedWeights.length];
+        for (int i = 0; i < averagedFeatureWeights.length; i++) {
+            ActionWeightMap weights = new ActionWeightMap(rightArcFeatureAveragedWeights[i].size());
+            for (Object feat : shiftFeatureAveragedWeights[i].keySet())
+                weights.addShiftWeight(legacyFeatureKey(feat), shiftFeatureAveragedWeights[i].get(feat));
+            for (Object feat : reduceFeatureAveragedWeights[i].keySet())
+                weights.addReduceWeight(legacyFeatureKey(feat), reduceFeatureAveragedWeights[i].get(feat));
+            for (Object feat : rightArcFeatureAveragedWeights[i].keySet())
+                weights.setArcWeights(true, legacyFeatureKey(feat), rightArcFeatureAveragedWeights[i].get(feat));
+            for (Object feat : leftArcFeatureAveragedWeights[i].keySet())
+                weights.setArcWeights(false, legacyFeatureKey(feat), leftArcFeatureAveragedWeights[i].get(feat));
+            averagedFeatureWeights[i] = weights;
+        }
+        return new InfStruct(averagedFeatureWeights, maps, dependencyLabels, options, dependencySize);
+    }
+
+    private static long legacyFeatureKey(Object feat) {
+        if (feat instanceof Long)
+            return (Long) feat;
+        String feature = (String) feat;
+        int separator = feature.indexOf('|');
+        return FeatureExtractor.labelSetFeature(Long.parseLong(feature.substring(0, separator)), Long.parseLong(feature.substring(separator + 1)));
     }
 
     public void saveModel(String modelPath) throws Exception {
-        FileOutputStream fos = new FileOutputStream(modelPath);
-        GZIPOutputStream gz = new GZIPOutputStream(fos);
-
-        ObjectOutput writer = new ObjectOutputStream(gz);
-        writer.writeObject(dependencyLabels);
-        writer.writeObject(maps);
-        writer.writeObject(options);
-        writer.writeObject(shiftFeatureAveragedWeights);
-        writer.writeObject(reduceFeatureAveragedWeights);
-        writer.writeObject(leftArcFeatureAveragedWeights);
-        writer.writeObject(rightArcFeatureAveragedWeights);
-        writer.writeInt(dependencySize);
-        writer.close();
+        ModelWriter.write(this, modelPath);
     }
 
+    /**
+     * The weights and their sums may be sparse rows over different windows, or dense rows, so the averaged row covers
+     * both and is trimmed back to its non-zero weights.
+     */
     private CompactArray getAveragedCompactArray(CompactArray ca, CompactArray aca, int iteration) {
+        if (ca == null)
+            return null;
         int offset = ca.getOffset();
-        float[] a = ca.getArray();
-        float[] aa = aca.getArray();
-        float[] aNew = new float[a.length];
-        for (int i = 0; i < a.length; i++) {
-            aNew[i] = a[i] - (aa[i] / iteration);
+        int end = offset + ca.length();
+        if (aca != null) {
+            offset = Math.min(offset, aca.getOffset());
+            end = Math.max(end, aca.getOffset() + aca.length());
+        }
+        float[] aNew = new float[end - offset];
+        for (int i = 0; i < aNew.length; i++) {
+            float sum = aca == null ? 0f : aca.get(offset + i);
+            aNew[i] = ca.get(offset + i) - (sum / iteration);
         }
-        return new CompactArray(offset, aNew);
+        return new CompactArray(offset, aNew).trimmed();
     }
 }
@@ -0,0 +1,17 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+/**
+ * A weight table that keeps its features, so that they can be listed to copy, prune or save the table.
+ * Tables of hashed features only keep their buckets and are not keyed.
+ */
+public interface KeyedWeightTable extends WeightTable {
+    /**
+     * @return all the features of the table
+     */
+    long[] keys();
+}
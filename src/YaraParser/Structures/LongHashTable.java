@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+/**
+ * Key part of an open-addressing hash table over primitive long keys with linear probing.
+ * Subclasses keep their values in arrays parallel to the key array, so a lookup never boxes
+ * the key nor follows a per-entry node.
+ * <p/>
+ * Zero is used as the empty marker of the probing area; the key 0 itself lives in the extra
+ * slot at the end of the arrays (index {@code capacity}).
+ * <p/>
+ * Lookups may run while one other thread inserts (see {@link #grow()}): they never fail and always find the keys
+ * inserted before them, though they may miss a key that is being inserted, and a slot found just before the table
+ * grows may give the values of another key.
+ */
+public abstract class LongHashTable {
+    private static final float MAX_LOAD = 0.6f;
+
+    /**
+     * Written last when the table grows, so that a lookup that sees the new keys also sees the new value arrays
+     */
+    protected volatile long[] keys;
+    protected int mask;
+    protected int size;
+    protected boolean hasZeroKey;
+
+    protected LongHashTable(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        keys = new long[capacity + 1];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the number of probing slots (a power of two) of a table that holds the given number of keys
+     */
+    public static int capacityFor(int expectedSize) {
+        int capacity = 8;
+        while (capacity * MAX_LOAD < expectedSize)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    public static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return the slot of the key, or -1 if the key is not in the table
+     */
+    public final int indexOf(long key) {
+        // the mask is taken from the same array as the keys, so a lookup racing with grow() probes a consistent table
+        long[] keys = this.keys;
+        int mask = keys.length - 2;
+        if (key == 0)
+            return hasZeroKey ? mask + 1 : -1;
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = keys[slot]) != 0) {
+            if (k == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public final boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Returns the slot of the key, inserting it first if needed. Values of a freshly inserted
+     * slot are the default values of the value arrays (0 or null).
+     */
+    protected final int insert(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            return mask + 1;
+        }
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = keys[slot]) != 0) {
+            if (k == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        if ((size + 1) > (mask + 1) * MAX_LOAD) {
+            grow();
+            return insert(key);
+        }
+        keys[slot] = key;
+        size++;
+        return slot;
+    }
+
+    private void grow() {
+        int oldCapacity = mask + 1;
+        int newCapacity = oldCapacity << 1;
+        long[] newKeys = new long[newCapacity + 1];
+        int newMask = newCapacity - 1;
+
+        int[] oldToNew = new int[oldCapacity + 1];
+        for (int i = 0; i < oldCapacity; i++) {
+            long key = keys[i];
+            if (key == 0) {
+                oldToNew[i] = -1;
+                continue;
+            }
+            int slot = hash(key) & newMask;
+            while (newKeys[slot] != 0)
+                slot = (slot + 1) & newMask;
+            newKeys[slot] = key;
+            oldToNew[i] = slot;
+        }
+        oldToNew[oldCapacity] = hasZeroKey ? newCapacity : -1;
+
+        remapValues(oldToNew, newCapacity + 1);
+        mask = newMask;
+        keys = newKeys;
+    }
+
+    /**
+     * Moves the value arrays to a table of the given length; oldToNew[i] is the new slot of old
+     * slot i, or -1 if it was empty.
+     */
+    protected abstract void remapValues(int[] oldToNew, int newLength);
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of all the keys in the table
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int index = 0;
+        for (int i = 0; i <= mask; i++)
+            if (keys[i] != 0)
+                result[index++] = keys[i];
+        if (hasZeroKey)
+            result[index] = 0;
+        return result;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Weights of one feature slot read straight from the table image written by {@link ModelWriter}, usually a
+ * read-only memory-mapped region of the model file; nothing is copied on heap.
+ * <p/>
+ * The image is an open-addressing table with the same hashing and probing as {@link LongHashTable}, with
+ * C probing slots plus the slot for the key 0 at index C:
+ * long[C+1] keys, float[C+1] shift weights, float[C+1] reduce weights, int[C+1] right-arc rows and int[C+1]
+ * left-arc rows (index of the row in the row pool, -1 for no row), then the row pool in 4-byte units where
+ * each row is its offset, its length and its values.
+ * <p/>
+ * Only absolute reads are done on the buffer, so one table can be shared by all the parsing threads.
+ */
+public class MappedWeightTable implements KeyedWeightTable {
+    private final ByteBuffer image;
+    private final int mask;
+    private final int size;
+    private final boolean hasZeroKey;
+
+    private final int shiftBase;
+    private final int reduceBase;
+    private final int rightArcBase;
+    private final int leftArcBase;
+    private final int poolBase;
+
+    public MappedWeightTable(ByteBuffer image, int capacity, int size, boolean hasZeroKey) {
+        this.image = image;
+        this.mask = capacity - 1;
+        this.size = size;
+        this.hasZeroKey = hasZeroKey;
+
+        int slots = capacity + 1;
+        shiftBase = 8 * slots;
+        reduceBase = shiftBase + 4 * slots;
+        rightArcBase = reduceBase + 4 * slots;
+        leftArcBase = rightArcBase + 4 * slots;
+        poolBase = leftArcBase + 4 * slots;
+    }
+
+    /**
+     * @return the byte length of the image of a table with the given capacity and row pool length (in 4-byte units)
+     */
+    public static long imageLength(int capacity, int poolLength) {
+        return 24L * (capacity + 1) + 4L * poolLength;
+    }
+
+    public int indexOf(long key) {
+        if (key == 0)
+            return hasZeroKey ? mask + 1 : -1;
+        int slot = LongHashTable.hash(key) & mask;
+        long k;
+        while ((k = image.getLong(slot << 3)) != 0) {
+            if (k == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long[] keys() {
+        long[] result = new long[size];
+        int index = 0;
+        for (int i = 0; i <= mask; i++) {
+            long key = image.getLong(i << 3);
+            if (key != 0)
+                result[index++] = key;
+        }
+        if (hasZeroKey)
+            result[index] = 0;
+        return result;
+    }
+
+    public float shiftWeight(int slot) {
+        return image.getFloat(shiftBase + (slot << 2));
+    }
+
+    public float reduceWeight(int slot) {
+        return image.getFloat(reduceBase + (slot << 2));
+    }
+
+    public void addArcWeights(boolean rightArc, int slot, float[] scores, int base) {
+        int row = image.getInt((rightArc ? rightArcBase : leftArcBase) + (slot << 2));
+        if (row < 0)
+            return;
+        int position = poolBase + (row << 2);
+        int offset = base + image.getInt(position);
+        int length = image.getInt(position + 4);
+        position += 8;
+        for (int d = 0; d < length; d++)
+            scores[offset + d] += image.getFloat(position + (d << 2));
+    }
+
+    public CompactArray arcWeights(boolean rightArc, int slot) {
+        int row = image.getInt((rightArc ? rightArcBase : leftArcBase) + (slot << 2));
+        if (row < 0)
+            return null;
+        int position = poolBase + (row << 2);
+        float[] values = new float[image.getInt(position + 4)];
+        for (int d = 0; d < values.length; d++)
+            values[d] = image.getFloat(position + 8 + (d << 2));
+        return new CompactArray(image.getInt(position), values);
+    }
+}
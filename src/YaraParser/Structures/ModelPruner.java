@@ -0,0 +1,97 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+/**
+ * Makes a smaller copy of a model: the weights whose absolute value is at most a threshold are set to zero, the arc
+ * rows are trimmed to their non-zero weights, and the features left without any weight are dropped. With a threshold
+ * of 0 only the zero weights go, and the copy parses exactly as the model does.
+ * <p/>
+ * Only models with a table entry per feature can be pruned; the weight arrays of hashed features have a fixed size.
+ */
+public class ModelPruner {
+    private final float threshold;
+
+    private int features;
+    private int keptFeatures;
+    private int weights;
+    private int keptWeights;
+
+    public ModelPruner(float threshold) {
+        this.threshold = threshold;
+    }
+
+    public InfStruct prune(InfStruct model) {
+        KeyedWeightTable[] tables = InfStruct.keyedWeights(model.averagedFeatureWeights);
+        if (tables == null)
+            throw new IllegalArgumentException("a model with hashed features cannot be pruned");
+
+        ActionWeightMap[] pruned = new ActionWeightMap[tables.length];
+        for (int i = 0; i < tables.length; i++)
+            pruned[i] = prune(tables[i]);
+        return new InfStruct(pruned, model.maps, model.dependencyLabels, model.options, model.dependencySize);
+    }
+
+    private ActionWeightMap prune(KeyedWeightTable table) {
+        long[] keys = table.keys();
+        ActionWeightMap pruned = new ActionWeightMap(keys.length);
+        for (long key : keys) {
+            int slot = table.indexOf(key);
+            float shift = prune(table.shiftWeight(slot));
+            float reduce = prune(table.reduceWeight(slot));
+            CompactArray rightArc = prune(table.arcWeights(true, slot));
+            CompactArray leftArc = prune(table.arcWeights(false, slot));
+            features++;
+            if (shift == 0f && reduce == 0f && rightArc == null && leftArc == null)
+                continue;
+            keptFeatures++;
+            pruned.put(key, shift, reduce, rightArc, leftArc);
+        }
+        return pruned;
+    }
+
+    private float prune(float weight) {
+        weights++;
+        if (weight == 0f || Math.abs(weight) <= threshold)
+            return 0f;
+        keptWeights++;
+        return weight;
+    }
+
+    /**
+     * @return a trimmed copy of the row with the pruned weights set to zero, or null if nothing is left of it
+     */
+    private CompactArray prune(CompactArray row) {
+        if (row == null)
+            return null;
+        float[] values = new float[row.length()];
+        for (int d = 0; d < values.length; d++)
+            values[d] = prune(row.getArray()[d]);
+        return new CompactArray(row.getOffset(), values).trimmed();
+    }
+
+    /**
+     * @return the number of features in the model that was pruned
+     */
+    public int features() {
+        return features;
+    }
+
+    public int keptFeatures() {
+        return keptFeatures;
+    }
+
+    /**
+     * @return the number of stored weights in the model that was pruned, including the zeros inside the arc rows
+     */
+    public int weights() {
+        return weights;
+    }
+
+    public int keptWeights() {
+        return keptWeights;
+    }
+}
@@ -0,0 +1,360 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import YaraParser.Accessories.Options;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Reads a model written by {@link ModelWriter}, one section at a time.
+ * Sections with unknown tags are skipped, so newer writers can add sections without breaking this reader.
+ * <p/>
+ * The weight tables are either copied on heap, or memory-mapped read-only from the file: the parser then scores
+ * straight against the page cache, so the start-up time does not depend on the model size and all the processes
+ * that map the same model file share its pages.
+ */
+public class ModelReader {
+    private final DataInputStream input;
+    private final FileChannel channel;
+    private final boolean memoryMap;
+    /**
+     * Number of bytes read from the file so far
+     */
+    private long position;
+
+    public ModelReader(FileInputStream stream, boolean memoryMap) throws IOException {
+        input = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        channel = stream.getChannel();
+        this.memoryMap = memoryMap;
+        int magic = input.readInt();
+        if (magic != ModelWriter.MAGIC)
+            throw new IOException("not a binary YaraParser model");
+        int version = input.readInt();
+        // version 1 is the first format, with WEIGHTS sections instead of WEIGHT_TABLE ones
+        if (version != 1 && version != ModelWriter.VERSION_WITHOUT_HASHING && version != ModelWriter.VERSION_WITH_HASHING
+                && version != ModelWriter.VERSION_QUANTIZED)
+            throw new IOException("unsupported model version " + version + "; this parser reads versions 1 to " + ModelWriter.VERSION_QUANTIZED);
+        position = 8;
+    }
+
+    /**
+     * @return true if the file starts with the magic number of the binary format
+     */
+    public static boolean isBinaryModel(String modelPath) throws IOException {
+        DataInputStream stream = new DataInputStream(new FileInputStream(modelPath));
+        try {
+            return stream.readInt() == ModelWriter.MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            stream.close();
+        }
+    }
+
+    public static InfStruct read(String modelPath) throws IOException {
+        return read(modelPath, false);
+    }
+
+    /**
+     * @param memoryMap if true, the weight tables are memory-mapped instead of being copied on heap; the weights of
+     *                  hashed features and quantized weights are always copied on heap
+     */
+    public static InfStruct read(String modelPath, boolean memoryMap) throws IOException {
+        ModelReader reader = new ModelReader(new FileInputStream(modelPath), memoryMap);
+        try {
+            return reader.read();
+        } finally {
+            reader.input.close();
+        }
+    }
+
+    public InfStruct read() throws IOException {
+        WeightTable[] weights = null;
+        int dependencySize = -1;
+        Options options = null;
+        IndexMaps maps = null;
+        ArrayList<Integer> dependencyLabels = null;
+        float[][] hashedGroups = new float[4][];
+        int hashBits = 0;
+
+        while (true) {
+            int tag = input.readInt();
+            long length = input.readLong();
+            position += 12;
+            if (tag == ModelWriter.END)
+                break;
+
+            if (tag == ModelWriter.WEIGHT_TABLE) {
+                if (weights == null)
+                    throw new IOException("weight section before the model header");
+                int slotIndex = input.readInt();
+                weights[slotIndex] = readWeightTable(length);
+                continue;
+            }
+
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("model section too large: " + length);
+            byte[] payload = new byte[(int) length];
+            input.readFully(payload);
+            position += length;
+            ByteBuffer section = ByteBuffer.wrap(payload);
+
+            if (tag == ModelWriter.HEADER) {
+                weights = new WeightTable[section.getInt()];
+                dependencySize = section.getInt();
+            } else if (tag == ModelWriter.OPTIONS) {
+                options = readOptions(section);
+            } else if (tag == ModelWriter.VOCABULARY) {
+                maps = readVocabulary(section);
+            } else if (tag == ModelWriter.LABELS) {
+                int size = section.getInt();
+                dependencyLabels = new ArrayList<Integer>(size);
+                for (int i = 0; i < size; i++)
+                    dependencyLabels.add(section.getInt());
+            } else if (tag == ModelWriter.WEIGHTS) {
+                if (weights == null)
+                    throw new IOException("weight section before the model header");
+                int slotIndex = section.getInt();
+                weights[slotIndex] = readWeights(section);
+            } else if (tag == ModelWriter.QUANTIZED_WEIGHTS) {
+                if (weights == null)
+                    throw new IOException("weight section before the model header");
+                int slotIndex = section.getInt();
+                weights[slotIndex] = readQuantizedWeights(section);
+            } else if (tag == ModelWriter.HASHED_WEIGHTS) {
+                int group = section.getInt();
+                hashBits = section.getInt();
+                int hashedDependencySize = section.getInt();
+                float[] values = new float[section.getInt()];
+                section.asFloatBuffer().get(values);
+                if (group < 0 || group >= hashedGroups.length || hashedDependencySize != dependencySize)
+                    throw new IOException("corrupted hashed weights section");
+                hashedGroups[group] = values;
+            }
+        }
+
+        if (hashedGroups[0] != null && weights != null)
+            weights = readHashedWeights(hashedGroups, hashBits, dependencySize).tables(weights.length);
+
+        if (weights == null || options == null || maps == null || dependencyLabels == null)
+            throw new IOException("incomplete model file");
+        for (int i = 0; i < weights.length; i++)
+            if (weights[i] == null)
+                throw new IOException("missing weights of feature slot " + i);
+        return new InfStruct(weights, maps, dependencyLabels, options, dependencySize);
+    }
+
+    private static HashedWeights readHashedWeights(float[][] groups, int bits, int dependencySize) throws IOException {
+        int arcLength;
+        try {
+            arcLength = HashedWeights.checkSize(bits, dependencySize);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupted hashed weights: " + e.getMessage());
+        }
+        if (groups[1] == null || groups[2] == null || groups[3] == null || groups[0].length != 1 << bits
+                || groups[1].length != 1 << bits || groups[2].length != arcLength || groups[3].length != arcLength)
+            throw new IOException("incomplete hashed weights");
+        return new HashedWeights(bits, dependencySize, groups[0], groups[1], groups[2], groups[3]);
+    }
+
+    /**
+     * Reads the rest of a weight table section, after its slot index
+     */
+    private WeightTable readWeightTable(long sectionLength) throws IOException {
+        int capacity = input.readInt();
+        int size = input.readInt();
+        boolean hasZeroKey = input.readInt() != 0;
+        int poolLength = input.readInt();
+        int padding = input.readInt();
+        skipFully(padding);
+        position += 24 + padding;
+
+        long imageLength = MappedWeightTable.imageLength(capacity, poolLength);
+        if (24 + padding + imageLength != sectionLength || imageLength > Integer.MAX_VALUE)
+            throw new IOException("corrupted weight table section");
+
+        if (memoryMap) {
+            ByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, position, imageLength);
+            skipFully(imageLength);
+            position += imageLength;
+            return new MappedWeightTable(image, capacity, size, hasZeroKey);
+        }
+
+        // the same image on heap; InfStruct freezes it with the other tables
+        byte[] payload = new byte[(int) imageLength];
+        input.readFully(payload);
+        position += imageLength;
+        return new MappedWeightTable(ByteBuffer.wrap(payload), capacity, size, hasZeroKey);
+    }
+
+    private void skipFully(long length) throws IOException {
+        while (length > 0) {
+            long skipped = input.skip(length);
+            if (skipped <= 0)
+                throw new EOFException();
+            length -= skipped;
+        }
+    }
+
+    private static Options readOptions(ByteBuffer section) {
+        Options options = new Options();
+        options.beamWidth = section.getInt();
+        options.rootFirst = section.get() != 0;
+        options.labeled = section.get() != 0;
+        options.lowercase = section.get() != 0;
+        options.useExtendedFeatures = section.get() != 0;
+        options.useExtendedWithBrownClusterFeatures = section.get() != 0;
+        options.useMaxViol = section.get() != 0;
+        options.useDynamicOracle = section.get() != 0;
+        options.useRandomOracleSelection = section.get() != 0;
+        options.trainingIter = section.getInt();
+        options.partialTrainingStartingIteration = section.getInt();
+        int size = section.getInt();
+        options.punctuations = new HashSet<String>();
+        for (int i = 0; i < size; i++)
+            options.punctuations.add(readString(section));
+        // not in the models saved before they were added
+        if (section.hasRemaining()) {
+            options.hashBits = section.getInt();
+            options.clusterFile = readString(section);
+        }
+        return options;
+    }
+
+    private static IndexMaps readVocabulary(ByteBuffer section) {
+        String rootString = readString(section);
+        HashMap<String, Integer> wordMap = readStringMap(section);
+        HashMap<Integer, Integer> labels = readIntMap(section);
+        HashMap<Integer, Integer> brown4Clusters = readIntMap(section);
+        HashMap<Integer, Integer> brown6Clusters = readIntMap(section);
+        HashMap<String, Integer> brownFullClusters = readStringMap(section);
+        return new IndexMaps(wordMap, labels, rootString, brown4Clusters, brown6Clusters, brownFullClusters);
+    }
+
+    private static ActionWeightMap readWeights(ByteBuffer section) {
+        int n = section.getInt();
+        long[] keys = new long[n];
+        float[] shiftWeights = new float[n];
+        float[] reduceWeights = new float[n];
+        section.asLongBuffer().get(keys);
+        section.position(section.position() + 8 * n);
+        section.asFloatBuffer().get(shiftWeights);
+        section.position(section.position() + 4 * n);
+        section.asFloatBuffer().get(reduceWeights);
+        section.position(section.position() + 4 * n);
+        CompactArray[] rightArcRows = readRows(section, n);
+        CompactArray[] leftArcRows = readRows(section, n);
+
+        ActionWeightMap weights = new ActionWeightMap(n);
+        for (int i = 0; i < n; i++)
+            weights.put(keys[i], shiftWeights[i], reduceWeights[i], rightArcRows[i], leftArcRows[i]);
+        return weights;
+    }
+
+    private static ActionWeightMap readQuantizedWeights(ByteBuffer section) throws IOException {
+        int bits = section.getInt();
+        float scale = section.getFloat();
+        if (bits != 8 && bits != 16)
+            throw new IOException("corrupted quantized weights section");
+        int n = section.getInt();
+        long[] keys = new long[n];
+        section.asLongBuffer().get(keys);
+        section.position(section.position() + 8 * n);
+        float[] shiftWeights = readQuantized(section, n, bits, scale);
+        float[] reduceWeights = readQuantized(section, n, bits, scale);
+        CompactArray[] rightArcRows = readQuantizedRows(section, n, bits, scale);
+        CompactArray[] leftArcRows = readQuantizedRows(section, n, bits, scale);
+
+        ActionWeightMap weights = new ActionWeightMap(n);
+        for (int i = 0; i < n; i++)
+            weights.put(keys[i], shiftWeights[i], reduceWeights[i], rightArcRows[i], leftArcRows[i]);
+        return weights;
+    }
+
+    private static float[] readQuantized(ByteBuffer section, int n, int bits, float scale) {
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++)
+            values[i] = scale * (bits == 8 ? section.get() : section.getShort());
+        return values;
+    }
+
+    private static CompactArray[] readQuantizedRows(ByteBuffer section, int n, int bits, float scale) {
+        int[] offsets = new int[n];
+        int[] lengths = new int[n];
+        section.asIntBuffer().get(offsets);
+        section.position(section.position() + 4 * n);
+        section.asIntBuffer().get(lengths);
+        section.position(section.position() + 4 * n);
+        section.getInt(); // the total length of the rows
+
+        CompactArray[] rows = new CompactArray[n];
+        for (int i = 0; i < n; i++)
+            if (lengths[i] >= 0)
+                rows[i] = new CompactArray(offsets[i], readQuantized(section, lengths[i], bits, scale));
+        return rows;
+    }
+
+    private static CompactArray[] readRows(ByteBuffer section, int n) {
+        int[] offsets = new int[n];
+        int[] lengths = new int[n];
+        section.asIntBuffer().get(offsets);
+        section.position(section.position() + 4 * n);
+        section.asIntBuffer().get(lengths);
+        section.position(section.position() + 4 * n);
+        int total = section.getInt();
+        float[] values = new float[total];
+        section.asFloatBuffer().get(values);
+        section.position(section.position() + 4 * total);
+
+        CompactArray[] rows = new CompactArray[n];
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            if (lengths[i] < 0)
+                continue;
+            float[] row = new float[lengths[i]];
+            System.arraycopy(values, start, row, 0, row.length);
+            start += row.length;
+            rows[i] = new CompactArray(offsets[i], row);
+        }
+        return rows;
+    }
+
+    private static String readString(ByteBuffer section) {
+        byte[] bytes = new byte[section.getInt()];
+        section.get(bytes);
+        return new String(bytes, ModelWriter.UTF8);
+    }
+
+    private static HashMap<String, Integer> readStringMap(ByteBuffer section) {
+        int size = section.getInt();
+        if (size < 0)
+            return null;
+        HashMap<String, Integer> map = new HashMap<String, Integer>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String key = readString(section);
+            map.put(key, section.getInt());
+        }
+        return map;
+    }
+
+    private static HashMap<Integer, Integer> readIntMap(ByteBuffer section) {
+        int size = section.getInt();
+        if (size < 0)
+            return null;
+        HashMap<Integer, Integer> map = new HashMap<Integer, Integer>(size * 2);
+        for (int i = 0; i < size; i++) {
+            int key = section.getInt();
+            map.put(key, section.getInt());
+        }
+        return map;
+    }
+}
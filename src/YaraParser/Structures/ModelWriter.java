@@ -0,0 +1,413 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import YaraParser.Accessories.Options;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a model in the sectioned binary format read by {@link ModelReader}.
+ * <p/>
+ * The file starts with the magic number and the format version, followed by sections; each section is
+ * its tag (int), the byte length of its payload (long) and the payload itself, so that a reader can
+ * skip the sections it does not know. All numbers are big-endian.
+ * <ul>
+ * <li>HEADER: number of feature slots, number of dependency labels</li>
+ * <li>OPTIONS: beam width, then rootFirst, labeled, lowercase, useExtendedFeatures,
+ * useExtendedWithBrownClusterFeatures, useMaxViol, useDynamicOracle and useRandomOracleSelection (a byte each),
+ * trainingIter, partialTrainingStartingIteration, the punctuation tags (count, then strings), hashBits and the
+ * cluster file name. These are all the {@link Options} of the model; the other fields are settings of a run (the
+ * command, the files, the threads, hogwild, shards, the server and the metrics), which are given on the command
+ * line of every run and keep their defaults in a loaded model. hashBits and the cluster file were added to the
+ * section later; they keep their defaults when the section of an older file ends before them.</li>
+ * <li>VOCABULARY: the content of {@link IndexMaps}</li>
+ * <li>LABELS: the dependency label list</li>
+ * <li>WEIGHT_TABLE (one per feature slot): slot index, capacity, number of keys, whether the key 0 is present,
+ * row pool length and padding length (ints), the padding, then the table image described in
+ * {@link MappedWeightTable}. The padding makes every image start at a page boundary of the file, so that the
+ * images can be memory-mapped and probed in place.</li>
+ * <li>HASHED_WEIGHTS (four of them, instead of the WEIGHT_TABLE sections, for models with hashed features): action
+ * group (0 shift, 1 reduce, 2 right-arc, 3 left-arc), the number of hash bits, the number of dependency labels and
+ * the number of weights n (ints), then float[n]: the weights of the group in the layout of {@link HashedWeights}</li>
+ * <li>QUANTIZED_WEIGHTS (one per feature slot, instead of the WEIGHT_TABLE sections, for quantized models): slot
+ * index, bits (8 or 16), scale (float), n, then the layout of the version 1 WEIGHTS sections below with every weight
+ * w stored as the byte (bits 8) or short (bits 16) round(w / scale)</li>
+ * <li>END: empty</li>
+ * </ul>
+ * Quantized models are version 4 files and models with hashed features version 3 ones; the others are still written
+ * as version 2.
+ * Version 1 files had WEIGHTS sections instead of WEIGHT_TABLE ones (slot index, n, then flat arrays: long[n]
+ * keys, float[n] shift weights, float[n] reduce weights and the right-arc and left-arc rows, each as int[n]
+ * offsets, int[n] lengths (-1 for no row) and the concatenated row values); {@link ModelReader} still reads them.
+ * <p/>
+ * The weight sections are written straight to the file, as their lengths are known before their payload; the other
+ * sections are small and are buffered one at a time.
+ * <p/>
+ * The weights are not compressed, so that they can be memory-mapped: a model is about five times the size of the
+ * gzipped models of the older format. Quantized weights (see {@link ModelPruner}) make it smaller again.
+ */
+public class ModelWriter {
+    public static final int MAGIC = 0x59415241; // "YARA"
+    public static final int VERSION_QUANTIZED = 4;
+    public static final int VERSION_WITH_HASHING = 3;
+    /**
+     * The version of the models without hashed features, which older parsers can read
+     */
+    public static final int VERSION_WITHOUT_HASHING = 2;
+    public static final int PAGE_SIZE = 4096;
+
+    public static final int END = 0;
+    public static final int HEADER = 1;
+    public static final int OPTIONS = 2;
+    public static final int VOCABULARY = 3;
+    public static final int LABELS = 4;
+    public static final int WEIGHTS = 5;
+    public static final int WEIGHT_TABLE = 6;
+    public static final int HASHED_WEIGHTS = 7;
+    public static final int QUANTIZED_WEIGHTS = 8;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final DataOutputStream output;
+    private final ByteArrayOutputStream sectionBytes;
+    private final DataOutputStream section;
+    /**
+     * Number of bytes written to the file so far
+     */
+    private long position;
+
+    /**
+     * A writer of a model without hashed features or quantized weights
+     */
+    public ModelWriter(OutputStream stream) throws IOException {
+        this(stream, VERSION_WITHOUT_HASHING);
+    }
+
+    public ModelWriter(OutputStream stream, int version) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        sectionBytes = new ByteArrayOutputStream();
+        section = new DataOutputStream(sectionBytes);
+
+        output.writeInt(MAGIC);
+        output.writeInt(version);
+        position = 8;
+    }
+
+    public static void write(InfStruct infStruct, String modelPath) throws IOException {
+        write(infStruct, modelPath, 0);
+    }
+
+    /**
+     * @param quantizationBits 8 or 16 to save the weights as integers of that many bits, 0 to save them as they are
+     */
+    public static void write(InfStruct infStruct, String modelPath, int quantizationBits) throws IOException {
+        WeightTable[] weights = infStruct.averagedFeatureWeights;
+        KeyedWeightTable[] keyedWeights = InfStruct.keyedWeights(weights);
+        boolean hashed = keyedWeights == null;
+        if (quantizationBits != 0 && quantizationBits != 8 && quantizationBits != 16)
+            throw new IllegalArgumentException("weights can only be quantized to 8 or 16 bits");
+        if (quantizationBits != 0 && hashed)
+            throw new IllegalArgumentException("the weights of hashed features cannot be quantized");
+        int version = quantizationBits != 0 ? VERSION_QUANTIZED : hashed ? VERSION_WITH_HASHING : VERSION_WITHOUT_HASHING;
+        ModelWriter writer = new ModelWriter(new FileOutputStream(modelPath), version);
+        writer.writeHeader(weights.length, infStruct.dependencySize);
+        writer.writeOptions(infStruct.options);
+        writer.writeVocabulary(infStruct.maps);
+        writer.writeLabels(infStruct.dependencyLabels);
+        if (hashed) {
+            writer.writeHashedWeights(((HashedWeightTable) weights[0]).hashedWeights());
+        } else if (quantizationBits != 0) {
+            for (int i = 0; i < weights.length; i++)
+                writer.writeQuantizedWeights(i, keyedWeights[i], quantizationBits);
+        } else {
+            for (int i = 0; i < weights.length; i++)
+                writer.writeWeights(i, keyedWeights[i]);
+        }
+        writer.close();
+    }
+
+    public void writeHeader(int featureLength, int dependencySize) throws IOException {
+        section.writeInt(featureLength);
+        section.writeInt(dependencySize);
+        flushSection(HEADER);
+    }
+
+    public void writeOptions(Options options) throws IOException {
+        section.writeInt(options.beamWidth);
+        section.writeBoolean(options.rootFirst);
+        section.writeBoolean(options.labeled);
+        section.writeBoolean(options.lowercase);
+        section.writeBoolean(options.useExtendedFeatures);
+        section.writeBoolean(options.useExtendedWithBrownClusterFeatures);
+        section.writeBoolean(options.useMaxViol);
+        section.writeBoolean(options.useDynamicOracle);
+        section.writeBoolean(options.useRandomOracleSelection);
+        section.writeInt(options.trainingIter);
+        section.writeInt(options.partialTrainingStartingIteration);
+        section.writeInt(options.punctuations.size());
+        for (String punctuation : options.punctuations)
+            writeString(punctuation);
+        section.writeInt(options.hashBits);
+        writeString(options.clusterFile);
+        flushSection(OPTIONS);
+    }
+
+    public void writeVocabulary(IndexMaps maps) throws IOException {
+        writeString(maps.rootString);
+        writeStringMap(maps.getWordMap());
+        writeIntMap(maps.getLabels());
+        writeIntMap(maps.getBrown4Clusters());
+        writeIntMap(maps.getBrown6Clusters());
+        writeStringMap(maps.getBrownFullClusters());
+        flushSection(VOCABULARY);
+    }
+
+    public void writeLabels(ArrayList<Integer> dependencyLabels) throws IOException {
+        section.writeInt(dependencyLabels.size());
+        for (int label : dependencyLabels)
+            section.writeInt(label);
+        flushSection(LABELS);
+    }
+
+    public void writeWeights(int slotIndex, KeyedWeightTable weights) throws IOException {
+        long[] keys = weights.keys();
+        int capacity = LongHashTable.capacityFor(keys.length);
+        int mask = capacity - 1;
+        int slots = capacity + 1;
+
+        long[] tableKeys = new long[slots];
+        int[] sourceSlots = new int[slots];
+        Arrays.fill(sourceSlots, -1);
+        boolean hasZeroKey = false;
+        for (long key : keys) {
+            int slot;
+            if (key == 0) {
+                hasZeroKey = true;
+                slot = capacity;
+            } else {
+                slot = LongHashTable.hash(key) & mask;
+                while (tableKeys[slot] != 0)
+                    slot = (slot + 1) & mask;
+                tableKeys[slot] = key;
+            }
+            sourceSlots[slot] = weights.indexOf(key);
+        }
+
+        // the zeros at the ends of the rows are not written: dense rows of the training weights hold all the labels
+        CompactArray[] rightArcWeights = new CompactArray[slots];
+        CompactArray[] leftArcWeights = new CompactArray[slots];
+        int[] rightArcRows = new int[slots];
+        int[] leftArcRows = new int[slots];
+        int poolLength = 0;
+        for (int i = 0; i < slots; i++) {
+            rightArcRows[i] = -1;
+            leftArcRows[i] = -1;
+            if (sourceSlots[i] < 0)
+                continue;
+            CompactArray row = trimmed(weights.arcWeights(true, sourceSlots[i]));
+            if (row != null) {
+                rightArcWeights[i] = row;
+                rightArcRows[i] = poolLength;
+                poolLength += 2 + row.length();
+            }
+            row = trimmed(weights.arcWeights(false, sourceSlots[i]));
+            if (row != null) {
+                leftArcWeights[i] = row;
+                leftArcRows[i] = poolLength;
+                poolLength += 2 + row.length();
+            }
+        }
+
+        long prefixEnd = position + 12 + 24;
+        int padding = (int) ((PAGE_SIZE - prefixEnd % PAGE_SIZE) % PAGE_SIZE);
+        startSection(WEIGHT_TABLE, 24 + padding + MappedWeightTable.imageLength(capacity, poolLength));
+        output.writeInt(slotIndex);
+        output.writeInt(capacity);
+        output.writeInt(keys.length);
+        output.writeInt(hasZeroKey ? 1 : 0);
+        output.writeInt(poolLength);
+        output.writeInt(padding);
+        output.write(new byte[padding]);
+
+        for (int i = 0; i < slots; i++)
+            output.writeLong(tableKeys[i]);
+        for (int i = 0; i < slots; i++)
+            output.writeFloat(sourceSlots[i] < 0 ? 0f : weights.shiftWeight(sourceSlots[i]));
+        for (int i = 0; i < slots; i++)
+            output.writeFloat(sourceSlots[i] < 0 ? 0f : weights.reduceWeight(sourceSlots[i]));
+        for (int i = 0; i < slots; i++)
+            output.writeInt(rightArcRows[i]);
+        for (int i = 0; i < slots; i++)
+            output.writeInt(leftArcRows[i]);
+        for (int i = 0; i < slots; i++) {
+            writeRow(rightArcWeights[i]);
+            writeRow(leftArcWeights[i]);
+        }
+    }
+
+    public void writeHashedWeights(HashedWeights weights) throws IOException {
+        float[][] groups = {weights.shiftWeights, weights.reduceWeights, weights.rightArcWeights, weights.leftArcWeights};
+        for (int group = 0; group < groups.length; group++) {
+            startSection(HASHED_WEIGHTS, 16 + 4L * groups[group].length);
+            output.writeInt(group);
+            output.writeInt(weights.bits);
+            output.writeInt(weights.dependencySize);
+            output.writeInt(groups[group].length);
+            for (float value : groups[group])
+                output.writeFloat(value);
+        }
+    }
+
+    public void writeQuantizedWeights(int slotIndex, KeyedWeightTable weights, int bits) throws IOException {
+        long[] keys = weights.keys();
+        int n = keys.length;
+        float[] shiftWeights = new float[n];
+        float[] reduceWeights = new float[n];
+        CompactArray[] rightArcRows = new CompactArray[n];
+        CompactArray[] leftArcRows = new CompactArray[n];
+        float maxWeight = 0f;
+        long rowWeights = 0;
+        for (int i = 0; i < n; i++) {
+            int slot = weights.indexOf(keys[i]);
+            shiftWeights[i] = weights.shiftWeight(slot);
+            reduceWeights[i] = weights.reduceWeight(slot);
+            rightArcRows[i] = trimmed(weights.arcWeights(true, slot));
+            leftArcRows[i] = trimmed(weights.arcWeights(false, slot));
+            maxWeight = Math.max(maxWeight, Math.max(Math.abs(shiftWeights[i]), Math.abs(reduceWeights[i])));
+            maxWeight = Math.max(maxWeight, maxAbs(rightArcRows[i]));
+            maxWeight = Math.max(maxWeight, maxAbs(leftArcRows[i]));
+            rowWeights += length(rightArcRows[i]) + length(leftArcRows[i]);
+        }
+        // the largest weight of the slot is stored as the largest integer of the bits
+        float scale = maxWeight / ((1 << (bits - 1)) - 1);
+
+        // the ints and the keys, then every weight in bits / 8 bytes
+        long length = 16 + 8L * n + 2 * (8L * n + 4) + (2L * n + rowWeights) * (bits / 8);
+        startSection(QUANTIZED_WEIGHTS, length);
+        output.writeInt(slotIndex);
+        output.writeInt(bits);
+        output.writeFloat(scale);
+        output.writeInt(n);
+        for (long key : keys)
+            output.writeLong(key);
+        for (float weight : shiftWeights)
+            writeQuantized(weight, bits, scale);
+        for (float weight : reduceWeights)
+            writeQuantized(weight, bits, scale);
+        writeQuantizedRows(rightArcRows, bits, scale);
+        writeQuantizedRows(leftArcRows, bits, scale);
+    }
+
+    private void writeQuantizedRows(CompactArray[] rows, int bits, float scale) throws IOException {
+        int total = 0;
+        for (CompactArray row : rows)
+            output.writeInt(row == null ? 0 : row.getOffset());
+        for (CompactArray row : rows) {
+            output.writeInt(row == null ? -1 : row.length());
+            total += length(row);
+        }
+        output.writeInt(total);
+        for (CompactArray row : rows)
+            if (row != null)
+                for (float weight : row.getArray())
+                    writeQuantized(weight, bits, scale);
+    }
+
+    private void writeQuantized(float weight, int bits, float scale) throws IOException {
+        int value = scale == 0f ? 0 : Math.round(weight / scale);
+        if (bits == 8)
+            output.writeByte(value);
+        else
+            output.writeShort(value);
+    }
+
+    private static int length(CompactArray row) {
+        return row == null ? 0 : row.length();
+    }
+
+    private static float maxAbs(CompactArray row) {
+        float max = 0f;
+        if (row != null)
+            for (float weight : row.getArray())
+                max = Math.max(max, Math.abs(weight));
+        return max;
+    }
+
+    private static CompactArray trimmed(CompactArray row) {
+        return row == null ? null : row.trimmed();
+    }
+
+    private void writeRow(CompactArray row) throws IOException {
+        if (row == null)
+            return;
+        output.writeInt(row.getOffset());
+        output.writeInt(row.length());
+        for (float value : row.getArray())
+            output.writeFloat(value);
+    }
+
+    /**
+     * Writes the end marker and closes the underlying stream
+     */
+    public void close() throws IOException {
+        flushSection(END);
+        output.close();
+    }
+
+    /**
+     * Starts a section whose payload of the given length is then written straight to the output
+     */
+    private void startSection(int tag, long length) throws IOException {
+        output.writeInt(tag);
+        output.writeLong(length);
+        position += 12 + length;
+    }
+
+    private void flushSection(int tag) throws IOException {
+        section.flush();
+        output.writeInt(tag);
+        output.writeLong(sectionBytes.size());
+        sectionBytes.writeTo(output);
+        position += 12 + sectionBytes.size();
+        sectionBytes.reset();
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        section.writeInt(bytes.length);
+        section.write(bytes);
+    }
+
+    private void writeStringMap(HashMap<String, Integer> map) throws IOException {
+        if (map == null) {
+            section.writeInt(-1);
+            return;
+        }
+        section.writeInt(map.size());
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            writeString(entry.getKey());
+            section.writeInt(entry.getValue());
+        }
+    }
+
+    private void writeIntMap(HashMap<Integer, Integer> map) throws IOException {
+        if (map == null) {
+            section.writeInt(-1);
+            return;
+        }
+        section.writeInt(map.size());
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            section.writeInt(entry.getKey());
+            section.writeInt(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+/**
+ * A weight table that the perceptron updates while training
+ */
+public interface TrainableWeightTable extends WeightTable {
+    void addShiftWeight(long key, float change);
+
+    void addReduceWeight(long key, float change);
+
+    /**
+     * Adds the change to the right-arc (or left-arc) weight of the label for the key
+     */
+    void addArcWeight(boolean rightArc, long key, int labelIndex, float change);
+}
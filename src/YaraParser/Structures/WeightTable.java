@@ -0,0 +1,34 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+/**
+ * Read access to the weights of one feature slot for all actions, as needed for scoring and saving.
+ * A slot returned by {@link #indexOf(long)} is only valid for the table that returned it. Tables that can list their
+ * features are {@link KeyedWeightTable}s.
+ */
+public interface WeightTable {
+    /**
+     * @return the slot of the feature, or -1 if the feature has no weights
+     */
+    int indexOf(long key);
+
+    int size();
+
+    float shiftWeight(int slot);
+
+    float reduceWeight(int slot);
+
+    /**
+     * Adds the right-arc (or left-arc) weights of the slot to scores[base + label] for every label that has a weight
+     */
+    void addArcWeights(boolean rightArc, int slot, float[] scores, int base);
+
+    /**
+     * @return the right-arc (or left-arc) row of the slot, or null if it has none; may be a copy
+     */
+    CompactArray arcWeights(boolean rightArc, int slot);
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Configuration;
+
+import YaraParser.Learning.ScoreKernels;
+
+/**
+ * Keeps the best K beam candidates (score, beam index, action, label) in parallel primitive arrays organized as a
+ * min-heap, so a candidate that is not better than the current minimum of a full beam is rejected with a single
+ * comparison and no allocation. It is meant to be cleared and reused at every step.
+ * <p/>
+ * Candidates are ordered exactly as {@link BeamElement#compareTo}; as with the sorted set that was used before,
+ * a candidate equal to one already kept (same score, beam index and action) is dropped. Such a candidate has the score
+ * of a kept one, so in a wide beam the kept candidates are only scanned for it when a count of the kept scores by their
+ * hash says that one may have it.
+ */
+public class BeamPreserver {
+    /**
+     * Up to this width, scanning the kept candidates costs less than counting their scores
+     */
+    private static final int SCANNED_WIDTH = 16;
+
+    private int capacity;
+    private float[] scores;
+    private int[] numbers;
+    private int[] actions;
+    private int[] labels;
+    private int size;
+    /**
+     * The number of kept candidates whose score hashes to each bucket, see {@link #bucket}
+     */
+    private int[] scoreCounts = new int[0];
+    private int bucketShift;
+    private boolean countScores;
+    /**
+     * Candidates given to the preserver and the ones that it did not keep when they were given, over all the steps
+     */
+    private int candidates;
+    private int rejected;
+    /**
+     * The labels found by {@link ScoreKernels#labelsAbove} in {@link #addLabeled}
+     */
+    private int[] labelBuffer = new int[0];
+
+    public BeamPreserver(int capacity) {
+        this.capacity = capacity;
+        scores = new float[capacity];
+        numbers = new int[capacity];
+        actions = new int[capacity];
+        labels = new int[capacity];
+        countScores(capacity);
+        size = 0;
+    }
+
+    public void clear() {
+        if (countScores)
+            for (int i = 0; i < size; i++)
+                scoreCounts[bucket(scores[i])]--;
+        size = 0;
+    }
+
+    /**
+     * Empties the preserver and zeroes its counters to use it for another sentence, keeping at most capacity
+     * candidates from now on
+     */
+    public void reset(int capacity) {
+        clear();
+        if (capacity > scores.length) {
+            scores = new float[capacity];
+            numbers = new int[capacity];
+            actions = new int[capacity];
+            labels = new int[capacity];
+        }
+        countScores(capacity);
+        this.capacity = capacity;
+        size = 0;
+        candidates = 0;
+        rejected = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(BeamElement element) {
+        add(element.score, element.number, element.action, element.label);
+    }
+
+    public void add(float score, int number, int action, int label) {
+        candidates++;
+        if (capacity == 0) {
+            rejected++;
+            return;
+        }
+        if (size == capacity) {
+            // not better than the minimum: it would be the first one to be dropped
+            if (compare(score, number, action, 0) <= 0 || contains(score, number, action)) {
+                rejected++;
+                return;
+            }
+            // the minimum is dropped
+            rejected++;
+            if (countScores) {
+                scoreCounts[bucket(scores[0])]--;
+                scoreCounts[bucket(score)]++;
+            }
+            set(0, score, number, action, label);
+            siftDown(0);
+        } else {
+            if (contains(score, number, action)) {
+                rejected++;
+                return;
+            }
+            if (countScores)
+                scoreCounts[bucket(score)]++;
+            set(size, score, number, action, label);
+            siftUp(size++);
+        }
+    }
+
+    /**
+     * Adds the candidates of an arc action from one beam item for the labels 0 to labelCount - 1, with the scores
+     * actionScores[from + label] + prevScore, in the order of the labels. Once the preserver is full, the labels
+     * that score below its minimum are skipped with one pass of {@link ScoreKernels#labelsAbove}; {@link #add} would
+     * reject them all, and they are counted as rejected.
+     */
+    public void addLabeled(float[] actionScores, int from, int labelCount, float prevScore, int number, int action) {
+        int label = 0;
+        for (; label < labelCount && size < capacity; label++)
+            add(actionScores[from + label] + prevScore, number, action, label);
+        if (label == labelCount)
+            return;
+
+        if (labelBuffer.length < labelCount)
+            labelBuffer = new int[labelCount];
+        float threshold = capacity == 0 ? Float.POSITIVE_INFINITY : scores[0];
+        int remaining = labelCount - label;
+        int found = ScoreKernels.get().labelsAbove(actionScores, from + label, remaining, prevScore, threshold, labelBuffer);
+        candidates += remaining - found;
+        rejected += remaining - found;
+        for (int i = 0; i < found; i++) {
+            int dependency = label + labelBuffer[i];
+            add(actionScores[from + dependency] + prevScore, number, action, dependency);
+        }
+    }
+
+    /**
+     * Adds the kept candidates of another preserver, e.g. one that kept the best candidates of a part of the beam;
+     * its counts of candidates and rejected ones are added to these
+     */
+    public void merge(BeamPreserver other) {
+        for (int i = 0; i < other.size; i++)
+            add(other.scores[i], other.numbers[i], other.actions[i], other.labels[i]);
+        candidates += other.candidates - other.size;
+        rejected += other.rejected;
+    }
+
+    /**
+     * Sorts the kept candidates from the best to the worst, to be read by index. The preserver has to be cleared
+     * before adding to it again.
+     */
+    public void sortDescending() {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    /**
+     * @return the number of candidates added since the last {@link #reset}, over all the steps of the sentence
+     */
+    public int candidates() {
+        return candidates;
+    }
+
+    /**
+     * @return the number of those candidates that were not kept in their step, whether they were not added or were
+     * dropped for a better one
+     */
+    public int rejected() {
+        return rejected;
+    }
+
+    public float score(int index) {
+        return scores[index];
+    }
+
+    public int number(int index) {
+        return numbers[index];
+    }
+
+    public int action(int index) {
+        return actions[index];
+    }
+
+    public int label(int index) {
+        return labels[index];
+    }
+
+    private boolean contains(float score, int number, int action) {
+        if (countScores && scoreCounts[bucket(score)] == 0)
+            return false;
+        for (int i = 0; i < size; i++)
+            if (scores[i] == score && numbers[i] == number && actions[i] == action)
+                return true;
+        return false;
+    }
+
+    /**
+     * Counts the kept scores of a beam wider than {@link #SCANNED_WIDTH}, in eight buckets or more per kept candidate
+     * so that a candidate mostly finds its bucket empty. The preserver has to be empty.
+     */
+    private void countScores(int capacity) {
+        countScores = capacity > SCANNED_WIDTH;
+        if (!countScores || 8 * capacity <= scoreCounts.length)
+            return;
+        int bits = 3;
+        while ((1 << bits) < 8 * capacity)
+            bits++;
+        scoreCounts = new int[1 << bits];
+        bucketShift = 32 - bits;
+    }
+
+    /**
+     * Equal scores fall in the same bucket; 0f is added so that -0f, which equals 0f, has its bits
+     */
+    private int bucket(float score) {
+        return (Float.floatToIntBits(score + 0f) * 0x9E3779B9) >>> bucketShift;
+    }
+
+    /**
+     * Same as {@link BeamElement#compareTo}: positive if the candidate is better than the kept candidate at the index
+     */
+    private int compare(float score, int number, int action, int index) {
+        float diff = score - scores[index];
+        if (diff > 0)
+            return 2;
+        if (diff < 0)
+            return -2;
+        if (number != numbers[index])
+            return numbers[index] - number;
+        return actions[index] - action;
+    }
+
+    private int compare(int i, int j) {
+        return compare(scores[i], numbers[i], actions[i], j);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (compare(index, parent) >= 0)
+                break;
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        siftDown(index, size);
+    }
+
+    private void siftDown(int index, int end) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= end)
+                break;
+            if (child + 1 < end && compare(child + 1, child) < 0)
+                child++;
+            if (compare(child, index) >= 0)
+                break;
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void set(int index, float score, int number, int action, int label) {
+        scores[index] = score;
+        numbers[index] = number;
+        actions[index] = action;
+        labels[index] = label;
+    }
+
+    private void swap(int i, int j) {
+        float score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+        int number = numbers[i];
+        numbers[i] = numbers[j];
+        numbers[j] = number;
+        int action = actions[i];
+        actions[i] = actions[j];
+        actions[j] = action;
+        int label = labels[i];
+        labels[i] = labels[j];
+        labels[j] = label;
+    }
+}
@@ -9,28 +9,53 @@ import YaraParser.Structures.Sentence;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Configuration implements Comparable, Cloneable, Serializable {
     public Sentence sentence;
 
     public State state;
 
-    public ArrayList<Integer> actionHistory;
+    /**
+     * The last applied action; each action points back to the one before it, so clones share their common history
+     */
+    private Action lastAction;
 
     public float score;
 
+    private static final class Action implements Serializable {
+        private static final long serialVersionUID = 2220435925995395538L;
+
+        final int action;
+        final Action previous;
+        /**
+         * Number of actions up to and including this one
+         */
+        final int length;
+        /**
+         * Sum of action << index over the actions up to and including this one
+         */
+        final int hash;
+
+        Action(int action, Action previous) {
+            this.action = action;
+            this.previous = previous;
+            int index = previous == null ? 0 : previous.length;
+            this.length = index + 1;
+            this.hash = (previous == null ? 0 : previous.hash) + (action << index);
+        }
+    }
+
     public Configuration(Sentence sentence, boolean rootFirst) {
         this.sentence = sentence;
         state = new State(sentence.size(), rootFirst);
         score = (float) 0.0;
-        actionHistory = new ArrayList<Integer>(2 * (sentence.size() + 1));
     }
 
     public Configuration(Sentence sentence) {
         this.sentence = sentence;
         state = new State(sentence.size());
         score = (float) 0.0;
-        actionHistory = new ArrayList<Integer>(2 * (sentence.size() + 1));
     }
 
     /**
@@ -54,7 +79,22 @@ public class Configuration implements Comparable, Cloneable, Serializable {
     }
 
     public void addAction(int action) {
-        actionHistory.add(action);
+        lastAction = new Action(action, lastAction);
+    }
+
+    public int historySize() {
+        return lastAction == null ? 0 : lastAction.length;
+    }
+
+    /**
+     * @return the list of the applied actions, first to last
+     */
+    public ArrayList<Integer> getActionHistory() {
+        int size = historySize();
+        Integer[] actions = new Integer[size];
+        for (Action action = lastAction; action != null; action = action.previous)
+            actions[--size] = action.action;
+        return new ArrayList<Integer>(Arrays.asList(actions));
     }
 
     @Override
@@ -80,38 +120,35 @@ public class Configuration implements Comparable, Cloneable, Serializable {
             Configuration configuration = (Configuration) o;
             if (configuration.score != score)
                 return false;
-            if (configuration.actionHistory.size() != actionHistory.size())
+            if (configuration.historySize() != historySize())
                 return false;
-            for (int i = 0; i < actionHistory.size(); i++)
-                if (!actionHistory.get(i).equals(configuration.actionHistory.get(i)))
+            Action other = configuration.lastAction;
+            for (Action action = lastAction; action != other; action = action.previous, other = other.previous)
+                if (action.action != other.action)
                     return false;
             return true;
         }
         return false;
     }
 
+    /**
+     * O(1): the history and all the parts of the state are shared with the clone
+     */
     @Override
     public Configuration clone() {
-        Configuration configuration = new Configuration(sentence);
-
-        ArrayList<Integer> history = new ArrayList<Integer>(actionHistory.size());
-        for (int i = 0; i < actionHistory.size(); i++)
-            history.add(actionHistory.get(i));
-
-        configuration.actionHistory = history;
-
-        configuration.score = score;
+        Configuration configuration;
+        try {
+            configuration = (Configuration) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
         configuration.state = state.clone();
-
         return configuration;
     }
 
     @Override
     public int hashCode() {
-        int hashCode = 0;
-        int i = 0;
-        for (int action : actionHistory)
-            hashCode += action << i++;
+        int hashCode = lastAction == null ? 0 : lastAction.hash;
         hashCode += score;
         return hashCode;
     }
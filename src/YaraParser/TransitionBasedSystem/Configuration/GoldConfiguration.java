@@ -126,7 +126,8 @@ public class GoldConfiguration {
 
         if (action == Actions.Shift && cost == 0) { //shift
             int bufferHead = state.bufferHead();
-            for (int stackItem : state.getStack()) {
+            for (TokenInfo node = state.top; node != null; node = node.below) {
+                int stackItem = node.position;
                 if (goldDependencies.containsKey(stackItem) && goldDependencies.get(stackItem).first == (bufferHead))
                     cost += 1;
                 if (goldDependencies.containsKey(bufferHead) && goldDependencies.get(bufferHead).first == (stackItem))
@@ -153,7 +154,8 @@ public class GoldConfiguration {
         } else if (action == Actions.RightArc && cost == 0) { //right arc
             int stackHead = state.peek();
             int bufferHead = state.bufferHead();
-            for (int stackItem : state.getStack()) {
+            for (TokenInfo node = state.top; node != null; node = node.below) {
+                int stackItem = node.position;
                 if (goldDependencies.containsKey(bufferHead) && goldDependencies.get(bufferHead).first == (stackItem))
                     if (stackItem != stackHead)
                         cost += 1;
@@ -5,10 +5,17 @@
 
 package YaraParser.TransitionBasedSystem.Configuration;
 
-import YaraParser.Accessories.Pair;
-
-import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
 
+/**
+ * A parser state built from immutable, shared pieces: the stack is a linked list of {@link TokenInfo} nodes that
+ * carry what the features need about each stack token (and one more node for the buffer head), and the arcs are
+ * a persistent chain. Cloning is O(1) and every transition allocates a few small nodes, whatever the sentence
+ * length.
+ * <p/>
+ * Questions about tokens that are neither on the stack top, the buffer head nor one of their visible relatives
+ * are answered from the full tree, which is built from the arc chain only when needed (e.g. for the final parse).
+ */
 public class State implements Cloneable {
     public int rootIndex;
     public int maxSentenceSize;
@@ -22,29 +29,97 @@ public class State implements Cloneable {
     protected boolean emptyFlag;
 
     /**
-     * Keeps dependent->head information
+     * Top of the stack; null if the stack is empty
      */
-    protected Pair<Integer, Integer>[] arcs;
-    protected int[] leftMostArcs;
-    protected int[] rightMostArcs;
-    protected int[] leftValency;
-    protected int[] rightValency;
-    protected long[] rightDepLabels;
-    protected long[] leftDepLabels;
-    protected ArrayDeque<Integer> stack;
+    TokenInfo top;
+    protected int stackSize;
+    /**
+     * Information of the buffer head; null if it is not attached to anything
+     */
+    private TokenInfo bufferHeadInfo;
     int bufferH;
 
+    /**
+     * Keeps dependent->head information, the last arc first
+     */
+    private Arc arcs;
+    private final int size;
+    /**
+     * The full tree built from the arcs; null until needed and after every new arc
+     */
+    private Tree tree;
+
+    private static final class Arc {
+        final int dependent;
+        final int head;
+        final int dependency;
+        final Arc previous;
+
+        Arc(int dependent, int head, int dependency, Arc previous) {
+            this.dependent = dependent;
+            this.head = head;
+            this.dependency = dependency;
+            this.previous = previous;
+        }
+    }
+
+    private static final class Tree {
+        final int[] heads;
+        final int[] labels;
+        final int[] leftMostArcs;
+        final int[] rightMostArcs;
+        final int[] leftValency;
+        final int[] rightValency;
+        final long[] rightDepLabels;
+        final long[] leftDepLabels;
+
+        Tree(int size, Arc arcs) {
+            heads = new int[size + 1];
+            labels = new int[size + 1];
+            leftMostArcs = new int[size + 1];
+            rightMostArcs = new int[size + 1];
+            leftValency = new int[size + 1];
+            rightValency = new int[size + 1];
+            rightDepLabels = new long[size + 1];
+            leftDepLabels = new long[size + 1];
+            for (int i = 0; i <= size; i++)
+                heads[i] = -1;
+
+            int count = 0;
+            for (Arc arc = arcs; arc != null; arc = arc.previous)
+                count++;
+            Arc[] ordered = new Arc[count];
+            for (Arc arc = arcs; arc != null; arc = arc.previous)
+                ordered[--count] = arc;
+
+            for (Arc arc : ordered) {
+                int dependent = arc.dependent;
+                int head = arc.head;
+                heads[dependent] = head;
+                labels[dependent] = arc.dependency;
+                long value = 1L << (arc.dependency);
+                if (dependent > head) { //right dep
+                    if (rightMostArcs[head] == 0 || dependent > rightMostArcs[head])
+                        rightMostArcs[head] = dependent;
+                    rightValency[head] += 1;
+                    rightDepLabels[head] = rightDepLabels[head] | value;
+                } else { //left dependency
+                    if (leftMostArcs[head] == 0 || dependent < leftMostArcs[head])
+                        leftMostArcs[head] = dependent;
+                    leftDepLabels[head] = leftDepLabels[head] | value;
+                    leftValency[head] += 1;
+                }
+            }
+        }
+    }
+
     public State(int size) {
         emptyFlag = false;
-        stack = new ArrayDeque<Integer>();
-        arcs = new Pair[size + 1];
-
-        leftMostArcs = new int[size + 1];
-        rightMostArcs = new int[size + 1];
-        leftValency = new int[size + 1];
-        rightValency = new int[size + 1];
-        rightDepLabels = new long[size + 1];
-        leftDepLabels = new long[size + 1];
+        this.size = size;
+        top = null;
+        stackSize = 0;
+        bufferHeadInfo = null;
+        arcs = null;
 
         rootIndex = 0;
         bufferH = 1;
@@ -58,7 +133,7 @@ public class State implements Cloneable {
     public State(int sentenceSize, boolean rootFirst) {
         this(sentenceSize);
         if (rootFirst) {
-            stack.push(0);
+            push(0);
             rootIndex = 0;
             maxSentenceSize = sentenceSize;
         } else {
@@ -67,44 +142,138 @@ public class State implements Cloneable {
         }
     }
 
-    public ArrayDeque<Integer> getStack() {
-        return stack;
+    /**
+     * @param depth 0 for the top of the stack
+     * @return the stack item at the given depth
+     */
+    public int stackItem(int depth) {
+        TokenInfo node = top;
+        for (int i = 0; i < depth; i++)
+            node = node.below;
+        return node.position;
     }
 
+    /**
+     * Pops the stack; if the popped token is the rightmost dependent of the new top, the new top keeps its final
+     * information
+     */
     public int pop() throws Exception {
-        return stack.pop();
+        if (top == null)
+            throw new NoSuchElementException();
+        TokenInfo popped = top;
+        top = popped.below;
+        stackSize--;
+        if (top != null && popped.head == top.position && top.rightMost != null && top.rightMost.position == popped.position)
+            top = top.withRightMost(popped.withBelow(null));
+        return popped.position;
+    }
+
+    /**
+     * Moves the stack top back to the head of the buffer, with all its information
+     */
+    public void popToBuffer() {
+        TokenInfo popped = top;
+        top = popped.below;
+        stackSize--;
+        bufferH = popped.position;
+        bufferHeadInfo = popped.withBelow(null);
     }
 
     public void push(int index) {
-        stack.push(index);
+        TokenInfo node;
+        if (index == bufferH && bufferHeadInfo != null)
+            node = bufferHeadInfo.withBelow(top);
+        else
+            node = new TokenInfo(index, -1, -1, null, null, 0, 0, 0, 0, top);
+        top = node;
+        stackSize++;
     }
 
+    /**
+     * The dependent and the head have to be the stack top and the buffer head (in any order)
+     */
     public void addArc(int dependent, int head, int dependency) {
-        arcs[dependent] = new Pair<Integer, Integer>(head, dependency);
-        long value = 1L << (dependency);
-        
         assert dependency<64;
 
-        if (dependent > head) { //right dep
-            if (rightMostArcs[head] == 0 || dependent > rightMostArcs[head])
-                rightMostArcs[head] = dependent;
-            rightValency[head] += 1;
-            rightDepLabels[head] = rightDepLabels[head] | value;
-
-        } else { //left dependency
-            if (leftMostArcs[head] == 0 || dependent < leftMostArcs[head])
-                leftMostArcs[head] = dependent;
-            leftDepLabels[head] = leftDepLabels[head] | value;
-            leftValency[head] += 1;
+        arcs = new Arc(dependent, head, dependency, arcs);
+        tree = null;
+
+        if (top != null && dependent == top.position && head == bufferH) { // left arc
+            TokenInfo dependentInfo = top.withHead(head, dependency);
+            top = dependentInfo;
+            bufferHeadInfo = bufferHeadInfo().withLeftDependent(dependentInfo.withBelow(null), dependency);
+        } else if (top != null && dependent == bufferH && head == top.position) { // right arc
+            TokenInfo dependentInfo = bufferHeadInfo().withHead(head, dependency);
+            bufferHeadInfo = dependentInfo;
+            top = top.withRightDependent(dependentInfo, dependency);
+        } else {
+            throw new IllegalArgumentException("arcs are only allowed between the stack top and the buffer head");
         }
     }
 
+    private TokenInfo bufferHeadInfo() {
+        return bufferHeadInfo != null ? bufferHeadInfo : TokenInfo.unattached(bufferH);
+    }
+
+    /**
+     * @return the information of the token if it is at hand without building the tree, otherwise null
+     */
+    private TokenInfo info(int index) {
+        TokenInfo s0 = top;
+        if (s0 != null) {
+            if (s0.position == index)
+                return s0;
+            if (s0.below != null && s0.below.position == index)
+                return s0.below;
+        }
+        if (index == bufferH && bufferH >= 0)
+            return bufferHeadInfo != null ? bufferHeadInfo : TokenInfo.UNATTACHED;
+        if (s0 != null) {
+            TokenInfo l = s0.leftMost;
+            if (l != null) {
+                if (l.position == index)
+                    return l;
+                if (l.leftMost != null && l.leftMost.position == index)
+                    return l.leftMost;
+            }
+            TokenInfo r = s0.rightMost;
+            if (r != null) {
+                if (r.position == index)
+                    return r;
+                if (r.rightMost != null && r.rightMost.position == index)
+                    return r.rightMost;
+            }
+        }
+        if (bufferHeadInfo != null) {
+            TokenInfo l = bufferHeadInfo.leftMost;
+            if (l != null) {
+                if (l.position == index)
+                    return l;
+                if (l.leftMost != null && l.leftMost.position == index)
+                    return l.leftMost;
+            }
+        }
+        return null;
+    }
+
+    private Tree tree() {
+        if (tree == null)
+            tree = new Tree(size, arcs);
+        return tree;
+    }
+
     public long rightDependentLabels(int position) {
-        return rightDepLabels[position];
+        TokenInfo info = info(position);
+        if (info != null)
+            return info.rightDepLabels;
+        return tree().rightDepLabels[position];
     }
 
     public long leftDependentLabels(int position) {
-        return leftDepLabels[position];
+        TokenInfo info = info(position);
+        if (info != null)
+            return info.leftDepLabels;
+        return tree().leftDepLabels[position];
     }
 
     public boolean isEmptyFlag() {
@@ -120,8 +289,8 @@ public class State implements Cloneable {
     }
 
     public int peek() {
-        if (stack.size() > 0)
-            return stack.peek();
+        if (top != null)
+            return top.position;
         return -1;
     }
 
@@ -130,11 +299,11 @@ public class State implements Cloneable {
     }
 
     public boolean isTerminalState() {
-        return bufferEmpty() && stackEmpty() || stack.size() == 0 && bufferH == rootIndex;
+        return bufferEmpty() && stackEmpty() || stackSize == 0 && bufferH == rootIndex;
     }
 
     public boolean hasHead(int dependent) {
-        return arcs[dependent] != null;
+        return getHead(dependent) != -1;
     }
 
     public boolean bufferEmpty() {
@@ -142,7 +311,7 @@ public class State implements Cloneable {
     }
 
     public boolean stackEmpty() {
-        return stack.size() == 0;
+        return stackSize == 0;
     }
 
     public int bufferSize() {
@@ -152,14 +321,22 @@ public class State implements Cloneable {
     }
 
     public int stackSize() {
-        return stack.size();
+        return stackSize;
     }
 
     public int rightMostModifier(int index) {
+        TokenInfo info = info(index);
+        if (info != null)
+            return info.rightMost == null ? -1 : info.rightMost.position;
+        int[] rightMostArcs = tree().rightMostArcs;
         return (rightMostArcs[index] == 0 ? -1 : rightMostArcs[index]);
     }
 
     public int leftMostModifier(int index) {
+        TokenInfo info = info(index);
+        if (info != null)
+            return info.leftMost == null ? -1 : info.leftMost.position;
+        int[] leftMostArcs = tree().leftMostArcs;
         return (leftMostArcs[index] == 0 ? -1 : leftMostArcs[index]);
     }
 
@@ -176,7 +353,10 @@ public class State implements Cloneable {
      * @return the current number of right modifiers
      */
     public int rightValency(int head) {
-        return rightValency[head];
+        TokenInfo info = info(head);
+        if (info != null)
+            return info.rightValency;
+        return tree().rightValency[head];
     }
 
     /**
@@ -184,18 +364,26 @@ public class State implements Cloneable {
      * @return the current number of left modifiers
      */
     public int leftValency(int head) {
-        return leftValency[head];
+        TokenInfo info = info(head);
+        if (info != null)
+            return info.leftValency;
+        return tree().leftValency[head];
     }
 
     public int getHead(int index) {
-        if (arcs[index] != null)
-            return arcs[index].first;
-        return -1;
+        TokenInfo info = info(index);
+        if (info != null)
+            return info.head;
+        return tree().heads[index];
     }
 
     public int getDependency(int index) {
-        if (arcs[index] != null)
-            return arcs[index].second;
+        TokenInfo info = info(index);
+        if (info != null)
+            return info.label;
+        Tree tree = tree();
+        if (tree.heads[index] != -1)
+            return tree.labels[index];
         return -1;
     }
 
@@ -208,40 +396,23 @@ public class State implements Cloneable {
             bufferH = -1;
         else
             bufferH++;
+        bufferHeadInfo = null;
     }
 
     public void setBufferH(int bufferH) {
         this.bufferH = bufferH;
+        bufferHeadInfo = null;
     }
 
+    /**
+     * Everything a state points to is immutable, so the clone shares it all
+     */
     @Override
     public State clone() {
-        State state = new State(arcs.length - 1);
-        state.stack = new ArrayDeque<Integer>(stack);
-
-        for (int dependent = 0; dependent < arcs.length; dependent++) {
-            if (arcs[dependent] != null) {
-                Pair<Integer, Integer> head = arcs[dependent];
-                state.arcs[dependent] = head;
-                int h = head.first;
-
-                if (rightMostArcs[h] != 0) {
-                    state.rightMostArcs[h] = rightMostArcs[h];
-                    state.rightValency[h] = rightValency[h];
-                    state.rightDepLabels[h] = rightDepLabels[h];
-                }
-
-                if (leftMostArcs[h] != 0) {
-                    state.leftMostArcs[h] = leftMostArcs[h];
-                    state.leftValency[h] = leftValency[h];
-                    state.leftDepLabels[h] = leftDepLabels[h];
-                }
-            }
+        try {
+            return (State) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
         }
-        state.rootIndex = rootIndex;
-        state.bufferH = bufferH;
-        state.maxSentenceSize = maxSentenceSize;
-        state.emptyFlag = emptyFlag;
-        return state;
     }
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Configuration;
+
+/**
+ * Immutable information of a token on the stack or at the head of the buffer: everything the feature templates
+ * ask about it. Stack nodes are linked through {@link #below}, so states can share their stacks.
+ * <p/>
+ * The leftmost and rightmost dependents are kept as the nodes of those dependents; in the arc-eager system their
+ * own information does not change anymore once they are visible from here (a rightmost dependent is refreshed when
+ * it is reduced).
+ */
+final class TokenInfo {
+    /**
+     * Information of a token that is not attached to anything
+     */
+    static final TokenInfo UNATTACHED = new TokenInfo(-1, -1, -1, null, null, 0, 0, 0, 0, null);
+
+    final int position;
+    final int head;
+    final int label;
+    final TokenInfo leftMost;
+    final TokenInfo rightMost;
+    final int leftValency;
+    final int rightValency;
+    final long leftDepLabels;
+    final long rightDepLabels;
+    final TokenInfo below;
+
+    TokenInfo(int position, int head, int label, TokenInfo leftMost, TokenInfo rightMost, int leftValency, int rightValency,
+              long leftDepLabels, long rightDepLabels, TokenInfo below) {
+        this.position = position;
+        this.head = head;
+        this.label = label;
+        this.leftMost = leftMost;
+        this.rightMost = rightMost;
+        this.leftValency = leftValency;
+        this.rightValency = rightValency;
+        this.leftDepLabels = leftDepLabels;
+        this.rightDepLabels = rightDepLabels;
+        this.below = below;
+    }
+
+    static TokenInfo unattached(int position) {
+        return new TokenInfo(position, -1, -1, null, null, 0, 0, 0, 0, null);
+    }
+
+    TokenInfo withBelow(TokenInfo below) {
+        return new TokenInfo(position, head, label, leftMost, rightMost, leftValency, rightValency, leftDepLabels, rightDepLabels, below);
+    }
+
+    TokenInfo withHead(int head, int label) {
+        return new TokenInfo(position, head, label, leftMost, rightMost, leftValency, rightValency, leftDepLabels, rightDepLabels, below);
+    }
+
+    TokenInfo withLeftDependent(TokenInfo dependent, int dependency) {
+        TokenInfo newLeftMost = (leftMost == null || dependent.position < leftMost.position) ? dependent : leftMost;
+        return new TokenInfo(position, head, label, newLeftMost, rightMost, leftValency + 1, rightValency,
+                leftDepLabels | (1L << dependency), rightDepLabels, below);
+    }
+
+    TokenInfo withRightDependent(TokenInfo dependent, int dependency) {
+        TokenInfo newRightMost = (rightMost == null || dependent.position > rightMost.position) ? dependent : rightMost;
+        return new TokenInfo(position, head, label, leftMost, newRightMost, leftValency, rightValency + 1,
+                leftDepLabels, rightDepLabels | (1L << dependency), below);
+    }
+
+    TokenInfo withRightMost(TokenInfo rightMost) {
+        return new TokenInfo(position, head, label, leftMost, rightMost, leftValency, rightValency, leftDepLabels, rightDepLabels, below);
+    }
+}
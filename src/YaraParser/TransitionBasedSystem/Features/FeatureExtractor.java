@@ -10,23 +10,39 @@ import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.State;
 
 public class FeatureExtractor {
+    /**
+     * Marks a template that does not fire in the current state (e.g. an unknown word)
+     */
+    public static final long ABSENT = Long.MIN_VALUE;
+
     /**
      * Given a list of templates, extracts all features for the given state
      *
      * @param configuration
+     * @param length   number of templates (26, 72 or 153)
+     * @param features buffer of at least length slots that is overwritten with the feature codes; reused by the caller
      * @return
      * @throws Exception
      */
-    public static Object[] extractAllParseFeatures(Configuration configuration, int length) {
+    public static long[] extractAllParseFeatures(Configuration configuration, int length, long[] features) {
         if (length == 26)
-            return extractBasicFeatures(configuration, length);
+            extractBasicFeatures(configuration, features);
         else if (length == 72)
-            return extractExtendedFeatures(configuration, length);
+            extractExtendedFeatures(configuration, features);
         else
-            return extractExtendedFeaturesWithBrownClusters(configuration, length);
+            extractExtendedFeaturesWithBrownClusters(configuration, features);
+        return features;
     }
 
 
+    /**
+     * Combines a word or tag feature with a 64-bit set of dependent labels into one key.
+     * The label set can use all 64 bits, so the two are mixed instead of being shifted side by side.
+     */
+    public static long labelSetFeature(long item, long labelSet) {
+        return (item * 0x9E3779B97F4A7C15L) ^ labelSet;
+    }
+
     /**
      * Given a list of templates, extracts all features for the given state
      *
@@ -34,8 +50,7 @@ public class FeatureExtractor {
      * @return
      * @throws Exception
      */
-    private static Object[] extractExtendedFeatures(Configuration configuration, int length) {
-        Object[] featureMap = new Object[length];
+    private static void extractExtendedFeatures(Configuration configuration, long[] featureMap) {
 
         State state = configuration.state;
         Sentence sentence = configuration.sentence;
@@ -238,8 +253,8 @@ public class FeatureExtractor {
             featureMap[index++] = s0wp;
             featureMap[index++] = s0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p;
 
@@ -247,8 +262,8 @@ public class FeatureExtractor {
             featureMap[index++] = b0wp;
             featureMap[index++] = b0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b0p;
 
@@ -256,8 +271,8 @@ public class FeatureExtractor {
             featureMap[index++] = b1wp;
             featureMap[index++] = b1w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b1p;
 
@@ -265,8 +280,8 @@ public class FeatureExtractor {
             featureMap[index++] = b2wp;
             featureMap[index++] = b2w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b2p;
 
@@ -278,27 +293,27 @@ public class FeatureExtractor {
             featureMap[index++] = (s0wp << 20) | b0w;
             featureMap[index++] = (s0w << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0w != 1) {
             featureMap[index++] = (s0wp << 8) | b0p;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0w != 1) {
             featureMap[index++] = (s0p << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = (s0w << 20) | b0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = (s0p << 8) | b0p;
         featureMap[index++] = (b0p << 8) | b1p;
@@ -322,19 +337,19 @@ public class FeatureExtractor {
         if (s0w != 1) {
             featureMap[index++] = s0w | (distance << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p | (distance << 8);
         if (b0w != 1) {
             featureMap[index++] = b0w | (distance << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b0p | (distance << 8);
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = s0w | (b0w << 20) | (distance << 40);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p | (b0p << 8) | (distance << 28);
 
@@ -344,19 +359,19 @@ public class FeatureExtractor {
         if (s0w != 1) {
             featureMap[index++] = s0w | (svr << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p | (svr << 8);
         if (s0w != 1) {
             featureMap[index++] = s0w | (svl << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p | (svl << 8);
         if (b0w != 1) {
             featureMap[index++] = b0w | (bvl << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b0p | (bvl << 8);
 
@@ -366,28 +381,28 @@ public class FeatureExtractor {
         if (sh0w != 1) {
             featureMap[index++] = sh0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sh0p;
         featureMap[index++] = s0l;
         if (sl0w != 1) {
             featureMap[index++] = sl0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sl0p;
         featureMap[index++] = sl0l;
         if (sr0w != 1) {
             featureMap[index++] = sr0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sr0p;
         featureMap[index++] = sr0l;
         if (bl0w != 1) {
             featureMap[index++] = bl0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = bl0p;
         featureMap[index++] = bl0l;
@@ -398,28 +413,28 @@ public class FeatureExtractor {
         if (sh1w != 1) {
             featureMap[index++] = sh1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sh1p;
         featureMap[index++] = sh0l;
         if (sl1w != 1) {
             featureMap[index++] = sl1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sl1p;
         featureMap[index++] = sl1l;
         if (sr1w != 1) {
             featureMap[index++] = sr1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sr1p;
         featureMap[index++] = sr1l;
         if (bl1w != 1) {
             featureMap[index++] = bl1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = bl1p;
         featureMap[index++] = bl1l;
@@ -441,24 +456,23 @@ public class FeatureExtractor {
         }
 
         if (s0w != 1) {
-            featureMap[index++] = (s0w +"|"+ sdr) ;
+            featureMap[index++] = labelSetFeature(s0w, sdr);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
-        featureMap[index++] = (s0p +"|"+ sdr) ;
+        featureMap[index++] = labelSetFeature(s0p, sdr);
         if (s0w != 1) {
-            featureMap[index++] = s0w +"|"+ sdl ;
+            featureMap[index++] = labelSetFeature(s0w, sdl);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
-        featureMap[index++] = (s0p +"|"+  sdl) ;
+        featureMap[index++] = labelSetFeature(s0p, sdl);
         if (b0w != 1) {
-            featureMap[index++] = (b0w +"|"+  bdl) ;
+            featureMap[index++] = labelSetFeature(b0w, bdl);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
-        featureMap[index++] = (b0p +"|"+  bdl);
-        return featureMap;
+        featureMap[index++] = labelSetFeature(b0p, bdl);
     }
 
     /**
@@ -468,8 +482,7 @@ public class FeatureExtractor {
      * @return
      * @throws Exception
      */
-    private static Long[] extractBasicFeatures(Configuration configuration, int length) {
-        Long[] featureMap = new Long[length];
+    private static void extractBasicFeatures(Configuration configuration, long[] featureMap) {
 
         State state = configuration.state;
         Sentence sentence = configuration.sentence;
@@ -575,8 +588,8 @@ public class FeatureExtractor {
             featureMap[index++] = s0wp;
             featureMap[index++] = s0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p;
 
@@ -584,8 +597,8 @@ public class FeatureExtractor {
             featureMap[index++] = b0wp;
             featureMap[index++] = b0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b0p;
 
@@ -593,8 +606,8 @@ public class FeatureExtractor {
             featureMap[index++] = b1wp;
             featureMap[index++] = b1w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b1p;
 
@@ -602,8 +615,8 @@ public class FeatureExtractor {
             featureMap[index++] = b2wp;
             featureMap[index++] = b2w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b2p;
 
@@ -615,27 +628,27 @@ public class FeatureExtractor {
             featureMap[index++] = (s0wp << 20) | b0w;
             featureMap[index++] = (s0w << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0w != 1) {
             featureMap[index++] = (s0wp << 8) | b0p;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0w != 1) {
             featureMap[index++] = (s0p << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = (s0w << 20) | b0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = (s0p << 8) | b0p;
         featureMap[index++] = (b0p << 8) | b1p;
@@ -649,11 +662,9 @@ public class FeatureExtractor {
         featureMap[index++] = (s0p << 16) | (sl0p << 8) | b0p;
         featureMap[index++] = (s0p << 16) | (sr0p << 8) | b0p;
         featureMap[index++] = (s0p << 16) | (b0p << 8) | bl0p;
-        return featureMap;
     }
 
-    private static Object[] extractExtendedFeaturesWithBrownClusters(Configuration configuration, int length) {
-        Object[] featureMap = new Object[length];
+    private static void extractExtendedFeaturesWithBrownClusters(Configuration configuration, long[] featureMap) {
 
         State state = configuration.state;
         Sentence sentence = configuration.sentence;
@@ -881,8 +892,8 @@ public class FeatureExtractor {
             featureMap[index++] = s0wp;
             featureMap[index++] = s0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p;
 
@@ -890,8 +901,8 @@ public class FeatureExtractor {
             featureMap[index++] = b0wp;
             featureMap[index++] = b0w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b0p;
 
@@ -899,8 +910,8 @@ public class FeatureExtractor {
             featureMap[index++] = b1wp;
             featureMap[index++] = b1w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b1p;
 
@@ -908,8 +919,8 @@ public class FeatureExtractor {
             featureMap[index++] = b2wp;
             featureMap[index++] = b2w;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b2p;
 
@@ -921,27 +932,27 @@ public class FeatureExtractor {
             featureMap[index++] = (s0wp << 20) | b0w;
             featureMap[index++] = (s0w << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0w != 1) {
             featureMap[index++] = (s0wp << 8) | b0p;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0w != 1) {
             featureMap[index++] = (s0p << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = (s0w << 20) | b0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = (s0p << 8) | b0p;
         featureMap[index++] = (b0p << 8) | b1p;
@@ -965,19 +976,19 @@ public class FeatureExtractor {
         if (s0w != 1) {
             featureMap[index++] = s0w | (distance << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p | (distance << 8);
         if (b0w != 1) {
             featureMap[index++] = b0w | (distance << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b0p | (distance << 8);
         if (s0w != 1 && b0w != 1) {
             featureMap[index++] = s0w | (b0w << 20) | (distance << 40);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p | (b0p << 8) | (distance << 28);
 
@@ -987,19 +998,19 @@ public class FeatureExtractor {
         if (s0w != 1) {
             featureMap[index++] = s0w | (svr << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p | (svr << 8);
         if (s0w != 1) {
             featureMap[index++] = s0w | (svl << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = s0p | (svl << 8);
         if (b0w != 1) {
             featureMap[index++] = b0w | (bvl << 20);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = b0p | (bvl << 8);
 
@@ -1009,28 +1020,28 @@ public class FeatureExtractor {
         if (sh0w != 1) {
             featureMap[index++] = sh0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sh0p;
         featureMap[index++] = s0l;
         if (sl0w != 1) {
             featureMap[index++] = sl0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sl0p;
         featureMap[index++] = sl0l;
         if (sr0w != 1) {
             featureMap[index++] = sr0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sr0p;
         featureMap[index++] = sr0l;
         if (bl0w != 1) {
             featureMap[index++] = bl0w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = bl0p;
         featureMap[index++] = bl0l;
@@ -1041,28 +1052,28 @@ public class FeatureExtractor {
         if (sh1w != 1) {
             featureMap[index++] = sh1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sh1p;
         featureMap[index++] = sh0l;
         if (sl1w != 1) {
             featureMap[index++] = sl1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sl1p;
         featureMap[index++] = sl1l;
         if (sr1w != 1) {
             featureMap[index++] = sr1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = sr1p;
         featureMap[index++] = sr1l;
         if (bl1w != 1) {
             featureMap[index++] = bl1w;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
         featureMap[index++] = bl1p;
         featureMap[index++] = bl1l;
@@ -1084,23 +1095,23 @@ public class FeatureExtractor {
         }
 
         if (s0w != 1) {
-            featureMap[index++] = (s0w +"|"+ sdr) ;
+            featureMap[index++] = labelSetFeature(s0w, sdr);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
-        featureMap[index++] = (s0p +"|"+ sdr) ;
+        featureMap[index++] = labelSetFeature(s0p, sdr);
         if (s0w != 1) {
-            featureMap[index++] = s0w +"|"+ sdl ;
+            featureMap[index++] = labelSetFeature(s0w, sdl);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
-        featureMap[index++] = (s0p +"|"+  sdl) ;
+        featureMap[index++] = labelSetFeature(s0p, sdl);
         if (b0w != 1) {
-            featureMap[index++] = (b0w +"|"+  bdl) ;
+            featureMap[index++] = labelSetFeature(b0w, bdl);
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
-        featureMap[index++] = (b0p +"|"+  bdl);
+        featureMap[index++] = labelSetFeature(b0p, bdl);
 
         /**
          * Brown cluster features
@@ -1137,8 +1148,8 @@ public class FeatureExtractor {
             featureMap[index++] = s0wbc4;
             featureMap[index++] = s0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
             featureMap[index++] = s0bcfP;
 
@@ -1147,12 +1158,12 @@ public class FeatureExtractor {
             featureMap[index++] = s0bc4;
             featureMap[index++] = s0bc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0bcf > 0) {
@@ -1160,8 +1171,8 @@ public class FeatureExtractor {
                 featureMap[index++] = b0wbc4;
                 featureMap[index++] = b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
             featureMap[index++] = b0bcfP;
 
@@ -1170,12 +1181,12 @@ public class FeatureExtractor {
             featureMap[index++] = b0bc4;
             featureMap[index++] = b0bc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
 
@@ -1187,28 +1198,28 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0wbc4 << 32) | b0wbc4;
                 featureMap[index++] = (s0wbc6 << 32) | b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
             if (b0w != 1) {
                 featureMap[index++] = (s0wbc4 << 28) | b0wp;
                 featureMap[index++] = (s0wbc6 << 28) | b0wp;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
         if (b0bcf > 0 && s0w != 1 & b0w!=1) {
             featureMap[index++] = (s0wp << 32) | b0wbc4;
             featureMap[index++] = (s0wp << 32) | b0wbc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0 && s0w!=1) {
@@ -1216,33 +1227,33 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0wbc4 << 20) | b0w;
                 featureMap[index++] = (s0wbc6 << 20) | b0w;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
             if (b0bcf > 0) {
                 featureMap[index++] = (s0wbc4 << 12) | b0bcf;
                 featureMap[index++] = (s0wbc6 << 12) | b0bcf;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0bcf > 0 && s0w != 1) {
             featureMap[index++] = (s0wp << 12) | b0bcf;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0 && b0w != 1) {
             featureMap[index++] = (s0bcf << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0bcf > 0) {
@@ -1250,21 +1261,21 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0w << 32) | b0wbc4;
                 featureMap[index++] = (s0w << 32) | b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
             if (s0bcf > 0 && b0w!=1) {
                 featureMap[index++] = (s0bcf << 32) | b0wbc4;
                 featureMap[index++] = (s0bcf << 32) | b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0 && s0w!=1) {
@@ -1274,22 +1285,22 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0wbc4 << 8) | b0bc4;
                 featureMap[index++] = (s0wbc6 << 8) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0 && b0w != 1) {
             featureMap[index++] = (s0bc4 << 28) | b0wp;
             featureMap[index++] = (s0bc6 << 28) | b0wp;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0bcf > 0 && b0w!=1) {
@@ -1300,44 +1311,44 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 32) | b0wbc4;
                 featureMap[index++] = (s0bc6 << 32) | b0wbc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0bcf > 0 && s0w != 1) {
             featureMap[index++] = (s0w << 12) | b0bcf;
         } else {
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0) {
             if (b0w != 1) {
                 featureMap[index++] = (s0bcf << 20) | b0w;
             } else {
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
             }
             if (b0bcf > 0) {
                 featureMap[index++] = (s0bcf << 12) | b0bcf;
             } else {
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0) {
             featureMap[index++] = (s0bc4 << 8) | b0p;
             featureMap[index++] = (s0bc6 << 8) | b0p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0bcf > 0) {
@@ -1348,19 +1359,19 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 12) | b0bc4;
                 featureMap[index++] = (s0bc6 << 12) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
 
             featureMap[index++] = (b0bc4 << 8) | b1p;
             featureMap[index++] = (b0bc6 << 8) | b1p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         /**
@@ -1373,10 +1384,10 @@ public class FeatureExtractor {
             featureMap[index++] = (s0p << 20) | (b0bc4 << 8) | b1p;
             featureMap[index++] = (s0p << 20) | (b0bc6 << 8) | b1p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0) {
@@ -1386,19 +1397,19 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 20) | (b0bc4 << 8) | b1p;
                 featureMap[index++] = (s0bc6 << 20) | (b0bc6 << 8) | b1p;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
 
             featureMap[index++] = (sh0p << 20) | (s0bc4 << 8) | b0p;
             featureMap[index++] = (sh0p << 20) | (s0bc6 << 8) | b0p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0bcf > 0) {
@@ -1408,14 +1419,14 @@ public class FeatureExtractor {
                 featureMap[index++] = (sh0p << 24) | (s0bc4 << 12) | b0bc4;
                 featureMap[index++] = (sh0p << 24) | (s0bc6 << 12) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
 
@@ -1423,8 +1434,8 @@ public class FeatureExtractor {
             featureMap[index++] = (s0p << 20) | (sl0p << 12) | b0bc4;
             featureMap[index++] = (s0p << 20) | (sl0p << 12) | b0bc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0) {
@@ -1434,22 +1445,22 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 20) | (sl0p << 12) | b0bc4;
                 featureMap[index++] = (s0bc6 << 20) | (sl0p << 12) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0bcf > 0) {
             featureMap[index++] = (s0p << 20) | (sr0p << 12) | b0bc4;
             featureMap[index++] = (s0p << 20) | (sr0p << 12) | b0bc6;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0) {
@@ -1459,22 +1470,22 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 20) | (sr0p << 12) | b0bc4;
                 featureMap[index++] = (s0bc6 << 20) | (sr0p << 12) | b0bc6;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (b0bcf > 0) {
             featureMap[index++] = (s0p << 20) | (b0bc4 << 8) | bl0p;
             featureMap[index++] = (s0p << 20) | (b0bc6 << 8) | bl0p;
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
         if (s0bcf > 0) {
@@ -1484,17 +1495,16 @@ public class FeatureExtractor {
                 featureMap[index++] = (s0bc4 << 20) | (b0bc4 << 8) | bl0p;
                 featureMap[index++] = (s0bc6 << 20) | (b0bc6 << 8) | bl0p;
             } else {
-                featureMap[index++] = null;
-                featureMap[index++] = null;
+                featureMap[index++] = ABSENT;
+                featureMap[index++] = ABSENT;
             }
         } else {
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
-            featureMap[index++] = null;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
+            featureMap[index++] = ABSENT;
         }
 
-        return featureMap;
     }
 
 }
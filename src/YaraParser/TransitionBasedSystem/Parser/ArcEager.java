@@ -22,7 +22,7 @@ public class ArcEager extends TransitionBasedParser {
 
     public static void unShift(State state) throws Exception {
         if (!state.stackEmpty())
-            state.setBufferH(state.pop());
+            state.popToBuffer();
         // to make sure
         state.setEmptyFlag(true);
         state.setMaxSentenceSize(state.bufferHead());
@@ -35,7 +35,8 @@ public class ArcEager extends TransitionBasedParser {
     }
 
     public static void leftArc(State state, int dependency) throws Exception {
-        state.addArc(state.pop(), state.bufferHead(), dependency);
+        state.addArc(state.peek(), state.bufferHead(), dependency);
+        state.pop();
     }
 
     public static void rightArc(State state, int dependency) throws Exception {
@@ -46,32 +46,31 @@ public class BeamScorerThread implements Callable<ArrayList<BeamElement>> {
         boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
         boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
         boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-        Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+        long[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength, new long[featureLength]);
+        float[] scores = classifier.scoreAll(features, isDecode, new float[classifier.scoreLength()]);
 
         if (canShift) {
-            float score = classifier.shiftScore(features, isDecode);
+            float score = scores[0];
             float addedScore = score + prevScore;
             elements.add(new BeamElement(addedScore, b, 0, -1));
         }
         if (canReduce) {
-            float score = classifier.reduceScore(features, isDecode);
+            float score = scores[1];
             float addedScore = score + prevScore;
             elements.add(new BeamElement(addedScore, b, 1, -1));
 
         }
 
         if (canRightArc) {
-            float[] rightArcScores = classifier.rightArcScores(features, isDecode);
             for (int dependency : dependencyRelations) {
-                float score = rightArcScores[dependency];
+                float score = scores[3 + dependency];
                 float addedScore = score + prevScore;
                 elements.add(new BeamElement(addedScore, b, 2, dependency));
             }
         }
         if (canLeftArc) {
-            float[] leftArcScores = classifier.leftArcScores(features, isDecode);
             for (int dependency : dependencyRelations) {
-                float score = leftArcScores[dependency];
+                float score = scores[3 + dependencyRelations.size() + dependency];
                 float addedScore = score + prevScore;
                 elements.add(new BeamElement(addedScore, b, 3, dependency));
             }
@@ -7,11 +7,13 @@ package YaraParser.TransitionBasedSystem.Parser;
 
 import YaraParser.Accessories.CoNLLReader;
 import YaraParser.Accessories.Pair;
+import YaraParser.Accessories.ParseExecutors;
 import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Metrics.ParserMetrics;
 import YaraParser.Structures.IndexMaps;
 import YaraParser.Structures.InfStruct;
 import YaraParser.Structures.Sentence;
-import YaraParser.TransitionBasedSystem.Configuration.BeamElement;
+import YaraParser.TransitionBasedSystem.Configuration.BeamPreserver;
 import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
 import YaraParser.TransitionBasedSystem.Configuration.State;
@@ -23,13 +25,25 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.TreeSet;
+import java.util.HashMap;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
-public class KBeamArcEagerParser extends TransitionBasedParser {
+/**
+ * One parser can be shared by any number of threads: {@link #parse}, {@link #parsePartial} and {@link #parseBatch}
+ * only read the model, and keep their buffers per thread or per call.
+ * <p/>
+ * The threads of the parser are stopped by {@link #close()}. The sentences of a file are parsed on the executor given
+ * to the constructor, e.g. {@link ParseExecutors#sharedPool()} for several parsers in one JVM, which the parser does
+ * not shut down; without one, the parser starts its own pool of numOfThreads threads on the first file.
+ */
+public class KBeamArcEagerParser extends TransitionBasedParser implements AutoCloseable {
     /**
      * Any kind of classifier that can give us scores
      */
@@ -41,155 +55,217 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
 
     IndexMaps maps;
 
-    ExecutorService executor;
-    CompletionService<ArrayList<BeamElement>> pool;
+    /**
+     * Scores the beam of a sentence in parallel when parse is called with more than one thread: the beam is cut into
+     * one chunk per thread, and the threads that are done steal the chunks of the others
+     */
+    ForkJoinPool executor;
+
+    /**
+     * Parses the sentences of the files, one task per sentence
+     */
+    private ExecutorService documentExecutor;
+    private final boolean ownsDocumentExecutor;
+    /**
+     * See {@link #labelsInOrder}
+     */
+    private final boolean labelsInOrder;
+    private final int numOfThreads;
+    /**
+     * Set by {@link #close()}; the beams are then scored on the calling thread and no pool is started again
+     */
+    private volatile boolean closed;
+
+    private final ThreadLocal<ParseScratch> scratch = new ThreadLocal<ParseScratch>() {
+        @Override
+        protected ParseScratch initialValue() {
+            return new ParseScratch(featureLength, classifier.scoreLength());
+        }
+    };
 
     public static KBeamArcEagerParser createParser(String modelPath,int numOfThreads) throws Exception{
-        InfStruct infStruct = new InfStruct(modelPath);
+        return createParser(modelPath, numOfThreads, false);
+    }
 
+    /**
+     * @param memoryMap if true, the weights are memory-mapped read-only from the model file and scored in place,
+     *                  so the start-up time does not depend on the model size and processes share the page cache
+     */
+    public static KBeamArcEagerParser createParser(String modelPath, int numOfThreads, boolean memoryMap) throws Exception {
+        return createParser(new InfStruct(modelPath, memoryMap), numOfThreads);
+    }
+
+    /**
+     * For callers that need the options and the index maps of the model as well as the parser
+     */
+    public static KBeamArcEagerParser createParser(InfStruct infStruct, int numOfThreads) throws Exception {
+        return createParser(infStruct, numOfThreads, null);
+    }
+
+    /**
+     * @param documentExecutor the executor for parsing the sentences of files, which the parser does not shut down;
+     *                         null for a pool of the parser's own
+     */
+    public static KBeamArcEagerParser createParser(InfStruct infStruct, int numOfThreads, ExecutorService documentExecutor) throws Exception {
         ArrayList<Integer> dependencyLabels = infStruct.dependencyLabels;
         IndexMaps maps = infStruct.maps;
         AveragedPerceptron averagedPerceptron = new AveragedPerceptron(infStruct);
 
         int featureSize = averagedPerceptron.featureSize();
-        return new KBeamArcEagerParser(averagedPerceptron, dependencyLabels, featureSize, maps, numOfThreads);
-        
+        return new KBeamArcEagerParser(averagedPerceptron, dependencyLabels, featureSize, maps, numOfThreads, documentExecutor);
     }
-    
+
     public KBeamArcEagerParser(AveragedPerceptron classifier, ArrayList<Integer> dependencyRelations,
                                int featureLength, IndexMaps maps, int numOfThreads) {
+        this(classifier, dependencyRelations, featureLength, maps, numOfThreads, null);
+    }
+
+    /**
+     * @param documentExecutor the executor for parsing the sentences of files, which the parser does not shut down;
+     *                         null for a pool of numOfThreads threads of the parser's own
+     */
+    public KBeamArcEagerParser(AveragedPerceptron classifier, ArrayList<Integer> dependencyRelations,
+                               int featureLength, IndexMaps maps, int numOfThreads, ExecutorService documentExecutor) {
         this.classifier = classifier;
         this.dependencyRelations = dependencyRelations;
         this.featureLength = featureLength;
         this.maps = maps;
-        executor = Executors.newFixedThreadPool(numOfThreads);
-        pool = new ExecutorCompletionService<ArrayList<BeamElement>>(executor);
+        this.numOfThreads = numOfThreads;
+        labelsInOrder = labelsInOrder(dependencyRelations);
+        // the threads of a fork/join pool are only started when it gets tasks
+        executor = new ForkJoinPool(numOfThreads);
+        ParserMetrics.get().monitor(executor);
+        this.documentExecutor = documentExecutor;
+        ownsDocumentExecutor = documentExecutor == null;
+    }
+
+    /**
+     * @throws IllegalStateException if the parser is closed and the document pool is its own
+     */
+    private synchronized ExecutorService documentExecutor() {
+        if (closed && ownsDocumentExecutor)
+            throw new IllegalStateException("the parser is closed; it can only parse files with one thread");
+        if (documentExecutor == null) {
+            documentExecutor = Executors.newFixedThreadPool(numOfThreads, ParseExecutors.daemonThreads("yara-parse"));
+            ParserMetrics.get().monitor(documentExecutor);
+        }
+        return documentExecutor;
     }
 
-    private void parseWithOneThread(ArrayList<Configuration> beam, TreeSet<BeamElement> beamPreserver, Sentence sentence, boolean rootFirst, int beamWidth) throws Exception {
+    private void parseWithOneThread(ArrayList<Configuration> beam, BeamPreserver beamPreserver, long[] featureBuffer, float[] scoreBuffer) throws Exception {
         for (int b = 0; b < beam.size(); b++) {
             Configuration configuration = beam.get(b);
-            State currentState = configuration.state;
-            float prevScore = configuration.score;
-            boolean canShift = ArcEager.canDo(Actions.Shift, currentState);
-            boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
-            boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
-            boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-            Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
-            if (!canShift
-                    && !canReduce
-                    && !canRightArc
-                    && !canLeftArc) {
-                float addedScore = prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 4, -1));
-
-                if (beamPreserver.size() > beamWidth)
-                    beamPreserver.pollFirst();
-            }
-
-            if (canShift) {
-                float score = classifier.shiftScore(features, true);
-                float addedScore = score + prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
+            long[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength, featureBuffer);
+            float[] scores = classifier.scoreAll(features, true, scoreBuffer);
+            addCandidates(configuration, b, scores, beamPreserver);
+        }
+    }
 
-                if (beamPreserver.size() > beamWidth)
-                    beamPreserver.pollFirst();
-            }
+    /**
+     * Adds every possible action from the b'th beam item, with the scores of {@link AveragedPerceptron#scoreAll}
+     */
+    private void addCandidates(Configuration configuration, int b, float[] scores, BeamPreserver beamPreserver) {
+        State currentState = configuration.state;
+        float prevScore = configuration.score;
+        boolean canShift = ArcEager.canDo(Actions.Shift, currentState);
+        boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
+        boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
+        boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
+        if (!canShift
+                && !canReduce
+                && !canRightArc
+                && !canLeftArc) {
+            float addedScore = prevScore;
+            beamPreserver.add(addedScore, b, 4, -1);
+        }
 
-            if (canReduce) {
-                float score = classifier.reduceScore(features, true);
-                float addedScore = score + prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
+        if (canShift) {
+            float score = scores[0];
+            float addedScore = score + prevScore;
+            beamPreserver.add(addedScore, b, 0, -1);
+        }
 
-                if (beamPreserver.size() > beamWidth)
-                    beamPreserver.pollFirst();
-            }
+        if (canReduce) {
+            float score = scores[1];
+            float addedScore = score + prevScore;
+            beamPreserver.add(addedScore, b, 1, -1);
+        }
 
-            if (canRightArc) {
-                float[] rightArcScores = classifier.rightArcScores(features, true);
+        if (canRightArc) {
+            if (labelsInOrder) {
+                beamPreserver.addLabeled(scores, 3, dependencyRelations.size(), prevScore, b, 2);
+            } else {
                 for (int dependency : dependencyRelations) {
-                    float score = rightArcScores[dependency];
+                    float score = scores[3 + dependency];
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 2, dependency);
                 }
             }
+        }
 
-            if (canLeftArc) {
-                float[] leftArcScores = classifier.leftArcScores(features, true);
+        if (canLeftArc) {
+            if (labelsInOrder) {
+                beamPreserver.addLabeled(scores, 3 + dependencyRelations.size(), dependencyRelations.size(), prevScore, b, 3);
+            } else {
                 for (int dependency : dependencyRelations) {
-                    float score = leftArcScores[dependency];
+                    float score = scores[3 + dependencyRelations.size() + dependency];
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 3, dependency);
                 }
             }
         }
     }
 
-    public Configuration parse(Sentence sentence, boolean rootFirst, int beamWidth, int numOfThreads) throws Exception {
-        Configuration initialConfiguration = new Configuration(sentence, rootFirst);
-
-        ArrayList<Configuration> beam = new ArrayList<Configuration>(beamWidth);
-        beam.add(initialConfiguration);
-
-        while (!ArcEager.isTerminal(beam)) {
-            TreeSet<BeamElement> beamPreserver = new TreeSet<BeamElement>();
-
-            if (numOfThreads == 1) {
-                parseWithOneThread(beam, beamPreserver, sentence, rootFirst, beamWidth);
-            } else {
-                for (int b = 0; b < beam.size(); b++) {
-                    pool.submit(new BeamScorerThread(true, classifier, beam.get(b),
-                            dependencyRelations, featureLength, b, rootFirst));
-                }
-                for (int b = 0; b < beam.size(); b++) {
-                    for (BeamElement element : pool.take().get()) {
-                        beamPreserver.add(element);
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-                }
-            }
-
+    /**
+     * @return true if the labels are 0, 1, 2, ... in this order, as the labels read by the CoNLL reader are; then the
+     * candidates of an arc action can be added for all the labels at once with {@link BeamPreserver#addLabeled}
+     */
+    private static boolean labelsInOrder(ArrayList<Integer> dependencyRelations) {
+        for (int i = 0; i < dependencyRelations.size(); i++)
+            if (dependencyRelations.get(i) != i)
+                return false;
+        return true;
+    }
 
-            ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
-            for (BeamElement beamElement : beamPreserver.descendingSet()) {
-                if (repBeam.size() >= beamWidth)
-                    break;
-                int b = beamElement.number;
-                int action = beamElement.action;
-                int label = beamElement.label;
-                float score = beamElement.score;
-
-                Configuration newConfig = beam.get(b).clone();
-
-                if (action == 0) {
-                    ArcEager.shift(newConfig.state);
-                    newConfig.addAction(0);
-                } else if (action == 1) {
-                    ArcEager.reduce(newConfig.state);
-                    newConfig.addAction(1);
-                } else if (action == 2) {
-                    ArcEager.rightArc(newConfig.state, label);
-                    newConfig.addAction(3 + label);
-                } else if (action == 3) {
-                    ArcEager.leftArc(newConfig.state, label);
-                    newConfig.addAction(3 + dependencyRelations.size() + label);
-                } else if (action == 4) {
-                    ArcEager.unShift(newConfig.state);
-                    newConfig.addAction(2);
-                }
-                newConfig.setScore(score);
-                repBeam.add(newConfig);
+    /**
+     * Applies the best (at most beamWidth) candidates of the preserver to copies of their beam items
+     */
+    private ArrayList<Configuration> nextBeam(ArrayList<Configuration> beam, BeamPreserver beamPreserver, int beamWidth) throws Exception {
+        ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
+        beamPreserver.sortDescending();
+        for (int e = 0; e < beamPreserver.size(); e++) {
+            if (repBeam.size() >= beamWidth)
+                break;
+            int b = beamPreserver.number(e);
+            int action = beamPreserver.action(e);
+            int label = beamPreserver.label(e);
+            float score = beamPreserver.score(e);
+
+            Configuration newConfig = beam.get(b).clone();
+
+            if (action == 0) {
+                ArcEager.shift(newConfig.state);
+                newConfig.addAction(0);
+            } else if (action == 1) {
+                ArcEager.reduce(newConfig.state);
+                newConfig.addAction(1);
+            } else if (action == 2) {
+                ArcEager.rightArc(newConfig.state, label);
+                newConfig.addAction(3 + label);
+            } else if (action == 3) {
+                ArcEager.leftArc(newConfig.state, label);
+                newConfig.addAction(3 + dependencyRelations.size() + label);
+            } else if (action == 4) {
+                ArcEager.unShift(newConfig.state);
+                newConfig.addAction(2);
             }
-            beam = repBeam;
+            newConfig.setScore(score);
+            repBeam.add(newConfig);
         }
+        return repBeam;
+    }
 
+    private static Configuration best(ArrayList<Configuration> beam) {
         Configuration bestConfiguration = null;
         float bestScore = Float.NEGATIVE_INFINITY;
         for (Configuration configuration : beam) {
@@ -201,143 +277,286 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
         return bestConfiguration;
     }
 
-    private void parsePartialWithOneThread(ArrayList<Configuration> beam, TreeSet<BeamElement> beamPreserver, Boolean isNonProjective, GoldConfiguration goldConfiguration, int beamWidth, boolean rootFirst) throws Exception {
-        for (int b = 0; b < beam.size(); b++) {
-            Configuration configuration = beam.get(b);
-            State currentState = configuration.state;
-            float prevScore = configuration.score;
-            boolean canShift = ArcEager.canDo(Actions.Shift, currentState);
-            boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
-            boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
-            boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-            Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
-            if (!canShift
-                    && !canReduce
-                    && !canRightArc
-                    && !canLeftArc && rootFirst) {
-                beamPreserver.add(new BeamElement(prevScore, b, 4, -1));
-
-                if (beamPreserver.size() > beamWidth)
-                    beamPreserver.pollFirst();
-            }
+    /**
+     * Can be called from many threads at the same time: the classifier and the index maps are only read, and the
+     * buffers of each call are those of its thread.
+     */
+    public Configuration parse(Sentence sentence, boolean rootFirst, int beamWidth, int numOfThreads) throws Exception {
+        Configuration initialConfiguration = new Configuration(sentence, rootFirst);
 
-            if (canShift) {
-                if (isNonProjective || goldConfiguration.actionCost(Actions.Shift, -1, currentState) == 0) {
-                    float score = classifier.shiftScore(features, true);
-                    float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
+        ArrayList<Configuration> beam = new ArrayList<Configuration>(beamWidth);
+        beam.add(initialConfiguration);
+        ParseScratch parseScratch = scratch.get();
+        long[] featureBuffer = parseScratch.features;
+        float[] scoreBuffer = parseScratch.scores;
+        BeamPreserver beamPreserver = parseScratch.beamPreserver(beamWidth);
+        boolean measure = ParserMetrics.isEnabled();
+        long start = measure ? System.nanoTime() : 0;
+        int steps = 0;
+        int clones = 0;
 
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
-                }
+        while (!ArcEager.isTerminal(beam)) {
+            steps++;
+            beamPreserver.clear();
+
+            if (numOfThreads == 1 || beam.size() == 1) {
+                parseWithOneThread(beam, beamPreserver, featureBuffer, scoreBuffer);
+            } else {
+                scoreInParallel(beam, beamPreserver, beamWidth, numOfThreads, parseScratch, null, false, rootFirst);
             }
 
-            if (canReduce) {
-                if (isNonProjective || goldConfiguration.actionCost(Actions.Reduce, -1, currentState) == 0) {
-                    float score = classifier.reduceScore(features, true);
-                    float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
+            beam = nextBeam(beam, beamPreserver, beamWidth);
+            clones += beam.size();
+        }
 
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
-                }
-            }
+        if (measure)
+            ParserMetrics.get().recordSentence(sentence.size() - 1, System.nanoTime() - start, steps,
+                    beamPreserver.candidates(), beamPreserver.rejected(), clones);
 
-            if (canRightArc) {
-                float[] rightArcScores = classifier.rightArcScores(features, true);
-                for (int dependency : dependencyRelations) {
-                    if (isNonProjective || goldConfiguration.actionCost(Actions.RightArc, dependency, currentState) == 0) {
-                        float score = rightArcScores[dependency];
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
+        return best(beam);
+    }
 
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
+    /**
+     * Parses the sentences together, giving the same trees as parsing them one by one: the beams of all of them
+     * advance in lockstep, and every step scores the items of all the beams at once with
+     * {@link AveragedPerceptron#scoreBatch}, which goes over each weight table once for all of them instead of once
+     * per item. A sentence stops taking part when its beam is terminal; its latency in the metrics is the time from
+     * the start of the batch until then.
+     *
+     * @param beamWidths the beam width of each sentence
+     */
+    public Configuration[] parseBatch(Sentence[] sentences, boolean rootFirst, int[] beamWidths) throws Exception {
+        int count = sentences.length;
+        ArrayList<ArrayList<Configuration>> beams = new ArrayList<ArrayList<Configuration>>(count);
+        BeamPreserver[] beamPreservers = new BeamPreserver[count];
+        int maxItems = 0;
+        for (int s = 0; s < count; s++) {
+            ArrayList<Configuration> beam = new ArrayList<Configuration>(beamWidths[s]);
+            beam.add(new Configuration(sentences[s], rootFirst));
+            beams.add(beam);
+            beamPreservers[s] = new BeamPreserver(beamWidths[s]);
+            maxItems += beamWidths[s];
+        }
+        long[][] features = new long[maxItems][featureLength];
+        float[][] scores = new float[maxItems][classifier.scoreLength()];
+        boolean[] terminal = new boolean[count];
+        boolean measure = ParserMetrics.isEnabled();
+        long start = measure ? System.nanoTime() : 0;
+        int[] steps = new int[count];
+        int[] clones = new int[count];
+        long[] nanos = new long[count];
+
+        while (true) {
+            int items = 0;
+            for (int s = 0; s < count; s++) {
+                if (terminal[s])
+                    continue;
+                if (ArcEager.isTerminal(beams.get(s))) {
+                    terminal[s] = true;
+                    if (measure)
+                        nanos[s] = System.nanoTime() - start;
+                    continue;
                 }
+                for (Configuration configuration : beams.get(s))
+                    FeatureExtractor.extractAllParseFeatures(configuration, featureLength, features[items++]);
             }
+            if (items == 0)
+                break;
+            classifier.scoreBatch(features, items, true, scores);
+
+            items = 0;
+            for (int s = 0; s < count; s++) {
+                if (terminal[s])
+                    continue;
+                steps[s]++;
+                ArrayList<Configuration> beam = beams.get(s);
+                BeamPreserver beamPreserver = beamPreservers[s];
+                beamPreserver.clear();
+                for (int b = 0; b < beam.size(); b++)
+                    addCandidates(beam.get(b), b, scores[items++], beamPreserver);
+                beam = nextBeam(beam, beamPreserver, beamWidths[s]);
+                beams.set(s, beam);
+                clones[s] += beam.size();
+            }
+        }
 
-            if (canLeftArc) {
-                float[] leftArcScores = classifier.leftArcScores(features, true);
-                for (int dependency : dependencyRelations) {
-                    if (isNonProjective || goldConfiguration.actionCost(Actions.LeftArc, dependency, currentState) == 0) {
-                        float score = leftArcScores[dependency];
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
+        Configuration[] bestParses = new Configuration[count];
+        for (int s = 0; s < count; s++) {
+            if (measure)
+                ParserMetrics.get().recordSentence(sentences[s].size() - 1, nanos[s], steps[s],
+                        beamPreservers[s].candidates(), beamPreservers[s].rejected(), clones[s]);
+            bestParses[s] = best(beams.get(s));
+        }
+        return bestParses;
+    }
 
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-                }
+    private void parsePartialWithOneThread(ArrayList<Configuration> beam, BeamPreserver beamPreserver, Boolean isNonProjective, GoldConfiguration goldConfiguration, boolean rootFirst, long[] featureBuffer, float[] scoreBuffer) throws Exception {
+        for (int b = 0; b < beam.size(); b++) {
+            Configuration configuration = beam.get(b);
+            long[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength, featureBuffer);
+            float[] scores = classifier.scoreAll(features, true, scoreBuffer);
+            addPartialCandidates(configuration, b, scores, beamPreserver, goldConfiguration, isNonProjective, rootFirst);
+        }
+    }
+
+    /**
+     * Adds the actions from the b'th beam item that keep the gold dependencies of the partial tree (all of them if
+     * the partial tree is non-projective)
+     */
+    private void addPartialCandidates(Configuration configuration, int b, float[] scores, BeamPreserver beamPreserver,
+                                      GoldConfiguration goldConfiguration, boolean isNonProjective, boolean rootFirst) throws Exception {
+        State currentState = configuration.state;
+        float prevScore = configuration.score;
+        boolean canShift = ArcEager.canDo(Actions.Shift, currentState);
+        boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
+        boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
+        boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
+        if (!canShift
+                && !canReduce
+                && !canRightArc
+                && !canLeftArc && rootFirst) {
+            beamPreserver.add(prevScore, b, 4, -1);
+        }
+
+        if (canShift) {
+            if (isNonProjective || goldConfiguration.actionCost(Actions.Shift, -1, currentState) == 0) {
+                float score = scores[0];
+                float addedScore = score + prevScore;
+                beamPreserver.add(addedScore, b, 0, -1);
             }
         }
 
-        //todo
-        if (beamPreserver.size() == 0) {
-            for (int b = 0; b < beam.size(); b++) {
-                Configuration configuration = beam.get(b);
-                State currentState = configuration.state;
-                float prevScore = configuration.score;
-                boolean canShift = ArcEager.canDo(Actions.Shift, currentState);
-                boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
-                boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
-                boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-                Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
-                if (!canShift
-                        && !canReduce
-                        && !canRightArc
-                        && !canLeftArc) {
-                    beamPreserver.add(new BeamElement(prevScore, b, 4, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
-                }
+        if (canReduce) {
+            if (isNonProjective || goldConfiguration.actionCost(Actions.Reduce, -1, currentState) == 0) {
+                float score = scores[1];
+                float addedScore = score + prevScore;
+                beamPreserver.add(addedScore, b, 1, -1);
+            }
+        }
 
-                if (canShift) {
-                    float score = classifier.shiftScore(features, true);
+        if (canRightArc) {
+            for (int dependency : dependencyRelations) {
+                if (isNonProjective || goldConfiguration.actionCost(Actions.RightArc, dependency, currentState) == 0) {
+                    float score = scores[3 + dependency];
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 2, dependency);
                 }
+            }
+        }
 
-                if (canReduce) {
-                    float score = classifier.reduceScore(features, true);
+        if (canLeftArc) {
+            for (int dependency : dependencyRelations) {
+                if (isNonProjective || goldConfiguration.actionCost(Actions.LeftArc, dependency, currentState) == 0) {
+                    float score = scores[3 + dependencyRelations.size() + dependency];
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
-
-                    if (beamPreserver.size() > beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 3, dependency);
                 }
+            }
+        }
+    }
 
-                if (canRightArc) {
-                    float[] rightArcScores = classifier.rightArcScores(features, true);
-                    for (int dependency : dependencyRelations) {
-                        float score = rightArcScores[dependency];
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
+    /**
+     * Scores the beam on the fork/join pool, one chunk of beam items per thread. Each chunk keeps its own best
+     * candidates in its own preserver and with the buffers of the thread that scores it; the best of all chunks are
+     * then merged into beamPreserver, which gives the same candidates as scoring the items one by one.
+     * Once the parser is closed, the items are scored one by one on the calling thread.
+     *
+     * @param goldConfiguration the partial tree to keep, or null
+     */
+    private void scoreInParallel(ArrayList<Configuration> beam, BeamPreserver beamPreserver, int beamWidth, int numOfThreads,
+                                 ParseScratch parseScratch, GoldConfiguration goldConfiguration, boolean isNonProjective,
+                                 boolean rootFirst) throws Exception {
+        if (closed) {
+            scoreOnCallingThread(beam, beamPreserver, parseScratch, goldConfiguration, isNonProjective, rootFirst);
+            return;
+        }
+        int chunks = Math.min(Math.min(numOfThreads, executor.getParallelism()), beam.size());
+        int chunkSize = (beam.size() + chunks - 1) / chunks;
+        BeamPreserver[] chunkPreservers = parseScratch.chunkPreservers(chunks, beamWidth);
+        try {
+            executor.invoke(new ChunkScorer(beam, chunkPreservers, chunkSize, 0, chunks, goldConfiguration, isNonProjective, rootFirst));
+        } catch (ChunkScoringException e) {
+            throw (Exception) e.getCause();
+        } catch (RejectedExecutionException e) {
+            // closed since the check above; nothing was scored
+            scoreOnCallingThread(beam, beamPreserver, parseScratch, goldConfiguration, isNonProjective, rootFirst);
+            return;
+        }
+        for (BeamPreserver chunkPreserver : chunkPreservers)
+            beamPreserver.merge(chunkPreserver);
+    }
 
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-                }
+    private void scoreOnCallingThread(ArrayList<Configuration> beam, BeamPreserver beamPreserver, ParseScratch parseScratch,
+                                      GoldConfiguration goldConfiguration, boolean isNonProjective, boolean rootFirst) throws Exception {
+        if (goldConfiguration == null)
+            parseWithOneThread(beam, beamPreserver, parseScratch.features, parseScratch.scores);
+        else
+            parsePartialWithOneThread(beam, beamPreserver, isNonProjective, goldConfiguration, rootFirst, parseScratch.features, parseScratch.scores);
+    }
 
-                if (canLeftArc) {
-                    float[] leftArcScores = classifier.leftArcScores(features, true);
-                    for (int dependency : dependencyRelations) {
-                        float score = leftArcScores[dependency];
-                        float addedScore = score + prevScore;
-                        beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
+    /**
+     * Scores the chunks from firstChunk to lastChunk (exclusive), halving the range until it is a single chunk
+     */
+    private class ChunkScorer extends RecursiveAction {
+        private static final long serialVersionUID = -5309531374317850941L;
+
+        private final ArrayList<Configuration> beam;
+        private final BeamPreserver[] chunkPreservers;
+        private final int chunkSize;
+        private final int firstChunk;
+        private final int lastChunk;
+        private final GoldConfiguration goldConfiguration;
+        private final boolean isNonProjective;
+        private final boolean rootFirst;
+
+        ChunkScorer(ArrayList<Configuration> beam, BeamPreserver[] chunkPreservers, int chunkSize, int firstChunk, int lastChunk,
+                    GoldConfiguration goldConfiguration, boolean isNonProjective, boolean rootFirst) {
+            this.beam = beam;
+            this.chunkPreservers = chunkPreservers;
+            this.chunkSize = chunkSize;
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+            this.goldConfiguration = goldConfiguration;
+            this.isNonProjective = isNonProjective;
+            this.rootFirst = rootFirst;
+        }
 
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
+        @Override
+        protected void compute() {
+            if (lastChunk - firstChunk > 1) {
+                int middle = (firstChunk + lastChunk) >>> 1;
+                invokeAll(new ChunkScorer(beam, chunkPreservers, chunkSize, firstChunk, middle, goldConfiguration, isNonProjective, rootFirst),
+                        new ChunkScorer(beam, chunkPreservers, chunkSize, middle, lastChunk, goldConfiguration, isNonProjective, rootFirst));
+                return;
+            }
+
+            ParseScratch workerScratch = scratch.get();
+            BeamPreserver chunkPreserver = chunkPreservers[firstChunk];
+            int end = Math.min(beam.size(), (firstChunk + 1) * chunkSize);
+            try {
+                for (int b = firstChunk * chunkSize; b < end; b++) {
+                    Configuration configuration = beam.get(b);
+                    long[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength, workerScratch.features);
+                    float[] scores = classifier.scoreAll(features, true, workerScratch.scores);
+                    if (goldConfiguration == null)
+                        addCandidates(configuration, b, scores, chunkPreserver);
+                    else
+                        addPartialCandidates(configuration, b, scores, chunkPreserver, goldConfiguration, isNonProjective, rootFirst);
                 }
+            } catch (Exception e) {
+                throw new ChunkScoringException(e);
             }
         }
     }
 
+    private static class ChunkScoringException extends RuntimeException {
+        private static final long serialVersionUID = 3523875842067287260L;
+
+        ChunkScoringException(Exception cause) {
+            super(cause);
+        }
+    }
+
     public Configuration parsePartial(GoldConfiguration goldConfiguration, Sentence sentence, boolean rootFirst, int beamWidth, int numOfThreads) throws Exception {
         Configuration initialConfiguration = new Configuration(sentence, rootFirst);
         boolean isNonProjective = false;
@@ -347,68 +566,37 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
 
         ArrayList<Configuration> beam = new ArrayList<Configuration>(beamWidth);
         beam.add(initialConfiguration);
+        ParseScratch parseScratch = scratch.get();
+        long[] featureBuffer = parseScratch.features;
+        float[] scoreBuffer = parseScratch.scores;
+        BeamPreserver beamPreserver = parseScratch.beamPreserver(beamWidth);
+        boolean measure = ParserMetrics.isEnabled();
+        long start = measure ? System.nanoTime() : 0;
+        int steps = 0;
+        int clones = 0;
 
         while (!ArcEager.isTerminal(beam)) {
-            TreeSet<BeamElement> beamPreserver = new TreeSet<BeamElement>();
+            steps++;
+            beamPreserver.clear();
 
-            if (numOfThreads == 1) {
-                parsePartialWithOneThread(beam, beamPreserver, isNonProjective, goldConfiguration, beamWidth, rootFirst);
+            if (numOfThreads == 1 || beam.size() == 1) {
+                parsePartialWithOneThread(beam, beamPreserver, isNonProjective, goldConfiguration, rootFirst, featureBuffer, scoreBuffer);
             } else {
-                for (int b = 0; b < beam.size(); b++) {
-                    pool.submit(new PartialTreeBeamScorerThread(true, classifier, goldConfiguration, beam.get(b),
-                            dependencyRelations, featureLength, b));
-                }
-                for (int b = 0; b < beam.size(); b++) {
-                    for (BeamElement element : pool.take().get()) {
-                        beamPreserver.add(element);
-                        if (beamPreserver.size() > beamWidth)
-                            beamPreserver.pollFirst();
-                    }
-                }
+                scoreInParallel(beam, beamPreserver, beamWidth, numOfThreads, parseScratch, goldConfiguration, isNonProjective, rootFirst);
             }
+            // no action keeps the partial tree, so the parse goes on as if there were none
+            if (beamPreserver.size() == 0)
+                parseWithOneThread(beam, beamPreserver, featureBuffer, scoreBuffer);
 
-            ArrayList<Configuration> repBeam = new ArrayList<Configuration>(beamWidth);
-            for (BeamElement beamElement : beamPreserver.descendingSet()) {
-                if (repBeam.size() >= beamWidth)
-                    break;
-                int b = beamElement.number;
-                int action = beamElement.action;
-                int label = beamElement.label;
-                float score = beamElement.score;
-
-                Configuration newConfig = beam.get(b).clone();
-
-                if (action == 0) {
-                    ArcEager.shift(newConfig.state);
-                    newConfig.addAction(0);
-                } else if (action == 1) {
-                    ArcEager.reduce(newConfig.state);
-                    newConfig.addAction(1);
-                } else if (action == 2) {
-                    ArcEager.rightArc(newConfig.state, label);
-                    newConfig.addAction(3 + label);
-                } else if (action == 3) {
-                    ArcEager.leftArc(newConfig.state, label);
-                    newConfig.addAction(3 + dependencyRelations.size() + label);
-                } else if (action == 4) {
-                    ArcEager.unShift(newConfig.state);
-                    newConfig.addAction(2);
-                }
-                newConfig.setScore(score);
-                repBeam.add(newConfig);
-            }
-            beam = repBeam;
+            beam = nextBeam(beam, beamPreserver, beamWidth);
+            clones += beam.size();
         }
 
-        Configuration bestConfiguration = null;
-        float bestScore = Float.NEGATIVE_INFINITY;
-        for (Configuration configuration : beam) {
-            if (configuration.getScore(true) > bestScore) {
-                bestScore = configuration.getScore(true);
-                bestConfiguration = configuration;
-            }
-        }
-        return bestConfiguration;
+        if (measure)
+            ParserMetrics.get().recordSentence(sentence.size() - 1, System.nanoTime() - start, steps,
+                    beamPreserver.candidates(), beamPreserver.rejected(), clones);
+
+        return best(beam);
     }
 
     public void parseConllFile(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean labeled, boolean lowerCased, int numThreads, boolean partial, String scorePath) throws Exception {
@@ -429,56 +617,33 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
      */
     public void parseConllFileNoParallel(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean labeled, boolean lowerCased, int numOfThreads, boolean partial, String scorePath) throws Exception {
         CoNLLReader reader = new CoNLLReader(inputFile);
-        boolean addScore = false;
+        BufferedWriter scoreWriter = null;
         if (scorePath.trim().length() > 0)
-            addScore = true;
-        ArrayList<Float> scoreList = new ArrayList<Float>();
+            scoreWriter = new BufferedWriter(new FileWriter(scorePath));
 
         long start = System.currentTimeMillis();
         int allArcs = 0;
         int size = 0;
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile + ".tmp"));
+        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
         int dataCount = 0;
 
-        while (true) {
-            ArrayList<GoldConfiguration> data = reader.readData(15000, true, labeled, rootFirst, lowerCased, maps);
-            size += data.size();
-            if (data.size() == 0)
-                break;
-
-            for (GoldConfiguration goldConfiguration : data) {
-                dataCount++;
-                if (dataCount % 100 == 0)
-                    System.err.print(dataCount + " ... ");
-                Configuration bestParse;
-                if (partial)
-                    bestParse = parsePartial(goldConfiguration, goldConfiguration.getSentence(), rootFirst, beamWidth, numOfThreads);
-                else bestParse = parse(goldConfiguration.getSentence(), rootFirst, beamWidth, numOfThreads);
-
-                int[] words = goldConfiguration.getSentence().getWords();
-                allArcs += words.length - 1;
-                if (addScore)
-                    scoreList.add(bestParse.score / bestParse.sentence.size());
-
-                StringBuilder finalOutput = new StringBuilder();
-                for (int i = 0; i < words.length; i++) {
-                    int w = i + 1;
-                    int head = bestParse.state.getHead(w);
-                    int dep = bestParse.state.getDependency(w);
-
-                    if (w == bestParse.state.rootIndex && !rootFirst)
-                        continue;
-
-                    if (head == bestParse.state.rootIndex)
-                        head = 0;
-
-                    String label = head == 0 ? maps.rootString : maps.revWords[dep];
-                    String output = head + "\t" + label + "\n";
-                    finalOutput.append(output);
-                }
-                finalOutput.append("\n");
-                writer.write(finalOutput.toString());
-            }
+        GoldConfiguration goldConfiguration;
+        ArrayList<String[]> columns = new ArrayList<String[]>();
+        while ((goldConfiguration = reader.readNext(labeled, rootFirst, lowerCased, maps, columns)) != null) {
+            size++;
+            dataCount++;
+            if (dataCount % 100 == 0)
+                System.err.print(dataCount + " ... ");
+            Configuration bestParse;
+            if (partial)
+                bestParse = parsePartial(goldConfiguration, goldConfiguration.getSentence(), rootFirst, beamWidth, numOfThreads);
+            else bestParse = parse(goldConfiguration.getSentence(), rootFirst, beamWidth, numOfThreads);
+
+            allArcs += bestParse.sentence.getWords().length - 1;
+            if (scoreWriter != null)
+                scoreWriter.write(bestParse.score / bestParse.sentence.size() + "\n");
+            writeParse(bestParse, columns, rootFirst, writer);
+            columns.clear();
         }
 
         System.err.print("\n");
@@ -494,50 +659,53 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
         System.err.print(format.format(eacharc) + " ms for each arc!\n");
         System.err.print(format.format(each) + " ms for each sentence!\n\n");
 
-        BufferedReader gReader = new BufferedReader(new FileReader(inputFile));
-        BufferedReader pReader = new BufferedReader(new FileReader(outputFile + ".tmp"));
-        BufferedWriter pwriter = new BufferedWriter(new FileWriter(outputFile));
-
-        String line;
-
-        while ((line = pReader.readLine()) != null) {
-            String gLine = gReader.readLine();
-            if (line.trim().length() > 0) {
-                while (gLine.trim().length() == 0)
-                    gLine = gReader.readLine();
-                String[] ps = line.split("\t");
-                String[] gs = gLine.split("\t");
-                gs[6] = ps[0];
-                gs[7] = ps[1];
-                StringBuilder output = new StringBuilder();
-                for (int i = 0; i < gs.length; i++) {
-                    output.append(gs[i]).append("\t");
-                }
-                pwriter.write(output.toString().trim() + "\n");
-            } else {
-                pwriter.write("\n");
-            }
-        }
-        pwriter.flush();
-        pwriter.close();
-
-        if (addScore) {
-            BufferedWriter scoreWriter = new BufferedWriter(new FileWriter(scorePath));
-
-            for (int i = 0; i < scoreList.size(); i++)
-                scoreWriter.write(scoreList.get(i) + "\n");
+        if (scoreWriter != null) {
             scoreWriter.flush();
             scoreWriter.close();
         }
     }
 
+    /**
+     * Writes the input lines of the sentence with the predicted head and label in place of the gold ones, and an
+     * empty line after the sentence
+     *
+     * @param columns the columns of the token lines of the sentence in the input file
+     */
+    private void writeParse(Configuration bestParse, ArrayList<String[]> columns, boolean rootFirst, BufferedWriter writer) throws Exception {
+        int[] words = bestParse.sentence.getWords();
+        StringBuilder finalOutput = new StringBuilder();
+        int line = 0;
+        for (int i = 0; i < words.length; i++) {
+            int w = i + 1;
+            int head = bestParse.state.getHead(w);
+            int dep = bestParse.state.getDependency(w);
+
+            if (w == bestParse.state.rootIndex && !rootFirst)
+                continue;
+
+            if (head == bestParse.state.rootIndex)
+                head = 0;
+
+            String label = head == 0 ? maps.rootString : maps.revWords[dep];
+            String[] gs = columns.get(line++);
+            gs[6] = String.valueOf(head);
+            gs[7] = label;
+            StringBuilder output = new StringBuilder();
+            for (int c = 0; c < gs.length; c++) {
+                output.append(gs[c]).append("\t");
+            }
+            finalOutput.append(output.toString().trim()).append("\n");
+        }
+        finalOutput.append("\n");
+        writer.write(finalOutput.toString());
+    }
+
     public void parseTaggedFile(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean lowerCased, String separator, int numOfThreads) throws Exception {
         BufferedReader reader = new BufferedReader(new FileReader(inputFile));
         BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
         long start = System.currentTimeMillis();
 
-        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
-        CompletionService<Pair<String, Integer>> pool = new ExecutorCompletionService<Pair<String, Integer>>(executor);
+        CompletionService<Pair<String, Integer>> pool = new ExecutorCompletionService<Pair<String, Integer>>(documentExecutor());
 
 
         String line;
@@ -595,71 +763,53 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
     public void parseConllFileParallel(String inputFile, String outputFile, boolean rootFirst, int beamWidth, boolean lowerCased, int numThreads, boolean partial, String scorePath) throws Exception {
         CoNLLReader reader = new CoNLLReader(inputFile);
 
-        boolean addScore = false;
+        BufferedWriter scoreWriter = null;
         if (scorePath.trim().length() > 0)
-            addScore = true;
-        ArrayList<Float> scoreList = new ArrayList<Float>();
+            scoreWriter = new BufferedWriter(new FileWriter(scorePath));
 
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-        CompletionService<Pair<Configuration, Integer>> pool = new ExecutorCompletionService<Pair<Configuration, Integer>>(executor);
+        CompletionService<Pair<Configuration, Integer>> pool = new ExecutorCompletionService<Pair<Configuration, Integer>>(documentExecutor());
+        // enough queued sentences to keep every thread busy while the results are written, but never the whole file
+        int maxInFlight = 4 * numThreads;
 
         long start = System.currentTimeMillis();
         int allArcs = 0;
         int size = 0;
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile + ".tmp"));
-        int dataCount = 0;
-
-        while (true) {
-            ArrayList<GoldConfiguration> data = reader.readData(15000, true, true, rootFirst, lowerCased, maps);
-            size += data.size();
-            if (data.size() == 0)
-                break;
-
-            int index = 0;
-            Configuration[] confs = new Configuration[data.size()];
-
-            for (GoldConfiguration goldConfiguration : data) {
-                ParseThread thread = new ParseThread(index, classifier, dependencyRelations, featureLength, goldConfiguration.getSentence(), rootFirst, beamWidth, goldConfiguration, partial);
-                pool.submit(thread);
-                index++;
-            }
-
-            for (int i = 0; i < confs.length; i++) {
-                dataCount++;
-                if (dataCount % 100 == 0)
-                    System.err.print(dataCount + " ... ");
+        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
 
-                Pair<Configuration, Integer> configurationIntegerPair = pool.take().get();
-                confs[configurationIntegerPair.second] = configurationIntegerPair.first;
+        /**
+         * Parses that are finished before the ones of the previous sentences, waiting to be written
+         */
+        HashMap<Integer, Configuration> finished = new HashMap<Integer, Configuration>();
+        /**
+         * The input columns of the sentences in flight
+         */
+        HashMap<Integer, ArrayList<String[]>> inputColumns = new HashMap<Integer, ArrayList<String[]>>();
+        int written = 0;
+
+        ArrayList<String[]> columns = new ArrayList<String[]>();
+        GoldConfiguration goldConfiguration = reader.readNext(true, rootFirst, lowerCased, maps, columns);
+        while (goldConfiguration != null || written < size) {
+            if (goldConfiguration != null && size - written < maxInFlight) {
+                pool.submit(new ParseThread(size, this, goldConfiguration.getSentence(), rootFirst, beamWidth, goldConfiguration, partial));
+                inputColumns.put(size, columns);
+                size++;
+                columns = new ArrayList<String[]>();
+                goldConfiguration = reader.readNext(true, rootFirst, lowerCased, maps, columns);
+                continue;
             }
 
-            for (int j = 0; j < confs.length; j++) {
-                Configuration bestParse = confs[j];
-                if (addScore) {
-                    scoreList.add(bestParse.score / bestParse.sentence.size());
-                }
-                int[] words = data.get(j).getSentence().getWords();
-
-                allArcs += words.length - 1;
-
-                StringBuilder finalOutput = new StringBuilder();
-                for (int i = 0; i < words.length; i++) {
-                    int w = i + 1;
-                    int head = bestParse.state.getHead(w);
-                    int dep = bestParse.state.getDependency(w);
-
-                    if (w == bestParse.state.rootIndex && !rootFirst)
-                        continue;
-
-                    if (head == bestParse.state.rootIndex)
-                        head = 0;
-
-                    String label = head == 0 ? maps.rootString : maps.revWords[dep];
-                    String output = head + "\t" + label + "\n";
-                    finalOutput.append(output);
-                }
-                finalOutput.append("\n");
-                writer.write(finalOutput.toString());
+            Pair<Configuration, Integer> result = pool.take().get();
+            finished.put(result.second, result.first);
+
+            Configuration bestParse;
+            while ((bestParse = finished.remove(written)) != null) {
+                written++;
+                if (written % 100 == 0)
+                    System.err.print(written + " ... ");
+                allArcs += bestParse.sentence.getWords().length - 1;
+                if (scoreWriter != null)
+                    scoreWriter.write(bestParse.score / bestParse.sentence.size() + "\n");
+                writeParse(bestParse, inputColumns.remove(written - 1), rootFirst, writer);
             }
         }
 
@@ -676,48 +826,50 @@ public class KBeamArcEagerParser extends TransitionBasedParser {
         System.err.print(format.format(eacharc) + " ms for each arc!\n");
         System.err.print(format.format(each) + " ms for each sentence!\n\n");
 
-        BufferedReader gReader = new BufferedReader(new FileReader(inputFile));
-        BufferedReader pReader = new BufferedReader(new FileReader(outputFile + ".tmp"));
-        BufferedWriter pwriter = new BufferedWriter(new FileWriter(outputFile));
-
-        String line;
-
-        while ((line = pReader.readLine()) != null) {
-            String gLine = gReader.readLine();
-            if (line.trim().length() > 0) {
-                while (gLine.trim().length() == 0)
-                    gLine = gReader.readLine();
-                String[] ps = line.split("\t");
-                String[] gs = gLine.split("\t");
-                gs[6] = ps[0];
-                gs[7] = ps[1];
-                StringBuilder output = new StringBuilder();
-                for (int i = 0; i < gs.length; i++) {
-                    output.append(gs[i]).append("\t");
-                }
-                pwriter.write(output.toString().trim() + "\n");
-            } else {
-                pwriter.write("\n");
-            }
-        }
-        pwriter.flush();
-        pwriter.close();
-
-        if (addScore) {
-            BufferedWriter scoreWriter = new BufferedWriter(new FileWriter(scorePath));
-
-            for (int i = 0; i < scoreList.size(); i++)
-                scoreWriter.write(scoreList.get(i) + "\n");
+        if (scoreWriter != null) {
             scoreWriter.flush();
             scoreWriter.close();
         }
     }
 
+    /**
+     * Stops the threads of the parser, and its document pool if it has its own. The parser can still parse
+     * sentences afterwards, with one thread: the beams are scored on the calling thread whatever the number of
+     * threads asked for, and files can only be parsed with one thread (or on a document executor given to the
+     * constructor).
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        shutDown(executor);
+        ExecutorService ownPool;
+        synchronized (this) {
+            ownPool = ownsDocumentExecutor ? documentExecutor : null;
+        }
+        if (ownPool != null)
+            shutDown(ownPool);
+    }
+
+    /**
+     * Same as {@link #close()}
+     */
     public void shutDownLiveThreads() {
-        boolean isTerminated = executor.isTerminated();
-        while (!isTerminated) {
-            executor.shutdownNow();
-            isTerminated = executor.isTerminated();
+        close();
+    }
+
+    private static void shutDown(ExecutorService executor) {
+        boolean interrupted = false;
+        executor.shutdownNow();
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
         }
+        if (interrupted)
+            Thread.currentThread().interrupt();
     }
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Parser;
+
+import YaraParser.TransitionBasedSystem.Configuration.BeamPreserver;
+
+/**
+ * The buffers that one thread reuses from sentence to sentence while parsing: the feature vector, the action scores,
+ * the beam candidates, and the candidates of each chunk when the beam is scored in parallel. Every thread that calls
+ * the parser gets its own, so concurrent calls share nothing that they write.
+ */
+class ParseScratch {
+    final long[] features;
+    final float[] scores;
+    private final BeamPreserver beamPreserver;
+    private BeamPreserver[] chunkPreservers;
+
+    ParseScratch(int featureLength, int scoreLength) {
+        features = new long[featureLength];
+        scores = new float[scoreLength];
+        beamPreserver = new BeamPreserver(0);
+        chunkPreservers = new BeamPreserver[0];
+    }
+
+    /**
+     * @return the candidate preserver, emptied and set to keep beamWidth candidates
+     */
+    BeamPreserver beamPreserver(int beamWidth) {
+        beamPreserver.reset(beamWidth);
+        return beamPreserver;
+    }
+
+    /**
+     * @return count preservers for the chunks of a beam scored in parallel, emptied and set to keep beamWidth
+     * candidates each
+     */
+    BeamPreserver[] chunkPreservers(int count, int beamWidth) {
+        if (chunkPreservers.length != count) {
+            BeamPreserver[] preservers = new BeamPreserver[count];
+            for (int c = 0; c < count; c++)
+                preservers[c] = c < chunkPreservers.length ? chunkPreservers[c] : new BeamPreserver(beamWidth);
+            chunkPreservers = preservers;
+        }
+        for (BeamPreserver preserver : chunkPreservers)
+            preserver.reset(beamWidth);
+        return chunkPreservers;
+    }
+}
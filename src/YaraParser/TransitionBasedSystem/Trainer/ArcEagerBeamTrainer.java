@@ -13,6 +13,7 @@ import YaraParser.Structures.IndexMaps;
 import YaraParser.Structures.InfStruct;
 import YaraParser.Structures.Sentence;
 import YaraParser.TransitionBasedSystem.Configuration.BeamElement;
+import YaraParser.TransitionBasedSystem.Configuration.BeamPreserver;
 import YaraParser.TransitionBasedSystem.Configuration.Configuration;
 import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
 import YaraParser.TransitionBasedSystem.Configuration.State;
@@ -24,10 +25,14 @@ import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
 
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ArcEagerBeamTrainer {
     Options options;
@@ -47,6 +52,11 @@ public class ArcEagerBeamTrainer {
     private Random randGen;
     private IndexMaps maps;
 
+    /**
+     * Reused by every feature extraction and scoring of a training thread
+     */
+    private final ThreadLocal<SampleBuffers> sampleBuffers;
+
     public ArcEagerBeamTrainer(String updateMode, AveragedPerceptron classifier, Options options,
                                ArrayList<Integer> dependencyRelations,
                                int featureLength
@@ -58,6 +68,12 @@ public class ArcEagerBeamTrainer {
         this.featureLength = featureLength;
         randGen = new Random();
         this.maps = maps;
+        sampleBuffers = new ThreadLocal<SampleBuffers>() {
+            @Override
+            protected SampleBuffers initialValue() {
+                return new SampleBuffers();
+            }
+        };
     }
 
     public void train(ArrayList<GoldConfiguration> trainData, String devPath, int maxIteration, String modelPath, boolean lowerCased, HashSet<String> punctuations, int partialTreeIter) throws Exception {
@@ -71,16 +87,10 @@ public class ArcEagerBeamTrainer {
         for (int i = 1; i <= maxIteration; i++) {
             long start = System.currentTimeMillis();
 
-            int dataCount = 0;
-
-            for (GoldConfiguration goldConfiguration : trainData) {
-                dataCount++;
-                if (dataCount % 1000 == 0)
-                    System.out.print(dataCount + "...");
-                trainOnOneSample(goldConfiguration, partialTreeIter, i, dataCount, pool);
-
-                classifier.incrementIteration();
-            }
+            if (options.hogwild)
+                trainIterationHogwild(trainData, i, partialTreeIter, executor);
+            else
+                trainIteration(trainData, i, partialTreeIter, pool);
             System.out.print("\n");
             long end = System.currentTimeMillis();
             long timeSec = (end - start) / 1000;
@@ -92,27 +102,8 @@ public class ArcEagerBeamTrainer {
 
             System.out.println("done\n");
 
-            if (!devPath.equals("")) {
-                AveragedPerceptron averagedPerceptron = new AveragedPerceptron(infStruct);
-
-                int raSize = averagedPerceptron.raSize();
-                int effectiveRaSize = averagedPerceptron.effectiveRaSize();
-                float raRatio = 100.0f * effectiveRaSize / raSize;
-
-                int laSize = averagedPerceptron.laSize();
-                int effectiveLaSize = averagedPerceptron.effectiveLaSize();
-                float laRatio = 100.0f * effectiveLaSize / laSize;
-
-                DecimalFormat format = new DecimalFormat("##.00");
-                System.out.println("size of RA features in memory:" + effectiveRaSize + "/" + raSize + "->" + format.format(raRatio) + "%");
-                System.out.println("size of LA features in memory:" + effectiveLaSize + "/" + laSize + "->" + format.format(laRatio) + "%");
-                KBeamArcEagerParser parser = new KBeamArcEagerParser(averagedPerceptron, dependencyRelations, featureLength, maps, options.numOfThreads);
-
-                parser.parseConllFile(devPath, modelPath + ".__tmp__",
-                        options.rootFirst, options.beamWidth, true, lowerCased, options.numOfThreads, false, "");
-                Evaluator.evaluate(devPath, modelPath + ".__tmp__", punctuations);
-                parser.shutDownLiveThreads();
-            }
+            if (!devPath.equals(""))
+                evaluateOnDev(infStruct, options, devPath, modelPath, lowerCased, punctuations);
         }
         boolean isTerminated = executor.isTerminated();
         while (!isTerminated) {
@@ -121,18 +112,119 @@ public class ArcEagerBeamTrainer {
         }
     }
 
-    private void trainOnOneSample(GoldConfiguration goldConfiguration, int partialTreeIter, int i, int dataCount, CompletionService<ArrayList<BeamElement>> pool) throws Exception {
+    /**
+     * Parses the dev file with the model of an iteration and prints the scores
+     */
+    public static void evaluateOnDev(InfStruct infStruct, Options options, String devPath, String modelPath, boolean lowerCased, HashSet<String> punctuations) throws Exception {
+        AveragedPerceptron averagedPerceptron = new AveragedPerceptron(infStruct);
+
+        int raSize = averagedPerceptron.raSize();
+        int effectiveRaSize = averagedPerceptron.effectiveRaSize();
+        float raRatio = 100.0f * effectiveRaSize / raSize;
+
+        int laSize = averagedPerceptron.laSize();
+        int effectiveLaSize = averagedPerceptron.effectiveLaSize();
+        float laRatio = 100.0f * effectiveLaSize / laSize;
+
+        DecimalFormat format = new DecimalFormat("##.00");
+        System.out.println("size of RA features in memory:" + effectiveRaSize + "/" + raSize + "->" + format.format(raRatio) + "%");
+        System.out.println("size of LA features in memory:" + effectiveLaSize + "/" + laSize + "->" + format.format(laRatio) + "%");
+        KBeamArcEagerParser parser = new KBeamArcEagerParser(averagedPerceptron, infStruct.dependencyLabels,
+                averagedPerceptron.featureSize(), infStruct.maps, options.numOfThreads);
+
+        parser.parseConllFile(devPath, modelPath + ".__tmp__",
+                options.rootFirst, options.beamWidth, true, lowerCased, options.numOfThreads, false, "");
+        Evaluator.evaluate(devPath, modelPath + ".__tmp__", punctuations);
+        parser.close();
+    }
+
+    /**
+     * Goes once over the training data, without saving or evaluating a model; e.g. for measuring the training speed
+     *
+     * @param iteration the number of the iteration (starting from 1), for deciding about the partial trees
+     */
+    public void trainIteration(ArrayList<GoldConfiguration> trainData, int iteration, int partialTreeIter) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(options.numOfThreads);
+        try {
+            if (options.hogwild)
+                trainIterationHogwild(trainData, iteration, partialTreeIter, executor);
+            else
+                trainIteration(trainData, iteration, partialTreeIter, new ExecutorCompletionService<ArrayList<BeamElement>>(executor));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void trainIteration(ArrayList<GoldConfiguration> trainData, int iteration, int partialTreeIter, CompletionService<ArrayList<BeamElement>> pool) throws Exception {
+        int dataCount = 0;
+
+        for (GoldConfiguration goldConfiguration : trainData) {
+            dataCount++;
+            if (dataCount % 1000 == 0)
+                System.out.print(dataCount + "...");
+            trainOnOneSample(goldConfiguration, partialTreeIter, iteration, dataCount, pool, classifier.iteration);
+
+            classifier.incrementIteration();
+        }
+    }
+
+    /**
+     * Hogwild training (Niu et al., "Hogwild!: A lock-free approach to parallelizing stochastic gradient descent",
+     * NIPS 2011): each thread takes the next sentence of the training data, decodes it with the current weights and
+     * updates them, without waiting for the other threads. The averaging stays exact, since every change is weighted
+     * by the number of its own sample instead of by the shared sample counter.
+     */
+    private void trainIterationHogwild(final ArrayList<GoldConfiguration> trainData, final int iteration, final int partialTreeIter, ExecutorService executor) throws Exception {
+        final int firstTimestamp = classifier.iteration;
+        final AtomicInteger next = new AtomicInteger();
+        ArrayList<Future<Void>> workers = new ArrayList<Future<Void>>(options.numOfThreads);
+        for (int t = 0; t < options.numOfThreads; t++) {
+            workers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int s;
+                    while ((s = next.getAndIncrement()) < trainData.size()) {
+                        int dataCount = s + 1;
+                        if (dataCount % 1000 == 0)
+                            System.out.print(dataCount + "...");
+                        trainOnOneSample(trainData.get(s), partialTreeIter, iteration, dataCount, null, firstTimestamp + s);
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> worker : workers)
+                worker.get();
+        } catch (ExecutionException e) {
+            // the other threads stop after their current sentence
+            next.set(trainData.size());
+            throw e;
+        }
+        classifier.iteration = firstTimestamp + trainData.size();
+    }
+
+    /**
+     * @param pool      the threads for scoring the beam, or null for scoring it on this thread and updating the
+     *                  weights concurrently with other training threads
+     * @param timestamp the number of the sample over all the iterations, for averaging its update
+     */
+    private void trainOnOneSample(GoldConfiguration goldConfiguration, int partialTreeIter, int i, int dataCount,
+                                  CompletionService<ArrayList<BeamElement>> pool, int timestamp) throws Exception {
         boolean isPartial = goldConfiguration.isPartial(options.rootFirst);
 
         if (partialTreeIter > i && isPartial)
             return;
 
+        SampleBuffers buffers = sampleBuffers.get();
+
         Sentence sentence = goldConfiguration.getSentence();
 
         Configuration initialConfiguration = new Configuration(goldConfiguration.getSentence(), options.rootFirst);
         Configuration firstOracle = initialConfiguration.clone();
         ArrayList<Configuration> beam = new ArrayList<Configuration>(options.beamWidth);
         beam.add(initialConfiguration);
+        BeamPreserver beamPreserver = new BeamPreserver(options.beamWidth);
 
         /**
          * The float is the oracle's cost
@@ -166,9 +258,9 @@ public class ArcEagerBeamTrainer {
             HashMap<Configuration, Float> newOracles = new HashMap<Configuration, Float>();
 
             if (options.useDynamicOracle || isPartial) {
-                bestScoringOracle = zeroCostDynamicOracle(goldConfiguration, oracles, newOracles);
+                bestScoringOracle = zeroCostDynamicOracle(goldConfiguration, oracles, newOracles, buffers);
             } else {
-                bestScoringOracle = staticOracle(goldConfiguration, oracles, newOracles);
+                bestScoringOracle = staticOracle(goldConfiguration, oracles, newOracles, buffers);
             }
 
             if (newOracles.size() == 0) {
@@ -176,10 +268,10 @@ public class ArcEagerBeamTrainer {
             }
             oracles = newOracles;
 
-            TreeSet<BeamElement> beamPreserver = new TreeSet<BeamElement>();
+            beamPreserver.clear();
 
-            if (options.numOfThreads == 1 || beam.size() == 1) {
-                beamSortOneThread(beam, beamPreserver, sentence);
+            if (pool == null || options.numOfThreads == 1 || beam.size() == 1) {
+                beamSortOneThread(beam, beamPreserver, sentence, buffers);
             } else {
                 for (int b = 0; b < beam.size(); b++) {
                     pool.submit(new BeamScorerThread(false, classifier, beam.get(b),
@@ -188,8 +280,6 @@ public class ArcEagerBeamTrainer {
                 for (int b = 0; b < beam.size(); b++) {
                     for (BeamElement element : pool.take().get()) {
                         beamPreserver.add(element);
-                        if (beamPreserver.size() > options.beamWidth)
-                            beamPreserver.pollFirst();
                     }
                 }
             }
@@ -200,13 +290,14 @@ public class ArcEagerBeamTrainer {
                 oracleInBeam = false;
 
                 ArrayList<Configuration> repBeam = new ArrayList<Configuration>(options.beamWidth);
-                for (BeamElement beamElement : beamPreserver.descendingSet()) {
+                beamPreserver.sortDescending();
+                for (int e = 0; e < beamPreserver.size(); e++) {
                     if (repBeam.size() >= options.beamWidth)
                         break;
-                    int b = beamElement.number;
-                    int action = beamElement.action;
-                    int label = beamElement.label;
-                    float sc = beamElement.score;
+                    int b = beamPreserver.number(e);
+                    int action = beamPreserver.action(e);
+                    int label = beamPreserver.label(e);
+                    float sc = beamPreserver.score(e);
 
                     Configuration newConfig = beam.get(b).clone();
 
@@ -271,11 +362,12 @@ public class ArcEagerBeamTrainer {
 
         // updating weights
         if (!oracleInBeam || !bestScoringOracle.equals(beam.get(0))) {
-            updateWeights(initialConfiguration, maxViol, isPartial, bestScoringOracle, maxViolPair, beam);
+            updateWeights(initialConfiguration, maxViol, isPartial, bestScoringOracle, maxViolPair, beam, buffers,
+                    timestamp, pool == null);
         }
     }
 
-    private Configuration staticOracle(GoldConfiguration goldConfiguration, HashMap<Configuration, Float> oracles, HashMap<Configuration, Float> newOracles) throws Exception {
+    private Configuration staticOracle(GoldConfiguration goldConfiguration, HashMap<Configuration, Float> oracles, HashMap<Configuration, Float> newOracles, SampleBuffers buffers) throws Exception {
         Configuration bestScoringOracle = null;
         int top = -1;
         int first = -1;
@@ -284,7 +376,7 @@ public class ArcEagerBeamTrainer {
 
         for (Configuration configuration : oracles.keySet()) {
             State state = configuration.state;
-            Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+            long[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength, buffers.features);
 
             if (!state.stackEmpty())
                 top = state.peek();
@@ -349,19 +441,20 @@ public class ArcEagerBeamTrainer {
         return bestScoringOracle;
     }
 
-    private Configuration zeroCostDynamicOracle(GoldConfiguration goldConfiguration, HashMap<Configuration, Float> oracles, HashMap<Configuration, Float> newOracles) throws Exception {
+    private Configuration zeroCostDynamicOracle(GoldConfiguration goldConfiguration, HashMap<Configuration, Float> oracles, HashMap<Configuration, Float> newOracles, SampleBuffers buffers) throws Exception {
         float bestScore = Float.NEGATIVE_INFINITY;
         Configuration bestScoringOracle = null;
 
         for (Configuration configuration : oracles.keySet()) {
             if (!configuration.state.isTerminalState()) {
                 State currentState = configuration.state;
-                Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+                long[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength, buffers.features);
+                float[] scores = classifier.scoreAll(features, false, buffers.scores);
                 int accepted = 0;
                 // I only assumed that we need zero cost ones
                 if (goldConfiguration.actionCost(Actions.Shift, -1, currentState) == 0) {
                     Configuration newConfig = configuration.clone();
-                    float score = classifier.shiftScore(features, false);
+                    float score = scores[0];
                     ArcEager.shift(newConfig.state);
                     newConfig.addAction(0);
                     newConfig.addScore(score);
@@ -374,11 +467,10 @@ public class ArcEagerBeamTrainer {
                     accepted++;
                 }
                 if (ArcEager.canDo(Actions.RightArc, currentState)) {
-                    float[] rightArcScores = classifier.rightArcScores(features, false);
                     for (int dependency : dependencyRelations) {
                         if (goldConfiguration.actionCost(Actions.RightArc, dependency, currentState) == 0) {
                             Configuration newConfig = configuration.clone();
-                            float score = rightArcScores[dependency];
+                            float score = scores[3 + dependency];
                             ArcEager.rightArc(newConfig.state, dependency);
                             newConfig.addAction(3 + dependency);
                             newConfig.addScore(score);
@@ -393,12 +485,11 @@ public class ArcEagerBeamTrainer {
                     }
                 }
                 if (ArcEager.canDo(Actions.LeftArc, currentState)) {
-                    float[] leftArcScores = classifier.leftArcScores(features, false);
 
                     for (int dependency : dependencyRelations) {
                         if (goldConfiguration.actionCost(Actions.LeftArc, dependency, currentState) == 0) {
                             Configuration newConfig = configuration.clone();
-                            float score = leftArcScores[dependency];
+                            float score = scores[3 + dependencyRelations.size() + dependency];
                             ArcEager.leftArc(newConfig.state, dependency);
                             newConfig.addAction(3 + dependencyRelations.size() + dependency);
                             newConfig.addScore(score);
@@ -414,7 +505,7 @@ public class ArcEagerBeamTrainer {
                 }
                 if (goldConfiguration.actionCost(Actions.Reduce, -1, currentState) == 0) {
                     Configuration newConfig = configuration.clone();
-                    float score = classifier.reduceScore(features, false);
+                    float score = scores[1];
                     ArcEager.reduce(newConfig.state);
                     newConfig.addAction(1);
                     newConfig.addScore(score);
@@ -434,7 +525,7 @@ public class ArcEagerBeamTrainer {
         return bestScoringOracle;
     }
 
-    private void beamSortOneThread(ArrayList<Configuration> beam, TreeSet<BeamElement> beamPreserver, Sentence sentence) throws Exception {
+    private void beamSortOneThread(ArrayList<Configuration> beam, BeamPreserver beamPreserver, Sentence sentence, SampleBuffers buffers) throws Exception {
         for (int b = 0; b < beam.size(); b++) {
             Configuration configuration = beam.get(b);
             State currentState = configuration.state;
@@ -443,51 +534,42 @@ public class ArcEagerBeamTrainer {
             boolean canReduce = ArcEager.canDo(Actions.Reduce, currentState);
             boolean canRightArc = ArcEager.canDo(Actions.RightArc, currentState);
             boolean canLeftArc = ArcEager.canDo(Actions.LeftArc, currentState);
-            Object[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength);
+            long[] features = FeatureExtractor.extractAllParseFeatures(configuration, featureLength, buffers.features);
+            float[] scores = classifier.scoreAll(features, false, buffers.scores);
 
             if (canShift) {
-                float score = classifier.shiftScore(features, false);
+                float score = scores[0];
                 float addedScore = score + prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 0, -1));
-
-                if (beamPreserver.size() > options.beamWidth)
-                    beamPreserver.pollFirst();
+                beamPreserver.add(addedScore, b, 0, -1);
             }
             if (canReduce) {
-                float score = classifier.reduceScore(features, false);
+                float score = scores[1];
                 float addedScore = score + prevScore;
-                beamPreserver.add(new BeamElement(addedScore, b, 1, -1));
-
-                if (beamPreserver.size() > options.beamWidth)
-                    beamPreserver.pollFirst();
+                beamPreserver.add(addedScore, b, 1, -1);
             }
 
             if (canRightArc) {
-                float[] rightArcScores = classifier.rightArcScores(features, false);
                 for (int dependency : dependencyRelations) {
-                    float score = rightArcScores[dependency];
+                    float score = scores[3 + dependency];
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 2, dependency));
-
-                    if (beamPreserver.size() > options.beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 2, dependency);
                 }
             }
             if (canLeftArc) {
-                float[] leftArcScores = classifier.leftArcScores(features, false);
                 for (int dependency : dependencyRelations) {
-                    float score = leftArcScores[dependency];
+                    float score = scores[3 + dependencyRelations.size() + dependency];
                     float addedScore = score + prevScore;
-                    beamPreserver.add(new BeamElement(addedScore, b, 3, dependency));
-
-                    if (beamPreserver.size() > options.beamWidth)
-                        beamPreserver.pollFirst();
+                    beamPreserver.add(addedScore, b, 3, dependency);
                 }
             }
         }
     }
 
-    private void updateWeights(Configuration initialConfiguration, float maxViol, boolean isPartial, Configuration bestScoringOracle, Pair<Configuration, Configuration> maxViolPair, ArrayList<Configuration> beam) throws Exception {
+    /**
+     * @param shared whether other threads train on the same weights at the same time
+     */
+    private void updateWeights(Configuration initialConfiguration, float maxViol, boolean isPartial, Configuration bestScoringOracle, Pair<Configuration, Configuration> maxViolPair, ArrayList<Configuration> beam,
+                               SampleBuffers buffers, int timestamp, boolean shared) throws Exception {
         Configuration predicted = null;
         Configuration finalOracle = null;
         if (!updateMode.equals("max_violation")) {
@@ -512,7 +594,7 @@ public class ArcEagerBeamTrainer {
         Configuration predictedConfiguration = initialConfiguration.clone();
         Configuration oracleConfiguration = initialConfiguration.clone();
 
-        for (int action : finalOracle.actionHistory) {
+        for (int action : finalOracle.getActionHistory()) {
             boolean isTrueFeature = true;
             if (isPartial && action >= 3) {
                 if (!oracleConfiguration.state.hasHead(oracleConfiguration.state.peek()) || !oracleConfiguration.state.hasHead(oracleConfiguration.state.bufferHead()))
@@ -526,8 +608,10 @@ public class ArcEagerBeamTrainer {
             }
 
             if (isTrueFeature) {   // if the made dependency is truely for the word
-                Object[] feats = FeatureExtractor.extractAllParseFeatures(oracleConfiguration, featureLength);
+                long[] feats = FeatureExtractor.extractAllParseFeatures(oracleConfiguration, featureLength, buffers.features);
                 for (int f = 0; f < feats.length; f++) {
+                    if (feats[f] == FeatureExtractor.ABSENT)
+                        continue;
                     Pair<Integer, Object> featName = new Pair<Integer, Object>(action, feats[f]);
                     HashMap<Pair<Integer, Object>, Float> map = (HashMap<Pair<Integer, Object>, Float>) oracleFeatures[f];
                     Float value = map.get(featName);
@@ -551,7 +635,7 @@ public class ArcEagerBeamTrainer {
             }
         }
 
-        for (int action : predicted.actionHistory) {
+        for (int action : predicted.getActionHistory()) {
             boolean isTrueFeature = true;
             if (isPartial && action >= 3) {
                 if (!predictedConfiguration.state.hasHead(predictedConfiguration.state.peek()) || !predictedConfiguration.state.hasHead(predictedConfiguration.state.bufferHead()))
@@ -565,9 +649,11 @@ public class ArcEagerBeamTrainer {
             }
 
             if (isTrueFeature) {   // if the made dependency is truely for the word
-                Object[] feats = FeatureExtractor.extractAllParseFeatures(predictedConfiguration, featureLength);
+                long[] feats = FeatureExtractor.extractAllParseFeatures(predictedConfiguration, featureLength, buffers.features);
                 if (action != 2) // do not take into account for unshift
                     for (int f = 0; f < feats.length; f++) {
+                        if (feats[f] == FeatureExtractor.ABSENT)
+                            continue;
                         Pair<Integer, Object> featName = new Pair<Integer, Object>(action, feats[f]);
                         HashMap<Pair<Integer, Object>, Float> map = (HashMap<Pair<Integer, Object>, Float>) predictedFeatures[f];
                         Float value = map.get(featName);
@@ -615,9 +701,9 @@ public class ArcEagerBeamTrainer {
                     actionType = Actions.Unshift;
                 }
                 if (feat.second != null) {
-                    Object feature = feat.second;
+                    long feature = (Long) feat.second;
                     if (!(map2.containsKey(feat) && map2.get(feat).equals(map.get(feat))))
-                        classifier.changeWeight(actionType, f, feature, dependency, -map.get(feat));
+                        changeWeight(actionType, f, feature, dependency, -map.get(feat), timestamp, shared);
                 }
             }
 
@@ -639,12 +725,26 @@ public class ArcEagerBeamTrainer {
                     actionType = Actions.Unshift;
                 }
                 if (feat.second != null) {
-                    Object feature = feat.second;
+                    long feature = (Long) feat.second;
                     if (!(map.containsKey(feat) && map.get(feat).equals(map2.get(feat))))
-                        classifier.changeWeight(actionType, f, feature, dependency, map2.get(feat));
+                        changeWeight(actionType, f, feature, dependency, map2.get(feat), timestamp, shared);
                 }
             }
         }
     }
 
+    private void changeWeight(Actions actionType, int slot, long feature, int dependency, float change, int timestamp, boolean shared) {
+        if (shared)
+            classifier.changeWeightConcurrently(actionType, slot, feature, dependency, change, timestamp);
+        else
+            classifier.changeWeight(actionType, slot, feature, dependency, change, timestamp);
+    }
+
+    /**
+     * The feature and score buffers of one training thread
+     */
+    private class SampleBuffers {
+        final long[] features = new long[featureLength];
+        final float[] scores = new float[classifier.scoreLength()];
+    }
 }
\ No newline at end of file
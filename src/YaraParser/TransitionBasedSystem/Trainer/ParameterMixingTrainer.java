@@ -0,0 +1,246 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Trainer;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.ActionWeightMap;
+import YaraParser.Structures.HashedWeightTable;
+import YaraParser.Structures.HashedWeights;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.KeyedWeightTable;
+import YaraParser.Structures.ModelReader;
+import YaraParser.Structures.TrainableWeightTable;
+import YaraParser.Structures.WeightTable;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Distributed training with iterative parameter mixing:
+ * Ryan McDonald, Keith Hall and Gideon Mann. "Distributed training strategies for the structured perceptron."
+ * In Proceedings of NAACL-HLT 2010, pp. 456-464.
+ * <p/>
+ * The training data is split into shards, and every iteration each shard is trained on in a JVM of its own on this
+ * host, starting from the mixed weights of the previous iteration. The weights of the shards are averaged into the
+ * new mixed weights. The workers also send the averaged weights of their iteration, and the model saved after
+ * iteration t is the mean of those over the shards and the first t iterations, as the averaged perceptron would do
+ * on one machine. Only the master holds the weights of the whole model; each worker holds the data of its shard.
+ * <p/>
+ * The weights go between the processes as model files, written and read with {@link InfStruct}.
+ */
+public class ParameterMixingTrainer {
+    private static final String WORKER_MAIN_CLASS = "YaraParser.Parser.YaraParser";
+
+    private final Options options;
+    private final IndexMaps maps;
+    private final ArrayList<Integer> dependencyLabels;
+    private final int featureLength;
+
+    public ParameterMixingTrainer(Options options, IndexMaps maps, ArrayList<Integer> dependencyLabels, int featureLength) {
+        this.options = options;
+        this.maps = maps;
+        this.dependencyLabels = dependencyLabels;
+        this.featureLength = featureLength;
+    }
+
+    public void train(String trainPath, String devPath, int maxIteration, String modelPath, boolean lowerCased, HashSet<String> punctuations) throws Exception {
+        int shards = options.shards;
+        TrainableWeightTable[] mixedWeights = emptyWeights();
+        TrainableWeightTable[] averagedWeightSum = emptyWeights();
+        String mixedPath = modelPath + ".__mixed__";
+
+        for (int i = 1; i <= maxIteration; i++) {
+            long start = System.currentTimeMillis();
+
+            new InfStruct(mixedWeights, maps, dependencyLabels, options, dependencyLabels.size()).saveModel(mixedPath);
+            String[] outputs = new String[shards];
+            Process[] workers = new Process[shards];
+            try {
+                for (int s = 0; s < shards; s++) {
+                    outputs[s] = modelPath + ".__shard" + s + "__";
+                    workers[s] = startWorker(trainPath, mixedPath, outputs[s], s, i);
+                }
+                for (int s = 0; s < shards; s++) {
+                    int exitCode = workers[s].waitFor();
+                    if (exitCode != 0)
+                        throw new Exception("shard " + s + " of iteration " + i + " failed with exit code " + exitCode
+                                + "; see " + logFile(outputs[s]));
+                }
+            } finally {
+                for (Process worker : workers)
+                    if (worker != null)
+                        worker.destroy();
+            }
+
+            mixedWeights = emptyWeights();
+            for (int s = 0; s < shards; s++) {
+                add(mixedWeights, readWeights(weightsFile(outputs[s])), 1f / shards);
+                add(averagedWeightSum, readWeights(averagedFile(outputs[s])), 1f / shards);
+                delete(weightsFile(outputs[s]));
+                delete(averagedFile(outputs[s]));
+                delete(logFile(outputs[s]));
+            }
+
+            long timeSec = (System.currentTimeMillis() - start) / 1000;
+            System.out.println("iteration " + i + " took " + timeSec + " seconds\n");
+
+            System.out.print("saving the model...");
+            TrainableWeightTable[] averagedWeights = averagedWeights(averagedWeightSum, i);
+            InfStruct infStruct = new InfStruct(averagedWeights, maps, dependencyLabels, options, dependencyLabels.size());
+            infStruct.saveModel(modelPath + "_iter" + i);
+            System.out.println("done\n");
+
+            if (!devPath.equals(""))
+                ArcEagerBeamTrainer.evaluateOnDev(infStruct, options, devPath, modelPath, lowerCased, punctuations);
+        }
+        delete(mixedPath);
+    }
+
+    /**
+     * The work of one worker process: one iteration over one shard of the training data, starting from the mixed
+     * weights in options.modelFile. The training options (other than the threads) come with the mixed weights.
+     * Writes the weights and the averaged weights after the iteration.
+     */
+    public static void trainShard(Options options) throws Exception {
+        InfStruct mixed = new InfStruct(options.modelFile);
+        Options trainingOptions = mixed.options;
+        trainingOptions.numOfThreads = options.numOfThreads;
+        trainingOptions.hogwild = options.hogwild;
+        IndexMaps maps = mixed.maps;
+        ArrayList<Integer> dependencyLabels = mixed.dependencyLabels;
+        int featureLength = mixed.averagedFeatureWeights.length;
+
+        ArrayList<GoldConfiguration> shard = readShard(options.inputFile, options.shards, options.shardIndex,
+                trainingOptions, maps);
+        System.out.println("size of the shard (#sens): " + shard.size());
+
+        AveragedPerceptron classifier = new AveragedPerceptron(featureLength, dependencyLabels.size(), options.hashBits);
+        classifier.initializeWeights(mixed.averagedFeatureWeights);
+        ArcEagerBeamTrainer trainer = new ArcEagerBeamTrainer(trainingOptions.useMaxViol ? "max_violation" : "early",
+                classifier, trainingOptions, dependencyLabels, featureLength, maps);
+        trainer.trainIteration(shard, options.epoch, trainingOptions.partialTrainingStartingIteration);
+        System.out.print("\n");
+
+        new InfStruct(classifier.featureWeights, maps, dependencyLabels, trainingOptions, dependencyLabels.size())
+                .saveModel(weightsFile(options.outputFile));
+        new InfStruct(classifier, maps, dependencyLabels, trainingOptions).saveModel(averagedFile(options.outputFile));
+    }
+
+    /**
+     * Reads the sentences of one shard, sentence by sentence: the projective sentences of the file are dealt to the
+     * shards in turn, and the non-projective ones are skipped, as in readData
+     */
+    static ArrayList<GoldConfiguration> readShard(String path, int shards, int shardIndex, Options trainingOptions,
+                                                  IndexMaps maps) throws Exception {
+        CoNLLReader reader = new CoNLLReader(path);
+        ArrayList<GoldConfiguration> shard = new ArrayList<GoldConfiguration>();
+        GoldConfiguration goldConfiguration;
+        int index = 0;
+        while ((goldConfiguration = reader.readNext(trainingOptions.labeled, trainingOptions.rootFirst,
+                trainingOptions.lowercase, maps)) != null) {
+            if (goldConfiguration.isNonprojective())
+                continue;
+            if (index++ % shards == shardIndex)
+                shard.add(goldConfiguration);
+        }
+        return shard;
+    }
+
+    /**
+     * Starts a worker in a JVM with the same class path and memory settings as this one
+     */
+    private Process startWorker(String trainPath, String mixedPath, String outputPath, int shard, int iteration) throws IOException {
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+            if (argument.startsWith("-X") || argument.startsWith("-D"))
+                command.add(argument);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(WORKER_MAIN_CLASS);
+        command.add("train_shard");
+        command.add("-train-file");
+        command.add(trainPath);
+        command.add("-model");
+        command.add(mixedPath);
+        command.add("-out");
+        command.add(outputPath);
+        command.add("shard:" + shard);
+        command.add("shards:" + options.shards);
+        command.add("epoch:" + iteration);
+        command.add("nt:" + options.numOfThreads);
+        if (options.hogwild)
+            command.add("hogwild");
+        if (options.hashBits > 0)
+            command.add("hash:" + options.hashBits);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(logFile(outputPath)));
+        return builder.start();
+    }
+
+    private TrainableWeightTable[] emptyWeights() {
+        if (options.hashBits > 0)
+            return new HashedWeights(options.hashBits, dependencyLabels.size()).tables(featureLength);
+        ActionWeightMap[] weights = new ActionWeightMap[featureLength];
+        for (int i = 0; i < featureLength; i++)
+            weights[i] = new ActionWeightMap(16, dependencyLabels.size());
+        return weights;
+    }
+
+    /**
+     * @return the sum of the averaged weights of the shards over the first iterations, divided by their number
+     */
+    TrainableWeightTable[] averagedWeights(TrainableWeightTable[] averagedWeightSum, int iterations) {
+        TrainableWeightTable[] averagedWeights = emptyWeights();
+        add(averagedWeights, averagedWeightSum, 1f / iterations);
+        return averagedWeights;
+    }
+
+    /**
+     * Adds the other weights times the scale to the weights, which are all hashed or all {@link ActionWeightMap}s
+     */
+    static void add(TrainableWeightTable[] weights, WeightTable[] other, float scale) {
+        KeyedWeightTable[] keyedOther = InfStruct.keyedWeights(other);
+        if (keyedOther == null) {
+            ((HashedWeightTable) weights[0]).hashedWeights().addScaled(((HashedWeightTable) other[0]).hashedWeights(), scale);
+            return;
+        }
+        for (int i = 0; i < weights.length; i++)
+            ((ActionWeightMap) weights[i]).addScaled(keyedOther[i], scale);
+    }
+
+    /**
+     * Reads the weights as they are in the file; they are only added up, so they are not frozen
+     */
+    private static WeightTable[] readWeights(String path) throws Exception {
+        return ModelReader.read(path).averagedFeatureWeights;
+    }
+
+    private static String weightsFile(String outputPath) {
+        return outputPath + ".weights";
+    }
+
+    private static String averagedFile(String outputPath) {
+        return outputPath + ".averaged";
+    }
+
+    private static String logFile(String outputPath) {
+        return outputPath + ".log";
+    }
+
+    private static void delete(String path) {
+        new File(path).delete();
+    }
+}
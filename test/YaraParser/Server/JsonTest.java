@@ -0,0 +1,80 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonTest {
+    private static void assertRefused(String text) {
+        try {
+            Json.parse(text);
+            fail("parsed " + text);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(" at position "));
+        }
+    }
+
+    @Test
+    public void escapes() {
+        assertEquals("a\"b\\c/d\b\f\n\r\t\u00e9\u20ac", Json.parse("\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e9\\u20AC\""));
+        assertEquals("", Json.parse("\"\""));
+        String controls = "tab\there\u0001\u001f \"quoted\" back\\slash\nnew line";
+        assertEquals(controls, Json.parse(Json.quote(controls)));
+        assertEquals("\"\\u0001\"", Json.quote("\u0001"));
+    }
+
+    @Test
+    public void numbers() {
+        assertEquals(0.0, Json.parse("0"));
+        assertEquals(42.0, Json.parse(" 42 "));
+        assertEquals(-1.5, Json.parse("-1.5"));
+        assertEquals(-1500.0, Json.parse("-1.5e3"));
+        assertEquals(100.0, Json.parse("1E2"));
+        assertEquals(0.25, Json.parse("2.5e-1"));
+    }
+
+    @Test
+    public void nesting() {
+        Object document = Json.parse("{\"words\": [\"I\", \"am\"], \"beam\": 8, \"inner\": {\"list\": [true, false, null, [], {}]}}");
+        HashMap<?, ?> object = (HashMap<?, ?>) document;
+        assertEquals(3, object.size());
+        assertEquals(Arrays.asList("I", "am"), object.get("words"));
+        assertEquals(8.0, object.get("beam"));
+        ArrayList<?> list = (ArrayList<?>) ((HashMap<?, ?>) object.get("inner")).get("list");
+        assertEquals(5, list.size());
+        assertEquals(Boolean.TRUE, list.get(0));
+        assertEquals(Boolean.FALSE, list.get(1));
+        assertNull(list.get(2));
+        assertEquals(new ArrayList<Object>(), list.get(3));
+        assertEquals(new HashMap<String, Object>(), list.get(4));
+    }
+
+    @Test
+    public void malformedDocuments() {
+        assertRefused("");
+        assertRefused("   ");
+        assertRefused("\"unterminated");
+        assertRefused("\"bad escape \\u12\"");
+        assertRefused("\"bad escape \\uxyz1\"");
+        assertRefused("{\"a\" 1}");
+        assertRefused("{1: 2}");
+        assertRefused("{\"a\": 1,}");
+        assertRefused("[1, 2");
+        assertRefused("[1,]");
+        assertRefused("{} {}");
+        assertRefused("nothing");
+        assertRefused("1.2.3");
+    }
+}
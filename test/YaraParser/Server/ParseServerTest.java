@@ -0,0 +1,361 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Server;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.InfStruct;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Parser.KBeamArcEagerParser;
+import YaraParser.TransitionBasedSystem.Trainer.ArcEagerBeamTrainer;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the server on free local ports; a port of 0 would turn its protocol off
+ */
+public class ParseServerTest {
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String[] WORDS = {"Ich", "bin", "zu", "dem", "Entschluss", "gekommen", "."};
+    private static final String[] TAGS = {"PRON", "VERB", "ADP", "DET", "NOUN", "VERB", "."};
+    private static final String REQUEST = "{\"words\":[\"Ich\",\"bin\",\"zu\",\"dem\",\"Entschluss\",\"gekommen\",\".\"],"
+            + "\"tags\":[\"PRON\",\"VERB\",\"ADP\",\"DET\",\"NOUN\",\"VERB\",\".\"],\"beam\":8}";
+
+    private static InfStruct model;
+    /**
+     * The tree that the server should give for the words, parsed here with a beam of 8
+     */
+    private static ParseResult expected;
+
+    private ParseServer server;
+    private ExecutorService clients = Executors.newCachedThreadPool();
+
+    @BeforeClass
+    public static void trainModel() throws Exception {
+        Options options = new Options();
+        options.numOfThreads = 1;
+        options.beamWidth = 8;
+        IndexMaps maps = CoNLLReader.createIndices("sample_data/dev.conll", options.labeled, options.lowercase, "");
+        ArrayList<Integer> dependencyLabels = new ArrayList<Integer>(maps.getLabels().keySet());
+        int featureLength = 72;
+        ArrayList<GoldConfiguration> trainData = new CoNLLReader("sample_data/dev.conll").readData(Integer.MAX_VALUE,
+                false, options.labeled, options.rootFirst, options.lowercase, maps);
+        AveragedPerceptron perceptron = new AveragedPerceptron(featureLength, dependencyLabels.size(), 0);
+        new ArcEagerBeamTrainer("max_violation", perceptron, options, dependencyLabels, featureLength, maps)
+                .trainIteration(trainData, 1, options.partialTrainingStartingIteration);
+
+        String path = folder.newFile().getPath();
+        new InfStruct(perceptron, maps, dependencyLabels, options).saveModel(path);
+        model = new InfStruct(path);
+
+        KBeamArcEagerParser parser = KBeamArcEagerParser.createParser(model, 1);
+        expected = ParseServer.result(parser.parse(model.maps.makeSentence(WORDS, TAGS, model.options.rootFirst,
+                model.options.lowercase), model.options.rootFirst, 8, 1), WORDS.length, model.maps);
+        parser.close();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        if (server != null)
+            server.stop(5);
+        clients.shutdownNow();
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    /**
+     * @return the status code and the body of the answer
+     */
+    private static Object[] http(int port, String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            OutputStream output = connection.getOutputStream();
+            output.write(body.getBytes("UTF-8"));
+            output.close();
+        }
+        int code = connection.getResponseCode();
+        InputStream input = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+            answer.write(buffer, 0, read);
+        input.close();
+        return new Object[]{code, answer.toString("UTF-8")};
+    }
+
+    private static void assertExpectedTree(String json) {
+        HashMap<?, ?> answer = (HashMap<?, ?>) Json.parse(json);
+        ArrayList<?> heads = (ArrayList<?>) answer.get("heads");
+        ArrayList<?> labels = (ArrayList<?>) answer.get("labels");
+        assertEquals(WORDS.length, heads.size());
+        for (int i = 0; i < WORDS.length; i++) {
+            assertEquals(expected.heads[i], ((Double) heads.get(i)).intValue());
+            assertEquals(expected.labels[i], labels.get(i));
+        }
+        assertEquals(expected.score, ((Double) answer.get("score")).floatValue(), 0f);
+    }
+
+    private static byte[] binaryRequest(int beamWidth, String[] words, String[] tags) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream request = new DataOutputStream(bytes);
+        request.writeInt(beamWidth);
+        request.writeInt(words.length);
+        for (int i = 0; i < words.length; i++) {
+            request.writeUTF(words[i]);
+            request.writeUTF(tags[i]);
+        }
+        request.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeFrame(DataOutputStream output, byte[] frame) throws IOException {
+        output.writeInt(frame.length);
+        output.write(frame);
+        output.flush();
+    }
+
+    private static DataInputStream readFrame(DataInputStream input) throws IOException {
+        byte[] frame = new byte[input.readInt()];
+        input.readFully(frame);
+        return new DataInputStream(new ByteArrayInputStream(frame));
+    }
+
+    /**
+     * Keeps the only worker busy until the latch is released, and fills the queue of one behind it
+     */
+    private void occupyWorker(final CountDownLatch release, int tasks) {
+        for (int i = 0; i < tasks; i++)
+            server.workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            });
+    }
+
+    @Test
+    public void jsonRoundTrip() throws Exception {
+        int port = freePort();
+        server = new ParseServer(model, 2, 16);
+        server.start("127.0.0.1", port, 0);
+
+        Object[] answer = http(port, "POST", "/parse", REQUEST);
+        assertEquals(200, answer[0]);
+        assertExpectedTree((String) answer[1]);
+
+        answer = http(port, "GET", "/health", null);
+        assertEquals(200, answer[0]);
+        assertEquals("ok", ((HashMap<?, ?>) Json.parse((String) answer[1])).get("status"));
+    }
+
+    @Test
+    public void badRequests() throws Exception {
+        int port = freePort();
+        server = new ParseServer(model, 1, 16);
+        server.start("127.0.0.1", port, 0);
+
+        assertEquals(400, http(port, "POST", "/parse", "{\"words\":[\"a\"")[0]);
+        assertEquals(400, http(port, "POST", "/parse", "[1, 2]")[0]);
+        assertEquals(400, http(port, "POST", "/parse", REQUEST.replace("\"beam\":8", "\"beam\":" + (ParseServer.MAX_BEAM_WIDTH + 1)))[0]);
+        assertEquals(400, http(port, "POST", "/parse", REQUEST.replace("\"beam\":8", "\"beam\":-1"))[0]);
+        assertEquals(400, http(port, "POST", "/parse", REQUEST.replace("\"beam\":8", "\"beam\":\"8\""))[0]);
+        assertEquals(400, http(port, "POST", "/parse", "{\"words\":[\"a\",\"b\"],\"tags\":[\"NOUN\"]}")[0]);
+        assertEquals(400, http(port, "POST", "/parse", "{\"words\":[],\"tags\":[]}")[0]);
+        assertEquals(405, http(port, "GET", "/parse", null)[0]);
+        // still serving
+        assertEquals(200, http(port, "POST", "/parse", REQUEST)[0]);
+    }
+
+    @Test
+    public void fullQueue() throws Exception {
+        int httpPort = freePort();
+        int binaryPort = freePort();
+        server = new ParseServer(model, 1, 1);
+        server.start("127.0.0.1", httpPort, binaryPort);
+        CountDownLatch release = new CountDownLatch(1);
+        occupyWorker(release, 2);
+
+        Object[] answer = http(httpPort, "POST", "/parse", REQUEST);
+        assertEquals(503, answer[0]);
+        assertEquals("too many requests", ((HashMap<?, ?>) Json.parse((String) answer[1])).get("error"));
+
+        Socket socket = new Socket("127.0.0.1", binaryPort);
+        DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        writeFrame(output, binaryRequest(8, WORDS, TAGS));
+        DataInputStream response = readFrame(input);
+        assertEquals(BinaryConnection.BUSY, response.readByte());
+        assertEquals("too many requests", response.readUTF());
+
+        // served again once the queue has room
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.queued() > 0 || server.workers.getActiveCount() > 0) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        writeFrame(output, binaryRequest(8, WORDS, TAGS));
+        assertEquals(BinaryConnection.OK, readFrame(input).readByte());
+        socket.close();
+        assertEquals(200, http(httpPort, "POST", "/parse", REQUEST)[0]);
+    }
+
+    @Test
+    public void binaryFrames() throws Exception {
+        int port = freePort();
+        server = new ParseServer(model, 1, 16);
+        server.start("127.0.0.1", 0, port);
+
+        Socket socket = new Socket("127.0.0.1", port);
+        DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+
+        writeFrame(output, binaryRequest(8, WORDS, TAGS));
+        DataInputStream response = readFrame(input);
+        assertEquals(BinaryConnection.OK, response.readByte());
+        assertEquals(expected.score, response.readFloat(), 0f);
+        int count = response.readInt();
+        int[] heads = new int[count];
+        String[] labels = new String[count];
+        for (int i = 0; i < count; i++) {
+            heads[i] = response.readInt();
+            labels[i] = response.readUTF();
+        }
+        assertArrayEquals(expected.heads, heads);
+        assertArrayEquals(expected.labels, labels);
+
+        // a frame shorter than its request, a bad number of words and a bad beam width are answered on the same connection
+        writeFrame(output, new byte[]{0, 0, 0});
+        response = readFrame(input);
+        assertEquals(BinaryConnection.BAD_REQUEST, response.readByte());
+        assertTrue(response.readUTF().startsWith("malformed request"));
+
+        byte[] truncated = binaryRequest(8, WORDS, TAGS);
+        writeFrame(output, Arrays.copyOf(truncated, truncated.length - 3));
+        assertEquals(BinaryConnection.BAD_REQUEST, readFrame(input).readByte());
+
+        writeFrame(output, new byte[]{0, 0, 0, 8, -1, -1, -1, -1});
+        response = readFrame(input);
+        assertEquals(BinaryConnection.BAD_REQUEST, response.readByte());
+        assertTrue(response.readUTF().startsWith("bad number of words"));
+
+        writeFrame(output, binaryRequest(ParseServer.MAX_BEAM_WIDTH + 1, WORDS, TAGS));
+        assertEquals(BinaryConnection.BAD_REQUEST, readFrame(input).readByte());
+
+        writeFrame(output, binaryRequest(0, WORDS, TAGS));
+        assertEquals(BinaryConnection.OK, readFrame(input).readByte());
+
+        // a frame longer than the limit is refused before it is read, and the connection is closed
+        output.writeInt(ParseServer.MAX_REQUEST_BYTES + 1);
+        output.flush();
+        response = readFrame(input);
+        assertEquals(BinaryConnection.BAD_REQUEST, response.readByte());
+        try {
+            input.readInt();
+            fail("the connection is still open");
+        } catch (EOFException expected) {
+        }
+        socket.close();
+    }
+
+    @Test
+    public void drain() throws Exception {
+        final int port = freePort();
+        server = new ParseServer(model, 1, 4);
+        server.start("127.0.0.1", port, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        occupyWorker(release, 1);
+
+        // taken before the drain, so it is answered
+        Future<Object[]> taken = clients.submit(new Callable<Object[]>() {
+            @Override
+            public Object[] call() throws Exception {
+                return http(port, "POST", "/parse", REQUEST);
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.queued() < 1) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        Future<?> stopping = clients.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                server.stop(30);
+                return null;
+            }
+        });
+        while (!server.isDraining()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+
+        // still listening, but refusing
+        Object[] answer = http(port, "GET", "/health", null);
+        assertEquals(503, answer[0]);
+        assertEquals("draining", ((HashMap<?, ?>) Json.parse((String) answer[1])).get("status"));
+        answer = http(port, "POST", "/parse", REQUEST);
+        assertEquals(503, answer[0]);
+        assertEquals("the server is shutting down", ((HashMap<?, ?>) Json.parse((String) answer[1])).get("error"));
+
+        release.countDown();
+        answer = taken.get(30, TimeUnit.SECONDS);
+        assertEquals(200, answer[0]);
+        assertExpectedTree((String) answer[1]);
+        stopping.get(30, TimeUnit.SECONDS);
+        try {
+            new Socket("127.0.0.1", port).close();
+            fail("the server is still listening");
+        } catch (ConnectException expected) {
+        }
+    }
+}
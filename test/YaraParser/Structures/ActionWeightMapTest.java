@@ -0,0 +1,159 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ActionWeightMapTest {
+    private static final int DEPENDENCY_SIZE = 10;
+
+    @Test
+    public void sparseRowMovesToADenseRow() {
+        ActionWeightMap map = new ActionWeightMap(16, DEPENDENCY_SIZE);
+        map.addArcWeight(true, 5L, 3, 1f);
+        map.addArcWeight(true, 5L, 3, 2f);
+        CompactArray sparse = map.arcWeights(true, map.indexOf(5L));
+        assertEquals(3, sparse.getOffset());
+        assertArrayEquals(new float[]{3f}, sparse.getArray(), 0f);
+
+        map.addArcWeight(true, 5L, 7, 4f);
+        CompactArray dense = map.arcWeights(true, map.indexOf(5L));
+        assertEquals(0, dense.getOffset());
+        assertArrayEquals(new float[]{0, 0, 0, 3, 0, 0, 0, 4, 0, 0}, dense.getArray(), 0f);
+        assertNull(map.arcWeights(false, map.indexOf(5L)));
+
+        map.addArcWeight(true, 5L, 0, 1f);
+        float[] scores = new float[2 + DEPENDENCY_SIZE];
+        map.addArcWeights(true, map.indexOf(5L), scores, 2);
+        map.addArcWeights(true, map.indexOf(5L), scores, 2);
+        assertArrayEquals(new float[]{0, 0, 2, 0, 0, 6, 0, 0, 0, 8, 0, 0}, scores, 0f);
+    }
+
+    @Test
+    public void withoutDenseRowsASparseRowWidensIntoACopy() {
+        ActionWeightMap map = new ActionWeightMap();
+        map.addArcWeight(false, 5L, 3, 1f);
+        CompactArray before = map.arcWeights(false, map.indexOf(5L));
+        map.addArcWeight(false, 5L, 6, 2f);
+        CompactArray after = map.arcWeights(false, map.indexOf(5L));
+
+        assertArrayEquals(new float[]{1f}, before.getArray(), 0f);
+        assertEquals(3, after.getOffset());
+        assertArrayEquals(new float[]{1, 0, 0, 2}, after.getArray(), 0f);
+    }
+
+    @Test
+    public void slabGrows() {
+        ActionWeightMap map = new ActionWeightMap(1, DEPENDENCY_SIZE);
+        int keyCount = 1000;
+        for (int i = 1; i <= keyCount; i++) {
+            map.addArcWeight(false, i, 0, i);
+            map.addArcWeight(false, i, DEPENDENCY_SIZE - 1, -i);
+            map.addShiftWeight(i, i);
+        }
+        for (int i = 1; i <= keyCount; i++) {
+            int slot = map.indexOf(i);
+            CompactArray row = map.arcWeights(false, slot);
+            assertEquals(DEPENDENCY_SIZE, row.length());
+            assertEquals(i, row.get(0), 0f);
+            assertEquals(-i, row.get(DEPENDENCY_SIZE - 1), 0f);
+            assertEquals(i, map.shiftWeight(slot), 0f);
+            assertNull(map.arcWeights(true, slot));
+        }
+    }
+
+    @Test
+    public void setArcWeightsReplacesADenseRow() {
+        ActionWeightMap map = new ActionWeightMap(16, DEPENDENCY_SIZE);
+        map.addArcWeight(true, 9L, 1, 1f);
+        map.addArcWeight(true, 9L, 8, 1f);
+        CompactArray row = new CompactArray(2, new float[]{5f, 6f});
+        map.setArcWeights(true, 9L, row);
+
+        assertSame(row, map.arcWeights(true, map.indexOf(9L)));
+        map.addArcWeight(true, 9L, 3, 1f);
+        assertArrayEquals(new float[]{5f, 7f}, map.arcWeights(true, map.indexOf(9L)).getArray(), 0f);
+    }
+
+    @Test
+    public void addScaled() {
+        ActionWeightMap source = new ActionWeightMap(16, DEPENDENCY_SIZE);
+        source.addShiftWeight(0L, 2f);
+        source.addArcWeight(true, 1L, 2, 4f);
+        source.addArcWeight(true, 1L, 9, 8f);
+        source.addArcWeight(false, 1L, 4, 1f);
+
+        ActionWeightMap target = new ActionWeightMap(16, DEPENDENCY_SIZE);
+        target.addArcWeight(true, 1L, 2, 1f);
+        target.addScaled(source, 0.5f);
+
+        assertEquals(1f, target.shiftWeight(target.indexOf(0L)), 0f);
+        CompactArray right = target.arcWeights(true, target.indexOf(1L));
+        assertEquals(3f, right.get(2), 0f);
+        assertEquals(4f, right.get(9), 0f);
+        assertEquals(0.5f, target.arcWeights(false, target.indexOf(1L)).get(4), 0f);
+    }
+
+    @Test
+    public void readersWhileRowsMoveToTheSlab() throws InterruptedException {
+        final int keyCount = 50000;
+        // big enough not to grow, so only the rows and the slab change under the readers
+        final ActionWeightMap map = new ActionWeightMap(keyCount, DEPENDENCY_SIZE);
+        final AtomicInteger inserted = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            final int seed = r;
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        float[] scores = new float[DEPENDENCY_SIZE];
+                        int i = seed;
+                        while (inserted.get() < keyCount) {
+                            int known = inserted.get();
+                            if (known == 0)
+                                continue;
+                            i = (i * 31 + 17) % known;
+                            Arrays.fill(scores, 0f);
+                            map.addArcWeights(true, map.indexOf(i + 1), scores, 0);
+                            // the row of the key, sparse or dense, or nothing while the dense row is not visible yet
+                            if (scores[0] != 0f && scores[0] != i + 1)
+                                throw new AssertionError("key " + (i + 1) + " scored " + scores[0]);
+                            for (int d = 1; d < DEPENDENCY_SIZE - 1; d++)
+                                if (scores[d] != 0f)
+                                    throw new AssertionError("key " + (i + 1) + " scored " + scores[d] + " for " + d);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            readers[r].start();
+        }
+
+        for (int i = 0; i < keyCount; i++) {
+            map.addArcWeight(true, i + 1, 0, i + 1);
+            inserted.set(i + 1);
+            map.addArcWeight(true, i + 1, DEPENDENCY_SIZE - 1, 1f);
+        }
+        for (Thread reader : readers)
+            reader.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+}
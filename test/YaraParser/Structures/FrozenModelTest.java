@@ -0,0 +1,95 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrozenModelTest {
+    private static final int DEPENDENCY_SIZE = 6;
+
+    @Test
+    public void presentAndAbsentKeys() {
+        InfStruct model = ModelWriterTest.model();
+        FrozenModel frozen = FrozenModel.freeze(InfStruct.keyedWeights(model.averagedFeatureWeights), DEPENDENCY_SIZE);
+        FrozenWeightTable[] tables = frozen.tables();
+
+        assertEquals(3, frozen.featureSize());
+        ModelWriterTest.assertSameWeights(model.averagedFeatureWeights, tables, 0f);
+        for (int i = 0; i < tables.length; i++) {
+            for (long key = -1000; key <= 1000; key++)
+                if (model.averagedFeatureWeights[i].indexOf(key) < 0)
+                    assertEquals(-1, tables[i].indexOf(key));
+            assertEquals(-1, tables[i].indexOf(Long.MIN_VALUE));
+        }
+        // the key 0 is in the first slot only; an empty position of the others must not be taken for it
+        assertTrue(tables[0].indexOf(0L) >= 0);
+        assertEquals(-1, tables[1].indexOf(0L));
+        assertEquals(-1, tables[2].indexOf(0L));
+        assertEquals(0, tables[2].size());
+        assertArrayEquals(new long[0], tables[2].keys());
+    }
+
+    @Test
+    public void manyRandomKeys() {
+        Random random = new Random(7);
+        ActionWeightMap table = new ActionWeightMap();
+        HashSet<Long> keys = new HashSet<Long>();
+        while (keys.size() < 50000) {
+            long key = random.nextLong();
+            keys.add(key);
+            table.addShiftWeight(key, key % 1000);
+        }
+        FrozenModel frozen = FrozenModel.freeze(new KeyedWeightTable[]{table}, DEPENDENCY_SIZE);
+
+        assertEquals(keys.size(), frozen.size(0));
+        for (long key : keys) {
+            int entry = frozen.indexOf(0, key);
+            assertTrue(entry >= 0);
+            assertEquals(key % 1000, frozen.shiftWeight(entry), 0f);
+        }
+        for (int i = 0; i < 50000; i++) {
+            long key = random.nextLong();
+            if (!keys.contains(key))
+                assertEquals(-1, frozen.indexOf(0, key));
+        }
+    }
+
+    @Test
+    public void arcRows() {
+        ActionWeightMap table = new ActionWeightMap(16, DEPENDENCY_SIZE);
+        table.setArcWeights(true, 3L, new CompactArray(2, new float[]{1f, 2f}));
+        table.addArcWeight(false, 3L, 0, 4f);
+        table.addArcWeight(false, 3L, 5, 5f);
+        table.addReduceWeight(4L, 1f);
+        FrozenModel frozen = FrozenModel.freeze(new KeyedWeightTable[]{table}, DEPENDENCY_SIZE);
+
+        int entry = frozen.indexOf(0, 3L);
+        CompactArray right = frozen.arcWeights(true, entry);
+        assertEquals(2, right.getOffset());
+        assertArrayEquals(new float[]{1f, 2f}, right.getArray(), 0f);
+        assertArrayEquals(new float[]{4, 0, 0, 0, 0, 5}, frozen.arcWeights(false, entry).getArray(), 0f);
+
+        float[] scores = new float[1 + 2 * DEPENDENCY_SIZE];
+        frozen.addArcWeights(true, entry, scores, 1);
+        frozen.addArcWeights(false, entry, scores, 1 + DEPENDENCY_SIZE);
+        assertArrayEquals(new float[]{0, 0, 0, 1, 2, 0, 0, 4, 0, 0, 0, 0, 5}, scores, 0f);
+
+        int other = frozen.indexOf(0, 4L);
+        assertNull(frozen.arcWeights(true, other));
+        assertNull(frozen.arcWeights(false, other));
+        frozen.addArcWeights(true, other, scores, 1);
+        assertEquals(1f, frozen.reduceWeight(other), 0f);
+        assertEquals(0f, frozen.shiftWeight(other), 0f);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import YaraParser.TransitionBasedSystem.Features.FeatureExtractor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InfStructTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Saves the model as the older versions of the parser did: gzipped Java serialization of a hash map per action
+     * and feature slot
+     */
+    @SuppressWarnings("unchecked")
+    private String writeLegacyModel(InfStruct model, HashMap<Object, Float> labelSetShiftWeights) throws Exception {
+        KeyedWeightTable[] tables = InfStruct.keyedWeights(model.averagedFeatureWeights);
+        HashMap<Object, Float>[] shift = new HashMap[tables.length];
+        HashMap<Object, Float>[] reduce = new HashMap[tables.length];
+        HashMap<Object, CompactArray>[] leftArc = new HashMap[tables.length];
+        HashMap<Object, CompactArray>[] rightArc = new HashMap[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            shift[i] = new HashMap<Object, Float>();
+            reduce[i] = new HashMap<Object, Float>();
+            leftArc[i] = new HashMap<Object, CompactArray>();
+            rightArc[i] = new HashMap<Object, CompactArray>();
+            for (long key : tables[i].keys()) {
+                int slot = tables[i].indexOf(key);
+                shift[i].put(key, tables[i].shiftWeight(slot));
+                reduce[i].put(key, tables[i].reduceWeight(slot));
+                if (tables[i].arcWeights(true, slot) != null)
+                    rightArc[i].put(key, tables[i].arcWeights(true, slot));
+                if (tables[i].arcWeights(false, slot) != null)
+                    leftArc[i].put(key, tables[i].arcWeights(false, slot));
+            }
+        }
+        shift[tables.length - 1].putAll(labelSetShiftWeights);
+
+        String path = folder.newFile().getPath();
+        ObjectOutputStream writer = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(path)));
+        writer.writeObject(model.dependencyLabels);
+        writer.writeObject(model.maps);
+        writer.writeObject(model.options);
+        writer.writeObject(shift);
+        writer.writeObject(reduce);
+        writer.writeObject(leftArc);
+        writer.writeObject(rightArc);
+        writer.writeInt(model.dependencySize);
+        writer.close();
+        return path;
+    }
+
+    @Test
+    public void legacyModel() throws Exception {
+        InfStruct model = ModelWriterTest.model();
+        HashMap<Object, Float> labelSetWeights = new HashMap<Object, Float>();
+        labelSetWeights.put("12|3", 7f);
+        String path = writeLegacyModel(model, labelSetWeights);
+        assertFalse(ModelReader.isBinaryModel(path));
+
+        InfStruct read = new InfStruct(path);
+        assertEquals(model.dependencySize, read.dependencySize);
+        assertEquals(model.dependencyLabels, read.dependencyLabels);
+        assertEquals(model.maps.getWordMap(), read.maps.getWordMap());
+        assertEquals(model.options.beamWidth, read.options.beamWidth);
+
+        // the feature saved as "item|labelSet" is found under its numeric key
+        WeightTable last = read.averagedFeatureWeights[read.averagedFeatureWeights.length - 1];
+        int slot = last.indexOf(FeatureExtractor.labelSetFeature(12, 3));
+        assertTrue(slot >= 0);
+        assertEquals(7f, last.shiftWeight(slot), 0f);
+        ((ActionWeightMap) model.averagedFeatureWeights[2]).addShiftWeight(FeatureExtractor.labelSetFeature(12, 3), 7f);
+        ModelWriterTest.assertSameWeights(model.averagedFeatureWeights, read.averagedFeatureWeights, 0f);
+
+        // and it converts to the binary format
+        String converted = folder.newFile().getPath();
+        ModelWriter.write(InfStruct.readLegacyModel(path), converted);
+        ModelWriterTest.assertSameWeights(model.averagedFeatureWeights, new InfStruct(converted).averagedFeatureWeights, 0f);
+    }
+
+    @Test
+    public void frozenOnLoad() throws Exception {
+        InfStruct model = ModelWriterTest.model();
+        String path = folder.newFile().getPath();
+        ModelWriter.write(model, path);
+
+        WeightTable[] tables = new InfStruct(path).averagedFeatureWeights;
+        for (WeightTable table : tables)
+            assertTrue(table instanceof FrozenWeightTable);
+        ModelWriterTest.assertSameWeights(model.averagedFeatureWeights, tables, 0f);
+    }
+}
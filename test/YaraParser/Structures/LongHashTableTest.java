@@ -0,0 +1,141 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The table is abstract; {@link ActionWeightMap} is the subclass that keeps one value array per action
+ */
+public class LongHashTableTest {
+    private static long key(int i) {
+        // spread the keys over the whole long range, negative ones included
+        return (i + 1) * 0x9E3779B97F4A7C15L;
+    }
+
+    @Test
+    public void putAndGet() {
+        ActionWeightMap map = new ActionWeightMap();
+        map.addShiftWeight(42L, 1.5f);
+        map.addShiftWeight(42L, 1f);
+        map.addReduceWeight(-7L, 3f);
+
+        assertEquals(2, map.size());
+        assertEquals(2.5f, map.shiftWeight(map.indexOf(42L)), 0f);
+        assertEquals(0f, map.reduceWeight(map.indexOf(42L)), 0f);
+        assertEquals(3f, map.reduceWeight(map.indexOf(-7L)), 0f);
+        assertEquals(-1, map.indexOf(43L));
+        assertFalse(map.containsKey(43L));
+        assertNull(map.arcWeights(true, map.indexOf(42L)));
+    }
+
+    @Test
+    public void zeroKey() {
+        ActionWeightMap map = new ActionWeightMap();
+        assertEquals(-1, map.indexOf(0L));
+
+        map.addShiftWeight(0L, 4f);
+        map.addShiftWeight(0L, 1f);
+        assertTrue(map.containsKey(0L));
+        assertEquals(1, map.size());
+        assertEquals(5f, map.shiftWeight(map.indexOf(0L)), 0f);
+
+        for (int i = 0; i < 1000; i++)
+            map.addShiftWeight(key(i), i);
+        assertEquals(1001, map.size());
+        assertEquals(5f, map.shiftWeight(map.indexOf(0L)), 0f);
+        assertTrue(Arrays.binarySearch(sorted(map.keys()), 0L) >= 0);
+    }
+
+    @Test
+    public void grow() {
+        ActionWeightMap map = new ActionWeightMap(1);
+        long[] expected = new long[10000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = key(i);
+            map.addShiftWeight(key(i), i);
+            map.addReduceWeight(key(i), -i);
+            map.addArcWeight(true, key(i), i % 5, i);
+        }
+
+        assertEquals(expected.length, map.size());
+        for (int i = 0; i < expected.length; i++) {
+            int slot = map.indexOf(key(i));
+            assertTrue(slot >= 0);
+            assertEquals(i, map.shiftWeight(slot), 0f);
+            assertEquals(-i, map.reduceWeight(slot), 0f);
+            assertEquals(i, map.arcWeights(true, slot).get(i % 5), 0f);
+            assertNull(map.arcWeights(false, slot));
+        }
+        assertEquals(-1, map.indexOf(key(expected.length)));
+        assertArrayEquals(sorted(expected), sorted(map.keys()));
+    }
+
+    @Test
+    public void readersWhileTheTableGrows() throws InterruptedException {
+        final ActionWeightMap map = new ActionWeightMap(1);
+        final int keyCount = 200000;
+        final AtomicInteger inserted = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            final int seed = r;
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int i = seed;
+                        while (inserted.get() < keyCount) {
+                            int known = inserted.get();
+                            if (known == 0)
+                                continue;
+                            i = (i * 31 + 17) % known;
+                            int slot = map.indexOf(key(i));
+                            if (slot < 0)
+                                throw new AssertionError("key " + i + " of " + known + " was not found");
+                            map.shiftWeight(slot);
+                            map.addArcWeights(true, slot, new float[8], 0);
+                            map.indexOf(key(keyCount + i));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            readers[r].start();
+        }
+
+        for (int i = 0; i < keyCount; i++) {
+            map.addShiftWeight(key(i), i);
+            map.addArcWeight(true, key(i), i % 8, 1f);
+            inserted.set(i + 1);
+        }
+        for (Thread reader : readers)
+            reader.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        for (int i = 0; i < keyCount; i++)
+            assertEquals(i, map.shiftWeight(map.indexOf(key(i))), 0f);
+    }
+
+    private static long[] sorted(long[] keys) {
+        long[] copy = keys.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}
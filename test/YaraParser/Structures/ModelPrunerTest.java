@@ -0,0 +1,61 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ModelPrunerTest {
+    @Test
+    public void zeroThresholdKeepsTheWeights() {
+        InfStruct model = ModelWriterTest.model();
+        ModelPruner pruner = new ModelPruner(0f);
+        InfStruct pruned = pruner.prune(model);
+
+        ModelWriterTest.assertSameWeights(model.averagedFeatureWeights, pruned.averagedFeatureWeights, 0f);
+        assertEquals(pruner.features(), pruner.keptFeatures());
+    }
+
+    @Test
+    public void smallWeightsAreDropped() {
+        ActionWeightMap table = new ActionWeightMap();
+        table.addShiftWeight(1L, 0.5f);
+        table.addReduceWeight(1L, 2f);
+        table.setArcWeights(true, 1L, new CompactArray(1, new float[]{0.1f, 3f, -4f, 0.2f}));
+        table.setArcWeights(false, 1L, new CompactArray(0, new float[]{-1f}));
+        table.addShiftWeight(2L, -1f);
+        InfStruct model = ModelWriterTest.model();
+        model.averagedFeatureWeights = new WeightTable[]{table};
+
+        ModelPruner pruner = new ModelPruner(1f);
+        WeightTable pruned = pruner.prune(model).averagedFeatureWeights[0];
+
+        assertEquals(1, pruned.size());
+        assertEquals(-1, pruned.indexOf(2L));
+        int slot = pruned.indexOf(1L);
+        assertEquals(0f, pruned.shiftWeight(slot), 0f);
+        assertEquals(2f, pruned.reduceWeight(slot), 0f);
+        CompactArray right = pruned.arcWeights(true, slot);
+        assertEquals(2, right.getOffset());
+        assertArrayEquals(new float[]{3f, -4f}, right.getArray(), 0f);
+        assertNull(pruned.arcWeights(false, slot));
+
+        assertEquals(2, pruner.features());
+        assertEquals(1, pruner.keptFeatures());
+        assertEquals(9, pruner.weights());
+        assertEquals(3, pruner.keptWeights());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hashedWeightsAreNotPruned() {
+        InfStruct model = ModelWriterTest.model();
+        model.averagedFeatureWeights = new HashedWeights(4, model.dependencySize).tables(3);
+        new ModelPruner(1f).prune(model);
+    }
+}
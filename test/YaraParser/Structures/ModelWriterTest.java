@@ -0,0 +1,360 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.Structures;
+
+import YaraParser.Accessories.Options;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ModelWriterTest {
+    private static final int DEPENDENCY_SIZE = 6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Three feature slots: one with the key 0, negative keys, sparse and dense rows and missing rows, one with a
+     * single feature and one without any
+     */
+    static InfStruct model() {
+        ActionWeightMap first = new ActionWeightMap(16, DEPENDENCY_SIZE);
+        first.addShiftWeight(0L, 0.5f);
+        first.addReduceWeight(0L, -1.25f);
+        first.addArcWeight(true, 0L, 2, 3f);
+        for (int i = 1; i <= 100; i++) {
+            long key = i % 2 == 0 ? i * 1000003L : -i;
+            first.addShiftWeight(key, i / 7f);
+            first.addArcWeight(false, key, i % DEPENDENCY_SIZE, -i);
+            if (i % 3 == 0) {
+                first.addArcWeight(true, key, 0, i);
+                first.addArcWeight(true, key, DEPENDENCY_SIZE - 1, 2 * i);
+            }
+        }
+        ActionWeightMap second = new ActionWeightMap();
+        second.addReduceWeight(Long.MAX_VALUE, 42f);
+        ActionWeightMap third = new ActionWeightMap();
+
+        HashMap<String, Integer> wordMap = new HashMap<String, Integer>();
+        wordMap.put("dog", 1);
+        wordMap.put("barks", 2);
+        HashMap<Integer, Integer> labels = new HashMap<Integer, Integer>();
+        for (int i = 0; i < DEPENDENCY_SIZE; i++)
+            labels.put(10 + i, i);
+        IndexMaps maps = new IndexMaps(wordMap, labels, "ROOT", new HashMap<Integer, Integer>(),
+                new HashMap<Integer, Integer>(), new HashMap<String, Integer>());
+        ArrayList<Integer> dependencyLabels = new ArrayList<Integer>(labels.keySet());
+
+        Options options = new Options();
+        options.beamWidth = 8;
+        options.labeled = true;
+        options.trainingIter = 3;
+        return new InfStruct(new WeightTable[]{first, second, third}, maps, dependencyLabels, options, DEPENDENCY_SIZE);
+    }
+
+    /**
+     * Checks that the tables hold the same features, each with the same weights within the tolerance; a missing row
+     * is taken as a row of zeros
+     */
+    static void assertSameWeights(WeightTable[] expectedTables, WeightTable[] actualTables, float tolerance) {
+        KeyedWeightTable[] expected = InfStruct.keyedWeights(expectedTables);
+        KeyedWeightTable[] actual = InfStruct.keyedWeights(actualTables);
+        assertNotNull(expected);
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals("keys of slot " + i, sorted(expected[i].keys()), sorted(actual[i].keys()));
+            assertEquals(expected[i].size(), actual[i].size());
+            for (long key : expected[i].keys()) {
+                int expectedSlot = expected[i].indexOf(key);
+                int actualSlot = actual[i].indexOf(key);
+                assertTrue("key " + key + " of slot " + i, actualSlot >= 0);
+                assertEquals(expected[i].shiftWeight(expectedSlot), actual[i].shiftWeight(actualSlot), tolerance);
+                assertEquals(expected[i].reduceWeight(expectedSlot), actual[i].reduceWeight(actualSlot), tolerance);
+                for (boolean rightArc : new boolean[]{true, false}) {
+                    float[] expectedScores = new float[DEPENDENCY_SIZE];
+                    float[] actualScores = new float[DEPENDENCY_SIZE];
+                    expected[i].addArcWeights(rightArc, expectedSlot, expectedScores, 0);
+                    actual[i].addArcWeights(rightArc, actualSlot, actualScores, 0);
+                    assertArrayEquals("arc row of key " + key, expectedScores, actualScores, tolerance);
+                    for (int label = 0; label < DEPENDENCY_SIZE; label++)
+                        assertEquals(expectedScores[label], get(actual[i].arcWeights(rightArc, actualSlot), label), tolerance);
+                }
+            }
+            assertEquals(-1, actual[i].indexOf(123456789L));
+        }
+    }
+
+    private static float get(CompactArray row, int label) {
+        return row == null ? 0f : row.get(label);
+    }
+
+    private static long[] sorted(long[] keys) {
+        long[] copy = keys.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    private static int version(String path) throws IOException {
+        DataInputStream stream = new DataInputStream(new FileInputStream(path));
+        try {
+            assertEquals(ModelWriter.MAGIC, stream.readInt());
+            return stream.readInt();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private String write(InfStruct model) throws IOException {
+        String path = folder.newFile().getPath();
+        ModelWriter.write(model, path);
+        return path;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        InfStruct model = model();
+        String path = write(model);
+        assertEquals(ModelWriter.VERSION_WITHOUT_HASHING, version(path));
+        assertTrue(ModelReader.isBinaryModel(path));
+
+        InfStruct read = ModelReader.read(path);
+        assertEquals(DEPENDENCY_SIZE, read.dependencySize);
+        assertEquals(model.dependencyLabels, read.dependencyLabels);
+        assertEquals(model.maps.getWordMap(), read.maps.getWordMap());
+        assertEquals(model.maps.getLabels(), read.maps.getLabels());
+        assertEquals(model.maps.rootString, read.maps.rootString);
+        assertEquals(8, read.options.beamWidth);
+        assertTrue(read.options.labeled);
+        assertEquals(3, read.options.trainingIter);
+        assertSameWeights(model.averagedFeatureWeights, read.averagedFeatureWeights, 0f);
+
+        // and frozen, as a model is loaded for parsing
+        assertSameWeights(model.averagedFeatureWeights, new InfStruct(path).averagedFeatureWeights, 0f);
+    }
+
+    @Test
+    public void anotherFileIsNotABinaryModel() throws Exception {
+        assertFalse(ModelReader.isBinaryModel(folder.newFile().getPath()));
+    }
+
+    @Test
+    public void memoryMappedRoundTrip() throws Exception {
+        InfStruct model = model();
+        String path = write(model);
+
+        InfStruct read = ModelReader.read(path, true);
+        for (WeightTable table : read.averagedFeatureWeights)
+            assertTrue(table instanceof MappedWeightTable);
+        assertSameWeights(model.averagedFeatureWeights, read.averagedFeatureWeights, 0f);
+
+        // a memory-mapped model is parsed from the mapping instead of being frozen
+        WeightTable[] loaded = new InfStruct(path, true).averagedFeatureWeights;
+        assertTrue(loaded[0] instanceof MappedWeightTable);
+        assertSameWeights(model.averagedFeatureWeights, loaded, 0f);
+    }
+
+    @Test
+    public void options() throws Exception {
+        InfStruct model = model();
+        Options options = model.options;
+        options.rootFirst = true;
+        options.lowercase = true;
+        options.useExtendedFeatures = false;
+        options.useExtendedWithBrownClusterFeatures = true;
+        options.useDynamicOracle = true;
+        options.partialTrainingStartingIteration = 2;
+        options.punctuations = new HashSet<String>(Arrays.asList(".", ",", "\u00bb"));
+        options.hashBits = 18;
+        options.clusterFile = "clusters.txt";
+        options.numOfThreads = 7;
+
+        Options read = ModelReader.read(write(model)).options;
+        assertEquals(8, read.beamWidth);
+        assertTrue(read.rootFirst);
+        assertTrue(read.labeled);
+        assertTrue(read.lowercase);
+        assertFalse(read.useExtendedFeatures);
+        assertTrue(read.useExtendedWithBrownClusterFeatures);
+        assertTrue(read.useMaxViol);
+        assertTrue(read.useDynamicOracle);
+        assertFalse(read.useRandomOracleSelection);
+        assertEquals(3, read.trainingIter);
+        assertEquals(2, read.partialTrainingStartingIteration);
+        assertEquals(options.punctuations, read.punctuations);
+        assertEquals(18, read.hashBits);
+        assertEquals("clusters.txt", read.clusterFile);
+        // a setting of the run, not of the model
+        assertEquals(new Options().numOfThreads, read.numOfThreads);
+    }
+
+    @Test
+    public void optionsOfAnOlderModel() throws Exception {
+        InfStruct model = model();
+        model.options.hashBits = 18;
+        model.options.clusterFile = "clusters.txt";
+        String path = write(model);
+        // the section of the models saved before hashBits and the cluster file
+        cutOptions(path, 4 + 4 + "clusters.txt".length());
+
+        InfStruct read = ModelReader.read(path);
+        assertEquals(8, read.options.beamWidth);
+        assertNotNull(read.options.punctuations);
+        assertEquals(0, read.options.hashBits);
+        assertEquals("", read.options.clusterFile);
+        assertSameWeights(model.averagedFeatureWeights, read.averagedFeatureWeights, 0f);
+    }
+
+    @Test
+    public void hashedRoundTrip() throws Exception {
+        InfStruct model = model();
+        HashedWeightTable[] tables = new HashedWeights(10, DEPENDENCY_SIZE).tables(3);
+        for (int i = 1; i <= 500; i++) {
+            HashedWeightTable table = tables[i % tables.length];
+            table.addShiftWeight(i, i / 3f);
+            table.addReduceWeight(-i, -i);
+            table.addArcWeight(i % 2 == 0, i * 31L, i % DEPENDENCY_SIZE, i);
+        }
+        model.averagedFeatureWeights = tables;
+        model.options.hashBits = 10;
+        String path = write(model);
+        assertEquals(ModelWriter.VERSION_WITH_HASHING, version(path));
+
+        assertSameHashedWeights(tables, ModelReader.read(path).averagedFeatureWeights);
+        // the weights of hashed features are neither frozen nor memory-mapped
+        assertSameHashedWeights(tables, new InfStruct(path).averagedFeatureWeights);
+        assertSameHashedWeights(tables, new InfStruct(path, true).averagedFeatureWeights);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hashedWeightsAreNotQuantized() throws Exception {
+        InfStruct model = model();
+        model.averagedFeatureWeights = new HashedWeights(4, DEPENDENCY_SIZE).tables(3);
+        ModelWriter.write(model, folder.newFile().getPath(), 8);
+    }
+
+    private static void assertSameHashedWeights(HashedWeightTable[] expected, WeightTable[] actual) {
+        assertEquals(expected.length, actual.length);
+        assertNull(InfStruct.keyedWeights(actual));
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(actual[i] instanceof HashedWeightTable);
+            assertEquals(expected[i].size(), actual[i].size());
+            for (long key = -600; key <= 600 * 31; key++)
+                assertEquals(expected[i].indexOf(key), actual[i].indexOf(key));
+            for (int bucket = 0; bucket < expected[i].size(); bucket++) {
+                assertEquals(expected[i].shiftWeight(bucket), actual[i].shiftWeight(bucket), 0f);
+                assertEquals(expected[i].reduceWeight(bucket), actual[i].reduceWeight(bucket), 0f);
+                assertArrayEquals(expected[i].arcWeights(true, bucket).getArray(), actual[i].arcWeights(true, bucket).getArray(), 0f);
+                assertArrayEquals(expected[i].arcWeights(false, bucket).getArray(), actual[i].arcWeights(false, bucket).getArray(), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void quantizedRoundTrip() throws Exception {
+        for (int bits : new int[]{8, 16}) {
+            InfStruct model = model();
+            String path = folder.newFile().getPath();
+            ModelWriter.write(model, path, bits);
+            assertEquals(ModelWriter.VERSION_QUANTIZED, version(path));
+
+            // every weight is within half a step of its saved value, a step being the largest weight over 2^(bits-1)-1
+            float tolerance = 0.5f * maxAbs(model.averagedFeatureWeights) / ((1 << (bits - 1)) - 1) * 1.001f;
+            assertSameWeights(model.averagedFeatureWeights, ModelReader.read(path).averagedFeatureWeights, tolerance);
+            assertSameWeights(model.averagedFeatureWeights, new InfStruct(path).averagedFeatureWeights, tolerance);
+            assertSameWeights(model.averagedFeatureWeights, new InfStruct(path, true).averagedFeatureWeights, tolerance);
+        }
+    }
+
+    @Test
+    public void unknownVersionsAreRefused() throws Exception {
+        for (int version : new int[]{0, ModelWriter.VERSION_QUANTIZED + 1}) {
+            String path = folder.newFile().getPath();
+            DataOutputStream output = new DataOutputStream(new FileOutputStream(path));
+            output.writeInt(ModelWriter.MAGIC);
+            output.writeInt(version);
+            output.close();
+            try {
+                ModelReader.read(path);
+                fail("version " + version + " was read");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("unsupported model version"));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyEightOrSixteenBits() throws Exception {
+        ModelWriter.write(model(), folder.newFile().getPath(), 4);
+    }
+
+    private static float maxAbs(WeightTable[] tables) {
+        float max = 0f;
+        for (KeyedWeightTable table : InfStruct.keyedWeights(tables)) {
+            for (long key : table.keys()) {
+                int slot = table.indexOf(key);
+                max = Math.max(max, Math.max(Math.abs(table.shiftWeight(slot)), Math.abs(table.reduceWeight(slot))));
+                for (boolean rightArc : new boolean[]{true, false}) {
+                    CompactArray row = table.arcWeights(rightArc, slot);
+                    if (row != null)
+                        for (float weight : row.getArray())
+                            max = Math.max(max, Math.abs(weight));
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Rewrites the model file without the last bytes of its OPTIONS section
+     */
+    private static void cutOptions(String path, int bytes) throws IOException {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(new File(path).toPath()));
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(rewritten);
+        output.writeInt(file.getInt());
+        output.writeInt(file.getInt());
+        while (file.hasRemaining()) {
+            int tag = file.getInt();
+            long length = file.getLong();
+            byte[] payload = new byte[(int) length];
+            file.get(payload);
+            if (tag == ModelWriter.OPTIONS)
+                payload = Arrays.copyOf(payload, payload.length - bytes);
+            output.writeInt(tag);
+            output.writeLong(payload.length);
+            output.write(payload);
+        }
+        FileOutputStream stream = new FileOutputStream(path);
+        try {
+            rewritten.writeTo(stream);
+        } finally {
+            stream.close();
+        }
+    }
+}
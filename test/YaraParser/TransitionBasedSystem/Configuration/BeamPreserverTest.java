@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Configuration;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the preserver with the sorted set of {@link BeamElement}s that the parser used before: add every candidate,
+ * drop the first (worst) element whenever the set holds more than the beam width, then read it in descending order
+ */
+public class BeamPreserverTest {
+    private static final int LABELS = 5;
+
+    private static ArrayList<BeamElement> keptBySortedSet(ArrayList<BeamElement> candidates, int beamWidth) {
+        TreeSet<BeamElement> set = new TreeSet<BeamElement>();
+        for (BeamElement candidate : candidates) {
+            set.add(candidate);
+            if (set.size() > beamWidth)
+                set.pollFirst();
+        }
+        return new ArrayList<BeamElement>(set.descendingSet());
+    }
+
+    private static void assertKept(ArrayList<BeamElement> expected, BeamPreserver preserver) {
+        preserver.sortDescending();
+        assertEquals(expected.size(), preserver.size());
+        for (int i = 0; i < expected.size(); i++) {
+            BeamElement element = expected.get(i);
+            assertEquals(element.score, preserver.score(i), 0f);
+            assertEquals(element.number, preserver.number(i));
+            assertEquals(element.action, preserver.action(i));
+            assertEquals(element.label, preserver.label(i));
+        }
+    }
+
+    /**
+     * Few distinct scores, beam indexes and actions, so that many candidates tie on the score and some are equal to
+     * others but for the label
+     */
+    private static ArrayList<BeamElement> tiedCandidates(Random random, int count) {
+        ArrayList<BeamElement> candidates = new ArrayList<BeamElement>();
+        for (int i = 0; i < count; i++)
+            candidates.add(new BeamElement(random.nextInt(4) * 0.5f, random.nextInt(3), random.nextInt(4), random.nextInt(LABELS)));
+        return candidates;
+    }
+
+    @Test
+    public void topKWithTiedScores() {
+        Random random = new Random(11);
+        BeamPreserver preserver = new BeamPreserver(0);
+        for (int round = 0; round < 2000; round++) {
+            int beamWidth = random.nextInt(10);
+            ArrayList<BeamElement> candidates = tiedCandidates(random, random.nextInt(60));
+            preserver.reset(beamWidth);
+            for (BeamElement candidate : candidates)
+                preserver.add(candidate);
+
+            assertEquals(candidates.size(), preserver.candidates());
+            assertEquals(candidates.size() - preserver.size(), preserver.rejected());
+            assertKept(keptBySortedSet(candidates, beamWidth), preserver);
+        }
+    }
+
+    @Test
+    public void wideBeam() {
+        Random random = new Random(19);
+        BeamPreserver preserver = new BeamPreserver(64);
+        int beamWidth = 64;
+        for (int round = 0; round < 200; round++) {
+            ArrayList<BeamElement> candidates = new ArrayList<BeamElement>();
+            for (int i = 0; i < 2000; i++)
+                candidates.add(new BeamElement(random.nextInt(50) * 0.25f - 6f, random.nextInt(64), random.nextInt(30), random.nextInt(LABELS)));
+            // a new width now and then, otherwise cleared as between the steps of a sentence
+            if (round % 4 == 0) {
+                beamWidth = 8 + random.nextInt(64);
+                preserver.reset(beamWidth);
+            } else {
+                preserver.clear();
+            }
+            for (BeamElement candidate : candidates)
+                preserver.add(candidate);
+            assertKept(keptBySortedSet(candidates, beamWidth), preserver);
+        }
+    }
+
+    @Test
+    public void labeledCandidates() {
+        Random random = new Random(13);
+        BeamPreserver preserver = new BeamPreserver(0);
+        float[] actionScores = new float[2 + LABELS];
+        for (int round = 0; round < 2000; round++) {
+            int beamWidth = 1 + random.nextInt(8);
+            preserver.reset(beamWidth);
+            ArrayList<BeamElement> candidates = new ArrayList<BeamElement>();
+            for (int number = 0; number < 3; number++) {
+                float prevScore = random.nextInt(3);
+                for (int action = 2; action <= 3; action++) {
+                    for (int label = 0; label < LABELS; label++) {
+                        actionScores[2 + label] = random.nextInt(4) - 1.5f;
+                        candidates.add(new BeamElement(actionScores[2 + label] + prevScore, number, action, label));
+                    }
+                    preserver.addLabeled(actionScores, 2, LABELS, prevScore, number, action);
+                }
+            }
+
+            assertEquals(candidates.size(), preserver.candidates());
+            assertEquals(candidates.size() - preserver.size(), preserver.rejected());
+            assertKept(keptBySortedSet(candidates, beamWidth), preserver);
+        }
+    }
+
+    @Test
+    public void mergedParts() {
+        Random random = new Random(17);
+        for (int round = 0; round < 1000; round++) {
+            int beamWidth = 1 + random.nextInt(8);
+            ArrayList<BeamElement> candidates = tiedCandidates(random, random.nextInt(60));
+            BeamPreserver first = new BeamPreserver(beamWidth);
+            BeamPreserver second = new BeamPreserver(beamWidth);
+            for (int i = 0; i < candidates.size(); i++)
+                (i < candidates.size() / 2 ? first : second).add(candidates.get(i));
+            first.merge(second);
+
+            assertEquals(candidates.size(), first.candidates());
+            assertEquals(candidates.size() - first.size(), first.rejected());
+            // the parts keep their best candidates, so the merge keeps the same ones as a single pass
+            BeamPreserver single = new BeamPreserver(beamWidth);
+            for (BeamElement candidate : candidates)
+                single.add(candidate);
+            single.sortDescending();
+            first.sortDescending();
+            assertEquals(single.size(), first.size());
+            for (int i = 0; i < single.size(); i++) {
+                assertEquals(single.score(i), first.score(i), 0f);
+                assertEquals(single.number(i), first.number(i));
+                assertEquals(single.action(i), first.action(i));
+            }
+        }
+    }
+}
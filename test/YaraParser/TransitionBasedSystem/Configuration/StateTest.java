@@ -0,0 +1,150 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Configuration;
+
+import YaraParser.TransitionBasedSystem.Parser.Actions;
+import YaraParser.TransitionBasedSystem.Parser.ArcEager;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives states with random legal transitions and checks after every one that what the state answers, from its stack
+ * nodes or from its tree, is what the arcs made so far give
+ */
+public class StateTest {
+    private static final int LABELS = 40;
+
+    /**
+     * The arcs of a state, in the order they were made, and what they say about each token
+     */
+    private static class Arcs {
+        final ArrayList<int[]> arcs = new ArrayList<int[]>();
+
+        Arcs copy() {
+            Arcs copy = new Arcs();
+            copy.arcs.addAll(arcs);
+            return copy;
+        }
+
+        int head(int token) {
+            for (int[] arc : arcs)
+                if (arc[0] == token)
+                    return arc[1];
+            return -1;
+        }
+
+        int label(int token) {
+            for (int[] arc : arcs)
+                if (arc[0] == token)
+                    return arc[2];
+            return -1;
+        }
+
+        int mostModifier(int head, boolean right) {
+            int most = -1;
+            for (int[] arc : arcs)
+                if (arc[1] == head && (right ? arc[0] > head && arc[0] > most : arc[0] < head && (most == -1 || arc[0] < most)))
+                    most = arc[0];
+            return most;
+        }
+
+        int valency(int head, boolean right) {
+            int valency = 0;
+            for (int[] arc : arcs)
+                if (arc[1] == head && (right ? arc[0] > head : arc[0] < head))
+                    valency++;
+            return valency;
+        }
+
+        long dependentLabels(int head, boolean right) {
+            long labels = 0;
+            for (int[] arc : arcs)
+                if (arc[1] == head && (right ? arc[0] > head : arc[0] < head))
+                    labels |= 1L << arc[2];
+            return labels;
+        }
+    }
+
+    private static void assertAgrees(Arcs arcs, State state, int size) {
+        for (int token = 0; token <= size; token++) {
+            String message = "token " + token;
+            assertEquals(message, arcs.head(token), state.getHead(token));
+            assertEquals(message, arcs.label(token), state.getDependency(token));
+            assertEquals(message, arcs.mostModifier(token, false), state.leftMostModifier(token));
+            assertEquals(message, arcs.mostModifier(token, true), state.rightMostModifier(token));
+            assertEquals(message, arcs.valency(token, false), state.leftValency(token));
+            assertEquals(message, arcs.valency(token, true), state.rightValency(token));
+            assertEquals(message, arcs.dependentLabels(token, false), state.leftDependentLabels(token));
+            assertEquals(message, arcs.dependentLabels(token, true), state.rightDependentLabels(token));
+        }
+    }
+
+    /**
+     * @return the number of unshifts
+     */
+    private static int randomParse(Random random, int size, boolean rootFirst) throws Exception {
+        State state = new State(size, rootFirst);
+        Arcs arcs = new Arcs();
+        int unshifts = 0;
+        for (int step = 0; !state.isTerminalState() && step < 10 * size + 10; step++) {
+            ArrayList<Actions> actions = new ArrayList<Actions>();
+            for (Actions action : Actions.values())
+                if (ArcEager.canDo(action, state))
+                    actions.add(action);
+            // as in the parser, unshift when nothing else can be done; it is also taken at random when it is legal
+            Actions action = actions.isEmpty() ? Actions.Unshift : actions.get(random.nextInt(actions.size()));
+
+            // the clone has to stay as it was, whatever happens to the state
+            State clone = state.clone();
+            Arcs cloneArcs = arcs.copy();
+            int label = random.nextInt(LABELS);
+            if (action == Actions.Shift) {
+                ArcEager.shift(state);
+            } else if (action == Actions.Reduce) {
+                ArcEager.reduce(state);
+            } else if (action == Actions.RightArc) {
+                arcs.arcs.add(new int[]{state.bufferHead(), state.peek(), label});
+                ArcEager.rightArc(state, label);
+            } else if (action == Actions.LeftArc) {
+                arcs.arcs.add(new int[]{state.peek(), state.bufferHead(), label});
+                ArcEager.leftArc(state, label);
+            } else {
+                ArcEager.unShift(state);
+                unshifts++;
+            }
+            assertAgrees(arcs, state, size);
+            assertAgrees(cloneArcs, clone, size);
+        }
+        return unshifts;
+    }
+
+    @Test
+    public void rootFirst() throws Exception {
+        Random random = new Random(23);
+        int unshifts = 0;
+        for (int sentence = 0; sentence < 500; sentence++)
+            unshifts += randomParse(random, 1 + random.nextInt(25), true);
+        assertTrue(unshifts > 0);
+    }
+
+    /**
+     * The root is the last token of the buffer, and the state is terminal once it is the only one left; until then
+     * the stack tokens can always be reduced or be left dependents of the root, so unshift is never legal
+     */
+    @Test
+    public void rootLast() throws Exception {
+        Random random = new Random(29);
+        int unshifts = 0;
+        for (int sentence = 0; sentence < 500; sentence++)
+            unshifts += randomParse(random, 1 + random.nextInt(25), false);
+        assertEquals(0, unshifts);
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Parser;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Metrics.ParserMetrics;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.Sentence;
+import YaraParser.TransitionBasedSystem.Configuration.Configuration;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import YaraParser.TransitionBasedSystem.Trainer.ArcEagerBeamTrainer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KBeamArcEagerParserTest {
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static InfStruct model;
+    private static KBeamArcEagerParser parser;
+    /**
+     * Scores the beams on four threads
+     */
+    private static KBeamArcEagerParser parallelParser;
+    private static GoldConfiguration[] golds;
+    private static Sentence[] sentences;
+
+    /**
+     * Trains a model for one iteration on the development part of the sample data
+     */
+    @BeforeClass
+    public static void trainModel() throws Exception {
+        Options options = new Options();
+        options.numOfThreads = 1;
+        options.beamWidth = 8;
+        IndexMaps maps = CoNLLReader.createIndices("sample_data/dev.conll", options.labeled, options.lowercase, "");
+        ArrayList<Integer> dependencyLabels = new ArrayList<Integer>(maps.getLabels().keySet());
+        int featureLength = 72;
+        ArrayList<GoldConfiguration> trainData = new CoNLLReader("sample_data/dev.conll").readData(Integer.MAX_VALUE,
+                false, options.labeled, options.rootFirst, options.lowercase, maps);
+        AveragedPerceptron perceptron = new AveragedPerceptron(featureLength, dependencyLabels.size(), 0);
+        ArcEagerBeamTrainer trainer = new ArcEagerBeamTrainer("max_violation", perceptron, options, dependencyLabels,
+                featureLength, maps);
+        trainer.trainIteration(trainData, 1, options.partialTrainingStartingIteration);
+
+        // saved and loaded, to parse with the frozen weights as the parser does
+        String path = folder.newFile().getPath();
+        new InfStruct(perceptron, maps, dependencyLabels, options).saveModel(path);
+        model = new InfStruct(path);
+        parser = KBeamArcEagerParser.createParser(model, 1);
+        parallelParser = KBeamArcEagerParser.createParser(model, 4);
+
+        ArrayList<GoldConfiguration> testData = new CoNLLReader("sample_data/test.conll").readData(Integer.MAX_VALUE,
+                true, options.labeled, options.rootFirst, options.lowercase, model.maps);
+        golds = testData.toArray(new GoldConfiguration[testData.size()]);
+        sentences = new Sentence[testData.size()];
+        for (int i = 0; i < sentences.length; i++)
+            sentences[i] = testData.get(i).getSentence();
+    }
+
+    @AfterClass
+    public static void closeParser() {
+        parser.close();
+        parallelParser.close();
+    }
+
+    private static void assertSameParse(Configuration expected, Configuration actual) {
+        assertEquals(expected.getActionHistory(), actual.getActionHistory());
+        assertEquals(expected.score, actual.score, 0f);
+        for (int word = 1; word <= expected.sentence.size(); word++) {
+            assertEquals(expected.state.getHead(word), actual.state.getHead(word));
+            assertEquals(expected.state.getDependency(word), actual.state.getDependency(word));
+        }
+    }
+
+    @Test
+    public void parallelParsesAsOneThread() throws Exception {
+        boolean rootFirst = model.options.rootFirst;
+        for (int beamWidth : new int[]{2, 8, 64}) {
+            for (int i = 0; i < sentences.length; i++) {
+                assertSameParse(parser.parse(sentences[i], rootFirst, beamWidth, 1),
+                        parallelParser.parse(sentences[i], rootFirst, beamWidth, 4));
+                assertSameParse(parser.parsePartial(golds[i], sentences[i], rootFirst, beamWidth, 1),
+                        parallelParser.parsePartial(golds[i], sentences[i], rootFirst, beamWidth, 4));
+            }
+        }
+    }
+
+    /**
+     * Several threads parse all the sentences with the same parser at the same time, each with the beams scored on
+     * its pool
+     */
+    @Test
+    public void sharedParser() throws Exception {
+        final boolean rootFirst = model.options.rootFirst;
+        final int beamWidth = 16;
+        Configuration[] expected = new Configuration[sentences.length];
+        for (int i = 0; i < sentences.length; i++)
+            expected[i] = parser.parse(sentences[i], rootFirst, beamWidth, 1);
+
+        int threads = 6;
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        ArrayList<Future<Configuration[]>> results = new ArrayList<Future<Configuration[]>>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                results.add(callers.submit(new Callable<Configuration[]>() {
+                    @Override
+                    public Configuration[] call() throws Exception {
+                        start.await();
+                        // each thread starts at another sentence, so that different sentences are parsed together
+                        Configuration[] parses = new Configuration[sentences.length];
+                        for (int j = 0; j < sentences.length; j++) {
+                            int i = (first + j) % sentences.length;
+                            parses[i] = parallelParser.parse(sentences[i], rootFirst, beamWidth, 4);
+                        }
+                        return parses;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Configuration[]> result : results) {
+                Configuration[] parses = result.get();
+                for (int i = 0; i < sentences.length; i++)
+                    assertSameParse(expected[i], parses[i]);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void batchParsesAsOneByOne() throws Exception {
+        int[] beamWidths = new int[sentences.length];
+        for (int i = 0; i < sentences.length; i++)
+            beamWidths[i] = new int[]{1, 4, 8, 64}[i % 4];
+        Configuration[] batch = parser.parseBatch(sentences, model.options.rootFirst, beamWidths);
+
+        assertEquals(sentences.length, batch.length);
+        for (int i = 0; i < sentences.length; i++)
+            assertSameParse(parser.parse(sentences[i], model.options.rootFirst, beamWidths[i], 1), batch[i]);
+    }
+
+    @Test
+    public void batchOfOne() throws Exception {
+        Configuration[] batch = parser.parseBatch(new Sentence[]{sentences[0]}, model.options.rootFirst, new int[]{8});
+        assertSameParse(parser.parse(sentences[0], model.options.rootFirst, 8, 1), batch[0]);
+    }
+
+    @Test
+    public void emptyBatch() throws Exception {
+        assertEquals(0, parser.parseBatch(new Sentence[0], model.options.rootFirst, new int[0]).length);
+    }
+
+    /**
+     * Parses the test file and returns the sentences, beam steps, candidates scored and rejected, and clones that it
+     * added to the metrics
+     */
+    private static long[] fileMetrics(int numThreads, int beamWidth, boolean partial, File output) throws Exception {
+        ParserMetrics metrics = ParserMetrics.get();
+        long[] before = {metrics.getSentences(), metrics.getBeamSteps(), metrics.getCandidatesScored(),
+                metrics.getCandidatesRejected(), metrics.getClones()};
+        parser.parseConllFile("sample_data/test.conll", output.getPath(), model.options.rootFirst, beamWidth,
+                model.options.labeled, model.options.lowercase, numThreads, partial, "");
+        return new long[]{metrics.getSentences() - before[0], metrics.getBeamSteps() - before[1],
+                metrics.getCandidatesScored() - before[2], metrics.getCandidatesRejected() - before[3],
+                metrics.getClones() - before[4]};
+    }
+
+    @Test
+    public void fileMetricsDoNotDependOnTheThreads() throws Exception {
+        ParserMetrics.enable();
+        try {
+            for (int beamWidth : new int[]{1, 8}) {
+                for (boolean partial : new boolean[]{false, true}) {
+                    File oneThread = folder.newFile();
+                    File twoThreads = folder.newFile();
+                    long[] expected = fileMetrics(1, beamWidth, partial, oneThread);
+                    assertEquals(sentences.length, expected[0]);
+                    assertTrue(expected[2] > 0 && expected[4] > 0);
+                    assertArrayEquals(expected, fileMetrics(2, beamWidth, partial, twoThreads));
+                    assertArrayEquals(Files.readAllBytes(oneThread.toPath()), Files.readAllBytes(twoThreads.toPath()));
+                }
+            }
+        } finally {
+            ParserMetrics.disable();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Trainer;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.InfStruct;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ArcEagerBeamTrainerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Trains on the development part of the sample data and saves the model
+     */
+    private File trainedModel(boolean hogwild, int iterations) throws Exception {
+        Options options = new Options();
+        options.numOfThreads = 1;
+        options.beamWidth = 8;
+        options.hogwild = hogwild;
+        IndexMaps maps = CoNLLReader.createIndices("sample_data/dev.conll", options.labeled, options.lowercase, "");
+        ArrayList<Integer> dependencyLabels = new ArrayList<Integer>(maps.getLabels().keySet());
+        int featureLength = 72;
+        ArrayList<GoldConfiguration> trainData = new CoNLLReader("sample_data/dev.conll").readData(Integer.MAX_VALUE,
+                false, options.labeled, options.rootFirst, options.lowercase, maps);
+        AveragedPerceptron perceptron = new AveragedPerceptron(featureLength, dependencyLabels.size(), 0);
+        ArcEagerBeamTrainer trainer = new ArcEagerBeamTrainer("max_violation", perceptron, options, dependencyLabels,
+                featureLength, maps);
+        for (int i = 1; i <= iterations; i++)
+            trainer.trainIteration(trainData, i, options.partialTrainingStartingIteration);
+
+        // the options are saved with the model; only the training mode differs
+        options.hogwild = false;
+        File model = folder.newFile();
+        new InfStruct(perceptron, maps, dependencyLabels, options).saveModel(model.getPath());
+        return model;
+    }
+
+    /**
+     * With one thread, hogwild training takes the sentences in order and averages every update with the number of
+     * its sample, as sequential training does
+     */
+    @Test
+    public void hogwildWithOneThreadTrainsAsSequential() throws Exception {
+        File sequential = trainedModel(false, 2);
+        File hogwild = trainedModel(true, 2);
+        assertArrayEquals(Files.readAllBytes(sequential.toPath()), Files.readAllBytes(hogwild.toPath()));
+    }
+}
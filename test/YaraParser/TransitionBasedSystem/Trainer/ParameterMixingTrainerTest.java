@@ -0,0 +1,207 @@
+/**
+ * Copyright 2014, Yahoo! Inc.
+ * Licensed under the terms of the Apache License 2.0. See LICENSE file at the project root for terms.
+ */
+
+package YaraParser.TransitionBasedSystem.Trainer;
+
+import YaraParser.Accessories.CoNLLReader;
+import YaraParser.Accessories.Options;
+import YaraParser.Learning.AveragedPerceptron;
+import YaraParser.Structures.ActionWeightMap;
+import YaraParser.Structures.HashedWeights;
+import YaraParser.Structures.IndexMaps;
+import YaraParser.Structures.InfStruct;
+import YaraParser.Structures.KeyedWeightTable;
+import YaraParser.Structures.ModelReader;
+import YaraParser.Structures.TrainableWeightTable;
+import YaraParser.Structures.WeightTable;
+import YaraParser.TransitionBasedSystem.Configuration.GoldConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParameterMixingTrainerTest {
+    private static final String TRAIN_FILE = "sample_data/dev.conll";
+    private static final int FEATURE_LENGTH = 72;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Options trainingOptions() {
+        Options options = new Options();
+        options.numOfThreads = 1;
+        options.beamWidth = 8;
+        return options;
+    }
+
+    private static IndexMaps maps(Options options) throws Exception {
+        return CoNLLReader.createIndices(TRAIN_FILE, options.labeled, options.lowercase, "");
+    }
+
+    private static ArrayList<GoldConfiguration> readData(boolean keepNonProjective, Options options, IndexMaps maps)
+            throws Exception {
+        return new CoNLLReader(TRAIN_FILE).readData(Integer.MAX_VALUE, keepNonProjective, options.labeled,
+                options.rootFirst, options.lowercase, maps);
+    }
+
+    private static float[] arcScores(WeightTable table, boolean rightArc, int slot, int labels) {
+        float[] scores = new float[labels];
+        if (slot != -1)
+            table.addArcWeights(rightArc, slot, scores, 0);
+        return scores;
+    }
+
+    /**
+     * Checks that the tables give the same weights to every feature of either of them; a feature missing from a
+     * table has zero weights there
+     */
+    private static void assertSameWeights(WeightTable[] expectedTables, WeightTable[] actualTables, int labels) {
+        KeyedWeightTable[] expected = InfStruct.keyedWeights(expectedTables);
+        KeyedWeightTable[] actual = InfStruct.keyedWeights(actualTables);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            HashSet<Long> keys = new HashSet<Long>();
+            for (long key : expected[i].keys())
+                keys.add(key);
+            for (long key : actual[i].keys())
+                keys.add(key);
+            for (long key : keys) {
+                String message = "slot " + i + ", feature " + key;
+                int expectedSlot = expected[i].indexOf(key);
+                int actualSlot = actual[i].indexOf(key);
+                assertEquals(message, expectedSlot == -1 ? 0f : expected[i].shiftWeight(expectedSlot),
+                        actualSlot == -1 ? 0f : actual[i].shiftWeight(actualSlot), 0f);
+                assertEquals(message, expectedSlot == -1 ? 0f : expected[i].reduceWeight(expectedSlot),
+                        actualSlot == -1 ? 0f : actual[i].reduceWeight(actualSlot), 0f);
+                for (boolean rightArc : new boolean[]{true, false})
+                    assertArrayEquals(message, arcScores(expected[i], rightArc, expectedSlot, labels),
+                            arcScores(actual[i], rightArc, actualSlot, labels), 0f);
+            }
+        }
+    }
+
+    /**
+     * With one shard, the worker trains on all the projective sentences from the empty mixed weights, and the model
+     * of the first iteration is its averaged weights: the same as one iteration of sequential training
+     */
+    @Test
+    public void oneShardTrainsAsSequential() throws Exception {
+        Options options = trainingOptions();
+        IndexMaps maps = maps(options);
+        ArrayList<Integer> dependencyLabels = new ArrayList<Integer>(maps.getLabels().keySet());
+
+        AveragedPerceptron perceptron = new AveragedPerceptron(FEATURE_LENGTH, dependencyLabels.size(), 0);
+        new ArcEagerBeamTrainer("max_violation", perceptron, options, dependencyLabels, FEATURE_LENGTH, maps)
+                .trainIteration(readData(false, options, maps), 1, options.partialTrainingStartingIteration);
+        File sequential = folder.newFile();
+        new InfStruct(perceptron, maps, dependencyLabels, options).saveModel(sequential.getPath());
+
+        String modelPath = new File(folder.getRoot(), "mixed").getPath();
+        new ParameterMixingTrainer(options, maps, dependencyLabels, FEATURE_LENGTH)
+                .train(TRAIN_FILE, "", 1, modelPath, options.lowercase, new HashSet<String>());
+
+        assertSameWeights(ModelReader.read(sequential.getPath()).averagedFeatureWeights,
+                ModelReader.read(modelPath + "_iter1").averagedFeatureWeights, dependencyLabels.size());
+        // the mixed weights and the worker files are gone, only the model is left
+        for (String name : folder.getRoot().list())
+            assertTrue(name, !name.startsWith("mixed") || name.equals("mixed_iter1"));
+    }
+
+    /**
+     * The projective sentences are dealt to the shards in turn, in the order of the file
+     */
+    @Test
+    public void shardsDealTheProjectiveSentences() throws Exception {
+        Options options = trainingOptions();
+        IndexMaps maps = maps(options);
+        ArrayList<GoldConfiguration> projective = readData(false, options, maps);
+        // the file has non-projective sentences, which are not dealt
+        assertTrue(readData(true, options, maps).size() > projective.size());
+
+        for (int shards = 1; shards <= 4; shards++) {
+            ArrayList<ArrayList<GoldConfiguration>> dealt = new ArrayList<ArrayList<GoldConfiguration>>();
+            for (int s = 0; s < shards; s++)
+                dealt.add(ParameterMixingTrainer.readShard(TRAIN_FILE, shards, s, options, maps));
+            int size = 0;
+            for (int s = 0; s < shards; s++)
+                size += dealt.get(s).size();
+            assertEquals(projective.size(), size);
+            for (int i = 0; i < projective.size(); i++) {
+                GoldConfiguration expected = projective.get(i);
+                GoldConfiguration actual = dealt.get(i % shards).get(i / shards);
+                assertArrayEquals(expected.getSentence().getWords(), actual.getSentence().getWords());
+                assertEquals(expected.getGoldDependencies(), actual.getGoldDependencies());
+            }
+        }
+    }
+
+    @Test
+    public void addScalesTheOtherWeights() {
+        ActionWeightMap[] weights = {new ActionWeightMap(16, 3), new ActionWeightMap(16, 3)};
+        ActionWeightMap[] other = {new ActionWeightMap(16, 3), new ActionWeightMap(16, 3)};
+        weights[0].addShiftWeight(5L, 1f);
+        weights[1].addArcWeight(true, 7L, 2, 2f);
+        other[0].addShiftWeight(5L, 4f);
+        other[0].addReduceWeight(6L, -2f);
+        other[1].addArcWeight(true, 7L, 2, 4f);
+        other[1].addArcWeight(false, 7L, 0, 8f);
+
+        ParameterMixingTrainer.add(weights, other, 0.5f);
+        assertEquals(3f, weights[0].shiftWeight(weights[0].indexOf(5L)), 0f);
+        assertEquals(-1f, weights[0].reduceWeight(weights[0].indexOf(6L)), 0f);
+        assertArrayEquals(new float[]{0f, 0f, 4f}, arcScores(weights[1], true, weights[1].indexOf(7L), 3), 0f);
+        assertArrayEquals(new float[]{4f, 0f, 0f}, arcScores(weights[1], false, weights[1].indexOf(7L), 3), 0f);
+        // the other weights are left as they are
+        assertEquals(4f, other[0].shiftWeight(other[0].indexOf(5L)), 0f);
+    }
+
+    @Test
+    public void addScalesTheOtherHashedWeights() {
+        TrainableWeightTable[] weights = new HashedWeights(10, 3).tables(2);
+        TrainableWeightTable[] other = new HashedWeights(10, 3).tables(2);
+        weights[0].addShiftWeight(5L, 1f);
+        other[0].addShiftWeight(5L, 4f);
+        other[1].addArcWeight(false, 7L, 1, 6f);
+
+        ParameterMixingTrainer.add(weights, other, 0.25f);
+        assertEquals(2f, weights[0].shiftWeight(weights[0].indexOf(5L)), 0f);
+        assertArrayEquals(new float[]{0f, 1.5f, 0f}, arcScores(weights[1], false, weights[1].indexOf(7L), 3), 0f);
+    }
+
+    /**
+     * The saved model is the sum of the averaged weights of the iterations divided by their number
+     */
+    @Test
+    public void averagedWeightsDivideTheSumByTheIterations() {
+        for (int hashBits : new int[]{0, 10}) {
+            Options options = trainingOptions();
+            options.hashBits = hashBits;
+            ArrayList<Integer> dependencyLabels = new ArrayList<Integer>();
+            for (int label = 0; label < 3; label++)
+                dependencyLabels.add(label);
+            ParameterMixingTrainer trainer = new ParameterMixingTrainer(options, null, dependencyLabels, 2);
+
+            TrainableWeightTable[] sum = hashBits > 0 ? new HashedWeights(hashBits, 3).tables(2)
+                    : new TrainableWeightTable[]{new ActionWeightMap(16, 3), new ActionWeightMap(16, 3)};
+            sum[0].addShiftWeight(5L, 6f);
+            sum[1].addReduceWeight(7L, -3f);
+            sum[1].addArcWeight(true, 7L, 1, 9f);
+
+            TrainableWeightTable[] averaged = trainer.averagedWeights(sum, 3);
+            assertEquals(2f, averaged[0].shiftWeight(averaged[0].indexOf(5L)), 0f);
+            assertEquals(-1f, averaged[1].reduceWeight(averaged[1].indexOf(7L)), 0f);
+            assertArrayEquals(new float[]{0f, 3f, 0f}, arcScores(averaged[1], true, averaged[1].indexOf(7L), 3), 0f);
+            // the sum goes on over the next iterations
+            assertEquals(6f, sum[0].shiftWeight(sum[0].indexOf(5L)), 0f);
+        }
+    }
+}